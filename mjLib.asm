@@ -9,6 +9,12 @@
 # modified 7 March 2016
 # modified 11 May - 31 June 2017
 # status: allegedly debugged
+###############################################################
+# Parts of this file are for only some kinds of generated code:
+# - MAPS (the compiler's -maps): ints have no GC tags, and the
+#   collector finds the pointers on the stack through stack maps
+# - GEN (the compiler's -gen): the collector is generational, with
+#   a nursery and a remembered set (see doGC)
 ###############################################################
 
 	.text
@@ -28,12 +34,16 @@ hashCode_Object:
 	# for now, we'll return the -8 offset word, shifted/added to
 	# itself, then XORed with a fixed "random" value
 	lw $t0,($sp) # get object
+#ifndef MAPS
 	subu $sp,4 # open up space on stack for addition byte for integer
+#endif
 	lw $t0,-8($t0) # get word with hash bits
 	srl $t1,$t0,11 # shift/add ...
 	addu $t0,$t1 # ... to introduce more "randomness"
 	sw $t0,($sp)
+#ifndef MAPS
 	sw $s5,4($sp) 
+#endif
 	jr $ra # return
 
 ###############################################################
@@ -92,9 +102,13 @@ loop_hashCode_String:
 	addu $t0,1 # go to next character's address
 	bne $t0,$t1,loop_hashCode_String # loop back if more
 done_hashCode_String:	
+#ifdef MAPS
+	sw $t2,($sp) # value, replacing the object
+#else
 	subu $sp,4 # open up space on stack and store value
 	sw $t2,($sp) # value
 	sw $s5,4($sp) # GC tag
+#endif
 	jr $ra # return
 
 ###############################################################
@@ -126,6 +140,15 @@ toString_Object:
 	lw $t2,-12($s2) # vtable address
 	lw $t0,($t2) # method address
 	jalr $t0
+#ifdef MAPS
+gcLib_toString1:
+	# the hash value is one word; put a GC tag above it, so that
+	# the stack looks as it does below
+	subu $sp,4
+	lw $t0,4($sp)
+	sw $t0,($sp)
+	sw $s5,4($sp)
+#endif
 
 	# compute print-size of hash value
 	li $t0, 1
@@ -178,6 +201,9 @@ toString_checkTagBit:
 	
 	# allocate the object
 	jal newObject
+#ifdef MAPS
+gcLib_toString2:
+#endif
 		
 	################################################################
 	# at this point, the stack looks like (from top):
@@ -294,7 +320,12 @@ equals_String:
 	jal compareTo_String
 
 	# return value is 1 iff result is 0; else 0
+#ifdef MAPS
+	subu $sp,4 # (the result is one word, not two)
+	lw $t0,4($sp)
+#else
 	lw $t0,($sp)
+#endif
 	seq $t0,$t0,$zero
 
 	# unwind stack and return
@@ -415,6 +446,9 @@ readLine_Lib:
 	srl $s6,$s6,2 # data words in object
 	move $s7,$zero # # object words in object
 	jal newObject # allocate space
+#ifdef MAPS
+gcLib_readLine:
+#endif
 	
 	# store header words
 	la $t0,CLASS_String
@@ -541,9 +575,14 @@ readInt_Lib:
 	lw $ra,($sp)
 	mult $t3,$t4 # multiply to account for poss. minus sign
 	mflo $t3
+#ifdef MAPS
+	addu $sp,$sp,4 # (no GC tag)
+	sw $t3,($sp) # result
+#else
 	sw $t3,($sp) # result
 	sw $s5,4($sp) # dummy GC tag
 	#lw $zero,4($sp)#**"" #--FOR MEMORY TAGGING
+#endif
 	
 	# return
 	jr $ra
@@ -571,8 +610,12 @@ readChar_Lib:
 	# restore return address; put value (and dummy GC tag),
 	# replacing this-pointer saved return address
 	lw $ra,($sp)
+#ifdef MAPS
+	addu $sp,$sp,4 # (no GC tag)
+#else
 	sw $s5,4($sp)
 	#lw $zero,4($sp)#**"" #--FOR MEMORY TAGGING
+#endif
 	sw $v0,($sp)
 
 	# return
@@ -642,7 +685,11 @@ skipPrintStr2:
 printInt_Lib:
 	# pop value off stack, along with 'this'
 	lw $a0,($sp)
+#ifdef MAPS
+	addu $sp,$sp,8 # (no GC tag)
+#else
 	addu $sp,$sp,12
+#endif
 
 	# print it
 	li $v0,1 # code for print-int
@@ -687,6 +734,15 @@ printBool_Lib:
 #  - ($sp) - substring
 ########################################################
 substring_String:
+#ifdef MAPS
+	# the ints have no GC tags; move them so that the stack
+	# looks as above
+	subu $sp,$sp,8
+	lw $t0,8($sp) # k
+	lw $t1,12($sp) # n
+	sw $t0,($sp)
+	sw $t1,8($sp)
+#endif
 
 	# save $ra by pushing onto stack
 	subu $sp,$sp,4
@@ -712,6 +768,9 @@ substring_String:
 	srl $s6,$s6,2 # convert bytes-count to word-count
 	move $s7,$zero # (no object-bytes in string)
 	jal newObject
+#ifdef MAPS
+gcLib_substring:
+#endif
 
 	# store "String" tag in object-type field
 	la $t0,CLASS_String
@@ -785,12 +844,14 @@ length_String:
 	# get string pointer
 	lw $t0,($sp)
 	
+#ifndef MAPS
 	# grow stack
 	subu $sp,$sp,4
 
 	# store GC tag
 	sw $s5,4($sp)
 	#lw $zero,4($sp)#**"" #--FOR MEMORY TAGGING
+#endif
 
 	# push length onto stack
 	lw $t0,-4($t0) # -length
@@ -830,6 +891,9 @@ concat_String:
 	addu $s6,$s6,1 # data word size, including v-table word
 	move $s7,$zero
 	jal newObject
+#ifdef MAPS
+gcLib_concat:
+#endif
 
 	# store String vtable address in vtable address field
 	la $t0,CLASS_String
@@ -939,7 +1003,11 @@ skipMask_concat:
 ########################################################
 charAt_String:
 	# get string
+#ifdef MAPS
+	lw $t0,4($sp) # (no GC tag)
+#else
 	lw $t0,8($sp)
+#endif
 
 	# check that index is in bounds
 	lw $t1,-4($t0) # negative of # data words in string
@@ -957,8 +1025,10 @@ charAt_String:
 	# pop elements off stack, pushing rtnVal
 	addu $sp,$sp,4
 	sw $t0,($sp)
+#ifndef MAPS
 	sw $s5,4($sp)
 	#lw $zero,4($sp)#**"" #--FOR MEMORY TAGGING
+#endif
 
 	# return
 	jr $ra
@@ -1031,6 +1101,9 @@ intToString_Lib:
 	srl $s6,$s6,2
 	move $s7,$zero # no "object" words in object
 	jal newObject
+#ifdef MAPS
+gcLib_intToString:
+#endif
 
 	# restore char-count; pop it and return value from 'newObject'
 	lw $t0,4($sp)
@@ -1082,7 +1155,11 @@ skipMask_intToString:
 
 	# adjust stack, restore return address; return
 	lw $ra,4($sp)
+#ifdef MAPS
+	addu $sp,$sp,12 # (no GC tag)
+#else
 	addu $sp,$sp,16
+#endif
 	addu $t0,$t0,15
 	and $t0,$t0,0xfffffffc
 	sw $t0,($sp)
@@ -1108,12 +1185,19 @@ intToChar_Lib:
 	li $s6,2
 	move $s7,$zero
 	jal newObject
+#ifdef MAPS
+gcLib_intToChar:
+#endif
 
 	# restore $ra, get 'n', popping then and 'newObject' rtnVal
 	# off stack
 	lw $ra,4($sp)
 	lw $t1,8($sp)
+#ifdef MAPS
+	addu $sp,$sp,12 # (no GC tag)
+#else
 	addu $sp,$sp,16
+#endif
 
 	# store "String" tag into class field
 	la $t0,CLASS_String
@@ -1222,9 +1306,14 @@ compareTo_String:
 	sll $t5,$t5,1 # 2 if str2 > str1, else 0
 	subu $t5,$t5,1 # 1 if str2 > str1, else -1
   cmpHitLimitzz:
+#ifdef MAPS
+	addu $sp,$sp,4 # (no GC tag)
+	sw $t5,($sp) # store value
+#else
 	sw $t5,($sp) # store value
 	sw $s5,4($sp) # GC tag
 	#lw $zero,4($sp)#**"" #--FOR MEMORY TAGGING
+#endif
 	jr $ra # return
 
 ########################################################
@@ -1327,14 +1416,9 @@ newObject:
 	#  $s3 points to beginning of segment, and
 	#  $t1 points just past the end
 
-	# zero out the memory
-	move $t2,$s3
-  zeroObjLoop:
-	sw $zero,($s3)
-	#lw $zero,($s3)#**"" #--FOR MEMORY TAGGING	
-
-	addu $s3,4
-	bltu $s3,$t1,zeroObjLoop
+	# take the memory, which is already zero: the free space is
+	# kept cleared (see gcClear)
+	move $s3,$t1
 
 	# at this point:
 	#  $s3 has been updated to point to the next free slot,
@@ -1371,6 +1455,11 @@ firstHeaderLarge:
 	move $s7,$t0
 	subu $sp,$sp,4
 	sw $t0,($sp)
+#ifdef GEN
+
+	# if we allocated in the old space, go back to the nursery
+	blt $t5,$zero,gcOldAllocDone
+#endif
 
 	jr $ra
 	
@@ -1385,6 +1474,15 @@ firstHeaderLarge:
 #         li $v0,4 # syscall-code for print-string 
 #         syscall 
  	  
+#ifdef GEN
+	# if an allocation in the old space did not fit, go do a major
+	# collection; an object too big for the nursery goes in the old
+	# space
+	blt $t5,$zero,gcOldFull
+	lw $t1,gcBigObject
+	bgtu $t0,$t1,gcAllocOld
+  gcCollect:
+#endif
 
 	# if we've already done a GC for this allocation, then
 	# we are actually out heap-memory: abort program
@@ -1399,22 +1497,81 @@ firstHeaderLarge:
 	# so that the garbage collector processes it
 	subu $sp,$sp,4
 	sw $s2,($sp)
+#ifdef MAPS
+	# and $ra, the return address into the code that called
+	# newObject, where the walk of the stack's frames begins
+	subu $sp,$sp,4
+	sw $ra,($sp)
+#endif
+#ifdef GEN
+
+	###############################################################
+	# The generational collector allocates in a nursery, above both
+	# semispaces; the current semispace is the old space.  A minor
+	# collection copies what is live in the nursery to the top of the
+	# old space.  Its roots are the stack and the remembered set: the
+	# slots in the old space that the write barrier in the generated
+	# code saw get a pointer into the nursery.  A major collection
+	# copies the old space and the nursery together into the other
+	# semispace, with the code below as is; it needs no remembered
+	# set.  (Its source range also takes in the target semispace when
+	# that is seg1, but no pointer into the target is seen before the
+	# collection is over.)  Allocations in the old space stop
+	# nursery-size bytes short of its end, so that a major collection
+	# always fits.
+	###############################################################
+
+	# (where allocation in the nursery stopped, for clearing it)
+	sw $s3,gcNurseryTop
+
+	# do a major collection if one was called for, or if what is in
+	# the nursery might not fit in the old space
+	lw $t0,gcMajorNext
+	bne $t0,$zero,gcMajor
+	lw $t0,gcOldTop
+	lw $t1,gcNursery
+	subu $t1,$s3,$t1 # bytes used in the nursery
+	addu $t0,$t0,$t1
+	lw $t1,gcOldEnd
+	bgtu $t0,$t1,gcMajor
+
+	# minor collection: the source is the nursery (up to $s3), and the
+	# target is the top of the old space
+	lw $t6,gcNursery
+	move $t7,$s3
+	lw $s3,gcOldTop
+	lw $s4,gcOldEnd
+	j skipGc1
+
+  gcMajor:
+	# the remembered set is not needed
+	sw $zero,gcMajorNext
+	la $t0,gcRemSet
+	sw $t0,gcRemTop
+	lw $t0,gcMajorCount
+	addu $t0,1
+	sw $t0,gcMajorCount
+#endif
 
 	# set $s3 to the address of the new segment and the
 	# end-limit of the new segment, respectively,
 	# Also, update cur_seg to refer to the other segment
 	lw $t0,cur_seg
 	move $t7,$s4
-	la $t6,seg1_start
-	la $s3,seg0_start
-	la $s4,seg0_end
+	lw $t6,seg1_start
+	lw $s3,seg0_start
+	lw $s4,seg0_end
 	sw $zero,cur_seg
 	bne $t0,$zero,skipGc1
-	la $t6,seg0_start
-	la $s3,seg1_start
-	la $s4,seg1_end
+	lw $t6,seg0_start
+	lw $s3,seg1_start
+	lw $s4,seg1_end
 	sw $s5,cur_seg
   skipGc1:
+#ifdef GEN
+	sw $s3,gcScanStart # where the heap phase starts, below
+	move $t9,$zero # (not processing the remembered set)
+#endif
 	li $t5,0x80000000
 	lw $t0,stack_bottom
 	subu $t0,4
@@ -1440,6 +1597,83 @@ firstHeaderLarge:
 	# - $t5 contains the value 0x80000000
 	###############################################################
 
+#ifdef MAPS
+	###############################################################
+	# With stack maps, there are no GC tags on the stack.  Instead,
+	# the stack is walked one frame at a time, from the top, and
+	# only the slots that the frame's map lists are processed.
+	# The map for a frame is found by the return address into its
+	# code--the address just after the call that was in progress
+	# when the GC happened.  A map is the words:
+	# - the return address
+	# - the frame's size: the number of bytes from the frame's
+	#   top to the top of the frame below it
+	# - the offset in the frame of the next return address, or -1
+	#   if the frame is the main program's, which is the last
+	# - the number of slots in the frame that may hold pointers
+	# - the offset of each of those slots
+	# A negative size is for a library frame with a variable number
+	# of words, given by its top word: the size is the negation of
+	# the given size plus four times that number, and four times
+	# that number is added to the return-address offset.
+	# The first frame is our own, with the saved $ra and $s2.
+	# During the walk:
+	# - $a0 contains the address of the current frame
+	# - $a1 contains the address of the next slot offset in its map
+	# - $a2 contains the number of slot offsets left
+	# - $v0 contains the frame's size
+	# - $v1 contains the frame's return-address offset
+	###############################################################
+	la $a1,gcRootMap
+	move $a0,$sp
+  gcMapFound:
+	lw $v0,4($a1) # frame size
+	lw $v1,8($a1) # return-address offset
+	lw $a2,12($a1) # number of pointer slots
+	addu $a1,$a1,16
+	bge $v0,$zero,gcMapNextSlot
+	lw $t1,($a0) # number of words in a variable-sized frame
+	sll $t1,$t1,2
+	subu $v0,$t1,$v0
+	addu $v1,$v1,$t1
+
+  gcMapNextSlot:
+	# process the next slot, if any, using the code below
+	beq $a2,$zero,gcMapNextFrame
+	subu $a2,$a2,1
+	lw $t0,($a1) # slot offset
+	addu $a1,$a1,4
+	addu $t0,$t0,$a0 # slot address
+	lw $t1,($t0) # slot contents
+	subu $t0,$t0,4 # (as if the stack-address pointer had been bumped)
+	j gcForwardSlot
+
+  gcMapNextFrame:
+	# find the map for the next frame
+	blt $v1,$zero,gcStackDone # the main program's frame was the last
+	addu $t0,$a0,$v1
+	lw $a3,($t0) # return address
+	addu $a0,$a0,$v0 # next frame
+	la $a1,gcMaps
+	la $a2,gcMapsEnd
+  gcMapSearch:
+	bgeu $a1,$a2,gcMapSearchEnd
+	lw $t0,($a1)
+	beq $t0,$a3,gcMapFound
+	lw $t0,12($a1) # skip the map
+	sll $t0,$t0,2
+	addu $a1,$a1,$t0
+	addu $a1,$a1,16
+	j gcMapSearch
+  gcMapSearchEnd:
+	# not a call in the generated code; try this library's
+	la $t0,gcLibMapsEnd
+	beq $a2,$t0,gcNoStackMap
+	la $a1,gcLibMaps
+	move $a2,$t0
+	j gcMapSearch
+
+#endif
 	###### begin outer loop to copy all stack-direct objects ######
 
   gcStackCopyLoop:
@@ -1451,6 +1685,13 @@ firstHeaderLarge:
 
 	# bump stack-address pointer
 	subu $t0,$t0,4
+#ifdef MAPS
+  gcForwardSlot:
+#else
+#ifdef GEN
+  gcForwardSlot:
+#endif
+#endif
 
 	# if value is out of range (which includes null=0), and is
 	# therefore does not refer to an object on the heap, just go
@@ -1554,9 +1795,34 @@ firstHeaderLarge:
 	subu $t0,$t0,3
 
   gcTestIterDone1:
+#ifdef GEN
+	bne $t9,$zero,gcRemNextSlot
+#endif
+#ifdef MAPS
+	j gcMapNextSlot
+#endif
 	bgeu $t0,$sp,gcStackCopyLoop
 
 	###### end outer loop to copy all stack-direct objects ######
+#ifdef MAPS
+  gcStackDone:
+#endif
+#ifdef GEN
+
+	# the slots in the remembered set are roots too (it is empty for
+	# a major collection); each goes through the code above, with $t9
+	# pointing to the next one in the set
+	la $t9,gcRemSet
+  gcRemNextSlot:
+	lw $t0,gcRemTop
+	bgeu $t9,$t0,gcRemDone
+	lw $t0,($t9) # slot address
+	addu $t9,$t9,4
+	lw $t1,($t0) # slot contents
+	subu $t0,$t0,4 # (as if the stack-address pointer had been bumped)
+	j gcForwardSlot
+  gcRemDone:
+#endif
 
 	#############################################################
 	# We have finished processing the stack elements.  Now we need
@@ -1593,10 +1859,14 @@ firstHeaderLarge:
 	##########################################################
 
 	# set $t0 to be at the beginning of target-space
+#ifdef GEN
+	lw $t0,gcScanStart # (the old top, for a minor collection)
+#else
 	lw $t1,cur_seg
-	la $t0,seg0_start
+	lw $t0,seg0_start
 	beq $t1,$zero,gcSkip4
-	la $t0,seg1_start
+	lw $t0,seg1_start
+#endif
 
 	##################################
 	# TEMPORARY HACK TO EXERCISE GC
@@ -1810,14 +2080,264 @@ gcSkip4a:
 
   gcFinishUp:
 	# restore $s2 to its updated value by popping off stack
+#ifdef MAPS
+	lw $s2,4($sp)
+	addu $sp,$sp,8 # (and $ra)
+#else
 	lw $s2,($sp)
 	addu $sp,$sp,4
+#endif
+#ifdef GEN
+
+	# the old space now ends where the copying stopped; after a
+	# major collection, the rest of it is cleared (after a minor
+	# one, $s4 is gcOldEnd, and the rest is still clear)
+	sw $s3,gcOldTop
+	lw $t0,gcOldEnd
+	beq $s4,$t0,gcClearedOld
+	move $t0,$s3
+	move $t1,$s4
+	la $t9,gcClearedOld
+	j gcClear
+  gcClearedOld:
+
+	# abort if there is not room left in the old space for a
+	# nursery's worth
+	lw $t0,cur_seg
+	lw $t1,seg0_end
+	beq $t0,$zero,gcSkip7
+	lw $t1,seg1_end
+  gcSkip7:
+	lw $t0,gcNurserySize
+	subu $t1,$t1,$t0
+	sw $t1,gcOldEnd
+	bgtu $s3,$t1,outOfHeapMemory
+
+	# the nursery and the remembered set are now empty; the part of
+	# the nursery that was used is cleared
+	lw $t0,gcNursery
+	lw $t1,gcNurseryTop
+	la $t9,gcClearedNursery
+	j gcClear
+  gcClearedNursery:
+	lw $s3,gcNursery
+	lw $s4,gcNurseryEnd
+	la $t0,gcRemSet
+	sw $t0,gcRemTop
+
+	# if the object is too big for the nursery, go back to
+	# allocating it in the old space
+	addu $t0,$s6,$s7
+	sll $t0,$t0,2
+	addu $t0,$t0,8
+	lw $t1,gcBigObject
+	li $t5,-2 # (a second try)
+	bgtu $t0,$t1,gcAllocOld2
+#endif
 
 	# mark us as having already GC'd
 	move $t5,$s5
+#ifndef GEN
+
+	###############################################################
+	# Resize the semispaces for what survived.  The size doubles
+	# while what is in use once the object is allocated is over
+	# half of it, and halves if that is under an eighth of it, but
+	# not below the starting size nor above gcMaxSemiSize.  The
+	# other semispace, the target of the next GC, gets the new
+	# size, by growing in place if it is at the top of what sbrk
+	# has given out, or else from a new sbrk (its old memory is
+	# then not used again).  The current one gets it too, if it
+	# has the memory or is at the top; if it cannot, and the
+	# object does not fit, the object may have another GC, into
+	# the other one.
+	# - $t3 points to the current semispace's start/end/max words
+	# - $t7 points to the other one's
+	###############################################################
+	la $t3,seg0_start
+	la $t7,seg1_start
+	lw $t0,cur_seg
+	beq $t0,$zero,gcSkip9
+	la $t3,seg1_start
+	la $t7,seg0_start
+  gcSkip9:
+	addu $t0,$s6,$s7
+	sll $t0,$t0,2
+	addu $t0,$t0,8 # amount of memory needed
+	addu $t0,$t0,$s3
+	lw $t1,($t3)
+	subu $t0,$t0,$t1 # bytes in use once allocated
+
+	# $t1 <- the new size
+	lw $t1,gcSemiSize
+	lw $t6,gcMaxSemiSize
+	sll $t2,$t0,1
+  gcGrowLoop:
+	bleu $t2,$t1,gcGrowDone
+	bgeu $t1,$t6,gcGrowDone
+	sll $t1,$t1,1
+	j gcGrowLoop
+  gcGrowDone:
+	bleu $t1,$t6,gcSkip10
+	move $t1,$t6
+  gcSkip10:
+	sll $t2,$t0,3
+	bgeu $t2,$t1,gcSized
+	srl $t2,$t1,1
+	and $t2,$t2,-8
+	lw $t6,gcMinSemiSize
+	bltu $t2,$t6,gcSized
+	move $t1,$t2
+  gcSized:
+	sw $t1,gcSemiSize
+
+	# the current semispace
+	lw $t2,($t3)
+	addu $t2,$t2,$t1 # where its allocation would end
+	lw $t4,8($t3)
+	move $t8,$t4 # (memory past this is new from sbrk, and zero)
+	bleu $t2,$t4,gcCurSized
+	move $a0,$zero
+	li $v0,9 # syscall-code for sbrk (of 0: the top)
+	syscall
+	bne $v0,$t4,gcCurStuck
+	subu $a0,$t2,$t4
+	li $v0,9 # syscall-code for sbrk
+	syscall
+	sw $t2,8($t3)
+	j gcCurSized
+  gcCurStuck:
+	move $t2,$t4
+	move $t5,$zero # (another GC is allowed)
+  gcCurSized:
+	sw $t2,4($t3)
+	move $s4,$t2
+
+	# the other semispace
+	lw $t2,($t7)
+	lw $t4,8($t7)
+	subu $t0,$t4,$t2 # bytes it has
+	bgeu $t0,$t1,gcOtherSized
+	move $a0,$zero
+	li $v0,9 # syscall-code for sbrk (of 0: the top)
+	syscall
+	subu $a0,$t1,$t0
+	beq $v0,$t4,gcOtherGrow
+	move $a0,$t1
+	move $t2,$v0
+	sw $t2,($t7)
+  gcOtherGrow:
+	li $v0,9 # syscall-code for sbrk
+	syscall
+	addu $t4,$t2,$t1
+	sw $t4,8($t7)
+  gcOtherSized:
+	addu $t2,$t2,$t1
+	sw $t2,4($t7)
+
+	# clear the free part of the current semispace
+	move $t0,$s3
+	move $t1,$s4
+	bleu $t1,$t8,gcSkip11
+	move $t1,$t8
+  gcSkip11:
+	la $t9,gcClearedSemi
+	j gcClear
+  gcClearedSemi:
+#endif
 
 	# go try and allocate again
 	j gcJoin
+#ifdef GEN
+
+  gcAllocOld:
+	# allocate in the old space, by pointing $s3 and $s4 at it until
+	# the allocation is done; $t5 is negative meanwhile
+	li $t5,-1
+  gcAllocOld2:
+	sw $s3,gcNurseryTop
+	lw $s3,gcOldTop
+	lw $s4,gcOldEnd
+	j gcJoin
+
+  gcOldAllocDone:
+	# back to allocating in the nursery
+	sw $s3,gcOldTop
+	lw $s3,gcNurseryTop
+	lw $s4,gcNurseryEnd
+	jr $ra
+
+  gcOldFull:
+	# the object did not fit in the old space: go back to the
+	# nursery, and do a major collection, unless we just did
+	lw $s3,gcNurseryTop
+	lw $s4,gcNurseryEnd
+	li $t1,-1
+	bne $t5,$t1,outOfHeapMemory
+	sw $s5,gcMajorNext
+	move $t5,$zero
+	j gcCollect
+#endif
+
+  gcClear:
+	###############################################################
+	# Free heap space is always zero, so that allocation (newObject,
+	# and the generated code's inline allocation) need not clear
+	# what it takes.  Memory from sbrk starts out zero; after a GC,
+	# what was used in the space that is now free is cleared here,
+	# once, 32 words at a time.
+	# - $t0 contains the first address to clear
+	# - $t1 contains the limit address (a multiple of 4 bytes on)
+	# - $t9 contains the address to go to when done
+	# - $t2 is used
+	###############################################################
+	bgeu $t0,$t1,gcClearDone
+	subu $t2,$t1,$t0
+	and $t2,$t2,-128
+	addu $t2,$t2,$t0 # end of the part cleared 32 words at a time
+	beq $t0,$t2,gcClearTail
+  gcClearLoop:
+	sw $zero,($t0)
+	sw $zero,4($t0)
+	sw $zero,8($t0)
+	sw $zero,12($t0)
+	sw $zero,16($t0)
+	sw $zero,20($t0)
+	sw $zero,24($t0)
+	sw $zero,28($t0)
+	sw $zero,32($t0)
+	sw $zero,36($t0)
+	sw $zero,40($t0)
+	sw $zero,44($t0)
+	sw $zero,48($t0)
+	sw $zero,52($t0)
+	sw $zero,56($t0)
+	sw $zero,60($t0)
+	sw $zero,64($t0)
+	sw $zero,68($t0)
+	sw $zero,72($t0)
+	sw $zero,76($t0)
+	sw $zero,80($t0)
+	sw $zero,84($t0)
+	sw $zero,88($t0)
+	sw $zero,92($t0)
+	sw $zero,96($t0)
+	sw $zero,100($t0)
+	sw $zero,104($t0)
+	sw $zero,108($t0)
+	sw $zero,112($t0)
+	sw $zero,116($t0)
+	sw $zero,120($t0)
+	sw $zero,124($t0)
+	addu $t0,$t0,128
+	bne $t0,$t2,gcClearLoop
+	beq $t0,$t1,gcClearDone
+  gcClearTail:
+	sw $zero,($t0)
+	addu $t0,$t0,4
+	bne $t0,$t1,gcClearTail
+  gcClearDone:
+	jr $t9
 	    
 
 ########################################################
@@ -1828,6 +2348,8 @@ gcSkip4a:
 #  - heap and heap-limit pointers stored respectively in $s3 and $s4
 #  - address of bottom of stack stored in 'stack_bottom' memory
 #    location
+#  - the two semispaces (and the nursery, for the generational
+#    collector) obtained from the system with sbrk
 #  - (note: 'cur_seg' memory location is already set to 0)
 ########################################################
 vm_init:
@@ -1844,10 +2366,58 @@ vm_init:
 	li $s5,5
 	#move $s5,$s5#**"constant 5"  #--FOR MEMORY TAGGING
 
-	la $s3,seg0_start
+	# get the semispaces, each gcSemiSize bytes, which is also as
+	# small as they will shrink back to
+	lw $a0,gcSemiSize
+	sw $a0,gcMinSemiSize
+	li $v0,9 # syscall-code for sbrk
+	syscall
+	sw $v0,seg0_start
+	addu $t0,$v0,$a0
+	sw $t0,seg0_end
+	sw $t0,seg0_max
+	li $v0,9 # syscall-code for sbrk
+	syscall
+	sw $v0,seg1_start
+	addu $t0,$v0,$a0
+	sw $t0,seg1_end
+	sw $t0,seg1_max
+#ifdef GEN
+
+	# and the nursery, which must be above both of them; it is at most
+	# a quarter of a semispace, and objects that don't fit in it go
+	# in the old space
+	lw $t0,gcSemiSize
+	srl $t0,$t0,2
+	and $t0,$t0,-8
+	lw $a0,gcNurserySize
+	bleu $a0,$t0,gcSkip8
+	move $a0,$t0
+	sw $a0,gcNurserySize
+	lw $t1,gcBigObject
+	bleu $t1,$a0,gcSkip8
+	sw $a0,gcBigObject
+  gcSkip8:
+	li $v0,9 # syscall-code for sbrk
+	syscall
+	sw $v0,gcNursery
+	addu $t0,$v0,$a0
+	sw $t0,gcNurseryEnd
+	# allocation is in the nursery; the old space starts out empty
+	lw $s3,gcNursery
+	lw $s4,gcNurseryEnd
+	lw $t0,seg0_start
+	sw $t0,gcOldTop
+	lw $t0,seg0_end
+	lw $t1,gcNurserySize
+	subu $t0,$t0,$t1
+	sw $t0,gcOldEnd
+#else
+	lw $s3,seg0_start
 	#move $s3,$s3#**"next-avail-heap"  #--FOR MEMORY TAGGING
-	la $s4,seg0_end
+	lw $s4,seg0_end
 	#move $s4,$s4#**"end-heap"  #--FOR MEMORY TAGGING
+#endif
 	
 	# return
 	jr $ra
@@ -1869,7 +2439,11 @@ vm_init:
 divide:
 	# get parameters; abort if divisor zero
 	lw $t0,($sp)
+#ifdef MAPS
+	lw $t1,4($sp) # (no GC tags)
+#else
 	lw $t1,8($sp)
+#endif
 	beq $t0,$zero,divByZeroError
 	
 	# perform division
@@ -1877,7 +2451,11 @@ divide:
 	mflo $t0
 
 	# store result, adjust stack and return
+#ifdef MAPS
+	addu $sp,$sp,4 # adjust stack
+#else
 	addu $sp,$sp,8 # adjust stack
+#endif
 	sw $t0,($sp) # store result
 	jr $ra
 
@@ -1898,7 +2476,11 @@ divide:
 remainder:
 	# get parameters; abort if divisor zero
 	lw $t0,($sp)
+#ifdef MAPS
+	lw $t1,4($sp) # (no GC tags)
+#else
 	lw $t1,8($sp)
+#endif
 	beq $t0,$zero,divByZeroError
 	
 	# perform division
@@ -1906,10 +2488,39 @@ remainder:
 	mfhi $t0
 
 	# store result, adjust stack and return
+#ifdef MAPS
+	addu $sp,$sp,4 # adjust stack
+#else
 	addu $sp,$sp,8 # adjust stack
+#endif
 	sw $t0,($sp) # store result
 	jr $ra
 	
+#ifdef GEN
+########################################################
+# gcRemember (millicode) - the write barrier's slow path
+#  - records a slot in the remembered set (see doGC)
+#  - called after a pointer to an object in the nursery
+#    has been stored into an object in the old space
+#  - parameters:
+#    - $t3 address of the slot
+#  - side-effects: clobbers $t4 and $t5
+########################################################
+gcRemember:
+	lw $t4,gcRemTop
+	la $t5,gcRemSetEnd
+	bgeu $t4,$t5,gcRemFull
+	sw $t3,($t4)
+	addu $t4,$t4,4
+	sw $t4,gcRemTop
+	jr $ra
+  gcRemFull:
+	# no room: the next collection will be a major one, which
+	# does not need the remembered set
+	sw $s5,gcMajorNext
+	jr $ra
+
+#endif
 ########################################################
 # checkCast (millicode) - checks that a cast is legal
 #  - aborts if null
@@ -2047,6 +2658,19 @@ exit:
 	li $v0,4 # syscall-code for print-string
 	la $a0,newlineString
 	syscall # print newline
+#ifdef GEN
+
+	# print number of major garbage collections
+	li $v0,4 # syscall-code for print-string
+	la $a0,gcMajorCountMsg
+	syscall # print "Number of ..."
+	lw $a0,gcMajorCount # number of major GC's
+	li $v0,1 # code for print-int
+	syscall
+	li $v0,4 # syscall-code for print-string
+	la $a0,newlineString
+	syscall # print newline
+#endif
 
 	# terminate execution
 	li $v0,10 #syscall-code for "exit"
@@ -2076,6 +2700,11 @@ badIntegerFormat:
 castException:
 	la $a0,castExceptionMsg
 	j exitError
+#ifdef MAPS
+gcNoStackMap:
+	la $a0,gcNoStackMapMsg
+	j exitError
+#endif
 ############## data section ################
 	.data
 hexChars:
@@ -2107,10 +2736,18 @@ badIntegerFormatMsg:
 	.asciiz "ERROR: attempt to read badly formatted integer\n"
 castExceptionMsg:
 	.asciiz "ERROR: illegal cast\n"
+#ifdef MAPS
+gcNoStackMapMsg:
+	.asciiz "ERROR: no stack map for return address\n"
+#endif
 gcMsg: 
       .asciiz "\nGC!\n"
 gcCountMsg: 
       .asciiz "Number of garbage collections: "
+#ifdef GEN
+gcMajorCountMsg:
+      .asciiz "Number of major garbage collections: "
+#endif
 
 nullStr:
 	.asciiz "null"
@@ -2128,12 +2765,75 @@ newlineString:
 stack_bottom:
 	.word 0
 
+#ifdef MAPS
+# stack maps (see doGC) for the calls in this library during
+# which a GC can happen, and for doGC's own frame
+gcLibMaps:
+	.word gcLib_toString1,8,8,2,0,4
+	.word gcLib_toString2,28,28,1,24
+	.word gcLib_readLine,-12,8,0
+	.word gcLib_substring,12,0,0
+	.word gcLib_concat,4,0,0
+	.word gcLib_intToString,-12,8,0
+	.word gcLib_intToChar,4,0,0
+gcLibMapsEnd:
+gcRootMap:
+	.word 0,8,0,1,4
+
+#endif
+#ifdef GEN
+# the generational collector's state (see doGC)
+gcOldTop: # first free address in the old space
+	.word 0
+gcOldEnd: # limit of allocations in the old space
+	.word 0
+gcNurseryTop: # $s3, while allocating in the old space
+	.word 0
+gcScanStart: # first object for the heap phase to process
+	.word 0
+gcMajorNext: # nonzero if the next collection is to be major
+	.word 0
+gcMajorCount:
+	.word 0
+gcNursery: # the nursery, from sbrk
+	.word 0
+gcNurseryEnd:
+	.word 0
+gcNurserySize:
+	.word 0x20000
+gcBigObject: # size of an object allocated in the old space
+	.word 0x1000
+gcRemTop: # first free slot in the remembered set
+	.word gcRemSet
+gcRemSet:
+	.space 0x4000
+gcRemSetEnd:
+
+#endif
 #heapFudge: # temporary fudge amount to exercise GC
 #	.word 0
 
+# the semispaces, from sbrk: for each, its first address, the limit of
+# allocation in it, and the end of its memory (see gcFinishUp)
 seg0_start:
-	.space 0x100000
+	.word 0
 seg0_end:
+	.word 0
+seg0_max:
+	.word 0
 seg1_start:
-	.space 0x100000
+	.word 0
 seg1_end:
+	.word 0
+seg1_max:
+	.word 0
+gcSemiSize: # bytes in a semispace (the compiler's -heap:)
+#ifdef HEAP_SIZE
+	.word HEAP_SIZE
+#else
+	.word 0x100000
+#endif
+gcMinSemiSize: # semispaces shrink to no less than this (the starting size)
+	.word 0
+gcMaxSemiSize: # and grow to no more than this
+	.word 0x1000000
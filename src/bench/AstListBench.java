@@ -0,0 +1,177 @@
+package bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.*;
+
+import errorMsg.ErrorMsg;
+import syntaxtree.*;
+import visitor.*;
+
+// Compares AstList's array backing with the java.util.Vector it used to
+// extend, on the lists of a large AST.  Every list in the AST is copied
+// into a Vector (grown by addElement, as the parser grows its lists),
+// into an AstList grown the same way, and into a trimmed AstList; it
+// reports the heap each set of copies retains, then times a walk over
+// every element with elementAt, the way ASTvisitor.visitAstList does.
+//
+// usage: java [-Dbench.warmup=N ...] bench.AstListBench [-gen:lines] [file.java]
+// (by default, a 100000-line generated program)
+public class AstListBench {
+
+	private static final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+	public static void main(String[] args) throws Exception {
+		byte[] source = null;
+		String name = null;
+		int genLines = 100000;
+		for (String arg : args) {
+			if (arg.startsWith("-gen:")) genLines = Integer.parseInt(arg.substring(5));
+			else {
+				source = java.nio.file.Files.readAllBytes(java.nio.file.Paths.get(arg));
+				name = arg;
+			}
+		}
+		if (source == null) {
+			ProgramGenerator.Config cfg = new ProgramGenerator.Config();
+			cfg.lines = genLines;
+			source = ProgramGenerator.generate(cfg);
+			name = "gen"+genLines;
+		}
+
+		ErrorMsg err = new ErrorMsg(name);
+		AstNode ast = PipelineBench.parse(source, err);
+		final ArrayList<AstList<Object>> lists = collectLists(ast);
+		long elements = 0;
+		for (AstList<Object> lst : lists) elements += lst.size();
+		System.out.println(name+": "+new NodeCountVisitor().count(ast)+" nodes, "+
+				lists.size()+" lists, "+elements+" list elements");
+
+		// heap retained by each representation of the lists
+		long vectorBytes = retained(() -> {
+			ArrayList<Vector<Object>> copies = new ArrayList<Vector<Object>>(lists.size());
+			for (AstList<Object> lst : lists) {
+				Vector<Object> v = new Vector<Object>();
+				for (int i = 0; i < lst.size(); i++) v.addElement(lst.elementAt(i));
+				copies.add(v);
+			}
+			return copies;
+		});
+		long grownBytes = retained(() -> {
+			ArrayList<AstList<Object>> copies = new ArrayList<AstList<Object>>(lists.size());
+			for (AstList<Object> lst : lists) {
+				AstList<Object> c = newList();
+				for (int i = 0; i < lst.size(); i++) c.addElement(lst.elementAt(i));
+				copies.add(c);
+			}
+			return copies;
+		});
+		long trimmedBytes = retained(() -> {
+			ArrayList<AstList<Object>> copies = new ArrayList<AstList<Object>>(lists.size());
+			for (AstList<Object> lst : lists) {
+				AstList<Object> c = newList();
+				for (int i = 0; i < lst.size(); i++) c.addElement(lst.elementAt(i));
+				c.trimToSize();
+				copies.add(c);
+			}
+			return copies;
+		});
+		System.out.printf("retained heap: Vector %d KB, AstList %d KB, AstList trimmed %d KB%n",
+				vectorBytes >> 10, grownBytes >> 10, trimmedBytes >> 10);
+
+		// element walks over each representation
+		final ArrayList<Vector<Object>> vectors = new ArrayList<Vector<Object>>(lists.size());
+		for (AstList<Object> lst : lists) vectors.add(new Vector<Object>(lst));
+		Harness harness = Harness.fromProperties();
+		harness.run("walk:Vector", new Harness.Op() {
+			public void run() {
+				int n = 0;
+				for (Vector<Object> v : vectors) {
+					for (int i = 0; i < v.size(); i++) {
+						if (v.elementAt(i) != null) n++;
+					}
+				}
+				sink = n;
+			}
+		});
+		harness.run("walk:AstList", new Harness.Op() {
+			public void run() {
+				int n = 0;
+				for (AstList<Object> lst : lists) {
+					for (int i = 0; i < lst.size(); i++) {
+						if (lst.elementAt(i) != null) n++;
+					}
+				}
+				sink = n;
+			}
+		});
+		final AstNode root = ast;
+		harness.run("traverse:NodeCountVisitor", new Harness.Op() {
+			public void run() {
+				sink = new NodeCountVisitor().count(root);
+			}
+		});
+	}
+
+	static volatile int sink;
+
+	// through the visit of each kind of list, as the visitAstList they
+	// share takes a raw AstList
+	private static ArrayList<AstList<Object>> collectLists(AstNode ast) {
+		final ArrayList<AstList<Object>> lists = new ArrayList<AstList<Object>>();
+		ast.accept(new ASTvisitor() {
+			@Override
+			public Object visitClassDeclList(ClassDeclList lst) {
+				lists.add(ofObjects(lst));
+				return super.visitClassDeclList(lst);
+			}
+			@Override
+			public Object visitExpList(ExpList lst) {
+				lists.add(ofObjects(lst));
+				return super.visitExpList(lst);
+			}
+			@Override
+			public Object visitDeclList(DeclList lst) {
+				lists.add(ofObjects(lst));
+				return super.visitDeclList(lst);
+			}
+			@Override
+			public Object visitStatementList(StatementList lst) {
+				lists.add(ofObjects(lst));
+				return super.visitStatementList(lst);
+			}
+			@Override
+			public Object visitVarDeclList(VarDeclList lst) {
+				lists.add(ofObjects(lst));
+				return super.visitVarDeclList(lst);
+			}
+		});
+		return lists;
+	}
+
+	// the bench only reads the elements, and adds them to copies of the
+	// same kind of list
+	@SuppressWarnings("unchecked")
+	private static AstList<Object> ofObjects(AstList<?> lst) {
+		return (AstList<Object>)lst;
+	}
+
+	private static AstList<Object> newList() {
+		return ofObjects(new ExpList());
+	}
+
+	// the growth in the used heap, after collection, while the object
+	// built by 'build' is live
+	private static long retained(java.util.function.Supplier<Object> build) {
+		long before = usedAfterGc();
+		Object keep = build.get();
+		long after = usedAfterGc();
+		java.lang.ref.Reference.reachabilityFence(keep);
+		return after-before;
+	}
+
+	private static long usedAfterGc() {
+		for (int i = 0; i < 3; i++) System.gc();
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+}
@@ -0,0 +1,69 @@
+package bench;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+
+import errorMsg.ErrorMsg;
+import syntaxtree.*;
+import visitor.CodeGenOptions;
+import visitor.CodeStream;
+
+// Measures CodeStream emission throughput (lines per second) and the
+// number of bytes allocated per emitted line.  Output goes to a
+// discarding stream, so only the cost of formatting and writing is
+// measured.
+//
+// usage: java bench.CodeStreamBench [linesPerRound]
+public class CodeStreamBench {
+
+	private static final int ROUNDS = 10;
+
+	public static void main(String[] args) {
+		int lines = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+		ErrorMsg err = new ErrorMsg("bench");
+		for (int i = 1; i < 5000; i++) {
+			err.newline(i*30);
+		}
+		AstNode[] nodes = {
+			new IntegerLiteral(100, 7),
+			new Plus(2000, null, null),
+			new IdentifierExp(40000, "x"),
+			new This(149000),
+		};
+		String[] instrs = {
+			"subu $sp,$sp,8",
+			"sw $s5,4($sp)",
+			"lw $t0,($sp)",
+			"addu $t0,$t0,$t1",
+		};
+
+		PrintStream ps = new PrintStream(new BufferedOutputStream(OutputStream.nullOutputStream(), 1 << 16));
+		CodeGenOptions opts = new CodeGenOptions();
+		opts.deterministic = true;
+		CodeStream code = new CodeStream(ps, err, opts);
+
+		System.out.println("round   lines/sec   bytes alloc/line");
+		for (int r = 0; r < ROUNDS; r++) {
+			long alloc0 = allocatedBytes();
+			long start = System.nanoTime();
+			for (int i = 0; i < lines; i++) {
+				int k = i & 3;
+				if ((i & 15) == 0) code.indent(nodes[k]);
+				code.emit(nodes[k], instrs[k]);
+				if ((i & 15) == 15) code.unindent(nodes[k]);
+			}
+			code.flush();
+			long elapsed = System.nanoTime()-start;
+			long alloc = allocatedBytes()-alloc0;
+			System.out.printf("%5d %11.0f %18.2f%n", r, lines/(elapsed/1e9), (double)alloc/lines);
+		}
+	}
+
+	static long allocatedBytes() {
+		java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		if (mx instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean)mx).getCurrentThreadAllocatedBytes();
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,202 @@
+package bench;
+
+import java.util.ArrayList;
+
+import errorMsg.ErrorMsg;
+import syntaxtree.*;
+import visitor.*;
+
+// Asks for the constant value of every expression node in a tree, the
+// way a code generator that folds constants does (the root of each
+// expression first, then, if it is not constant, its operands): with
+// the boxed, exception-driven evaluator that ConstEvalVisitor used to
+// be (copied below), with ConstEvalVisitor's visit methods, and with
+// its primitive 'eval'.  The inputs are a generated program with deep
+// expressions, most of which are not constant, and a forest of random
+// constant expressions.  A fresh visitor is used for each operation,
+// so the memo starts empty each time.
+//
+// usage: java [-Dbench.warmup=N ...] bench.ConstEvalBench [lines] [expr-depth]
+// (the defaults are 20000 lines and depth 8)
+public class ConstEvalBench {
+
+	static volatile Object sink;
+
+	public static void main(String[] args) throws Exception {
+		ProgramGenerator.Config cfg = new ProgramGenerator.Config();
+		cfg.lines = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		cfg.expr = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		AstNode ast = PipelineBench.parse(ProgramGenerator.generate(cfg), new ErrorMsg("gen"));
+		run("gen"+cfg.lines+"x"+cfg.expr, expressionsOf(ast));
+
+		java.util.Random rand = new java.util.Random(1);
+		ArrayList<Exp> forest = new ArrayList<Exp>();
+		for (int i = 0; i < 20000; i++) {
+			forest.add(i % 4 == 0 ? constBool(rand, cfg.expr) : constInt(rand, cfg.expr));
+		}
+		ArrayList<Exp> all = new ArrayList<Exp>();
+		for (Exp e : forest) all.addAll(expressionsOf(e));
+		run("const20000x"+cfg.expr, all);
+	}
+
+	private static void run(String name, ArrayList<Exp> list) throws Exception {
+		final Exp[] exps = list.toArray(new Exp[list.size()]);
+
+		// the two evaluators must agree before their speed matters
+		BoxedConstEval boxed = new BoxedConstEval();
+		ConstEvalVisitor cev = new ConstEvalVisitor();
+		int constants = 0;
+		for (Exp e : exps) {
+			Object expected = e.accept(boxed);
+			Object actual = ConstEvalVisitor.toObject(cev.eval(e));
+			if (expected == null ? actual != null : !expected.equals(actual)) {
+				throw new IllegalStateException("values differ at node "+e.uniqueId+": "+expected+" vs "+actual);
+			}
+			if (expected != null) constants++;
+		}
+		System.out.printf("%s: %d expression nodes, %d constant%n", name, exps.length, constants);
+
+		Harness harness = Harness.fromProperties();
+		harness.run(name+":boxed", new Harness.Op() {
+			public void run() {
+				BoxedConstEval v = new BoxedConstEval();
+				Object last = null;
+				for (Exp e : exps) last = e.accept(v);
+				sink = last;
+			}
+		});
+		harness.run(name+":accept", new Harness.Op() {
+			public void run() {
+				ConstEvalVisitor v = new ConstEvalVisitor();
+				Object last = null;
+				for (Exp e : exps) last = e.accept(v);
+				sink = last;
+			}
+		});
+		harness.run(name+":eval", new Harness.Op() {
+			public void run() {
+				ConstEvalVisitor v = new ConstEvalVisitor();
+				long sum = 0;
+				for (Exp e : exps) sum += v.eval(e);
+				sink = sum;
+			}
+		});
+	}
+
+	// the expression nodes of the tree, each before its operands
+	private static ArrayList<Exp> expressionsOf(AstNode tree) {
+		final ArrayList<Exp> exps = new ArrayList<Exp>();
+		new ASTvisitor() {
+			@Override
+			public Object visitExp(Exp n) {
+				exps.add(n);
+				return null;
+			}
+		}.visit(tree);
+		return exps;
+	}
+
+	private static Exp constInt(java.util.Random rand, int depth) {
+		if (depth <= 0 || rand.nextInt(4) == 0) {
+			return new IntegerLiteral(0, rand.nextInt(1000));
+		}
+		Exp l = constInt(rand, depth-1);
+		Exp r = constInt(rand, depth-1);
+		switch (rand.nextInt(5)) {
+		case 0: return new Plus(0, l, r);
+		case 1: return new Minus(0, l, r);
+		case 2: return new Times(0, l, r);
+		case 3: return new Remainder(0, l, r);
+		default: return new Divide(0, l, r);
+		}
+	}
+
+	private static Exp constBool(java.util.Random rand, int depth) {
+		if (depth <= 1 || rand.nextInt(3) == 0) {
+			Exp l = constInt(rand, depth-1);
+			Exp r = constInt(rand, depth-1);
+			switch (rand.nextInt(3)) {
+			case 0: return new LessThan(0, l, r);
+			case 1: return new GreaterThan(0, l, r);
+			default: return new Equals(0, l, r);
+			}
+		}
+		switch (rand.nextInt(3)) {
+		case 0: return new And(0, constBool(rand, depth-1), constBool(rand, depth-1));
+		case 1: return new Or(0, constBool(rand, depth-1), constBool(rand, depth-1));
+		default: return new Not(0, constBool(rand, depth-1));
+		}
+	}
+
+	// ConstEvalVisitor as it was: every value boxed, and "not constant"
+	// (and division by zero) signalled by an exception
+	@SuppressWarnings("removal")
+	static class BoxedConstEval extends ASTvisitor {
+		public Object visitAnd(And n) {
+			try { return new Boolean(getBool(n.left) && getBool(n.right)); }
+			catch (NullPointerException npx) { return null; }
+		}
+		public Object visitDivide(Divide n) {
+			try { return new Integer(getInt(n.left) / getInt(n.right)); }
+			catch (NullPointerException npx) { return null; }
+			catch (ArithmeticException dbzx) { return null; }
+		}
+		public Object visitEquals(Equals n) {
+			Object left = n.left.accept(this);
+			Object right = n.right.accept(this);
+			if (left == null || right == null) return null;
+			else return new Boolean(left.equals(right));
+		}
+		public Object visitFalse(False n) {
+			return Boolean.FALSE;
+		}
+		public Object visitGreaterThan(GreaterThan n) {
+			try { return new Boolean(getInt(n.left) > getInt(n.right)); }
+			catch (NullPointerException npx) { return null; }
+		}
+		public Object visitIntegerLiteral(IntegerLiteral n) {
+			return new Integer(n.val);
+		}
+		public Object visitLessThan(LessThan n) {
+			try { return new Boolean(getInt(n.left) < getInt(n.right)); }
+			catch (NullPointerException npx) { return null; }
+		}
+		public Object visitMinus(Minus n) {
+			try { return new Integer(getInt(n.left) - getInt(n.right)); }
+			catch (NullPointerException npx) { return null; }
+		}
+		public Object visitNot(Not n) {
+			try { return new Boolean(!getBool(n.exp)); }
+			catch (NullPointerException npx) { return null; }
+		}
+		public Object visitNull(Null n) {
+			return "NULL";
+		}
+		public Object visitOr(Or n) {
+			try { return new Boolean(getBool(n.left) || getBool(n.right)); }
+			catch (NullPointerException npx) { return null; }
+		}
+		public Object visitPlus(Plus n) {
+			try { return new Integer(getInt(n.left) + getInt(n.right)); }
+			catch (NullPointerException npx) { return null; }
+		}
+		public Object visitRemainder(Remainder n) {
+			try { return new Integer(getInt(n.left) % getInt(n.right)); }
+			catch (NullPointerException npx) { return null; }
+			catch (ArithmeticException dbzx) { return null; }
+		}
+		public Object visitTimes(Times n) {
+			try { return new Integer(getInt(n.left) * getInt(n.right)); }
+			catch (NullPointerException npx) { return null; }
+		}
+		public Object visitTrue(True n) {
+			return Boolean.TRUE;
+		}
+		private boolean getBool(Exp e) {
+			return ((Boolean)e.accept(this)).booleanValue();
+		}
+		private int getInt(Exp e) {
+			return ((Integer)e.accept(this)).intValue();
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package bench;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+import main.CompileClient;
+import main.CompileServer;
+
+// Compares compile latency for cold command-line compiles (a new JVM per
+// compile) with warm compiles through a CompileServer.  The warm
+// requests go to an in-process server over a Unix-domain socket, so the
+// client side costs only a socket round trip.
+//
+// usage: java bench.DaemonLatencyBench [file.java] [coldRuns] [warmRuns]
+public class DaemonLatencyBench {
+
+	public static void main(String[] args) throws Exception {
+		String file = new File(args.length > 0 ? args[0] : "Seive.java").getAbsolutePath();
+		int coldRuns = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int warmRuns = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+		// cold: one JVM per compile
+		String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+		String cp = System.getProperty("java.class.path");
+		Path out = Files.createTempFile("bench", ".asm");
+		long[] cold = new long[coldRuns];
+		for (int i = 0; i < coldRuns; i++) {
+			long start = System.nanoTime();
+			Process p = new ProcessBuilder(java, "-cp", cp, "main.Main5", file, "-o", out.toString())
+				.redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+			p.waitFor();
+			cold[i] = System.nanoTime()-start;
+		}
+
+		// warm: requests to a running server
+		Path sock = Files.createTempDirectory("bench").resolve("compile.sock");
+		CompileServer server = new CompileServer(sock.toString());
+		server.start();
+		String[] req = {file};
+		for (int i = 0; i < 20; i++) {
+			CompileClient.compile(sock.toString(), req); // warm up
+		}
+		long[] warm = new long[warmRuns];
+		for (int i = 0; i < warmRuns; i++) {
+			long start = System.nanoTime();
+			CompileClient.Response rsp = CompileClient.compile(sock.toString(), req);
+			warm[i] = System.nanoTime()-start;
+			if (!rsp.ok) throw new IllegalStateException(new String(rsp.diagnostics));
+		}
+		server.close();
+		Files.deleteIfExists(out);
+
+		System.out.println("latency (ms)     p50       p90       p99");
+		report("cold CLI", cold);
+		report("warm daemon", warm);
+	}
+
+	private static void report(String name, long[] nanos) {
+		Arrays.sort(nanos);
+		System.out.printf("%-12s %9.2f %9.2f %9.2f%n", name,
+				percentile(nanos, 50), percentile(nanos, 90), percentile(nanos, 99));
+	}
+
+	private static double percentile(long[] sorted, int pct) {
+		int idx = (int)Math.ceil(pct/100.0*sorted.length)-1;
+		return sorted[Math.max(0, Math.min(idx, sorted.length-1))]/1e6;
+	}
+}
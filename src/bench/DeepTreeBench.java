@@ -0,0 +1,84 @@
+package bench;
+
+import errorMsg.ErrorMsg;
+import syntaxtree.*;
+import visitor.*;
+
+// Counts the nodes of very deep ASTs -- a left-leaning chain of Plus
+// nodes (as in "1+1+...+1") and a chain of else-ifs -- with a recursive
+// ASTvisitor and with the explicit-stack TreeWalker, on a thread with
+// the default stack size.  The visitor's StackOverflowError is reported
+// rather than thrown.  It then times both on a generated program of
+// ordinary shape.
+//
+// usage: java [-Dbench.warmup=N ...] bench.DeepTreeBench [depth]
+// (the default depth is 1000000)
+public class DeepTreeBench {
+
+	static volatile int sink;
+
+	static class NodeCounter extends ASTvisitor {
+		int nodes;
+		@Override
+		public Object visitAstNode(AstNode n) {
+			nodes++;
+			return null;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int depth = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+		Exp sum = new IntegerLiteral(0, 1);
+		for (int i = 1; i < depth; i++) {
+			sum = new Plus(0, sum, new IntegerLiteral(0, 1));
+		}
+		Statement elseIfs = new Block(0, new StatementList());
+		for (int i = 0; i < depth; i++) {
+			elseIfs = new If(0, new True(0), new Block(0, new StatementList()), elseIfs);
+		}
+		countBoth("plus-chain", sum);
+		countBoth("else-if-chain", elseIfs);
+
+		ProgramGenerator.Config cfg = new ProgramGenerator.Config();
+		cfg.lines = 20000;
+		final AstNode ast = PipelineBench.parse(ProgramGenerator.generate(cfg), new ErrorMsg("gen"));
+		Harness harness = Harness.fromProperties();
+		harness.run("gen20000:ASTvisitor", new Harness.Op() {
+			public void run() {
+				NodeCounter c = new NodeCounter();
+				c.visit(ast);
+				sink = c.nodes;
+			}
+		});
+		harness.run("gen20000:TreeWalker", new Harness.Op() {
+			public void run() {
+				sink = new NodeCountVisitor().count(ast);
+			}
+		});
+	}
+
+	// counts on a new thread with the default stack size
+	private static void countBoth(final String name, final AstNode tree) throws InterruptedException {
+		Thread t = new Thread(new Runnable() {
+			public void run() {
+				String visited;
+				try {
+					NodeCounter c = new NodeCounter();
+					c.visit(tree);
+					visited = Integer.toString(c.nodes);
+				}
+				catch (StackOverflowError e) {
+					visited = "StackOverflowError";
+				}
+				long t0 = System.nanoTime();
+				int walked = new NodeCountVisitor().count(tree);
+				long t1 = System.nanoTime();
+				System.out.printf("%s: ASTvisitor %s; TreeWalker %d nodes in %.1f ms%n",
+						name, visited, walked, (t1-t0)/1e6);
+			}
+		});
+		t.start();
+		t.join();
+	}
+}
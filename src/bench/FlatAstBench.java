@@ -0,0 +1,115 @@
+package bench;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+import errorMsg.ErrorMsg;
+import flatAst.*;
+import syntaxtree.*;
+import visitor.*;
+
+// Compares the AstNode tree with its FlatAst copy on a large program:
+// the heap each retains (the AstNode figure is everything the parse
+// and the semantic passes leave live, symbol tables included), the time
+// to build the FlatAst, and the time of CG1 and CG3 over each (CG3 also
+// in release mode).  Generated code goes to a discarding stream.
+//
+// usage: java -Xmx4g [-Dbench.warmup=N ...] bench.FlatAstBench [-gen:lines] [file.java]
+// (by default, a 1000000-line generated program)
+public class FlatAstBench {
+
+	private static final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+	private static final PrintStream NULL_OUT =
+		new PrintStream(new BufferedOutputStream(OutputStream.nullOutputStream(), 1 << 16));
+
+	static volatile Object sink;
+
+	public static void main(String[] args) throws Exception {
+		byte[] source = null;
+		String name = null;
+		int genLines = 1000000;
+		for (String arg : args) {
+			if (arg.startsWith("-gen:")) genLines = Integer.parseInt(arg.substring(5));
+			else {
+				source = java.nio.file.Files.readAllBytes(java.nio.file.Paths.get(arg));
+				name = arg;
+			}
+		}
+		if (source == null) {
+			ProgramGenerator.Config cfg = new ProgramGenerator.Config();
+			cfg.lines = genLines;
+			source = ProgramGenerator.generate(cfg);
+			name = "gen"+genLines;
+		}
+		long before = usedAfterGc();
+		final PipelineBench.Pipeline p = new PipelineBench.Pipeline(source, name);
+		for (int i = 0; i <= 5; i++) p.runStage(i);
+		long astBytes = usedAfterGc()-before;
+		final AstNode ast = p.ast;
+		final ErrorMsg err = p.err;
+		final CodeGenOptions opts = p.options;
+
+		before = usedAfterGc();
+		final FlatAst flat = FlatAst.build(ast);
+		long flatBytes = usedAfterGc()-before;
+		System.out.printf("%s: %d nodes; %d flat nodes (lists included)%n",
+				name, new NodeCountVisitor().count(ast), flat.size());
+		System.out.printf("retained heap: AstNode tree (after Sem5) %d MB, FlatAst %d MB (node arrays %d MB)%n",
+				astBytes >> 20, flatBytes >> 20, flat.nodeBytes() >> 20);
+
+		// the CG3s need CG1's offsets, and CG3Visitor CG2's string representatives
+		new CG1Visitor(err, NULL_OUT, opts).visit(ast);
+		new CG2Visitor(err, NULL_OUT, opts).visit(ast);
+		new FlatCG1(err, NULL_OUT, opts).visit(flat);
+
+		Harness harness = Harness.fromProperties();
+		harness.run(name+":build", new Harness.Op() {
+			public void run() {
+				sink = FlatAst.build(ast);
+			}
+		});
+		sink = null;
+		harness.run(name+":cg1:ast", new Harness.Op() {
+			public void run() {
+				new CG1Visitor(err, NULL_OUT, opts).visit(ast);
+			}
+		});
+		harness.run(name+":cg1:flat", new Harness.Op() {
+			public void run() {
+				new FlatCG1(err, NULL_OUT, opts).visit(flat);
+			}
+		});
+		harness.run(name+":cg3:ast", new Harness.Op() {
+			public void run() {
+				new CG3Visitor(err, NULL_OUT, opts).visit(ast);
+			}
+		});
+		harness.run(name+":cg3:flat", new Harness.Op() {
+			public void run() {
+				new FlatCG3(err, NULL_OUT, opts).visit(flat);
+			}
+		});
+		// release mode leaves out the ENTER/EXIT traces and the node
+		// annotations, so that less of the time is spent formatting lines
+		final CodeGenOptions release = new CodeGenOptions();
+		release.deterministic = true;
+		release.release = true;
+		harness.run(name+":cg3:ast:release", new Harness.Op() {
+			public void run() {
+				new CG3Visitor(err, NULL_OUT, release).visit(ast);
+			}
+		});
+		harness.run(name+":cg3:flat:release", new Harness.Op() {
+			public void run() {
+				new FlatCG3(err, NULL_OUT, release).visit(flat);
+			}
+		});
+	}
+
+	private static long usedAfterGc() {
+		for (int i = 0; i < 3; i++) System.gc();
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+}
@@ -0,0 +1,100 @@
+package bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+// A small benchmark harness in the style of JMH's average-time mode with
+// the gc profiler: each benchmark runs a number of warmup iterations,
+// then a number of measured iterations of (at least) a fixed duration.
+// For each benchmark it reports the average time per operation (with
+// the standard deviation across iterations) and the allocation per
+// operation and per second.
+//
+// Only the 'run' part of an operation is measured; 'setUp' runs before
+// every operation and is excluded, like a JMH @Setup(Level.Invocation)
+// method.  The iteration time is wall-clock time, set-up included, so a
+// cheap operation with an expensive set-up still finishes on time.
+public class Harness {
+
+	public static abstract class Op {
+		public void setUp() throws Exception {}
+		public abstract void run() throws Exception;
+	}
+
+	private final int warmupIterations;
+	private final int measuredIterations;
+	private final long iterationNanos;
+	private final com.sun.management.ThreadMXBean threadBean;
+	private boolean printedHeader;
+
+	public Harness(int warmupIterations, int measuredIterations, long iterationMillis) {
+		this.warmupIterations = warmupIterations;
+		this.measuredIterations = measuredIterations;
+		this.iterationNanos = iterationMillis*1000000;
+		java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		threadBean = mx instanceof com.sun.management.ThreadMXBean
+			? (com.sun.management.ThreadMXBean)mx : null;
+	}
+
+	// harness configured from the system properties bench.warmup,
+	// bench.iterations and bench.time (milliseconds per iteration)
+	public static Harness fromProperties() {
+		return new Harness(Integer.getInteger("bench.warmup", 5),
+				Integer.getInteger("bench.iterations", 5),
+				Long.getLong("bench.time", 1000));
+	}
+
+	// runs the benchmark and prints its result line
+	public void run(String name, Op op) throws Exception {
+		for (int i = 0; i < warmupIterations; i++) {
+			iteration(op);
+		}
+		double[] nsPerOp = new double[measuredIterations];
+		long ops = 0;
+		long nanos = 0;
+		long bytes = 0;
+		for (int i = 0; i < measuredIterations; i++) {
+			long[] r = iteration(op);
+			nsPerOp[i] = (double)r[1]/r[0];
+			ops += r[0];
+			nanos += r[1];
+			bytes += r[2];
+		}
+		double mean = (double)nanos/ops;
+		double var = 0;
+		for (double x : nsPerOp) var += (x-mean)*(x-mean);
+		double sd = measuredIterations > 1 ? Math.sqrt(var/(measuredIterations-1)) : 0;
+		if (!printedHeader) {
+			System.out.printf("%-32s %8s %14s %12s %14s %12s%n",
+					"Benchmark", "ops", "us/op", "+-", "B/op", "MB/sec");
+			printedHeader = true;
+		}
+		System.out.printf("%-32s %8d %14.3f %12.3f %14.0f %12.1f%n", name, ops,
+				mean/1e3, sd/1e3, (double)bytes/ops, bytes/(nanos/1e9)/(1 << 20));
+	}
+
+	// runs operations until the iteration time has elapsed;
+	// returns {operations, measured nanos, allocated bytes}
+	private long[] iteration(Op op) throws Exception {
+		long ops = 0;
+		long nanos = 0;
+		long bytes = 0;
+		long end = System.nanoTime()+iterationNanos;
+		while (ops == 0 || System.nanoTime() < end) {
+			op.setUp();
+			long a0 = allocatedBytes();
+			long t0 = System.nanoTime();
+			op.run();
+			long t1 = System.nanoTime();
+			long a1 = allocatedBytes();
+			ops++;
+			nanos += t1-t0;
+			bytes += a1-a0;
+		}
+		return new long[]{ops, nanos, bytes};
+	}
+
+	private long allocatedBytes() {
+		return threadBean == null ? 0 : threadBean.getCurrentThreadAllocatedBytes();
+	}
+}
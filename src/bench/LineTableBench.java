@@ -0,0 +1,54 @@
+package bench;
+
+import errorMsg.ErrorMsg;
+
+// Measures the cost of ErrorMsg.lineAndChar as the number of source
+// lines grows.  CodeStream.emit performs one lookup per emitted
+// instruction, and the number of instructions grows with the number of
+// lines, so codegen does (roughly) one lookup per line for each few
+// instructions.  If the lookup is O(lines), the per-line cost printed
+// below grows linearly with the file length (i.e., codegen is quadratic);
+// if it is O(log lines), the per-line cost stays nearly flat.
+//
+// usage: java bench.LineTableBench [maxLines]
+public class LineTableBench {
+
+	private static final int CHARS_PER_LINE = 30;
+	private static final int LOOKUPS_PER_LINE = 8;
+
+	public static void main(String[] args) {
+		int maxLines = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+		// warm up the JIT on a mid-sized table
+		run(10000);
+		run(10000);
+
+		System.out.println("     lines     total(ms)   ns/line");
+		for (int lines = 1000; lines <= maxLines; lines *= 10) {
+			long nanos = run(lines);
+			System.out.printf("%10d %12.2f %9.1f%n", lines, nanos/1e6, (double)nanos/lines);
+		}
+	}
+
+	// builds a line table of the given size, then performs the lookups
+	// that codegen would perform for a file of that size; returns the
+	// elapsed time for the lookups
+	private static long run(int lines) {
+		ErrorMsg err = new ErrorMsg("bench");
+		for (int i = 1; i < lines; i++) {
+			err.newline(i*CHARS_PER_LINE);
+		}
+		int maxPos = lines*CHARS_PER_LINE;
+		int lookups = lines*LOOKUPS_PER_LINE;
+		int sink = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < lookups; i++) {
+			// visit positions in source order, as the code generators do
+			int pos = (int)((long)i*maxPos/lookups);
+			sink += err.lineAndChar(pos).length();
+		}
+		long elapsed = System.nanoTime()-start;
+		if (sink == 42) System.out.print("");
+		return elapsed;
+	}
+}
@@ -0,0 +1,104 @@
+package bench;
+
+import java.io.*;
+import java.nio.file.*;
+
+import visitor.*;
+
+// Reports what the peephole optimizer does to each program's code: the
+// number of instructions CG3 generates, the number left afterwards, and
+// how many times each rule was applied.  The counts are of the code CG3
+// generates in release mode (no probes), not counting the runtime
+// library.  Then times CG3 with the peephole off and on, on the last
+// program, to show what the optimizer costs at compile time.
+//
+// usage: java [-Dbench.warmup=N ...] bench.PeepholeReport [-gen:lines] [file.java ...]
+// (by default, the bundled samples)
+public class PeepholeReport {
+
+	static final String[] SAMPLES = {
+		"BreakYe.java", "Butter.java", "DynDispatch.java", "FibIterative.java",
+		"FibRecursive.java", "RedBlack.java", "Seive.java", "Simp15.java",
+		"VerySimple.java",
+	};
+
+	private static final String[] RULES = {
+		"forward", "rename", "probe", "push/pop", "dead", "merge",
+	};
+
+	private static final PrintStream NULL_OUT =
+		new PrintStream(new BufferedOutputStream(OutputStream.nullOutputStream(), 1 << 16));
+
+	public static void main(String[] args) throws Exception {
+		java.util.ArrayList<String> files = new java.util.ArrayList<String>();
+		int genLines = 0;
+		for (String arg : args) {
+			if (arg.startsWith("-gen:")) genLines = Integer.parseInt(arg.substring(5));
+			else files.add(arg);
+		}
+		if (files.isEmpty() && genLines == 0) files.addAll(java.util.Arrays.asList(SAMPLES));
+		System.out.printf("%-16s %8s %8s %7s", "program", "before", "after", "change");
+		for (String r : RULES) System.out.printf(" %8s", r);
+		System.out.println();
+		PipelineBench.Pipeline last = null;
+		for (String f : files) {
+			last = report(f, Files.readAllBytes(Paths.get(f)));
+		}
+		if (genLines > 0) {
+			ProgramGenerator.Config cfg = new ProgramGenerator.Config();
+			cfg.lines = genLines;
+			last = report("gen"+genLines, ProgramGenerator.generate(cfg));
+		}
+
+		final PipelineBench.Pipeline p = last;
+		final CodeGenOptions noPeep = releaseOptions(false);
+		final CodeGenOptions peep = releaseOptions(true);
+		Harness harness = Harness.fromProperties();
+		harness.run("cg3:nopeep", new Harness.Op() {
+			public void run() {
+				new CG3Visitor(p.err, NULL_OUT, noPeep).visit(p.ast);
+			}
+		});
+		harness.run("cg3:peep", new Harness.Op() {
+			public void run() {
+				new CG3Visitor(p.err, NULL_OUT, peep).visit(p.ast);
+			}
+		});
+	}
+
+	// compiles a program through CG3 with the peephole on, and prints the
+	// counts for it
+	private static PipelineBench.Pipeline report(String name, byte[] source) {
+		PipelineBench.Pipeline p = new PipelineBench.Pipeline(source, name);
+		for (int i = 0; i < PipelineBench.STAGES.length-1; i++) p.runStage(i);
+		long[] before = snapshot();
+		new CG3Visitor(p.err, NULL_OUT, releaseOptions(true)).visit(p.ast);
+		long[] after = snapshot();
+		long in = after[RULES.length]-before[RULES.length];
+		long out = after[RULES.length+1]-before[RULES.length+1];
+		System.out.printf("%-16s %8d %8d %6.1f%%", new File(name).getName(), in, out,
+				in == 0 ? 0.0 : 100.0*(out-in)/in);
+		for (int r = 0; r < RULES.length; r++) {
+			System.out.printf(" %8d", after[r]-before[r]);
+		}
+		System.out.println();
+		return p;
+	}
+
+	// the options of a compilation with -d and -r, and with or without -nopeep
+	private static CodeGenOptions releaseOptions(boolean peephole) {
+		CodeGenOptions opts = new CodeGenOptions();
+		opts.deterministic = true;
+		opts.release = true;
+		opts.peephole = peephole;
+		return opts;
+	}
+
+	private static long[] snapshot() {
+		long[] counts = new long[RULES.length+2];
+		for (int r = 0; r < RULES.length; r++) counts[r] = Peephole.hits(r);
+		counts[RULES.length] = Peephole.instructionsIn();
+		counts[RULES.length+1] = Peephole.instructionsOut();
+		return counts;
+	}
+}
@@ -0,0 +1,141 @@
+package bench;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+import errorMsg.ErrorMsg;
+import parse.*;
+import syntaxtree.*;
+import visitor.*;
+
+// Benchmarks each stage of the pipeline that main.Main5 drives -- parse,
+// Sem1..Sem5 and CG1..CG3 -- on the given MiniJava files (by default,
+// the bundled samples).  For each stage, every operation gets a freshly
+// parsed AST that has been through the earlier stages, and only the
+// stage itself is measured.  Generated code goes to a discarding stream.
+//
+// usage: java [-Dbench.warmup=N -Dbench.iterations=N -Dbench.time=MS]
+//           bench.PipelineBench [-stage:name] [-gen:lines] [file.java ...]
+//
+// -gen:lines adds a program of (about) that many lines from
+// ProgramGenerator, with its default shape; it may be repeated to
+// measure how each stage scales.
+public class PipelineBench {
+
+	static final String[] STAGES = {
+		"parse", "sem1", "sem2", "sem3", "sem4", "sem5", "cg1", "cg2", "cg3",
+	};
+
+	static final String[] SAMPLES = {
+		"RedBlack.java", "Seive.java", "FibRecursive.java", "DynDispatch.java",
+	};
+
+	private static final PrintStream NULL_OUT =
+		new PrintStream(new BufferedOutputStream(OutputStream.nullOutputStream(), 1 << 16));
+
+	public static void main(String[] args) throws Exception {
+		LinkedHashMap<String,byte[]> inputs = new LinkedHashMap<String,byte[]>();
+		String onlyStage = null;
+		for (String arg : args) {
+			if (arg.startsWith("-stage:")) onlyStage = arg.substring(7);
+			else if (arg.startsWith("-gen:")) {
+				ProgramGenerator.Config cfg = new ProgramGenerator.Config();
+				cfg.lines = Integer.parseInt(arg.substring(5));
+				inputs.put("gen"+cfg.lines, ProgramGenerator.generate(cfg));
+			}
+			else addFile(inputs, arg);
+		}
+		if (inputs.isEmpty()) {
+			for (String file : SAMPLES) addFile(inputs, file);
+		}
+		Harness harness = Harness.fromProperties();
+		for (Map.Entry<String,byte[]> input : inputs.entrySet()) {
+			String name = input.getKey();
+			for (int i = 0; i < STAGES.length; i++) {
+				if (onlyStage != null && !onlyStage.equals(STAGES[i])) continue;
+				harness.run(name+":"+STAGES[i], stageOp(input.getValue(), name, i));
+			}
+		}
+	}
+
+	private static void addFile(Map<String,byte[]> inputs, String file) throws IOException {
+		inputs.put(Paths.get(file).getFileName().toString(), Files.readAllBytes(Paths.get(file)));
+	}
+
+	// the operation for the given stage: set-up brings a fresh AST
+	// through the stages before 'stage', and run performs 'stage'
+	static Harness.Op stageOp(final byte[] source, final String name, final int stage) {
+		return new Harness.Op() {
+			Pipeline p;
+			public void setUp() {
+				p = new Pipeline(source, name);
+				for (int i = 0; i < stage; i++) p.runStage(i);
+			}
+			public void run() {
+				p.runStage(stage);
+			}
+		};
+	}
+
+	// the state of one compilation, advanced a stage at a time
+	static class Pipeline {
+		final byte[] source;
+		final ErrorMsg err;
+		final CompilationContext context = new CompilationContext();
+		// the code generators' options: those of a compilation with -d, so
+		// that the code is the same from one run to the next
+		final CodeGenOptions options = new CodeGenOptions();
+		AstNode ast;
+		Hashtable<String,ClassDecl> globalTab;
+
+		Pipeline(byte[] source, String name) {
+			this.source = source;
+			this.err = new ErrorMsg(name);
+			options.deterministic = true;
+		}
+
+		void runStage(int stage) {
+			context.enter();
+			try {
+				doStage(stage);
+			}
+			finally {
+				context.exit();
+			}
+			if (err.anyErrors) {
+				throw new IllegalStateException("compile error in stage "+STAGES[stage]);
+			}
+		}
+
+		private void doStage(int stage) {
+			switch (stage) {
+			case 0: ast = parse(source, err); break;
+			case 1:
+				Sem1Visitor s1 = new Sem1Visitor(err);
+				s1.visit(ast);
+				globalTab = s1.getGlobalSymTab();
+				break;
+			case 2: new Sem2Visitor(globalTab, err).visit(ast); break;
+			case 3: new Sem3Visitor(globalTab, err).visit(ast); break;
+			case 4: new Sem4Visitor(globalTab, err).visit(ast); break;
+			case 5: new Sem5Visitor(err).visit(ast); break;
+			case 6: new CG1Visitor(err, NULL_OUT, options).visit(ast); break;
+			case 7: new CG2Visitor(err, NULL_OUT, options).visit(ast); break;
+			case 8: new CG3Visitor(err, NULL_OUT, options).visit(ast); break;
+			}
+		}
+	}
+
+	// parses the source the way Main5 does (scanner filter, then grammar)
+	static AstNode parse(byte[] source, ErrorMsg err) {
+		ByteArrayOutputStream os = new ByteArrayOutputStream(source.length*2);
+		ErrorMsg scannerErr = new ErrorMsg(err.getFileName());
+		new MJScannerParseTable(new MJScanner(scannerErr, os)).parse(new ByteArrayInputStream(source),0,false);
+		MJGrammar mj = new MJGrammar(err);
+		new MJGrammarParseTable(mj).parse(new ByteArrayInputStream(os.toByteArray()),0,false);
+		AstNode ast = mj.parseResult();
+		new TrimListsVisitor().trim(ast);
+		return ast;
+	}
+}
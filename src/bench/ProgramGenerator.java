@@ -0,0 +1,327 @@
+package bench;
+
+import java.io.*;
+import java.util.*;
+
+// Generates valid, terminating MiniJava programs of tunable size and
+// shape, for stress tests and for compile-time and run-time scaling
+// benchmarks.  The classes form inheritance chains hanging off Lib;
+// every class overrides the same int methods m0..mN, where mJ may call
+// m(J-1) and the m0 of objects it allocates, so call depth is bounded
+// by the method count.  Loops are counted, arrays are only indexed at
+// 0, and divisors are non-zero literals, so every generated program
+// runs to completion.
+//
+// usage: java bench.ProgramGenerator [-lines:N] [-classes:N] [-depth:N]
+//           [-methods:N] [-stmts:N] [-nesting:N] [-expr:N] [-strings:P]
+//           [-alloc:P] [-seed:N] [-o file]
+//
+// -lines:N keeps adding classes until the program has at least N
+// lines (overriding -classes); -strings and -alloc are the percentage
+// of statements that are string-literal assignments and array or
+// object allocations, respectively.
+public class ProgramGenerator {
+
+	// the knobs; the defaults give a program of a few hundred lines
+	public static class Config {
+		public int lines = 0;
+		public int classes = 8;
+		public int depth = 3;
+		public int methods = 4;
+		public int stmts = 6;
+		public int nesting = 2;
+		public int expr = 3;
+		public int strings = 5;
+		public int alloc = 10;
+		public long seed = 1;
+	}
+
+	private final Config cfg;
+	private final Random rand;
+	private final Writer out;
+	private int lineCount;
+
+	// the class being generated, and the fields visible in it
+	private int classNum;
+	private final ArrayList<String> fields = new ArrayList<String>();
+	private final ArrayList<Integer> fieldCounts = new ArrayList<Integer>();
+
+	// the locals in scope in the method being generated
+	private final ArrayList<String> intVars = new ArrayList<String>();
+	private final ArrayList<String> arrayVars = new ArrayList<String>();
+	private int localNum;
+
+	private ProgramGenerator(Config cfg, Writer out) {
+		this.cfg = cfg;
+		this.rand = new Random(cfg.seed);
+		this.out = out;
+	}
+
+	public static void main(String[] args) throws IOException {
+		Config cfg = new Config();
+		String outName = null;
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("-o") && i+1 < args.length) outName = args[++i];
+			else if (arg.startsWith("-lines:")) cfg.lines = intArg(arg);
+			else if (arg.startsWith("-classes:")) cfg.classes = intArg(arg);
+			else if (arg.startsWith("-depth:")) cfg.depth = intArg(arg);
+			else if (arg.startsWith("-methods:")) cfg.methods = intArg(arg);
+			else if (arg.startsWith("-stmts:")) cfg.stmts = intArg(arg);
+			else if (arg.startsWith("-nesting:")) cfg.nesting = intArg(arg);
+			else if (arg.startsWith("-expr:")) cfg.expr = intArg(arg);
+			else if (arg.startsWith("-strings:")) cfg.strings = intArg(arg);
+			else if (arg.startsWith("-alloc:")) cfg.alloc = intArg(arg);
+			else if (arg.startsWith("-seed:")) cfg.seed = intArg(arg);
+			else {
+				System.err.println("Unknown argument: "+arg);
+				System.exit(1);
+			}
+		}
+		Writer w = outName == null
+			? new OutputStreamWriter(System.out)
+			: new FileWriter(outName);
+		w = new BufferedWriter(w, 1 << 16);
+		int lines = generate(cfg, w);
+		w.flush();
+		if (outName != null) {
+			w.close();
+			System.err.println("Wrote "+lines+" lines to "+outName);
+		}
+	}
+
+	private static int intArg(String arg) {
+		return Integer.parseInt(arg.substring(arg.indexOf(':')+1));
+	}
+
+	// writes a program to 'out'; returns the number of lines written
+	public static int generate(Config cfg, Writer out) throws IOException {
+		return new ProgramGenerator(cfg, out).program();
+	}
+
+	// the generated program as a byte array
+	public static byte[] generate(Config cfg) {
+		StringWriter sw = new StringWriter();
+		try {
+			generate(cfg, sw);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return sw.toString().getBytes();
+	}
+
+	private int program() throws IOException {
+		line("// generated by bench.ProgramGenerator (seed "+cfg.seed+")");
+		int depth = Math.max(1, cfg.depth);
+		while (cfg.lines > 0 ? lineCount < cfg.lines : classNum < cfg.classes) {
+			classDecl(classNum%depth);
+			classNum++;
+		}
+		mainClass();
+		return lineCount;
+	}
+
+	// class C<n>, at the given level of its inheritance chain
+	private void classDecl(int level) throws IOException {
+		while (fieldCounts.size() > level) {
+			int n = fieldCounts.remove(fieldCounts.size()-1);
+			fields.subList(fields.size()-n, fields.size()).clear();
+		}
+		line("");
+		line("class C"+classNum+" extends "+(level == 0 ? "Lib" : "C"+(classNum-1))+" {");
+		int nFields = 1+rand.nextInt(3);
+		for (int i = 0; i < nFields; i++) {
+			String f = "f"+classNum+"_"+i;
+			line("\tint "+f+";");
+			fields.add(f);
+		}
+		fieldCounts.add(nFields);
+		for (int j = 0; j < Math.max(1, cfg.methods); j++) {
+			methodDecl(j);
+		}
+		line("}");
+	}
+
+	// public int m<j>(int p): computes into r, which it returns
+	private void methodDecl(int j) throws IOException {
+		intVars.clear();
+		arrayVars.clear();
+		localNum = 0;
+		line("\tpublic int m"+j+"(int p) {");
+		line("\t\tint r = p;");
+		intVars.add("p");
+		intVars.add("r");
+		if (j > 0) {
+			line("\t\tr = r + m"+(j-1)+"("+intExp(cfg.expr)+");");
+		}
+		statements(cfg.stmts, 0, "\t\t", j);
+		line("\t\treturn r;");
+		line("\t}");
+	}
+
+	private void statements(int count, int nesting, String indent, int method) throws IOException {
+		int intMark = intVars.size();
+		int arrayMark = arrayVars.size();
+		for (int i = 0; i < count; i++) {
+			statement(nesting, indent, method);
+		}
+		// locals go out of scope at the end of the block
+		intVars.subList(intMark, intVars.size()).clear();
+		arrayVars.subList(arrayMark, arrayVars.size()).clear();
+	}
+
+	private void statement(int nesting, String indent, int method) throws IOException {
+		int pick = rand.nextInt(100);
+		if (pick < cfg.alloc) {
+			allocation(indent, method);
+			return;
+		}
+		pick -= cfg.alloc;
+		if (pick < cfg.strings) {
+			String s = local();
+			line(indent+"String "+s+" = \""+stringText()+"\";");
+			return;
+		}
+		int kind = rand.nextInt(nesting < cfg.nesting ? 6 : 4);
+		switch (kind) {
+		case 0:
+			String v = local();
+			line(indent+"int "+v+" = "+intExp(cfg.expr)+";");
+			intVars.add(v);
+			break;
+		case 1:
+			line(indent+"r = "+intExp(cfg.expr)+";");
+			break;
+		case 2: case 3:
+			if (kind == 2 && !fields.isEmpty()) {
+				line(indent+pickFrom(fields)+" = "+intExp(cfg.expr)+";");
+			}
+			else if (!arrayVars.isEmpty()) {
+				line(indent+pickFrom(arrayVars)+"[0] = "+intExp(cfg.expr)+";");
+			}
+			else {
+				line(indent+"r = r + "+intExp(cfg.expr)+";");
+			}
+			break;
+		case 4:
+			line(indent+"if ("+boolExp(cfg.expr)+") {");
+			statements(blockSize(), nesting+1, indent+"\t", method);
+			line(indent+"}");
+			line(indent+"else {");
+			statements(blockSize(), nesting+1, indent+"\t", method);
+			line(indent+"}");
+			break;
+		case 5:
+			String i = local();
+			line(indent+"for (int "+i+" = 0; "+i+" < "+(2+rand.nextInt(3))+"; "+i+"++) {");
+			intVars.add(i);
+			statements(blockSize(), nesting+1, indent+"\t", method);
+			intVars.remove(intVars.size()-1);
+			line(indent+"}");
+			break;
+		}
+	}
+
+	private int blockSize() {
+		return 1+rand.nextInt(Math.max(1, cfg.stmts/2));
+	}
+
+	// an int array, or an instance of this or an earlier class; outside
+	// of m0, the object's m0 then contributes to r (m0 itself makes no
+	// calls, so this cannot recurse)
+	private void allocation(String indent, int method) throws IOException {
+		String v = local();
+		if (rand.nextBoolean()) {
+			line(indent+"int[] "+v+" = new int["+(1+rand.nextInt(16))+"];");
+			arrayVars.add(v);
+		}
+		else {
+			String type = "C"+rand.nextInt(classNum+1);
+			line(indent+type+" "+v+" = new "+type+"();");
+			if (method > 0) {
+				line(indent+"r = r + "+v+".m0("+intExp(1)+");");
+			}
+		}
+	}
+
+	private String intExp(int depth) {
+		if (depth <= 0 || rand.nextInt(4) == 0) {
+			return intLeaf();
+		}
+		switch (rand.nextInt(5)) {
+		case 0: return "("+intExp(depth-1)+" + "+intExp(depth-1)+")";
+		case 1: return "("+intExp(depth-1)+" - "+intExp(depth-1)+")";
+		case 2: return "("+intExp(depth-1)+" * "+intExp(depth-1)+")";
+		case 3: return "("+intExp(depth-1)+" % "+(1+rand.nextInt(97))+")";
+		default: return "("+intExp(depth-1)+" / "+(1+rand.nextInt(7))+")";
+		}
+	}
+
+	private String intLeaf() {
+		switch (rand.nextInt(5)) {
+		case 0: return Integer.toString(rand.nextInt(1000));
+		case 1:
+			if (!fields.isEmpty()) return pickFrom(fields);
+			break;
+		case 2:
+			if (!arrayVars.isEmpty()) {
+				String a = pickFrom(arrayVars);
+				return rand.nextBoolean() ? a+"[0]" : a+".length";
+			}
+			break;
+		}
+		return pickFrom(intVars);
+	}
+
+	private String boolExp(int depth) {
+		if (depth <= 1 || rand.nextInt(3) == 0) {
+			String op = rand.nextBoolean() ? " < " : rand.nextBoolean() ? " > " : " == ";
+			return intExp(depth-1)+op+intExp(depth-1);
+		}
+		switch (rand.nextInt(3)) {
+		case 0: return "("+boolExp(depth-1)+") && ("+boolExp(depth-1)+")";
+		case 1: return "("+boolExp(depth-1)+") || ("+boolExp(depth-1)+")";
+		default: return "!("+boolExp(depth-1)+")";
+		}
+	}
+
+	private String stringText() {
+		StringBuilder sb = new StringBuilder();
+		int len = 1+rand.nextInt(24);
+		for (int i = 0; i < len; i++) {
+			sb.append((char)('a'+rand.nextInt(26)));
+		}
+		return sb.toString();
+	}
+
+	private String local() {
+		return "v"+(localNum++);
+	}
+
+	private String pickFrom(ArrayList<String> list) {
+		return list.get(rand.nextInt(list.size()));
+	}
+
+	// calls the top method of every class, and prints the total
+	private void mainClass() throws IOException {
+		line("");
+		line("class Main extends Lib {");
+		line("\tpublic void main() {");
+		line("\t\tint sum = 0;");
+		int top = Math.max(1, cfg.methods)-1;
+		for (int c = 0; c < classNum; c++) {
+			line("\t\tsum = sum + new C"+c+"().m"+top+"("+c+");");
+		}
+		line("\t\tprintInt(sum);");
+		line("\t\tprintStr(\"\\n\");");
+		line("\t}");
+		line("}");
+	}
+
+	private void line(String s) throws IOException {
+		out.write(s);
+		out.write('\n');
+		lineCount++;
+	}
+}
@@ -0,0 +1,115 @@
+package bench;
+
+import java.util.*;
+
+import errorMsg.ErrorMsg;
+import syntaxtree.*;
+import visitor.*;
+
+// Full AST traversals with the kind-switch dispatch and delegation-chain
+// skipping in InhVisitor/ASTvisitor turned off ("accept") and on
+// ("table").  Each traversal operation runs several visitor classes
+// over the AST in turn, as the compiler's passes do, so that the visit
+// call sites see more than one visitor class.  The "pipeline" benchmarks
+// run Sem1..CG3 on a freshly parsed AST.
+//
+// usage: java [-Dbench.warmup=N ...] bench.VisitorDispatchBench [-gen:lines] [file.java]
+// (by default, a 20000-line generated program)
+public class VisitorDispatchBench {
+
+	static volatile int sink;
+
+	// visitors that each do a little work for a few node kinds
+	static class CallCounter extends ASTvisitor {
+		int calls;
+		@Override
+		public Object visitCall(Call n) {
+			calls++;
+			return super.visitCall(n);
+		}
+	}
+
+	static class ExpCounter extends ASTvisitor {
+		int exps;
+		@Override
+		public Object visitExp(Exp n) {
+			exps++;
+			return null;
+		}
+	}
+
+	static class NodeCounter extends ASTvisitor {
+		int nodes;
+		@Override
+		public Object visitAstNode(AstNode n) {
+			nodes++;
+			return null;
+		}
+	}
+
+	static class LiteralSummer extends ASTvisitor {
+		int sum;
+		@Override
+		public Object visitIntegerLiteral(IntegerLiteral n) {
+			sum += n.val;
+			return null;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		byte[] source = null;
+		String name = null;
+		int genLines = 20000;
+		for (String arg : args) {
+			if (arg.startsWith("-gen:")) genLines = Integer.parseInt(arg.substring(5));
+			else {
+				source = java.nio.file.Files.readAllBytes(java.nio.file.Paths.get(arg));
+				name = arg;
+			}
+		}
+		if (source == null) {
+			ProgramGenerator.Config cfg = new ProgramGenerator.Config();
+			cfg.lines = genLines;
+			source = ProgramGenerator.generate(cfg);
+			name = "gen"+genLines;
+		}
+		final AstNode ast = PipelineBench.parse(source, new ErrorMsg(name));
+		System.out.println(name+": "+new NodeCountVisitor().count(ast)+" nodes");
+
+		Harness harness = Harness.fromProperties();
+		for (boolean table : new boolean[]{false, true}) {
+			final String mode = table ? "table" : "accept";
+			InhVisitor.setTableDispatch(table);
+			harness.run("traverse:"+mode, new Harness.Op() {
+				public void run() {
+					new ASTvisitor().visit(ast);
+					CallCounter c = new CallCounter();
+					c.visit(ast);
+					ExpCounter e = new ExpCounter();
+					e.visit(ast);
+					LiteralSummer l = new LiteralSummer();
+					l.visit(ast);
+					NodeCounter nc = new NodeCounter();
+					nc.visit(ast);
+					sink = c.calls+e.exps+l.sum+nc.nodes;
+				}
+			});
+		}
+		for (boolean table : new boolean[]{false, true}) {
+			final String mode = table ? "table" : "accept";
+			InhVisitor.setTableDispatch(table);
+			final byte[] src = source;
+			final String file = name;
+			harness.run("pipeline:"+mode, new Harness.Op() {
+				PipelineBench.Pipeline p;
+				public void setUp() {
+					p = new PipelineBench.Pipeline(src, file);
+					p.runStage(0);
+				}
+				public void run() {
+					for (int i = 1; i < PipelineBench.STAGES.length; i++) p.runStage(i);
+				}
+			});
+		}
+	}
+}
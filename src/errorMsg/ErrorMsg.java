@@ -3,21 +3,36 @@ package errorMsg;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.PrintStream;
+import java.util.Arrays;
 import terminal.*;
 
 public class ErrorMsg {
 	
-	private LineList linePos = new LineList(-1,null);
+	private static final int INITIAL_LINES = 256;
+	
+	// start-positions of the lines seen so far: lineStarts[i] is the
+	// position just before line i+1 begins; the array grows by doubling
+	private int[] lineStarts = new int[INITIAL_LINES];
 	private int lineNum=1;
 	private String filename;
 	public boolean anyErrors;
 	private boolean doFrame;
+	private PrintStream diagnostics;
 	GuiTerminal2 terminal;
 	
 	
 	public ErrorMsg(String f) {
+		this(f, System.err);
+	}
+	
+	// creates an error-message object that reports to the given stream
+	// instead of System.err
+	public ErrorMsg(String f, PrintStream diag) {
 		filename=f;
+		lineStarts[0] = -1;
 		doFrame = false;
+		diagnostics = diag;
 	}
 	
 	public String getFileName() {
@@ -37,8 +52,10 @@ public class ErrorMsg {
 	}
 	
 	public void newline(int pos) {
-		lineNum++;
-		linePos = new LineList(pos,linePos);
+		if (lineNum == lineStarts.length) {
+			lineStarts = Arrays.copyOf(lineStarts, 2*lineNum);
+		}
+		lineStarts[lineNum++] = pos;
 	}
 	
 	public void error(int pos, String msg) {
@@ -56,21 +73,48 @@ public class ErrorMsg {
 	}
 	
 	public String lineAndChar(int pos) {
-		int n = lineNum;
-		LineList p = linePos;
-		while (p!=null) {
-			if (p.head<pos) {
-				return String.valueOf(n) + "." + String.valueOf(pos-p.head);
+		int idx = lineIndexFor(pos);
+		if (idx < 0) {
+			return "0.0";
+		}
+		return String.valueOf(idx+1) + "." + String.valueOf(pos-lineStarts[idx]);
+	}
+	
+	// appends the same text that lineAndChar returns, without creating
+	// any intermediate strings
+	public void appendLineAndChar(StringBuilder sb, int pos) {
+		int idx = lineIndexFor(pos);
+		if (idx < 0) {
+			sb.append("0.0");
+		}
+		else {
+			sb.append(idx+1).append('.').append(pos-lineStarts[idx]);
+		}
+	}
+	
+	// binary search for the last line whose start-position is less
+	// than 'pos'; returns -1 if there is no such line
+	private int lineIndexFor(int pos) {
+		int lo = 0;
+		int hi = lineNum-1;
+		int found = -1;
+		while (lo <= hi) {
+			int mid = (lo+hi) >>> 1;
+			if (lineStarts[mid] < pos) {
+				found = mid;
+				lo = mid+1;
+			}
+			else {
+				hi = mid-1;
 			}
-			p=p.tail; n--;
 		}
-		return "0.0";
+		return found;
 	}
 	
 	private void msgOut(String s) {
 		createFrameIfNeeded();
 		if (terminal == null) {
-			System.err.println(s);
+			diagnostics.println(s);
 		}
 		else {
 			terminal.println(s);
@@ -83,10 +127,4 @@ public class ErrorMsg {
 	}
 }  
 
-class LineList {
-	int head;
-	LineList tail;
-	LineList(int h, LineList t) {head=h; tail=t;}
-}
-
 
@@ -0,0 +1,367 @@
+package flatAst;
+
+import java.util.Arrays;
+
+import syntaxtree.*;
+
+// A compact, arena-style copy of an AST, for passes that walk the whole
+// tree: each node is an index into a set of parallel arrays rather than
+// an object of its own.  A node's children are reached through
+// 'firstChild' and 'nextSibling', in the order in which ASTvisitor
+// visits them; each AstList becomes a node of kind LIST whose children
+// are the list's elements.  The links filled in by the semantic passes
+// (declarations, superclasses, overridden methods, break targets, ...)
+// are node indices in 'link'; the types of expressions and
+// declarations are indices into a table of interned types; class and
+// method declarations have rows in small side tables.
+//
+// A FlatAst is built from an analyzed AST with FlatAst.build; the
+// AstNode tree is not needed afterwards by the passes that run over the
+// flat one (FlatCG1, FlatCG3).
+public final class FlatAst {
+
+	// the kind of a node standing for an AstList
+	public static final int LIST = NodeKind.COUNT;
+
+	// "no node" or "no type"
+	public static final int NONE = -1;
+
+	// the tags of the entries in the type table
+	static final byte T_INT = 0;
+	static final byte T_BOOLEAN = 1;
+	static final byte T_VOID = 2;
+	static final byte T_NULL = 3;
+	static final byte T_ARRAY = 4;
+	static final byte T_CLASS = 5;
+	static final byte T_OTHER = 6;
+
+	//---------- the nodes ----------
+
+	int size;
+	byte[] kind;
+	int[] pos;
+	int[] uniqueId;
+	int[] firstChild;
+	int[] nextSibling;
+
+	// index into the type table: the type of an expression, the declared
+	// type of a variable, or the type a type node denotes
+	int[] type;
+
+	// the node linked to: a variable's declaration, a called method, a
+	// class's superclass, a method's overridden method, a break's target,
+	// a label's switch, an identifier type's class, a string literal's
+	// code-generation representative
+	int[] link;
+
+	// a per-kind value: an integer literal's value, a variable's offset,
+	// a while or switch statement's stack height, or the row of a class
+	// or method declaration in its side table
+	int[] value;
+
+	//---------- the type table ----------
+
+	int typeCount;
+	byte[] typeTag;
+	int[] typeBase; // element type of an array type
+	int[] typeClass; // class declaration of a class type
+	String[] typeName; // name of a class type
+	int[] typeHash; // the hash code of the corresponding Type object
+	String[] typeVtableName; // computed on demand
+
+	// the interned types: the primitive type for each tag, the array
+	// type of each type, and the class type of each class declaration
+	private final int[] primitiveTypes = {NONE, NONE, NONE, NONE, NONE, NONE, NONE};
+	private int[] arrayTypeOf;
+	private final java.util.HashMap<Integer,Integer> classTypes = new java.util.HashMap<Integer,Integer>();
+
+	//---------- the side tables ----------
+
+	int classCount;
+	int[] classNode;
+	String[] className;
+	int[][] subclasses; // nodes of the direct subclasses
+	int[] classMethods; // size of the class's method table
+	int[] numDataInstVars;
+	int[] numObjInstVars;
+
+	int methodCount;
+	int[] methodNode;
+	String[] methodName;
+	int[] methodClass; // node of the declaring class
+	int[] thisPtrOffset;
+	int[] vtableOffset;
+
+	FlatAst(int nodeCapacity) {
+		kind = new byte[nodeCapacity];
+		pos = new int[nodeCapacity];
+		uniqueId = new int[nodeCapacity];
+		firstChild = new int[nodeCapacity];
+		nextSibling = new int[nodeCapacity];
+		type = new int[nodeCapacity];
+		link = new int[nodeCapacity];
+		value = new int[nodeCapacity];
+		typeTag = new byte[16];
+		typeBase = new int[16];
+		typeClass = new int[16];
+		typeName = new String[16];
+		typeHash = new int[16];
+		typeVtableName = new String[16];
+		arrayTypeOf = new int[16];
+		classNode = new int[8];
+		className = new String[8];
+		subclasses = new int[8][];
+		classMethods = new int[8];
+		numDataInstVars = new int[8];
+		numObjInstVars = new int[8];
+		methodNode = new int[16];
+		methodName = new String[16];
+		methodClass = new int[16];
+		thisPtrOffset = new int[16];
+		vtableOffset = new int[16];
+	}
+
+	// the flat copy of an analyzed AST; the root is node 0
+	public static FlatAst build(AstNode root) {
+		return new FlatAstBuilder().build(root);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int kind(int n) {
+		return kind[n];
+	}
+
+	public int pos(int n) {
+		return pos[n];
+	}
+
+	public int firstChild(int n) {
+		return firstChild[n];
+	}
+
+	public int nextSibling(int n) {
+		return nextSibling[n];
+	}
+
+	// the node's k'th child, or NONE
+	public int child(int n, int k) {
+		int c = firstChild[n];
+		while (k > 0 && c != NONE) {
+			c = nextSibling[c];
+			k--;
+		}
+		return c;
+	}
+
+	// the heap used by the node arrays, in bytes
+	public long nodeBytes() {
+		return (long)kind.length*(1+7*4);
+	}
+
+	//---------- adding nodes, types and declarations ----------
+
+	int addNode(int k, int p, int id) {
+		if (size == kind.length) {
+			int cap = Math.max(16, size*2);
+			kind = Arrays.copyOf(kind, cap);
+			pos = Arrays.copyOf(pos, cap);
+			uniqueId = Arrays.copyOf(uniqueId, cap);
+			firstChild = Arrays.copyOf(firstChild, cap);
+			nextSibling = Arrays.copyOf(nextSibling, cap);
+			type = Arrays.copyOf(type, cap);
+			link = Arrays.copyOf(link, cap);
+			value = Arrays.copyOf(value, cap);
+		}
+		int n = size++;
+		kind[n] = (byte)k;
+		pos[n] = p;
+		uniqueId[n] = id;
+		firstChild[n] = NONE;
+		nextSibling[n] = NONE;
+		type[n] = NONE;
+		link[n] = NONE;
+		return n;
+	}
+
+	// shrinks the node arrays to the number of nodes
+	void trimToSize() {
+		kind = Arrays.copyOf(kind, size);
+		pos = Arrays.copyOf(pos, size);
+		uniqueId = Arrays.copyOf(uniqueId, size);
+		firstChild = Arrays.copyOf(firstChild, size);
+		nextSibling = Arrays.copyOf(nextSibling, size);
+		type = Arrays.copyOf(type, size);
+		link = Arrays.copyOf(link, size);
+		value = Arrays.copyOf(value, size);
+	}
+
+	// the interned primitive type with the given tag
+	int primitiveType(byte tag) {
+		int t = primitiveTypes[tag];
+		if (t == NONE) {
+			t = newType(tag, NONE, NONE, null, primitiveHash(tag));
+			primitiveTypes[tag] = t;
+		}
+		return t;
+	}
+
+	// the interned array type with the given element type
+	int arrayOf(int base) {
+		int t = arrayTypeOf[base];
+		if (t == NONE) {
+			t = newType(T_ARRAY, base, NONE, null, 18623+274673*typeHash[base]);
+			arrayTypeOf[base] = t;
+		}
+		return t;
+	}
+
+	// the class type with the given name and declaration; as with
+	// IdentifierType.equals, class types with no declaration are never
+	// equal to another, and are not interned
+	int classType(String name, int cls) {
+		int hash = name == null ? 23977 : 826427*name.hashCode()+83473;
+		if (cls == NONE) {
+			return newType(T_CLASS, NONE, cls, name, hash);
+		}
+		Integer t = classTypes.get(cls);
+		if (t == null) {
+			t = newType(T_CLASS, NONE, cls, name, hash);
+			classTypes.put(cls, t);
+		}
+		return t;
+	}
+
+	private int newType(byte tag, int base, int cls, String name, int hash) {
+		if (typeCount == typeTag.length) {
+			int cap = typeCount*2;
+			typeTag = Arrays.copyOf(typeTag, cap);
+			typeBase = Arrays.copyOf(typeBase, cap);
+			typeClass = Arrays.copyOf(typeClass, cap);
+			typeName = Arrays.copyOf(typeName, cap);
+			typeHash = Arrays.copyOf(typeHash, cap);
+			typeVtableName = Arrays.copyOf(typeVtableName, cap);
+			arrayTypeOf = Arrays.copyOf(arrayTypeOf, cap);
+		}
+		int t = typeCount++;
+		typeTag[t] = tag;
+		typeBase[t] = base;
+		typeClass[t] = cls;
+		typeName[t] = name;
+		typeHash[t] = hash;
+		arrayTypeOf[t] = NONE;
+		return t;
+	}
+
+	private static int primitiveHash(byte tag) {
+		switch (tag) {
+		case T_INT: return 657643445;
+		case T_BOOLEAN: return 327236434;
+		case T_VOID: return 23672;
+		case T_NULL: return 7326834;
+		default: return 0;
+		}
+	}
+
+	int addClass(int node, String name, int nMethods, int numData, int numObj) {
+		if (classCount == classNode.length) {
+			int cap = classCount*2;
+			classNode = Arrays.copyOf(classNode, cap);
+			className = Arrays.copyOf(className, cap);
+			subclasses = Arrays.copyOf(subclasses, cap);
+			classMethods = Arrays.copyOf(classMethods, cap);
+			numDataInstVars = Arrays.copyOf(numDataInstVars, cap);
+			numObjInstVars = Arrays.copyOf(numObjInstVars, cap);
+		}
+		int c = classCount++;
+		classNode[c] = node;
+		className[c] = name;
+		classMethods[c] = nMethods;
+		numDataInstVars[c] = numData;
+		numObjInstVars[c] = numObj;
+		return c;
+	}
+
+	int addMethod(int node, String name, int cls, int thisPtr, int vtable) {
+		if (methodCount == methodNode.length) {
+			int cap = methodCount*2;
+			methodNode = Arrays.copyOf(methodNode, cap);
+			methodName = Arrays.copyOf(methodName, cap);
+			methodClass = Arrays.copyOf(methodClass, cap);
+			thisPtrOffset = Arrays.copyOf(thisPtrOffset, cap);
+			vtableOffset = Arrays.copyOf(vtableOffset, cap);
+		}
+		int m = methodCount++;
+		methodNode[m] = node;
+		methodName[m] = name;
+		methodClass[m] = cls;
+		thisPtrOffset[m] = thisPtr;
+		vtableOffset[m] = vtable;
+		return m;
+	}
+
+	//---------- type names, as in CG1Visitor ----------
+
+	// the type's vtable label suffix (CG1Visitor.vtableNameFor)
+	String vtableNameFor(int t) {
+		String s = typeVtableName[t];
+		if (s == null) {
+			switch (typeTag[t]) {
+			case T_ARRAY: s = "_ARRAY_" + vtableNameFor(typeBase[t]); break;
+			case T_CLASS: s = typeName[t]; break;
+			case T_INT: s = "_INT"; break;
+			case T_BOOLEAN: s = "_BOOLEAN"; break;
+			case T_VOID: s = "_VOID"; break;
+			case T_NULL: s = "_NULLTYPE"; break;
+			default: s = "_UNKNOWNTYPE"; break;
+			}
+			typeVtableName[t] = s;
+		}
+		return s;
+	}
+
+	// the type's name in the print-string of its vtable
+	String printStringNameFor(int t, String prefix, String suffix) {
+		switch (typeTag[t]) {
+		case T_ARRAY: return "[" + printStringNameFor(typeBase[t], "L", ";");
+		case T_CLASS: return printStringNameForClass(className[value[typeClass[t]]], prefix, suffix);
+		case T_INT: return "I";
+		case T_BOOLEAN: return "Z";
+		default: return "?";
+		}
+	}
+
+	static String printStringNameForClass(String name, String prefix, String suffix) {
+		if (name.equals("String") || name.equals("Object")) {
+			name = "java.lang." + name;
+		}
+		return prefix + name + suffix;
+	}
+
+	// the class of the Type object the type table entry stands for
+	Class<?> typeClassOf(int t) {
+		switch (typeTag[t]) {
+		case T_INT: return IntegerType.class;
+		case T_BOOLEAN: return BooleanType.class;
+		case T_VOID: return VoidType.class;
+		case T_NULL: return NullType.class;
+		case T_ARRAY: return ArrayType.class;
+		case T_CLASS: return IdentifierType.class;
+		default: return Type.class;
+		}
+	}
+
+	boolean isInt(int t) {
+		return t != NONE && typeTag[t] == T_INT;
+	}
+
+	boolean isBoolean(int t) {
+		return t != NONE && typeTag[t] == T_BOOLEAN;
+	}
+
+	boolean isVoid(int t) {
+		return t != NONE && typeTag[t] == T_VOID;
+	}
+}
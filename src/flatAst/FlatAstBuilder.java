@@ -0,0 +1,344 @@
+package flatAst;
+
+import java.util.Arrays;
+
+import syntaxtree.*;
+
+// Builds a FlatAst from an analyzed AST.  The nodes are laid out in
+// preorder, so that a node's first child usually follows it directly;
+// the tree is walked with an explicit stack, in the order in which
+// ASTvisitor (and TreeWalker) reach the nodes.  A second sweep over the
+// nodes then fills in their types, links and side-table rows.  A link
+// to a node that is not in the tree adds that node, and its subtree, at
+// the end; the classes linked to as superclasses and subclasses are
+// added first.
+final class FlatAstBuilder {
+
+	private final FlatAst flat = new FlatAst(1024);
+
+	// the AstNode or AstList that each flat node was built from
+	private Object[] originals = new Object[1024];
+
+	// each flat node's last child so far, while the children are added
+	private int[] lastChild = new int[1024];
+
+	// the flat node built from each AstNode, keyed by the node's
+	// uniqueId (unique within its compilation): an open-addressed table
+	// of ids, and the nodes for them
+	private int[] indexIds = new int[2048];
+	private int[] indexNodes = new int[2048];
+	private int indexShift = 32-11;
+	private int indexCount;
+
+	// the pending AstNodes and AstLists, and the flat nodes that are to
+	// be their parents
+	private Object[] pending = new Object[64];
+	private int[] parents = new int[64];
+	private int top;
+
+	FlatAst build(AstNode root) {
+		addTree(root);
+		// classes that are reached only through superclass and subclass
+		// links (such as the library classes) come next, whole, so that
+		// links to their members find them where they are declared
+		for (int n = 0; n < flat.size; n++) {
+			if (originals[n] instanceof ClassDecl) {
+				ClassDecl cd = (ClassDecl)originals[n];
+				nodeFor(cd.superLink);
+				for (int i = 0; i < cd.subclasses.size(); i++) {
+					nodeFor(cd.subclasses.elementAt(i));
+				}
+			}
+		}
+		// the loop also reaches nodes added by nodeFor as it goes
+		for (int n = 0; n < flat.size; n++) {
+			fill(n);
+		}
+		flat.trimToSize();
+		originals = null;
+		lastChild = null;
+		return flat;
+	}
+
+	// adds the subtree rooted at the node; returns the root's index
+	private int addTree(AstNode root) {
+		int first = flat.size;
+		push(root, FlatAst.NONE);
+		while (top > 0) {
+			top--;
+			Object o = pending[top];
+			int parent = parents[top];
+			pending[top] = null;
+			pushChildren(o, add(o, parent));
+		}
+		return first;
+	}
+
+	private int add(Object o, int parent) {
+		int n;
+		if (o instanceof AstNode) {
+			AstNode a = (AstNode)o;
+			n = flat.addNode(a.kind, a.pos, a.uniqueId);
+			putIndex(a.uniqueId, n);
+		}
+		else {
+			n = flat.addNode(FlatAst.LIST, -1, -1);
+		}
+		if (n == originals.length) {
+			originals = Arrays.copyOf(originals, n*2);
+			lastChild = Arrays.copyOf(lastChild, n*2);
+		}
+		originals[n] = o;
+		lastChild[n] = FlatAst.NONE;
+		if (parent != FlatAst.NONE) {
+			int prev = lastChild[parent];
+			if (prev == FlatAst.NONE) {
+				flat.firstChild[parent] = n;
+			}
+			else {
+				flat.nextSibling[prev] = n;
+			}
+			lastChild[parent] = n;
+		}
+		return n;
+	}
+
+	// pushes the node's children (or the list's elements), last one
+	// first, so that they are added in order
+	private void pushChildren(Object o, int n) {
+		if (o instanceof AstList) {
+			AstList<?> lst = (AstList<?>)o;
+			for (int i = lst.size()-1; i >= 0; i--) {
+				push(lst.elementAt(i), n);
+			}
+			return;
+		}
+		AstNode a = (AstNode)o;
+		switch (a.kind) {
+		case NodeKind.AND: case NodeKind.DIVIDE: case NodeKind.EQUALS:
+		case NodeKind.GREATER_THAN: case NodeKind.LESS_THAN: case NodeKind.MINUS:
+		case NodeKind.OR: case NodeKind.PLUS: case NodeKind.REMAINDER:
+		case NodeKind.TIMES:
+			push(((BinExp)a).right, n);
+			push(((BinExp)a).left, n);
+			break;
+		case NodeKind.ARRAY_LENGTH: case NodeKind.NOT:
+			push(((UnExp)a).exp, n);
+			break;
+		case NodeKind.ARRAY_LOOKUP:
+			push(((ArrayLookup)a).idxExp, n);
+			push(((ArrayLookup)a).arrExp, n);
+			break;
+		case NodeKind.ARRAY_TYPE:
+			push(((ArrayType)a).baseType, n);
+			break;
+		case NodeKind.ASSIGN:
+			push(((Assign)a).rhs, n);
+			push(((Assign)a).lhs, n);
+			break;
+		case NodeKind.BLOCK:
+			push(((Block)a).stmts, n);
+			break;
+		case NodeKind.CALL:
+			push(((Call)a).parms, n);
+			push(((Call)a).obj, n);
+			break;
+		case NodeKind.CALL_STATEMENT:
+			push(((CallStatement)a).callExp, n);
+			break;
+		case NodeKind.CASE:
+			push(((Case)a).exp, n);
+			break;
+		case NodeKind.CAST:
+			push(((Cast)a).exp, n);
+			push(((Cast)a).castType, n);
+			break;
+		case NodeKind.CLASS_DECL:
+			push(((ClassDecl)a).decls, n);
+			break;
+		case NodeKind.FORMAL_DECL: case NodeKind.INST_VAR_DECL:
+			push(((VarDecl)a).type, n);
+			break;
+		case NodeKind.IF:
+			push(((If)a).falseStmt, n);
+			push(((If)a).trueStmt, n);
+			push(((If)a).exp, n);
+			break;
+		case NodeKind.INSTANCE_OF:
+			push(((InstanceOf)a).checkType, n);
+			push(((InstanceOf)a).exp, n);
+			break;
+		case NodeKind.INST_VAR_ACCESS:
+			push(((InstVarAccess)a).exp, n);
+			break;
+		case NodeKind.LOCAL_DECL_STATEMENT:
+			push(((LocalDeclStatement)a).localVarDecl, n);
+			break;
+		case NodeKind.LOCAL_VAR_DECL:
+			push(((LocalVarDecl)a).initExp, n);
+			push(((LocalVarDecl)a).type, n);
+			break;
+		case NodeKind.METHOD_DECL_NON_VOID:
+			push(((MethodDeclNonVoid)a).rtnExp, n);
+			push(((MethodDeclNonVoid)a).rtnType, n);
+			push(((MethodDecl)a).stmts, n);
+			push(((MethodDecl)a).formals, n);
+			break;
+		case NodeKind.METHOD_DECL_VOID:
+			push(((MethodDecl)a).stmts, n);
+			push(((MethodDecl)a).formals, n);
+			break;
+		case NodeKind.NEW_ARRAY:
+			push(((NewArray)a).sizeExp, n);
+			push(((NewArray)a).objType, n);
+			break;
+		case NodeKind.NEW_OBJECT:
+			push(((NewObject)a).objType, n);
+			break;
+		case NodeKind.PROGRAM:
+			push(((Program)a).classDecls, n);
+			push(((Program)a).mainStatement, n);
+			break;
+		case NodeKind.SWITCH:
+			push(((Switch)a).stmts, n);
+			push(((Switch)a).exp, n);
+			break;
+		case NodeKind.WHILE:
+			push(((While)a).body, n);
+			push(((While)a).exp, n);
+			break;
+		}
+	}
+
+	private void push(Object o, int parent) {
+		if (o == null) return;
+		if (top == pending.length) {
+			pending = Arrays.copyOf(pending, top*2);
+			parents = Arrays.copyOf(parents, top*2);
+		}
+		pending[top] = o;
+		parents[top++] = parent;
+	}
+
+	// the flat node for an AstNode, adding it if it is not in the tree
+	private int nodeFor(AstNode a) {
+		if (a == null) return FlatAst.NONE;
+		int n = getIndex(a.uniqueId);
+		return n != FlatAst.NONE && originals[n] == a ? n : addTree(a);
+	}
+
+	private int getIndex(int id) {
+		int mask = indexIds.length-1;
+		for (int i = (id*0x9E3779B9) >>> indexShift; ; i = (i+1) & mask) {
+			int n = indexNodes[i];
+			if (n == 0 || indexIds[i] == id) return n-1;
+		}
+	}
+
+	// the table holds node+1, so that 0 marks an empty slot
+	private void putIndex(int id, int n) {
+		if (2*(indexCount+1) > indexIds.length) {
+			int[] ids = indexIds;
+			int[] nodes = indexNodes;
+			indexIds = new int[ids.length*2];
+			indexNodes = new int[ids.length*2];
+			indexShift--;
+			indexCount = 0;
+			for (int i = 0; i < ids.length; i++) {
+				if (nodes[i] != 0) putIndex(ids[i], nodes[i]-1);
+			}
+		}
+		int mask = indexIds.length-1;
+		int i = (id*0x9E3779B9) >>> indexShift;
+		while (indexNodes[i] != 0 && indexIds[i] != id) {
+			i = (i+1) & mask;
+		}
+		if (indexNodes[i] == 0) indexCount++;
+		indexIds[i] = id;
+		indexNodes[i] = n+1;
+	}
+
+	// fills in the node's type, link and value
+	private void fill(int n) {
+		if (!(originals[n] instanceof AstNode)) return;
+		AstNode a = (AstNode)originals[n];
+		if (a instanceof Exp) {
+			flat.type[n] = typeFor(((Exp)a).type);
+		}
+		else if (a instanceof Type) {
+			flat.type[n] = typeFor((Type)a);
+		}
+		switch (a.kind) {
+		case NodeKind.INTEGER_LITERAL:
+			flat.value[n] = ((IntegerLiteral)a).val;
+			break;
+		case NodeKind.STRING_LITERAL:
+			// until CG2 has run, a literal is its own representative,
+			// which is what CG2 makes it
+			StringLiteral rep = ((StringLiteral)a).uniqueCgRep;
+			flat.link[n] = rep == null ? n : nodeFor(rep);
+			break;
+		case NodeKind.IDENTIFIER_EXP:
+			flat.link[n] = nodeFor(((IdentifierExp)a).link);
+			break;
+		case NodeKind.INST_VAR_ACCESS:
+			flat.link[n] = nodeFor(((InstVarAccess)a).varDec);
+			break;
+		case NodeKind.CALL:
+			flat.link[n] = nodeFor(((Call)a).methodLink);
+			break;
+		case NodeKind.IDENTIFIER_TYPE:
+			flat.link[n] = nodeFor(((IdentifierType)a).link);
+			break;
+		case NodeKind.BREAK:
+			flat.link[n] = nodeFor(((Break)a).breakLink);
+			break;
+		case NodeKind.CASE: case NodeKind.DEFAULT:
+			flat.link[n] = nodeFor(((Label)a).enclosingSwitch);
+			break;
+		case NodeKind.WHILE: case NodeKind.SWITCH:
+			flat.value[n] = ((BreakTarget)a).stackHeight;
+			break;
+		case NodeKind.FORMAL_DECL: case NodeKind.INST_VAR_DECL: case NodeKind.LOCAL_VAR_DECL:
+			flat.type[n] = typeFor(((VarDecl)a).type);
+			flat.value[n] = ((VarDecl)a).offset;
+			break;
+		case NodeKind.CLASS_DECL:
+			ClassDecl cd = (ClassDecl)a;
+			flat.link[n] = nodeFor(cd.superLink);
+			int c = flat.addClass(n, cd.name, cd.methodTable.size(),
+					cd.numDataInstVars, cd.numObjInstVars);
+			flat.value[n] = c;
+			int[] subs = new int[cd.subclasses.size()];
+			for (int i = 0; i < subs.length; i++) {
+				subs[i] = nodeFor(cd.subclasses.elementAt(i));
+			}
+			flat.subclasses[c] = subs;
+			break;
+		case NodeKind.METHOD_DECL_VOID: case NodeKind.METHOD_DECL_NON_VOID:
+			MethodDecl md = (MethodDecl)a;
+			flat.link[n] = nodeFor(md.superMethod);
+			flat.value[n] = flat.addMethod(n, md.name, nodeFor(md.classDecl),
+					md.thisPtrOffset, md.vtableOffset);
+			break;
+		}
+	}
+
+	// the type table entry for a Type
+	private int typeFor(Type t) {
+		if (t == null) return FlatAst.NONE;
+		if (t instanceof IntegerType) return flat.primitiveType(FlatAst.T_INT);
+		if (t instanceof BooleanType) return flat.primitiveType(FlatAst.T_BOOLEAN);
+		if (t instanceof VoidType) return flat.primitiveType(FlatAst.T_VOID);
+		if (t instanceof NullType) return flat.primitiveType(FlatAst.T_NULL);
+		if (t instanceof ArrayType) {
+			int base = typeFor(((ArrayType)t).baseType);
+			return base == FlatAst.NONE ? FlatAst.NONE : flat.arrayOf(base);
+		}
+		if (t instanceof IdentifierType) {
+			IdentifierType it = (IdentifierType)t;
+			return flat.classType(it.name, nodeFor(it.link));
+		}
+		return flat.primitiveType(FlatAst.T_OTHER);
+	}
+}
@@ -0,0 +1,205 @@
+package flatAst;
+
+import java.io.PrintStream;
+import java.util.*;
+
+import errorMsg.ErrorMsg;
+import syntaxtree.NodeKind;
+import visitor.CG1Emitter;
+import visitor.CodeGenOptions;
+import visitor.CodeStream;
+
+// CG1Visitor over a FlatAst: assigns the offsets of formal parameters,
+// instance variables and methods (into the FlatAst's 'value' array and
+// method table), and emits the vtables, through the same CG1Emitter
+// that CG1Visitor drives.  The output is the same, line for line, as
+// CG1Visitor's on the AST the FlatAst was built from.
+public class FlatCG1 {
+
+	private static final int NONE = FlatAst.NONE;
+
+	private FlatAst ast;
+
+	// the layout and the vtables
+	private CG1Emitter emitter;
+
+	// the array types that are referenced in the code; a set of the
+	// same hash codes and equality as CG1Visitor's HashSet<ArrayType>,
+	// so that the vtables come out in the same order
+	private HashSet<ArrayTypeRef> arrayTypesInCode;
+
+	// an array type from the type table, at the position of the node that
+	// first referenced it
+	private static final class ArrayTypeRef {
+		final int type;
+		final int pos;
+		final int hash;
+		ArrayTypeRef(int type, int pos, int hash) {
+			this.type = type;
+			this.pos = pos;
+			this.hash = hash;
+		}
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof ArrayTypeRef && ((ArrayTypeRef)obj).type == type;
+		}
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	public FlatCG1(ErrorMsg e, PrintStream out) {
+		this(e, out, new CodeGenOptions());
+	}
+
+	public FlatCG1(ErrorMsg e, PrintStream out, CodeGenOptions opts) {
+		emitter = new CG1Emitter(new CodeStream(out, e, opts), opts);
+		arrayTypesInCode = new HashSet<ArrayTypeRef>();
+	}
+
+	public void visit(FlatAst flat) {
+		ast = flat;
+		visitProgram(0);
+	}
+
+	private void visitProgram(int p) {
+		emitter.programStart(ast.pos[p]);
+		int classDecls = ast.child(p, 1);
+		int cur = ast.firstChild[classDecls];
+		while (ast.link[cur] != NONE) {
+			cur = ast.link[cur];
+		}
+		visitClassDecl(cur);
+		emitter.programEnd();
+	}
+
+	private void visitClassDecl(int cd) {
+		int c = ast.value[cd];
+		int pos = ast.pos[cd];
+		String name = ast.className[c];
+		emitter.classStart(pos, name);
+		for (int sup = ast.link[cd]; sup != NONE; sup = ast.link[sup]) {
+			int s = ast.value[sup];
+			emitter.inherit(ast.classMethods[s], ast.numDataInstVars[s], ast.numObjInstVars[s]);
+		}
+		visitChildren(cd);
+		ast.numDataInstVars[c] = emitter.numDataInstVars();
+		ast.numObjInstVars[c] = emitter.numObjInstVars();
+		emitter.classVtable(pos, name, FlatAst.printStringNameForClass(name, "", ""));
+		for (int sub : ast.subclasses[c]) {
+			visitClassDecl(sub);
+		}
+		if (name.equals("Object")) {
+			emitArrayTypeVtables();
+		}
+		emitter.classEnd(pos, name);
+	}
+
+	private void visit(int n) {
+		switch (ast.kind[n]) {
+		case NodeKind.METHOD_DECL_VOID:
+		case NodeKind.METHOD_DECL_NON_VOID:
+			visitMethodDecl(n);
+			break;
+		case NodeKind.INST_VAR_DECL:
+			visitInstVarDecl(n);
+			break;
+		case NodeKind.FORMAL_DECL:
+			visitFormalDecl(n);
+			break;
+		case NodeKind.ARRAY_TYPE:
+			addArrayType(ast.type[n], ast.pos[n]);
+			break;
+		case NodeKind.NEW_ARRAY:
+			// the array type of the expression's type, as CG1Visitor builds it
+			addArrayType(ast.arrayOf(ast.type[n]), ast.pos[n]);
+			break;
+		default:
+			visitChildren(n);
+			break;
+		}
+	}
+
+	private void visitChildren(int n) {
+		for (int c = ast.firstChild[n]; c != NONE; c = ast.nextSibling[c]) {
+			visit(c);
+		}
+	}
+
+	private void visitMethodDecl(int md) {
+		int m = ast.value[md];
+		int formals = ast.firstChild[md];
+		int intFormals = 0;
+		int otherFormals = 0;
+		for (int v = ast.firstChild[formals]; v != NONE; v = ast.nextSibling[v]) {
+			if (ast.isInt(ast.type[v])) {
+				intFormals++;
+			}
+			else {
+				otherFormals++;
+			}
+		}
+		ast.thisPtrOffset[m] = emitter.methodStart(intFormals, otherFormals);
+		// the formals and the body; the return type and expression of a
+		// non-void method come after the method table entry, but hold
+		// nothing that sets it
+		visit(formals);
+		visit(ast.nextSibling[formals]);
+		int superMethod = ast.link[md];
+		String label = CG1Emitter.methodLabel(ast.pos[md], ast.uniqueId[md], ast.methodName[m],
+				ast.className[ast.value[ast.methodClass[m]]]);
+		ast.vtableOffset[m] = emitter.methodEntry(label,
+				superMethod == NONE ? -1 : ast.vtableOffset[ast.value[superMethod]]);
+		if (ast.kind[md] == NodeKind.METHOD_DECL_NON_VOID) {
+			for (int c = ast.nextSibling[ast.nextSibling[formals]]; c != NONE; c = ast.nextSibling[c]) {
+				visit(c);
+			}
+		}
+	}
+
+	private void visitInstVarDecl(int n) {
+		visitChildren(n);
+		int t = ast.type[n];
+		if (ast.isInt(t) || ast.isBoolean(t)) {
+			ast.value[n] = emitter.dataInstVarOffset();
+		}
+		else if (!ast.isVoid(t)) {
+			ast.value[n] = emitter.objInstVarOffset();
+		}
+	}
+
+	private void visitFormalDecl(int n) {
+		visitChildren(n);
+		ast.value[n] = emitter.formalOffset(ast.isInt(ast.type[n]));
+	}
+
+	private void addArrayType(int t, int pos) {
+		arrayTypesInCode.add(new ArrayTypeRef(t, pos, ast.typeHash[t]));
+	}
+
+	private void emitArrayTypeVtables() {
+		// array types with object base types first, then those with data
+		// base types, as in CG1Visitor
+		ArrayList<ArrayTypeRef> objectArrays = new ArrayList<ArrayTypeRef>();
+		ArrayList<ArrayTypeRef> dataArrays = new ArrayList<ArrayTypeRef>();
+		for (ArrayTypeRef at : arrayTypesInCode) {
+			int base = ast.typeBase[at.type];
+			if (ast.isInt(base) || ast.isBoolean(base)) {
+				dataArrays.add(at);
+			}
+			else {
+				objectArrays.add(at);
+			}
+		}
+		emitArrayTypeVtables(objectArrays);
+		emitter.dataArrayVTableStart();
+		emitArrayTypeVtables(dataArrays);
+	}
+
+	private void emitArrayTypeVtables(ArrayList<ArrayTypeRef> arrayTypes) {
+		for (ArrayTypeRef at : arrayTypes) {
+			emitter.arrayVtable(at.pos, ast.vtableNameFor(at.type), ast.printStringNameFor(at.type, "", ""));
+		}
+	}
+}
@@ -0,0 +1,784 @@
+package flatAst;
+
+import java.io.PrintStream;
+
+import errorMsg.ErrorMsg;
+import syntaxtree.NodeKind;
+import visitor.CG1Emitter;
+import visitor.CG3Emitter;
+import visitor.CodeGenOptions;
+import visitor.CodeStream;
+import visitor.ConstEvalVisitor;
+import visitor.Peephole;
+
+// CG3Visitor over a FlatAst: emits the code for the methods and the
+// main program.  It expects FlatCG1 to have run over the same FlatAst.
+// The code sequences come from the same CG3Emitter that CG3Visitor
+// drives, so the output is the same, line for line, as CG3Visitor's on
+// the AST the FlatAst was built from (after CG1Visitor).
+public class FlatCG3 {
+
+	private static final int NONE = FlatAst.NONE;
+
+	private FlatAst ast;
+
+	// the options for this compilation
+	private CodeGenOptions options;
+
+	// IO stream to which we will emit code
+	private CodeStream code;
+
+	// the code sequences, and the stack height and stack maps
+	private CG3Emitter emitter;
+
+	// for constant folding (see CG3Visitor), if it is on
+	private FlatConstEval conEval;
+
+	// for register mode (see CG3Visitor), if it is on: the register need
+	// of each expression node, plus one; 0 if not yet computed
+	private int[] regMemo;
+	private static final int NUM_REGS = 10;
+	private static final int TRAPS = 1 << 16;
+	private static final int NEED_MASK = TRAPS-1;
+
+	public FlatCG3(ErrorMsg e, PrintStream out) {
+		this(e, out, new CodeGenOptions());
+	}
+
+	public FlatCG3(ErrorMsg e, PrintStream out, CodeGenOptions opts) {
+		options = opts;
+		code = new CodeStream(out, e, opts);
+		if (opts.peephole) code.setPeephole(new Peephole());
+		emitter = new CG3Emitter(code, opts);
+	}
+
+	public void visit(FlatAst flat) {
+		ast = flat;
+		conEval = options.constantFolding ? new FlatConstEval(flat) : null;
+		regMemo = options.registerExpressions ? new int[flat.size()] : null;
+		visitProgram(0);
+	}
+
+	private void visit(int n) {
+		switch (ast.kind[n]) {
+		case NodeKind.NOT: case NodeKind.PLUS: case NodeKind.MINUS:
+		case NodeKind.TIMES: case NodeKind.DIVIDE: case NodeKind.REMAINDER:
+		case NodeKind.EQUALS: case NodeKind.GREATER_THAN: case NodeKind.LESS_THAN:
+		case NodeKind.AND: case NodeKind.OR:
+			if (pushConstant(n) || pushRegisters(n)) return;
+			break;
+		case NodeKind.ARRAY_LENGTH: case NodeKind.ARRAY_LOOKUP:
+		case NodeKind.INST_VAR_ACCESS:
+			if (pushRegisters(n)) return;
+			break;
+		}
+		switch (ast.kind[n]) {
+		case NodeKind.INTEGER_LITERAL: visitIntegerLiteral(n); break;
+		case NodeKind.NULL: case NodeKind.FALSE: visitZero(n); break;
+		case NodeKind.TRUE: visitTrue(n); break;
+		case NodeKind.STRING_LITERAL: visitStringLiteral(n); break;
+		case NodeKind.THIS: case NodeKind.SUPER: visitThis(n); break;
+		case NodeKind.IDENTIFIER_EXP: visitIdentifierExp(n); break;
+		case NodeKind.NOT: visitNot(n); break;
+		case NodeKind.PLUS: visitPlus(n); break;
+		case NodeKind.MINUS: visitMinus(n); break;
+		case NodeKind.TIMES: visitTimes(n); break;
+		case NodeKind.DIVIDE: case NodeKind.REMAINDER: visitDivide(n); break;
+		case NodeKind.EQUALS: visitEquals(n); break;
+		case NodeKind.GREATER_THAN: case NodeKind.LESS_THAN: visitCompare(n); break;
+		case NodeKind.AND: case NodeKind.OR: visitShortCircuit(n); break;
+		case NodeKind.ARRAY_LENGTH: visitArrayLength(n); break;
+		case NodeKind.ARRAY_LOOKUP: visitArrayLookup(n); break;
+		case NodeKind.INST_VAR_ACCESS: visitInstVarAccess(n); break;
+		case NodeKind.INSTANCE_OF: visitInstanceOf(n); break;
+		case NodeKind.CAST: visitCast(n); break;
+		case NodeKind.NEW_OBJECT: visitNewObject(n); break;
+		case NodeKind.NEW_ARRAY: visitNewArray(n); break;
+		case NodeKind.CALL: visitCall(n); break;
+		case NodeKind.LOCAL_VAR_DECL: visitLocalVarDecl(n); break;
+		case NodeKind.CALL_STATEMENT: visitCallStatement(n); break;
+		case NodeKind.BLOCK: visitBlock(n); break;
+		case NodeKind.IF: visitIf(n); break;
+		case NodeKind.WHILE: visitWhile(n); break;
+		case NodeKind.BREAK: visitBreak(n); break;
+		case NodeKind.ASSIGN: visitAssign(n); break;
+		case NodeKind.CASE:
+			// CG3Visitor handles a case as a label, then (through
+			// ASTvisitor) visits its expression
+			visitLabel(n);
+			visitChildren(n);
+			break;
+		case NodeKind.DEFAULT: visitLabel(n); break;
+		case NodeKind.METHOD_DECL_VOID: visitMethodDeclVoid(n); break;
+		case NodeKind.METHOD_DECL_NON_VOID: visitMethodDeclNonVoid(n); break;
+		case NodeKind.CLASS_DECL: visitClassDecl(n); break;
+		default: visitChildren(n); break;
+		}
+	}
+
+	private void visitChildren(int n) {
+		for (int c = ast.firstChild[n]; c != NONE; c = ast.nextSibling[c]) {
+			visit(c);
+		}
+	}
+
+	private int child(int n, int k) {
+		return ast.child(n, k);
+	}
+
+	private void emit(int n, String str) {
+		code.emit(ast.kind[n], ast.pos[n], str);
+	}
+
+	private void indent(int n) {
+		code.indent(ast.kind[n], ast.pos[n]);
+	}
+
+	private void unindent(int n) {
+		code.unindent(ast.kind[n], ast.pos[n]);
+	}
+
+	// how a value of the given type is kept on the stack
+	private int valueKind(int t) {
+		if (ast.isInt(t)) return CG3Emitter.INT;
+		if (ast.isBoolean(t)) return CG3Emitter.DATA;
+		if (ast.isVoid(t)) return CG3Emitter.VOID;
+		return CG3Emitter.POINTER;
+	}
+
+	// how the value of an expression node is kept on the stack
+	private int valueOf(int n) {
+		return valueKind(ast.type[n]);
+	}
+
+	// if folding is on and the expression is constant, pushes its value
+	// and returns true
+	private boolean pushConstant(int n) {
+		if (conEval == null) return false;
+		return emitter.pushConstant(ast.kind[n], ast.pos[n], valueOf(n), conEval.eval(n));
+	}
+
+	// the value of an if or while condition, or NOT_CONSTANT
+	private long constCondition(int exp) {
+		return conEval != null ? conEval.eval(exp) : ConstEvalVisitor.NOT_CONSTANT;
+	}
+
+	// register mode, as in CG3Visitor: the number of registers needed to
+	// evaluate an expression, or more than NUM_REGS, with the TRAPS bit
+	// set if it can branch to an exception exit
+	private int regNeed(int n) {
+		if (regMemo[n] != 0) return regMemo[n]-1;
+		int need = computeNeed(n);
+		regMemo[n] = need+1;
+		return need;
+	}
+
+	private int computeNeed(int n) {
+		if (conEval != null && conEval.eval(n) != ConstEvalVisitor.NOT_CONSTANT) return 1;
+		int first = ast.firstChild[n];
+		switch (ast.kind[n]) {
+		case NodeKind.INTEGER_LITERAL: case NodeKind.TRUE: case NodeKind.FALSE:
+		case NodeKind.NULL: case NodeKind.STRING_LITERAL: case NodeKind.THIS:
+		case NodeKind.SUPER: case NodeKind.IDENTIFIER_EXP:
+			return 1;
+		case NodeKind.NOT:
+			return regNeed(first);
+		case NodeKind.ARRAY_LENGTH: case NodeKind.INST_VAR_ACCESS:
+			return regNeed(first) | TRAPS;
+		case NodeKind.AND: case NodeKind.OR: {
+			int left = regNeed(first);
+			int right = regNeed(ast.nextSibling[first]);
+			return Math.max(left & NEED_MASK, right & NEED_MASK) | ((left|right) & TRAPS);
+		}
+		case NodeKind.PLUS: case NodeKind.MINUS: case NodeKind.EQUALS:
+		case NodeKind.LESS_THAN: case NodeKind.GREATER_THAN:
+			if (immediate(ast.nextSibling[first]) != ConstEvalVisitor.NOT_CONSTANT) {
+				return regNeed(first);
+			}
+			return pairNeed(first, ast.nextSibling[first]);
+		case NodeKind.TIMES:
+			return pairNeed(first, ast.nextSibling[first]);
+		case NodeKind.ARRAY_LOOKUP:
+			return Math.max(pairNeed(first, ast.nextSibling[first]) & NEED_MASK, 3) | TRAPS;
+		default:
+			return NUM_REGS+1;
+		}
+	}
+
+	private int pairNeed(int left, int right) {
+		int l = regNeed(left);
+		int r = regNeed(right);
+		int need;
+		if (swapOperands(l, r)) {
+			need = Math.max(r & NEED_MASK, (l & NEED_MASK)+1);
+		}
+		else {
+			need = Math.max(l & NEED_MASK, (r & NEED_MASK)+1);
+		}
+		return Math.min(need, NUM_REGS+1) | ((l|r) & TRAPS);
+	}
+
+	private static boolean swapOperands(int left, int right) {
+		return (right & NEED_MASK) > (left & NEED_MASK) && (left & right & TRAPS) == 0;
+	}
+
+	// an int constant that fits in 16 bits, or NOT_CONSTANT
+	private long immediate(int n) {
+		long val;
+		if (conEval != null) {
+			val = conEval.eval(n);
+		}
+		else if (ast.kind[n] == NodeKind.INTEGER_LITERAL) {
+			val = ConstEvalVisitor.ofInt(ast.value[n]);
+		}
+		else {
+			return ConstEvalVisitor.NOT_CONSTANT;
+		}
+		if (!ConstEvalVisitor.isInt(val)) return ConstEvalVisitor.NOT_CONSTANT;
+		int v = ConstEvalVisitor.intValue(val);
+		return v > -32768 && v < 32768 ? val : ConstEvalVisitor.NOT_CONSTANT;
+	}
+
+	private boolean inRegisters(int n) {
+		return regMemo != null && (regNeed(n) & NEED_MASK) <= NUM_REGS;
+	}
+
+	private static String reg(int r) {
+		return "$t"+r;
+	}
+
+	// evaluates an expression into $t<r>, using only $t<r> and above
+	private void evalRegisters(int n, int r) {
+		String dest = reg(r);
+		int k = ast.kind[n];
+		int pos = ast.pos[n];
+		if (conEval != null && emitter.constantRegister(k, pos, dest, conEval.eval(n))) {
+			return;
+		}
+		int first = ast.firstChild[n];
+		switch (k) {
+		case NodeKind.INTEGER_LITERAL:
+			emitter.intRegister(k, pos, dest, ast.value[n]);
+			break;
+		case NodeKind.TRUE:
+			emitter.intRegister(k, pos, dest, 1);
+			break;
+		case NodeKind.FALSE: case NodeKind.NULL:
+			emitter.moveRegister(k, pos, dest, "$zero");
+			break;
+		case NodeKind.STRING_LITERAL:
+			emitter.stringRegister(k, pos, dest, ast.uniqueId[ast.link[n]]);
+			break;
+		case NodeKind.THIS: case NodeKind.SUPER:
+			emitter.moveRegister(k, pos, dest, "$s2");
+			break;
+		case NodeKind.IDENTIFIER_EXP: {
+			int decl = ast.link[n];
+			emitter.variableRegister(k, pos, dest, ast.kind[decl] == NodeKind.INST_VAR_DECL, ast.value[decl]);
+			break;
+		}
+		case NodeKind.NOT:
+			evalRegisters(first, r);
+			emitter.notRegister(k, pos, dest);
+			break;
+		case NodeKind.AND: case NodeKind.OR:
+			evalRegisters(first, r);
+			emitter.shortCircuitRegister(k, pos, ast.uniqueId[n], dest);
+			evalRegisters(ast.nextSibling[first], r);
+			emitter.shortCircuitEnd(k, pos, ast.uniqueId[n]);
+			break;
+		case NodeKind.ARRAY_LENGTH:
+			evalRegisters(first, r);
+			emitter.arrayLengthRegister(k, pos, dest);
+			break;
+		case NodeKind.INST_VAR_ACCESS:
+			evalRegisters(first, r);
+			emitter.instVarAccessRegister(k, pos, dest, ast.value[ast.link[n]]);
+			break;
+		case NodeKind.ARRAY_LOOKUP: {
+			int a = evalPair(first, ast.nextSibling[first], r);
+			emitter.arrayLookupRegister(k, pos, dest, reg(a), reg(2*r+1-a), reg(r+2));
+			break;
+		}
+		default: {
+			int right = ast.nextSibling[first];
+			String l, rr;
+			long imm = k == NodeKind.TIMES ? ConstEvalVisitor.NOT_CONSTANT : immediate(right);
+			if (imm != ConstEvalVisitor.NOT_CONSTANT) {
+				evalRegisters(first, r);
+				l = dest;
+				rr = ""+ConstEvalVisitor.intValue(imm);
+			}
+			else {
+				int a = evalPair(first, right, r);
+				l = reg(a);
+				rr = reg(2*r+1-a);
+			}
+			emitter.operatorRegister(k, pos, dest, l, rr);
+		}
+		}
+	}
+
+	// evaluates two operands into $t<r> and $t<r+1>; returns the number of
+	// the register holding the left one
+	private int evalPair(int left, int right, int r) {
+		if (swapOperands(regNeed(left), regNeed(right))) {
+			evalRegisters(right, r);
+			evalRegisters(left, r+1);
+			return r+1;
+		}
+		evalRegisters(left, r);
+		evalRegisters(right, r+1);
+		return r;
+	}
+
+	// an array element assignment in registers: the array, index and
+	// value in $t0, $t1 and $t2, and the length in $t3
+	private boolean inRegisters(int arrExp, int idxExp, int rhs) {
+		if (regMemo == null) return false;
+		int need = Math.max(regNeed(arrExp) & NEED_MASK, (regNeed(idxExp) & NEED_MASK)+1);
+		need = Math.max(need, (regNeed(rhs) & NEED_MASK)+2);
+		return Math.max(need, 4) <= NUM_REGS;
+	}
+
+	// if register mode is on and the expression can be evaluated in
+	// registers, evaluates it and pushes its value, and returns true
+	private boolean pushRegisters(int n) {
+		if (!inRegisters(n)) return false;
+		indent(n);
+		evalRegisters(n, 0);
+		emitter.pushRegister(ast.kind[n], ast.pos[n], valueOf(n), "$t0");
+		unindent(n);
+		return true;
+	}
+
+	// evaluates an if or while condition, and branches to a label if it
+	// has the given value
+	private void branchOn(int s, int n, boolean value, String label) {
+		if (!inRegisters(n)) {
+			visit(n);
+			emitter.branchOnTop(ast.kind[s], ast.pos[s], value, label);
+			return;
+		}
+		int k = ast.kind[n];
+		boolean constant = conEval != null && conEval.eval(n) != ConstEvalVisitor.NOT_CONSTANT;
+		if (!constant && k == NodeKind.NOT) {
+			branchOn(s, ast.firstChild[n], !value, label);
+		}
+		else if (!constant && (k == NodeKind.LESS_THAN || k == NodeKind.GREATER_THAN)) {
+			int first = ast.firstChild[n];
+			String l, r;
+			long imm = immediate(ast.nextSibling[first]);
+			if (imm != ConstEvalVisitor.NOT_CONSTANT) {
+				evalRegisters(first, 0);
+				l = "$t0";
+				r = ""+ConstEvalVisitor.intValue(imm);
+			}
+			else {
+				int a = evalPair(first, ast.nextSibling[first], 0);
+				l = reg(a);
+				r = reg(1-a);
+			}
+			emitter.branchOnCompare(ast.kind[s], ast.pos[s], k == NodeKind.LESS_THAN, value, l, r, label);
+		}
+		else {
+			evalRegisters(n, 0);
+			emitter.branchOnRegister(ast.kind[s], ast.pos[s], value, label);
+		}
+	}
+
+	private void visitIntegerLiteral(int n) {
+		indent(n);
+		emitter.pushInt(ast.kind[n], ast.pos[n], valueOf(n), ast.value[n]);
+		unindent(n);
+	}
+
+	// null and false
+	private void visitZero(int n) {
+		indent(n);
+		emitter.pushRegister(ast.kind[n], ast.pos[n], valueOf(n), "$zero");
+		unindent(n);
+	}
+
+	private void visitTrue(int n) {
+		indent(n);
+		emitter.pushInt(ast.kind[n], ast.pos[n], valueOf(n), 1);
+		unindent(n);
+	}
+
+	private void visitStringLiteral(int n) {
+		indent(n);
+		emitter.pushString(ast.kind[n], ast.pos[n], valueOf(n), ast.uniqueId[ast.link[n]]);
+		unindent(n);
+		emitter.probe(ast.kind[n], ast.pos[n]);
+	}
+
+	// this and super
+	private void visitThis(int n) {
+		indent(n);
+		emitter.pushRegister(ast.kind[n], ast.pos[n], valueOf(n), "$s2");
+		unindent(n);
+	}
+
+	private void visitIdentifierExp(int n) {
+		indent(n);
+		int decl = ast.link[n];
+		emitter.pushVariable(ast.kind[n], ast.pos[n], valueOf(n),
+				ast.kind[decl] == NodeKind.INST_VAR_DECL, ast.value[decl]);
+		unindent(n);
+		emitter.probe(ast.kind[n], ast.pos[n]);
+	}
+
+	private void visitNot(int n) {
+		indent(n);
+		visit(ast.firstChild[n]);
+		emitter.not(ast.kind[n], ast.pos[n]);
+		unindent(n);
+	}
+
+	private void visitOperands(int n) {
+		int left = ast.firstChild[n];
+		visit(left);
+		visit(ast.nextSibling[left]);
+	}
+
+	private void visitPlus(int n) {
+		indent(n);
+		emit(n, "# Before Plus stackHeight equals: "+emitter.stackHeight());
+		visitOperands(n);
+		emitter.plus(ast.kind[n], ast.pos[n]);
+		emit(n, "# After Plus stackHeight equals: "+emitter.stackHeight());
+		unindent(n);
+	}
+
+	private void visitMinus(int n) {
+		indent(n);
+		visitOperands(n);
+		emitter.minus(ast.kind[n], ast.pos[n]);
+		unindent(n);
+	}
+
+	private void visitTimes(int n) {
+		indent(n);
+		visitOperands(n);
+		emitter.times(ast.kind[n], ast.pos[n]);
+		unindent(n);
+	}
+
+	// divide and remainder
+	private void visitDivide(int n) {
+		indent(n);
+		visitOperands(n);
+		emitter.divide(ast.kind[n], ast.pos[n], valueOf(n));
+		unindent(n);
+	}
+
+	private void visitEquals(int n) {
+		indent(n);
+		visitOperands(n);
+		emitter.equals(ast.kind[n], ast.pos[n], valueOf(ast.firstChild[n]));
+		unindent(n);
+	}
+
+	// greater-than and less-than
+	private void visitCompare(int n) {
+		indent(n);
+		visitOperands(n);
+		emitter.compare(ast.kind[n], ast.pos[n]);
+		unindent(n);
+	}
+
+	// and and or
+	private void visitShortCircuit(int n) {
+		indent(n);
+		int left = ast.firstChild[n];
+		visit(left);
+		emitter.shortCircuitTest(ast.kind[n], ast.pos[n], ast.uniqueId[n]);
+		visit(ast.nextSibling[left]);
+		emitter.shortCircuitEnd(ast.kind[n], ast.pos[n], ast.uniqueId[n]);
+		unindent(n);
+	}
+
+	private void visitArrayLength(int n) {
+		indent(n);
+		visit(ast.firstChild[n]);
+		emitter.arrayLength(ast.kind[n], ast.pos[n], valueOf(n));
+		unindent(n);
+	}
+
+	private void visitArrayLookup(int n) {
+		indent(n);
+		int arrExp = ast.firstChild[n];
+		visit(arrExp);
+		visit(ast.nextSibling[arrExp]);
+		emitter.arrayLookup(ast.kind[n], ast.pos[n], valueOf(n));
+		unindent(n);
+	}
+
+	private void visitInstVarAccess(int n) {
+		indent(n);
+		visit(ast.firstChild[n]);
+		emitter.instVarAccess(ast.kind[n], ast.pos[n], ast.value[ast.link[n]], valueOf(n));
+		unindent(n);
+	}
+
+	private void visitInstanceOf(int n) {
+		indent(n);
+		visit(ast.firstChild[n]);
+		emitter.instanceOf(ast.kind[n], ast.pos[n], ast.vtableNameFor(ast.type[n]), valueOf(n));
+		unindent(n);
+	}
+
+	private void visitCast(int n) {
+		indent(n);
+		int castType = ast.firstChild[n];
+		visit(ast.nextSibling[castType]);
+		// CG3Visitor's test, which compares the class of the expression's
+		// type with the superclass of the cast-type node's class
+		Class<?> castTypeClass = NodeKind.nodeClass(ast.kind[castType]);
+		if (ast.typeClassOf(ast.type[n]).equals(castTypeClass.getGenericSuperclass())) {
+			emitter.checkCast(ast.kind[n], ast.pos[n], ast.vtableNameFor(ast.type[n]));
+		}
+		unindent(n);
+	}
+
+	private void visitNewObject(int n) {
+		indent(n);
+		int c = ast.value[ast.link[ast.firstChild[n]]];
+		int numOfObjInstVar = ast.numObjInstVars[c];
+		int numOfDataInstVar = ast.numDataInstVars[c]+1;
+		emitter.newObject(ast.kind[n], ast.pos[n], ast.uniqueId[n], numOfDataInstVar, numOfObjInstVar,
+				ast.className[c]);
+		unindent(n);
+	}
+
+	private void visitNewArray(int n) {
+		indent(n);
+		emit(n, "# The stack height before New Arrary is " + emitter.stackHeight());
+		int sizeExp = child(n, 1);
+		boolean sizeInRegister = inRegisters(sizeExp);
+		if (sizeInRegister) {
+			evalRegisters(sizeExp, 0);
+		}
+		else {
+			visit(sizeExp);
+		}
+		emitter.newArray(ast.kind[n], ast.pos[n], ast.uniqueId[n], sizeInRegister,
+				ast.vtableNameFor(ast.type[n]));
+		unindent(n);
+	}
+
+	private void visitCall(int n) {
+		indent(n);
+		int k = ast.kind[n];
+		int pos = ast.pos[n];
+		int id = ast.uniqueId[n];
+		int obj = ast.firstChild[n];
+		int parms = ast.nextSibling[obj];
+		int md = ast.link[n];
+		int m = ast.value[md];
+		int oldStackHeight = emitter.stackHeight();
+		if (ast.kind[obj] == NodeKind.SUPER) {
+			visit(obj);
+			visit(parms);
+			emitter.callSuper(k, pos, id, CG1Emitter.methodLabel(ast.pos[md], ast.uniqueId[md],
+					ast.methodName[m], ast.className[ast.value[ast.methodClass[m]]]));
+		}
+		else {
+			visit(obj);
+			emitter.probe(k, pos);
+			visit(parms);
+			emitter.callVirtual(k, pos, id, ast.thisPtrOffset[m], ast.vtableOffset[m]);
+		}
+		emitter.callReturned(oldStackHeight, valueOf(n));
+		unindent(n);
+	}
+
+	private void visitLocalVarDecl(int n) {
+		indent(n);
+		visit(child(n, 1));
+		ast.value[n] = -emitter.stackHeight();
+		emitter.probe(ast.kind[n], ast.pos[n]);
+		unindent(n);
+	}
+
+	private void visitCallStatement(int n) {
+		indent(n);
+		int callExp = ast.firstChild[n];
+		visit(callExp);
+		emitter.popResult(ast.kind[n], ast.pos[n], valueOf(callExp));
+		unindent(n);
+	}
+
+	private void visitBlock(int n) {
+		indent(n);
+		int oldStackHeight = emitter.stackHeight();
+		visitChildren(n);
+		emitter.popTo(ast.kind[n], ast.pos[n], oldStackHeight);
+		unindent(n);
+	}
+
+	private void visitIf(int n) {
+		indent(n);
+		int exp = ast.firstChild[n];
+		int trueStmt = ast.nextSibling[exp];
+		int id = ast.uniqueId[n];
+		long cond = constCondition(exp);
+		if (ConstEvalVisitor.isBoolean(cond)) {
+			visit(cond == ConstEvalVisitor.TRUE ? trueStmt : ast.nextSibling[trueStmt]);
+			unindent(n);
+			return;
+		}
+		branchOn(n, exp, false, "if_else_"+id);
+		visit(trueStmt);
+		emit(n, "j if_done_"+id);
+		emit(n, "if_else_"+id+":");
+		visit(ast.nextSibling[trueStmt]);
+		emit(n, "if_done_"+id+":");
+		unindent(n);
+	}
+
+	private void visitWhile(int n) {
+		indent(n);
+		int exp = ast.firstChild[n];
+		int id = ast.uniqueId[n];
+		emit(n, "# The stack height before While is " + emitter.stackHeight());
+		ast.value[n] = emitter.stackHeight();
+		long cond = constCondition(exp);
+		if (cond == ConstEvalVisitor.FALSE) {
+			unindent(n);
+			return;
+		}
+		else if (cond == ConstEvalVisitor.TRUE) {
+			emit(n, "while_top_"+id+":");
+			visit(ast.nextSibling[exp]);
+			emit(n, "j while_top_"+id);
+			emit(n, "break_target_"+id+":");
+			unindent(n);
+			return;
+		}
+		emit(n, "j while_enter_"+id);
+		emit(n, "while_top_"+id+":");
+		visit(ast.nextSibling[exp]);
+		emit(n, "while_enter_"+id+":");
+		branchOn(n, exp, true, "while_top_"+id);
+		emit(n, "break_target_"+id+":");
+		unindent(n);
+	}
+
+	private void visitBreak(int n) {
+		indent(n);
+		// as in CG3Visitor, the label is made from the break's own id
+		emitter.breakTo(ast.kind[n], ast.pos[n], ast.uniqueId[n], ast.value[ast.link[n]]);
+		unindent(n);
+	}
+
+	private void visitAssign(int n) {
+		indent(n);
+		int k = ast.kind[n];
+		int pos = ast.pos[n];
+		int id = ast.uniqueId[n];
+		int lhs = ast.firstChild[n];
+		int rhs = ast.nextSibling[lhs];
+		boolean barrier = CG3Emitter.needsBarrier(valueOf(lhs), ast.kind[rhs] == NodeKind.NULL);
+		switch (ast.kind[lhs]) {
+		case NodeKind.IDENTIFIER_EXP:
+			boolean rhsInRegister = inRegisters(rhs);
+			if (rhsInRegister) {
+				evalRegisters(rhs, 0);
+			}
+			else {
+				visit(rhs);
+			}
+			int decl = ast.link[lhs];
+			emitter.assignVariable(k, pos, id, rhsInRegister, ast.kind[decl] == NodeKind.INST_VAR_DECL,
+					ast.value[decl], valueOf(lhs), barrier);
+			break;
+		case NodeKind.INST_VAR_ACCESS:
+			int obj = ast.firstChild[lhs];
+			int offset = ast.value[ast.link[lhs]];
+			if (regMemo != null && (pairNeed(obj, rhs) & NEED_MASK) <= NUM_REGS) {
+				int o = evalPair(obj, rhs, 0);
+				emitter.assignFieldRegisters(k, pos, id, offset, reg(o), reg(1-o), barrier);
+				break;
+			}
+			visit(obj);
+			visit(rhs);
+			emitter.assignField(k, pos, id, offset, valueOf(lhs), valueOf(rhs), barrier);
+			break;
+		case NodeKind.ARRAY_LOOKUP:
+			int arrExp = ast.firstChild[lhs];
+			if (inRegisters(arrExp, ast.nextSibling[arrExp], rhs)) {
+				evalRegisters(arrExp, 0);
+				evalRegisters(ast.nextSibling[arrExp], 1);
+				evalRegisters(rhs, 2);
+				emitter.assignElementRegisters(k, pos, id, barrier);
+				break;
+			}
+			visit(arrExp);
+			visit(ast.nextSibling[arrExp]);
+			visit(rhs);
+			emitter.assignElement(k, pos, id, valueOf(rhs), barrier);
+			break;
+		}
+		unindent(n);
+	}
+
+	// case and default
+	private void visitLabel(int n) {
+		indent(n);
+		emitter.caseLabel(ast.kind[n], ast.pos[n], ast.uniqueId[n], ast.value[ast.link[n]]);
+		unindent(n);
+	}
+
+	// the label of a method's code
+	private String methodLabel(int n) {
+		return "fcn_"+ast.uniqueId[n]+"_"+ast.methodName[ast.value[n]];
+	}
+
+	private void visitMethodDeclVoid(int n) {
+		indent(n);
+		emitter.methodPrologue(ast.kind[n], ast.pos[n], methodLabel(n), ast.thisPtrOffset[ast.value[n]]);
+		visit(child(n, 1));
+		emitter.methodReturnVoid(ast.kind[n], ast.pos[n]);
+		unindent(n);
+	}
+
+	private void visitMethodDeclNonVoid(int n) {
+		indent(n);
+		emit(n, "# Before MethodDeclNonVoid the stackHeight is " + emitter.stackHeight());
+		emitter.methodPrologue(ast.kind[n], ast.pos[n], methodLabel(n), ast.thisPtrOffset[ast.value[n]]);
+		int stmts = child(n, 1);
+		int rtnType = ast.nextSibling[stmts];
+		visit(stmts);
+		int rtnExp = ast.nextSibling[rtnType];
+		boolean rtnInRegister = inRegisters(rtnExp);
+		if (rtnInRegister) {
+			evalRegisters(rtnExp, 0);
+		}
+		else {
+			visit(rtnExp);
+		}
+		emitter.methodReturn(ast.kind[n], ast.pos[n], rtnInRegister,
+				ast.kind[rtnType] == NodeKind.INTEGER_TYPE);
+		unindent(n);
+	}
+
+	private void visitClassDecl(int n) {
+		indent(n);
+		emit(n, "# ****** class "+ast.className[ast.value[n]]+" ****** ");
+		visitChildren(n);
+		unindent(n);
+	}
+
+	private void visitProgram(int n) {
+		indent(n);
+		emitter.programStart(ast.kind[n], ast.pos[n]);
+		int mainStatement = ast.firstChild[n];
+		visit(mainStatement);
+		emitter.programExit(ast.kind[n], ast.pos[n]);
+		unindent(n);
+		visit(ast.nextSibling[mainStatement]);
+		emitter.programEnd(ast.kind[n], ast.pos[n]);
+	}
+}
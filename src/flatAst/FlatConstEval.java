@@ -0,0 +1,106 @@
+package flatAst;
+
+import syntaxtree.NodeKind;
+import visitor.ConstEvalVisitor;
+
+// ConstEvalVisitor's eval over a FlatAst: the value of an expression
+// node, in ConstEvalVisitor's encoding, or NOT_CONSTANT.  The value of
+// each operator node is remembered, in an array indexed by node, the
+// first time it is computed.
+public final class FlatConstEval {
+
+	// marks a memo entry as filled in; the encoded values use the low 34
+	// bits
+	private static final long KNOWN = 1L << 40;
+
+	private final FlatAst ast;
+	private final long[] memo;
+
+	public FlatConstEval(FlatAst ast) {
+		this.ast = ast;
+		memo = new long[ast.size()];
+	}
+
+	/**
+	 * the value of an expression node
+	 * @param n the node
+	 * @return the encoded value, or NOT_CONSTANT
+	 */
+	public long eval(int n) {
+		if (n == FlatAst.NONE) return ConstEvalVisitor.NOT_CONSTANT;
+		switch (ast.kind[n]) {
+		case NodeKind.INTEGER_LITERAL:
+			return ConstEvalVisitor.ofInt(ast.value[n]);
+		case NodeKind.TRUE:
+			return ConstEvalVisitor.TRUE;
+		case NodeKind.FALSE:
+			return ConstEvalVisitor.FALSE;
+		case NodeKind.NULL:
+			return ConstEvalVisitor.NULL;
+		case NodeKind.AND: case NodeKind.OR: case NodeKind.EQUALS:
+		case NodeKind.LESS_THAN: case NodeKind.GREATER_THAN:
+		case NodeKind.PLUS: case NodeKind.MINUS: case NodeKind.TIMES:
+		case NodeKind.DIVIDE: case NodeKind.REMAINDER: case NodeKind.NOT:
+			break;
+		default:
+			return ConstEvalVisitor.NOT_CONSTANT;
+		}
+		long m = memo[n];
+		if (m != 0) return m & ~KNOWN;
+		long val = compute(n);
+		memo[n] = val | KNOWN;
+		return val;
+	}
+
+	// evaluates an operator node, as ConstEvalVisitor does
+	private long compute(int n) {
+		int first = ast.firstChild[n];
+		long left = eval(first);
+		if (ast.kind[n] == NodeKind.NOT) {
+			return ConstEvalVisitor.isBoolean(left)
+				? ConstEvalVisitor.ofBoolean(!ConstEvalVisitor.booleanValue(left))
+				: ConstEvalVisitor.NOT_CONSTANT;
+		}
+		int second = ast.nextSibling[first];
+		switch (ast.kind[n]) {
+		case NodeKind.AND:
+			if (left == ConstEvalVisitor.FALSE) return left;
+			if (left != ConstEvalVisitor.TRUE) return ConstEvalVisitor.NOT_CONSTANT;
+			left = eval(second);
+			return ConstEvalVisitor.isBoolean(left) ? left : ConstEvalVisitor.NOT_CONSTANT;
+		case NodeKind.OR:
+			if (left == ConstEvalVisitor.TRUE) return left;
+			if (left != ConstEvalVisitor.FALSE) return ConstEvalVisitor.NOT_CONSTANT;
+			left = eval(second);
+			return ConstEvalVisitor.isBoolean(left) ? left : ConstEvalVisitor.NOT_CONSTANT;
+		case NodeKind.EQUALS: {
+			long right = eval(second);
+			if (!ConstEvalVisitor.isConstant(left) || !ConstEvalVisitor.isConstant(right)) {
+				return ConstEvalVisitor.NOT_CONSTANT;
+			}
+			return ConstEvalVisitor.ofBoolean(left == right);
+		}
+		}
+		if (!ConstEvalVisitor.isInt(left)) return ConstEvalVisitor.NOT_CONSTANT;
+		long right = eval(second);
+		if (!ConstEvalVisitor.isInt(right)) return ConstEvalVisitor.NOT_CONSTANT;
+		int x = ConstEvalVisitor.intValue(left);
+		int y = ConstEvalVisitor.intValue(right);
+		switch (ast.kind[n]) {
+		case NodeKind.LESS_THAN:
+			return ConstEvalVisitor.ofBoolean(x < y);
+		case NodeKind.GREATER_THAN:
+			return ConstEvalVisitor.ofBoolean(x > y);
+		case NodeKind.PLUS:
+			return ConstEvalVisitor.ofInt(x + y);
+		case NodeKind.MINUS:
+			return ConstEvalVisitor.ofInt(x - y);
+		case NodeKind.TIMES:
+			return ConstEvalVisitor.ofInt(x * y);
+		case NodeKind.DIVIDE:
+			return y == 0 ? ConstEvalVisitor.NOT_CONSTANT : ConstEvalVisitor.ofInt(x / y);
+		default: // REMAINDER
+			return y == 0 ? ConstEvalVisitor.NOT_CONSTANT : ConstEvalVisitor.ofInt(x % y);
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package main;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// An on-disk cache of generated code, keyed on a hash of everything
+// that determines the output: the source bytes, the append-file bytes
+// and the compiler switches.  Each entry is one file named by its key.
+// Entries are touched when they are used, and the least-recently-used
+// entries are evicted when the cache grows beyond its size limit.
+class CompileCache {
+	
+	static final long DEFAULT_MAX_BYTES = 256L << 20;
+	
+	private static final String FORMAT_VERSION = "1";
+	
+	// counters for all caches in this JVM
+	private static final AtomicLong hits = new AtomicLong();
+	private static final AtomicLong misses = new AtomicLong();
+	private static final AtomicLong evictions = new AtomicLong();
+	
+	private final Path dir;
+	private final long maxBytes;
+	
+	CompileCache(String dirName, long maxBytes) throws IOException {
+		dir = Paths.get(dirName);
+		Files.createDirectories(dir);
+		this.maxBytes = maxBytes;
+	}
+	
+	// computes the key for compiling the given input file with the given
+	// append file (which may be null) and option string
+	String keyFor(String inputFileName, String appendFileName, String options) throws IOException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException nsax) {
+			throw new IOException(nsax);
+		}
+		md.update((FORMAT_VERSION+"\0"+options+"\0").getBytes("UTF-8"));
+		md.update(Files.readAllBytes(Paths.get(inputFileName)));
+		if (appendFileName != null) {
+			md.update((byte)0);
+			md.update(Files.readAllBytes(Paths.get(appendFileName)));
+		}
+		StringBuilder sb = new StringBuilder();
+		for (byte b : md.digest()) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+			sb.append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+	
+	// returns the cached code for the key, or null if there is none
+	byte[] lookup(String key) {
+		Path entry = dir.resolve(key+".asm");
+		try {
+			byte[] data = Files.readAllBytes(entry);
+			Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+			hits.incrementAndGet();
+			return data;
+		}
+		catch (IOException iox) {
+			// missing (or evicted by another process while we read it)
+			misses.incrementAndGet();
+			return null;
+		}
+	}
+	
+	// stores the code for the key, then evicts entries as needed
+	void store(String key, byte[] data) throws IOException {
+		Path tmp = Files.createTempFile(dir, key, ".tmp");
+		Files.write(tmp, data);
+		Files.move(tmp, dir.resolve(key+".asm"),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		evictIfNeeded();
+	}
+	
+	// deletes least-recently-used entries until the cache fits its limit
+	private synchronized void evictIfNeeded() throws IOException {
+		ArrayList<Path> entries = new ArrayList<Path>();
+		final HashMap<Path,Long> times = new HashMap<Path,Long>();
+		long total = 0;
+		try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*.asm")) {
+			for (Path p : ds) {
+				try {
+					total += Files.size(p);
+					times.put(p, Files.getLastModifiedTime(p).toMillis());
+					entries.add(p);
+				}
+				catch (IOException iox) {
+					// deleted concurrently
+				}
+			}
+		}
+		if (total <= maxBytes) return;
+		Collections.sort(entries, new Comparator<Path>() {
+			public int compare(Path a, Path b) {
+				return Long.compare(times.get(a), times.get(b));
+			}
+		});
+		for (Path p : entries) {
+			if (total <= maxBytes) break;
+			try {
+				long size = Files.size(p);
+				if (Files.deleteIfExists(p)) {
+					total -= size;
+					evictions.incrementAndGet();
+				}
+			}
+			catch (IOException iox) {
+				// deleted concurrently
+			}
+		}
+	}
+	
+	static String counters() {
+		return "Compile cache: "+hits.get()+" hits, "+misses.get()+" misses, "+
+				evictions.get()+" evictions.";
+	}
+}
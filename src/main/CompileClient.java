@@ -0,0 +1,97 @@
+package main;
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+// Sends one compile request to a CompileServer (see that class for the
+// protocol).  From the command line:
+//   java main.CompileClient <socket-path-or-port> [-o outfile] <Main5 args...>
+// writes the generated code to the output file (or stdout) and the
+// diagnostics to stderr, and exits with status 1 if compilation failed.
+public class CompileClient {
+	
+	public static class Response {
+		public boolean ok;
+		public byte[] diagnostics;
+		public byte[] asm;
+	}
+	
+	public static Response compile(String address, String[] args) throws IOException {
+		SocketChannel ch;
+		if (CompileServer.isPort(address)) {
+			ch = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+					Integer.parseInt(address)));
+		}
+		else {
+			ch = SocketChannel.open(UnixDomainSocketAddress.of(Paths.get(address)));
+		}
+		try {
+			OutputStream out = new BufferedOutputStream(Channels.newOutputStream(ch));
+			StringBuilder req = new StringBuilder();
+			for (String arg : args) {
+				req.append(arg).append('\n');
+			}
+			req.append('\n');
+			out.write(req.toString().getBytes(StandardCharsets.UTF_8));
+			out.flush();
+			
+			InputStream in = new BufferedInputStream(Channels.newInputStream(ch));
+			Response rsp = new Response();
+			rsp.ok = "STATUS ok".equals(CompileServer.readLine(in));
+			rsp.diagnostics = readBlock(in, "DIAG ");
+			rsp.asm = readBlock(in, "ASM ");
+			return rsp;
+		}
+		finally {
+			ch.close();
+		}
+	}
+	
+	private static byte[] readBlock(InputStream in, String header) throws IOException {
+		String line = CompileServer.readLine(in);
+		if (line == null || !line.startsWith(header)) {
+			throw new IOException("Malformed response from compile server: "+line);
+		}
+		byte[] data = new byte[Integer.parseInt(line.substring(header.length()))];
+		new DataInputStream(in).readFully(data);
+		return data;
+	}
+	
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.err.println("usage: CompileClient <socket-path-or-port> [-o outfile] <compiler args...>");
+			System.exit(1);
+		}
+		String outFile = null;
+		java.util.ArrayList<String> rest = new java.util.ArrayList<String>();
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].equals("-o") && i+1 < args.length) {
+				outFile = args[++i];
+			}
+			else if (args[i].startsWith("-")) {
+				rest.add(args[i]);
+			}
+			else {
+				// the server resolves file names relative to its own
+				// directory, so send absolute paths
+				rest.add(new File(args[i]).getAbsolutePath());
+			}
+		}
+		try {
+			Response rsp = compile(args[0], rest.toArray(new String[0]));
+			System.err.write(rsp.diagnostics);
+			System.err.flush();
+			OutputStream out = outFile == null ? System.out : new FileOutputStream(outFile);
+			out.write(rsp.asm);
+			out.close();
+			System.exit(rsp.ok ? 0 : 1);
+		}
+		catch (IOException iox) {
+			System.err.println("Error communicating with compile server: "+iox.getMessage());
+			System.exit(1);
+		}
+	}
+}
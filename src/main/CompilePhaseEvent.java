@@ -0,0 +1,27 @@
+package main;
+
+import jdk.jfr.*;
+
+// JFR event recording one phase of a compilation; it is committed only
+// when a flight recording is enabled for it, e.g.:
+//   java -XX:StartFlightRecording=filename=compile.jfr main.Main5 ...
+@Name("minijava.CompilePhase")
+@Label("Compile Phase")
+@Category("MiniJava Compiler")
+@Description("One phase of the Main5 compilation pipeline")
+@StackTrace(false)
+class CompilePhaseEvent extends Event {
+	
+	@Label("File")
+	String file;
+	
+	@Label("Phase")
+	String phase;
+	
+	@Label("Allocated")
+	@DataAmount
+	long allocatedBytes;
+	
+	@Label("Emitted Lines")
+	long emittedLines;
+}
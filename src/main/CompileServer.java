@@ -0,0 +1,184 @@
+package main;
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import errorMsg.ErrorMsg;
+
+// A long-lived compile server.  Keeping the JVM alive means that the
+// parse tables are loaded and the compiler is JIT-compiled only once,
+// rather than once per compile.
+//
+// The server listens on a Unix-domain socket (if the address is a path)
+// or on a loopback TCP port (if the address is a number).  Each
+// connection carries one request:
+//   - the Main5 command-line arguments, one per line, followed by an
+//     empty line; the input file is read by the server, so its name
+//     should be absolute (or relative to the server's directory)
+// and receives one response:
+//   - "STATUS ok" or "STATUS failed"
+//   - "DIAG <n>", followed by n bytes of diagnostics
+//   - "ASM <n>", followed by n bytes of generated code
+// The code-generation switches (-d, -r, -regs, -maps, -gen, ...) apply
+// only to the request that gives them.
+public class CompileServer implements Closeable {
+	
+	private final ServerSocketChannel serverChannel;
+	private final Path socketPath;
+	private final ExecutorService requestExecutor;
+	private volatile boolean closed;
+	
+	// creates a server listening at the given address (a socket path or
+	// a port number)
+	public CompileServer(String address) throws IOException {
+		if (isPort(address)) {
+			socketPath = null;
+			serverChannel = ServerSocketChannel.open();
+			serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+					Integer.parseInt(address)));
+		}
+		else {
+			socketPath = Paths.get(address);
+			Files.deleteIfExists(socketPath);
+			serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+			serverChannel.bind(UnixDomainSocketAddress.of(socketPath));
+		}
+		// one thread per request; requests spend most of their time
+		// compiling, and the pool keeps threads alive between requests
+		requestExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "compile-request");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+	
+	static boolean isPort(String address) {
+		for (int i = 0; i < address.length(); i++) {
+			if (!Character.isDigit(address.charAt(i))) return false;
+		}
+		return address.length() > 0;
+	}
+	
+	// accepts and dispatches requests until the server is closed
+	public void serve() throws IOException {
+		while (!closed) {
+			final SocketChannel ch;
+			try {
+				ch = serverChannel.accept();
+			}
+			catch (ClosedChannelException ccx) {
+				break;
+			}
+			requestExecutor.execute(new Runnable() {
+				public void run() {
+					handle(ch);
+				}
+			});
+		}
+	}
+	
+	// starts serving on a background thread
+	public void start() {
+		Thread t = new Thread("compile-server") {
+			public void run() {
+				try {
+					serve();
+				}
+				catch (IOException iox) {
+					if (!closed) System.err.println("Compile server stopped: "+iox);
+				}
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+	}
+	
+	public void close() throws IOException {
+		closed = true;
+		serverChannel.close();
+		requestExecutor.shutdown();
+		if (socketPath != null) Files.deleteIfExists(socketPath);
+	}
+	
+	private void handle(SocketChannel ch) {
+		try {
+			InputStream in = new BufferedInputStream(Channels.newInputStream(ch));
+			OutputStream out = new BufferedOutputStream(Channels.newOutputStream(ch));
+			ArrayList<String> args = new ArrayList<String>();
+			for (;;) {
+				String line = readLine(in);
+				if (line == null || line.length() == 0) break;
+				args.add(line);
+			}
+			ByteArrayOutputStream asm = new ByteArrayOutputStream(1 << 16);
+			ByteArrayOutputStream diag = new ByteArrayOutputStream();
+			boolean ok = compile(args.toArray(new String[0]), asm, new PrintStream(diag, true));
+			writeResponse(out, ok, diag.toByteArray(), asm.toByteArray());
+			out.flush();
+		}
+		catch (IOException iox) {
+			// client went away; nothing to report to
+		}
+		finally {
+			try {
+				ch.close();
+			}
+			catch (IOException iox) {
+				// ignore
+			}
+		}
+	}
+	
+	// runs one compilation in this JVM; returns true iff it succeeded
+	static boolean compile(String[] args, OutputStream asm, PrintStream diag) {
+		for (String arg : args) {
+			if (arg.startsWith("-w") || arg.equals("-batch") || arg.startsWith("-server")) {
+				diag.println("Switch not allowed in a server request: '"+arg+"'");
+				return false;
+			}
+		}
+		Main5 job = new Main5();
+		try {
+			job.parseCommandLine(args);
+			job.redirect(asm, diag);
+			job.errorMsg = new ErrorMsg(job.inputFileName, diag);
+			job.execMain(false);
+			return !job.errorMsg.anyErrors;
+		}
+		catch (Main5.CompileAbort ca) {
+			diag.println(ca.getMessage());
+			return false;
+		}
+	}
+	
+	static void writeResponse(OutputStream out, boolean ok, byte[] diag, byte[] asm) throws IOException {
+		out.write(("STATUS "+(ok ? "ok" : "failed")+"\n").getBytes(StandardCharsets.US_ASCII));
+		out.write(("DIAG "+diag.length+"\n").getBytes(StandardCharsets.US_ASCII));
+		out.write(diag);
+		out.write(("ASM "+asm.length+"\n").getBytes(StandardCharsets.US_ASCII));
+		out.write(asm);
+	}
+	
+	// reads a UTF-8 line, without its terminator; returns null at end
+	// of stream
+	static String readLine(InputStream in) throws IOException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		for (;;) {
+			int b = in.read();
+			if (b < 0) {
+				return buf.size() == 0 ? null : buf.toString("UTF-8");
+			}
+			if (b == '\n') break;
+			buf.write(b);
+		}
+		String s = buf.toString("UTF-8");
+		return s.endsWith("\r") ? s.substring(0, s.length()-1) : s;
+	}
+}
@@ -8,7 +8,9 @@ import syntaxtree.*;
 import treedisplay.*;
 import visitor.*;
 import errorMsg.*;
+import flatAst.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.awt.*;
 
 public class Main5 {
@@ -21,6 +23,8 @@ public class Main5 {
 	
 	private static final int DEFAULT_PASS_LIMIT = 10;
 	private static final int DEFAULT_FONT_SIZE = 12;
+	private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+	private static final int TOKEN_PIPE_SIZE = 1 << 16;
 	private static final Color defaultColor() { return new Color(0xbb,0x99,0xff); }
 	
 	private int mode;
@@ -29,43 +33,226 @@ public class Main5 {
 	private int fontSize;
 	private Color color;
 	String inputFileName;
+	private boolean batch;
+	private String serverAddress;
+	private ArrayList<String> batchInputs;
 	private String outputFileName;
 	private String appendFileName;
 	private InputStream inputStream;
 	private PrintStream outputStream;
-	private InputStream appendStream;
+	private OutputStream outputSink;
+	private PrintStream diagnostics;
+	private FileOutputStream outputFile;
+	private boolean streamTokens;
+	private boolean stats;
+	private boolean flatCodeGen;
+	private CodeGenOptions options;
+	private FlatAst flat;
+	private String statsFileName;
+	private PhaseStats phaseStats;
+	private String cacheDirName;
+	private long cacheMaxBytes;
+	private int heapSize; // bytes in a semispace; 0 for the library's default
+	private CompileCache cache;
+	private String cacheKey;
+	private ByteArrayOutputStream cacheCapture;
 	ErrorMsg errorMsg;
 	
 	//private boolean gcReport = false;
 	
 	public static void main(String args[])  {
-		Main5 mainObj = new Main5();
-		mainObj.parseCommandLine(args);
-		mainObj.errorMsg = new ErrorMsg(mainObj.inputFileName);
-		mainObj.execMain(false);
+		try {
+			Main5 mainObj = new Main5();
+			mainObj.parseCommandLine(args);
+			if (mainObj.serverAddress != null) {
+				mainObj.execServer();
+				return;
+			}
+			if (mainObj.batch) {
+				exit(mainObj.execBatch() ? 0 : 1);
+			}
+			mainObj.errorMsg = new ErrorMsg(mainObj.inputFileName);
+			mainObj.execMain(false);
+		}
+		catch (CompileAbort ca) {
+			System.err.println(ca.getMessage());
+			exit(1);
+		}
+	}
+	
+	// runs as a compile server until killed
+	void execServer() {
+		try {
+			CompileServer server = new CompileServer(serverAddress);
+			System.err.println("Compile server listening on "+serverAddress);
+			server.serve();
+		}
+		catch (IOException iox) {
+			exitError("Compile server error: "+iox.getMessage());
+		}
+	}
+	
+	// compiles all the batch inputs concurrently on a work-stealing
+	// pool, reporting the result for each file; returns true iff all
+	// compilations succeeded
+	boolean execBatch() {
+		long start = System.nanoTime();
+		openCache();
+		ArrayList<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+		for (final String fileName : batchInputs) {
+			final Main5 job = this.forBatchFile(fileName);
+			tasks.add(new Callable<Boolean>() {
+				public Boolean call() {
+					return job.execBatchFile();
+				}
+			});
+		}
+		ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		int failures = 0;
+		try {
+			java.util.List<Future<Boolean>> results = pool.invokeAll(tasks);
+			for (int i = 0; i < results.size(); i++) {
+				try {
+					if (!results.get(i).get()) failures++;
+				}
+				catch (ExecutionException ex) {
+					System.err.println("Compilation failed for "+batchInputs.get(i)+": "+ex.getCause());
+					failures++;
+				}
+			}
+		}
+		catch (InterruptedException ix) {
+			Thread.currentThread().interrupt();
+			failures = batchInputs.size();
+		}
+		finally {
+			pool.shutdown();
+		}
+		long millis = (System.nanoTime()-start)/1000000;
+		System.err.println("Batch complete: "+(batchInputs.size()-failures)+" succeeded, "+
+				failures+" failed, "+millis+" ms.");
+		if (cache != null) System.err.println(CompileCache.counters());
+		return failures == 0;
+	}
+	
+	// creates the compiler object for one file of a batch, sharing this
+	// object's options; the output goes next to the input, or into the
+	// '-o' directory if one was given
+	private Main5 forBatchFile(String fileName) {
+		Main5 job = new Main5();
+		job.pass = pass;
+		job.appendFileName = appendFileName;
+		job.streamTokens = streamTokens;
+		job.stats = stats;
+		job.flatCodeGen = flatCodeGen;
+		job.options = options;
+		job.heapSize = heapSize;
+		job.cacheDirName = cacheDirName;
+		job.cache = cache;
+		job.inputFileName = fileName;
+		String base = new File(fileName).getName();
+		if (base.endsWith(".java")) {
+			base = base.substring(0, base.length()-5);
+		}
+		base += ".asm";
+		if (outputFileName != null) {
+			job.outputFileName = new File(outputFileName, base).getPath();
+		}
+		else {
+			job.outputFileName = new File(new File(fileName).getParentFile(), base).getPath();
+		}
+		if (statsFileName != null) {
+			job.statsFileName = job.outputFileName + ".stats.json";
+		}
+		job.errorMsg = new ErrorMsg(fileName);
+		return job;
+	}
+	
+	// compiles a single file of a batch; returns true iff it succeeded
+	private boolean execBatchFile() {
+		try {
+			execMain(false);
+			return !errorMsg.anyErrors;
+		}
+		catch (CompileAbort ca) {
+			System.err.println(inputFileName+": "+ca.getMessage());
+			System.err.println("Compilation failed for "+inputFileName+".");
+			closeFilesQuietly();
+			return false;
+		}
+	}
+	
+	// adds a batch input; directories contribute every .java file they
+	// contain, recursively
+	private void addBatchInput(File f) {
+		if (f.isDirectory()) {
+			File[] contents = f.listFiles();
+			if (contents == null) return;
+			Arrays.sort(contents);
+			for (File sub : contents) {
+				if (sub.isDirectory() || sub.getName().endsWith(".java")) {
+					addBatchInput(sub);
+				}
+			}
+		}
+		else {
+			batchInputs.add(f.getPath());
+		}
+	}
+	
+	// directs the generated code (when there is no '-o' file) and all
+	// diagnostics to the given streams instead of stdout and stderr
+	void redirect(OutputStream out, PrintStream diag) {
+		outputSink = out;
+		diagnostics = diag;
 	}
 	
 	void execMain(boolean useTerminal) {
+		// the nodes of this compilation are numbered from 0, whatever
+		// else is running in this JVM
+		CompilationContext context = new CompilationContext().enter();
 		try {
+			phaseStats = new PhaseStats(stats, inputFileName);
+			if (this.compileFromCache()) return;
 			this.openFiles();
+			phaseStats.start();
 			AstNode ast = this.parseFile();
+			new TrimListsVisitor().trim(ast);
+			phaseStats.finish("parse", ast);
 			Hashtable<String,ClassDecl> globalTab = this.semanticPhase1(ast);
+			phaseStats.finish("sem1", ast);
 			this.semanticPhase2(ast, globalTab);
+			phaseStats.finish("sem2", ast);
 			this.semanticPhase3(ast, globalTab);
+			phaseStats.finish("sem3", ast);
 			this.semanticPhase4(ast, globalTab);
+			phaseStats.finish("sem4", ast);
 			this.semanticPhase5(ast, globalTab);
+			phaseStats.finish("sem5", ast);
 			this.cgPhase1(ast, globalTab);
+			phaseStats.finish("cg1", ast);
 			this.cgPhase2(ast);
+			phaseStats.finish("cg2", ast);
 			this.cgPhase3(ast);
+			phaseStats.finish("cg3", ast);
 			this.appendFile();
+			phaseStats.finish("append", ast);
+			this.storeInCache();
 			this.printSummaryMessage();
 			this.displayAst(ast);
 			this.closeFiles();
+			this.reportStats();
+		}
+		catch (CompileAbort ca) {
+			throw ca;
 		}
 		catch (Exception e) {
-			e.printStackTrace();
+			e.printStackTrace(diagnostics);
 			exitError("Unexpected exception: "+e);
 		}
+		finally {
+			context.exit();
+		}
 	}
 	
 	Main5() {
@@ -75,6 +262,10 @@ public class Main5 {
 		inputFileName = null;
 		outputFileName = null;
 		appendFileName = null;
+		batchInputs = new ArrayList<String>();
+		cacheMaxBytes = CompileCache.DEFAULT_MAX_BYTES;
+		options = new CodeGenOptions();
+		diagnostics = System.err;
 		errorMsg = null;
 	}
 	
@@ -112,6 +303,57 @@ public class Main5 {
 						color = defaultColor();
 					}
 				}
+ 				else if (arg.startsWith("-server:")) {
+ 					serverAddress = arg.substring(8);
+ 				}
+ 				else if (arg.startsWith("-cache:")) {
+ 					cacheDirName = arg.substring(7);
+ 					// cached code must not depend on the run that produced it
+ 					options.deterministic = true;
+ 				}
+ 				else if (arg.startsWith("-cachemax:")) {
+ 					try {
+ 						cacheMaxBytes = Long.parseLong(arg.substring(10));
+ 					}
+ 					catch (NumberFormatException nfx) {
+ 						exitError("Illegal cache size: '"+arg+"'");
+ 					}
+ 				}
+ 				else if (arg.startsWith("-heap:")) {
+ 					heapSize = parseHeapSize(arg.substring(6));
+ 					if (heapSize <= 0) exitError("Illegal heap size: '"+arg+"'");
+ 				}
+ 				else if (arg.equals("-batch")) {
+ 					batch = true;
+ 				}
+ 				else if (arg.equals("-flat")) {
+ 					flatCodeGen = true;
+ 				}
+ 				else if (arg.equals("-nofold")) {
+ 					options.constantFolding = false;
+ 				}
+ 				else if (arg.equals("-nopeep")) {
+ 					options.peephole = false;
+ 				}
+ 				else if (arg.equals("-nofastnew")) {
+ 					options.inlineAllocation = false;
+ 				}
+ 				else if (arg.equals("-regs")) {
+ 					options.registerExpressions = true;
+ 				}
+ 				else if (arg.equals("-maps")) {
+ 					options.stackMaps = true;
+ 				}
+ 				else if (arg.equals("-gen")) {
+ 					options.generational = true;
+ 				}
+ 				else if (arg.equals("-stats")) {
+ 					stats = true;
+ 				}
+ 				else if (arg.startsWith("-stats:")) {
+ 					stats = true;
+ 					statsFileName = arg.substring(7);
+ 				}
  				else if (arg.equals("-pp")) {
  					mode = PRINT;
  					prettyPrint = true;
@@ -132,7 +374,10 @@ public class Main5 {
 							if (i >= args.length) exitError ("No file name after '-a'");
 							appendFileName = args[i];
 							break;
+						case 'd': options.deterministic = true; break;
 						case 'p': mode = PRINT; break;
+						case 'r': options.release = true; break;
+						case 's': streamTokens = true; break;
 						case 'w':
 							mode = WINDOW;	
 							fontSize = DEFAULT_FONT_SIZE;
@@ -154,38 +399,121 @@ public class Main5 {
 				}
 			}
 			else {
-				if (inputFileName != null) exitError("Too many input file names given");
-				inputFileName = arg;
+				addBatchInput(new File(arg));
 			}
 		}
-		if (inputFileName == null) exitError("No input file name given");
+		if (serverAddress != null) {
+			return;
+		}
+		if (batch) {
+			if (batchInputs.isEmpty()) exitError("No input files found");
+			if (outputFileName != null) new File(outputFileName).mkdirs();
+			mode = SILENT;
+			return;
+		}
+		if (batchInputs.size() > 1) exitError("Too many input file names given");
+		if (batchInputs.isEmpty()) exitError("No input file name given");
+		inputFileName = batchInputs.get(0);
+	}
+	
+	// if the code is to be cached, copies everything written to 'os'
+	// into the capture buffer
+	private OutputStream captured(OutputStream os) {
+		if (cacheCapture == null) return os;
+		final ByteArrayOutputStream capture = cacheCapture;
+		return new FilterOutputStream(os) {
+			public void write(int b) throws IOException {
+				out.write(b);
+				capture.write(b);
+			}
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+				capture.write(b, off, len);
+			}
+		};
 	}
 	
 	private void openFiles() {
 				
 		try {
-			inputStream = new FileInputStream(inputFileName); }
+			inputStream = new BufferedInputStream(new FileInputStream(inputFileName)); }
 		catch (FileNotFoundException e) {
 			exitError("File not found: " + inputFileName);
 		}
-		outputStream = System.out;
+		// the generated code is written a line at a time, so give the
+		// output a large buffer and no auto-flushing
+		OutputStream defaultOut = outputSink != null ? outputSink : new FileOutputStream(FileDescriptor.out);
+		outputStream = new PrintStream(phaseStats.countLines(new BufferedOutputStream(
+				captured(defaultOut), OUTPUT_BUFFER_SIZE)));
 		if (outputFileName != null) {
 			try {
-				OutputStream os = new FileOutputStream(outputFileName);
-				outputStream = new PrintStream(os);
+				outputFile = new FileOutputStream(outputFileName);
+				outputStream = new PrintStream(phaseStats.countLines(new BufferedOutputStream(
+						captured(outputFile), OUTPUT_BUFFER_SIZE)));
 			}
 			catch (IOException e) {
 				exitError("Error opening output file: " + outputFileName);
 			}
 		}
-		if (appendFileName != null) {
-			try {
-				appendStream = new FileInputStream(appendFileName); }
-			catch (FileNotFoundException e) {
-				exitError("File not found: " + appendFileName);
-			}
+		if (appendFileName != null && !new File(appendFileName).isFile()) {
+			exitError("File not found: " + appendFileName);
+		}
+	}
+	private void openCache() {
+		if (cacheDirName == null || cache != null) return;
+		try {
+			cache = new CompileCache(cacheDirName, cacheMaxBytes);
+		}
+		catch (IOException iox) {
+			exitError("Error opening compile cache: " + cacheDirName);
+		}
+	}
+	
+	// if the code for this compilation is in the cache, emits it and
+	// returns true; otherwise returns false, having arranged for the
+	// code to be captured so that storeInCache can save it
+	private boolean compileFromCache() {
+		if (cacheDirName == null || mode != SILENT) return false;
+		openCache();
+		phaseStats.start();
+		try {
+			String settings = "pass="+pass+";release="+options.release
+				+";fold="+options.constantFolding+";peep="+options.peephole
+				+";regs="+options.registerExpressions+";maps="+options.stackMaps
+				+";gen="+options.generational+";heap="+heapSize
+				+";fastnew="+options.inlineAllocation;
+			cacheKey = cache.keyFor(inputFileName, appendFileName, settings);
+		}
+		catch (IOException iox) {
+			// unreadable input: compile normally, which reports the error
+			return false;
 		}
+		byte[] code = cache.lookup(cacheKey);
+		if (code == null) {
+			cacheCapture = new ByteArrayOutputStream(1 << 16);
+			return false;
+		}
+		this.openFiles();
+		outputStream.write(code, 0, code.length);
+		phaseStats.finish("cache hit", null);
+		this.printSummaryMessage();
+		this.closeFiles();
+		this.reportStats();
+		return true;
 	}
+	
+	private void storeInCache() {
+		if (cacheCapture == null || errorMsg.anyErrors) return;
+		outputStream.flush();
+		try {
+			cache.store(cacheKey, cacheCapture.toByteArray());
+		}
+		catch (IOException iox) {
+			diagnostics.println("Warning: could not store in compile cache: "+iox.getMessage());
+		}
+		cacheCapture = null;
+	}
+	
 	private AstNode parseFile() {
 
 		if (SCANNER_ONLY) {
@@ -193,13 +521,16 @@ public class Main5 {
 			new MJScannerParseTable(new MJScanner(errorMsg, System.out)).parse(inputStream,0,false);	
 			return null;
 		}
+		else if (MJGrammar.FILTER_GRAMMAR && streamTokens) {
+			return parseStreaming();
+		}
 		else if (MJGrammar.FILTER_GRAMMAR) {
 			
 			try {
 				
 				ByteArrayOutputStream os = new ByteArrayOutputStream(1000000);
 				// parse the original input, sending its data to the pipe
-				ErrorMsg scannerErrorObject = new ErrorMsg(errorMsg.getFileName());
+				ErrorMsg scannerErrorObject = new ErrorMsg(errorMsg.getFileName(), diagnostics);
 				MJScanner scanner = new MJScanner(scannerErrorObject, os);
 				new MJScannerParseTable(scanner).parse(inputStream,0,false);
 
@@ -221,7 +552,7 @@ public class Main5 {
 				return mj.parseResult();
 			}
 			catch (IOException iox) {
-				System.err.println("Internal piping error.");
+				diagnostics.println("Internal piping error.");
 				return null;
 			}
 		}
@@ -237,6 +568,65 @@ public class Main5 {
 		}
 	}
 	
+	// runs the scanner on its own thread, feeding its output to the
+	// grammar through a bounded pipe, so that parsing overlaps scanning
+	// and the token text is never held in memory as a whole
+	private AstNode parseStreaming() {
+		try {
+			final PipedInputStream pipeIn = new PipedInputStream(TOKEN_PIPE_SIZE);
+			final OutputStream pipeOut =
+				new BufferedOutputStream(new PipedOutputStream(pipeIn), TOKEN_PIPE_SIZE/4);
+			final ErrorMsg scannerErrorObject = new ErrorMsg(errorMsg.getFileName(), diagnostics);
+			
+			Thread scannerThread = new Thread("scanner: "+inputFileName) {
+				public void run() {
+					try {
+						MJScanner scanner = new MJScanner(scannerErrorObject, pipeOut);
+						new MJScannerParseTable(scanner).parse(inputStream,0,false);
+					}
+					finally {
+						try {
+							pipeOut.close();
+						}
+						catch (IOException iox) {
+							// reader has gone away; nothing left to do
+						}
+					}
+				}
+			};
+			scannerThread.setDaemon(true);
+			scannerThread.start();
+			
+			// create the semantic action object
+			MJGrammar mj = new MJGrammar(errorMsg);
+			
+			// parse the filtered text as it arrives
+			InputStream is = new BufferedInputStream(pipeIn, TOKEN_PIPE_SIZE/4);
+			new MJGrammarParseTable(mj).parse(is,0,false);
+			
+			// closing the read end unblocks the scanner if the grammar
+			// stopped reading early
+			is.close();
+			scannerThread.join();
+			
+			if (scannerErrorObject.anyErrors) {
+				errorMsg.error(-1, "Error detected during scanning");
+			}
+			
+			// return the result of the parse
+			return mj.parseResult();
+		}
+		catch (IOException iox) {
+			diagnostics.println("Internal piping error.");
+			return null;
+		}
+		catch (InterruptedException ix) {
+			Thread.currentThread().interrupt();
+			diagnostics.println("Interrupted while scanning.");
+			return null;
+		}
+	}
+	
 	public Hashtable<String,ClassDecl> semanticPhase1(AstNode ast) {
 		if (!errorMsg.anyErrors && ast != null && pass >= 2) {
 			Sem1Visitor vis = new Sem1Visitor(errorMsg);
@@ -274,33 +664,76 @@ public class Main5 {
 	
 	public void cgPhase1(AstNode ast, Hashtable<String,ClassDecl> globalTbl) {
 		if (!errorMsg.anyErrors && ast != null && pass >= 7) {
-			new CG1Visitor(errorMsg, outputStream).visit(ast);
+			if (flatCodeGen) {
+				// CG1 and CG3 run over a flat copy of the AST
+				flat = FlatAst.build(ast);
+				new FlatCG1(errorMsg, outputStream, options).visit(flat);
+			}
+			else {
+				new CG1Visitor(errorMsg, outputStream, options).visit(ast);
+			}
 		}
 	}
 	
 	public void cgPhase2(AstNode ast) {
 		if (!errorMsg.anyErrors && ast != null && pass >= 8) {
-			new CG2Visitor(errorMsg, outputStream).visit(ast);
+			new CG2Visitor(errorMsg, outputStream, options).visit(ast);
 		}
 	}
 	
 	public void cgPhase3(AstNode ast) {
 		if (!errorMsg.anyErrors && ast != null && pass >= 9) {
-			new CG3Visitor(errorMsg, outputStream).visit(ast);
+			if (flat != null) {
+				new FlatCG3(errorMsg, outputStream, options).visit(flat);
+			}
+			else {
+				new CG3Visitor(errorMsg, outputStream, options).visit(ast);
+			}
 		}
 	}
 	
+	// the names defined for the runtime library's #ifdef's, for the kind
+	// of code being generated
+	private String[] libraryNames() {
+		java.util.Vector<String> names = new java.util.Vector<String>();
+		if (options.stackMaps) names.add("MAPS");
+		if (options.generational) names.add("GEN");
+		if (heapSize > 0) names.add("HEAP_SIZE=0x"+Integer.toHexString(heapSize));
+		return names.toArray(new String[0]);
+	}
+
+	// the number of bytes in a -heap: size, which may end in K or M;
+	// rounded up to a multiple of 8, as the runtime's sbrk's are; 0 if
+	// it is not a size
+	private static int parseHeapSize(String size) {
+		int unit = 1;
+		String digits = size.toUpperCase();
+		if (digits.endsWith("K")) unit = 1 << 10;
+		else if (digits.endsWith("M")) unit = 1 << 20;
+		if (unit > 1) digits = digits.substring(0, digits.length()-1);
+		try {
+			long bytes = Long.parseLong(digits)*unit;
+			if (bytes <= 0 || bytes > 1 << 28) return 0;
+			return (int) ((bytes+7) & ~7);
+		}
+		catch (NumberFormatException nfx) {
+			return 0;
+		}
+	}
+
 	public void appendFile() {
-		if (!errorMsg.anyErrors && appendStream != null && pass >= 10) {
+		if (!errorMsg.anyErrors && appendFileName != null && pass >= 10) {
 			try {
-				for (;;) {
-					int b = appendStream.read();
-					if (b < 0) break;
-					outputStream.write(b);
+				RuntimeLibrary lib = RuntimeLibrary.forFile(appendFileName, libraryNames());
+				if (outputFile != null && cacheCapture == null) {
+					// everything written so far must reach the file first
+					outputStream.flush();
+					lib.transferTo(outputFile.getChannel());
+					phaseStats.addLines(lib.lines);
+				}
+				else {
+					lib.writeTo(outputStream);
 				}
-			}
-			catch (EOFException iox) {
-				System.err.println("EOF exception");
 			}
 			catch (IOException iox) {
 				exitError("Error attempting to process append-file "+appendFileName);
@@ -312,19 +745,47 @@ public class Main5 {
 		try {
 			if (inputStream != null) inputStream.close();
 			if (outputStream != null) outputStream.close();
-			if (appendStream != null) appendStream.close();
 		}
 		catch (IOException iox) {
 			exitError("Error closing files.");
 		}
 	}
 	
+	public void reportStats() {
+		if (!stats) return;
+		if (cache != null) diagnostics.println(CompileCache.counters());
+		if (options.peephole) diagnostics.println(Peephole.counters());
+		if (statsFileName == null) {
+			phaseStats.printTable(diagnostics);
+		}
+		else {
+			try {
+				PrintStream ps = new PrintStream(new FileOutputStream(statsFileName));
+				phaseStats.writeJson(ps);
+				ps.close();
+			}
+			catch (IOException iox) {
+				exitError("Error writing statistics file: " + statsFileName);
+			}
+		}
+	}
+	
+	private void closeFilesQuietly() {
+		try {
+			if (inputStream != null) inputStream.close();
+			if (outputStream != null) outputStream.close();
+		}
+		catch (IOException iox) {
+			// already failing; nothing more to report
+		}
+	}
+	
 	public void printSummaryMessage() {
 		if (errorMsg.anyErrors) {
-			System.err.println("Compilation failed for "+inputFileName+".");
+			diagnostics.println("Compilation failed for "+inputFileName+".");
 		}
 		else {
-			System.err.println("Compilation successful for "+inputFileName+".");
+			diagnostics.println("Compilation successful for "+inputFileName+".");
 		}
 	}
 	
@@ -353,11 +814,20 @@ public class Main5 {
 		}
 	}
 	
+	// aborts the current compilation; 'main' reports the message and
+	// exits, while a batch compilation just marks the file as failed
 	public static void exitError(String msg) {
-		System.err.println(msg);
-		exit(1);
+		throw new CompileAbort(msg);
 	}
 	public static void exit(int code) {
 		System.exit(code);
 	}
+	
+	static class CompileAbort extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		CompileAbort(String msg) {
+			super(msg);
+		}
+	}
 }
@@ -0,0 +1,166 @@
+package main;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+import syntaxtree.AstNode;
+import visitor.NodeCountVisitor;
+
+// records, for each phase of a compilation, the wall time, the number
+// of bytes allocated by the compiling thread, the size of the AST after
+// the phase and the number of lines emitted; also emits a JFR event
+// for each phase.  A compilation whose code comes from the compile
+// cache has a single phase, "cache hit", with no AST.
+class PhaseStats {
+	
+	private static class Phase {
+		String name;
+		long nanos;
+		long allocatedBytes;
+		int astNodes; // -1 if there is no AST
+		long emittedLines;
+	}
+	
+	private final boolean enabled;
+	private final String fileName;
+	private final ArrayList<Phase> phases;
+	private final com.sun.management.ThreadMXBean threadBean;
+	private LineCountingOutputStream lineCounter;
+	
+	// values at the start of the current phase
+	private long startNanos;
+	private long startBytes;
+	private long startLines;
+	private CompilePhaseEvent event;
+	
+	PhaseStats(boolean enabled, String fileName) {
+		this.enabled = enabled;
+		this.fileName = fileName;
+		phases = new ArrayList<Phase>();
+		java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		if (mx instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean)mx).isThreadAllocatedMemorySupported()) {
+			threadBean = (com.sun.management.ThreadMXBean)mx;
+			threadBean.setThreadAllocatedMemoryEnabled(true);
+		}
+		else {
+			threadBean = null;
+		}
+	}
+	
+	// wraps the compiler's output so that emitted lines can be counted
+	OutputStream countLines(OutputStream os) {
+		lineCounter = new LineCountingOutputStream(os);
+		return lineCounter;
+	}
+	
+	// accounts for lines that were written around the counting stream
+	void addLines(int n) {
+		if (lineCounter != null) lineCounter.lines += n;
+	}
+	
+	// marks the start of the first phase
+	void start() {
+		event = new CompilePhaseEvent();
+		event.begin();
+		startNanos = System.nanoTime();
+		startBytes = allocatedBytes();
+		startLines = emittedLines();
+	}
+	
+	// ends the phase that began at the previous start/finish, and
+	// starts the next one; 'ast' is null if there is none
+	void finish(String name, AstNode ast) {
+		long nanos = System.nanoTime()-startNanos;
+		long bytes = allocatedBytes()-startBytes;
+		long lines = emittedLines()-startLines;
+		event.end();
+		if (event.shouldCommit()) {
+			event.file = fileName;
+			event.phase = name;
+			event.allocatedBytes = bytes;
+			event.emittedLines = lines;
+			event.commit();
+		}
+		if (enabled) {
+			Phase p = new Phase();
+			p.name = name;
+			p.nanos = nanos;
+			p.allocatedBytes = bytes;
+			p.astNodes = ast == null ? -1 : new NodeCountVisitor().count(ast);
+			p.emittedLines = lines;
+			phases.add(p);
+		}
+		start();
+	}
+	
+	void printTable(PrintStream ps) {
+		if (!enabled) return;
+		ps.println("Compile statistics for "+fileName+":");
+		ps.printf("  %-10s %10s %14s %10s %10s%n", "phase", "time(ms)", "alloc(bytes)", "ast nodes", "lines");
+		long totalNanos = 0;
+		long totalBytes = 0;
+		long totalLines = 0;
+		for (Phase p : phases) {
+			ps.printf("  %-10s %10.3f %14d %10s %10d%n", p.name, p.nanos/1e6, p.allocatedBytes,
+					p.astNodes < 0 ? "" : Integer.toString(p.astNodes), p.emittedLines);
+			totalNanos += p.nanos;
+			totalBytes += p.allocatedBytes;
+			totalLines += p.emittedLines;
+		}
+		ps.printf("  %-10s %10.3f %14d %10s %10d%n", "total", totalNanos/1e6, totalBytes, "", totalLines);
+	}
+	
+	void writeJson(PrintStream ps) {
+		if (!enabled) return;
+		ps.println("{");
+		ps.println("  \"file\": \""+jsonEscape(fileName)+"\",");
+		ps.println("  \"phases\": [");
+		for (int i = 0; i < phases.size(); i++) {
+			Phase p = phases.get(i);
+			ps.print("    {\"phase\": \""+p.name+"\", \"nanos\": "+p.nanos+
+					", \"allocatedBytes\": "+p.allocatedBytes+
+					(p.astNodes < 0 ? "" : ", \"astNodes\": "+p.astNodes)+
+					", \"emittedLines\": "+p.emittedLines+"}");
+			ps.println(i < phases.size()-1 ? "," : "");
+		}
+		ps.println("  ]");
+		ps.println("}");
+	}
+	
+	private static String jsonEscape(String s) {
+		return s.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+	
+	private long allocatedBytes() {
+		return threadBean == null ? 0 : threadBean.getCurrentThreadAllocatedBytes();
+	}
+	
+	private long emittedLines() {
+		return lineCounter == null ? 0 : lineCounter.lines;
+	}
+	
+	// counts the newlines written through it
+	private static class LineCountingOutputStream extends FilterOutputStream {
+		long lines;
+		
+		LineCountingOutputStream(OutputStream os) {
+			super(os);
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			if (b == '\n') lines++;
+			out.write(b);
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			for (int i = off; i < off+len; i++) {
+				if (b[i] == '\n') lines++;
+			}
+			out.write(b, off, len);
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package main;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.ConcurrentHashMap;
+
+// The runtime library (e.g., mjLib.asm) that is appended to the
+// generated code.  The file is memory-mapped read-only once per JVM,
+// and the mapping is shared by all compilations in a batch or in the
+// compile server; it is re-mapped only if the file changes.
+//
+// Parts of the library may be for only some kinds of generated code
+// (e.g., stack maps, with Main5's -maps).  Such a part is between a line
+// "#ifdef NAME" (or "#ifndef NAME") and a line "#endif", with an optional
+// "#else" line between; the assembler sees these lines as comments.  A
+// name may also be defined with a value, as "NAME=VALUE" (e.g., the heap
+// size, with Main5's -heap:); then the name, as a whole word, is replaced
+// by the value in the lines in effect.  A library that has conditionals
+// is processed once per JVM for each set of defined names, into a
+// temporary file that is then mapped and appended in its place.
+class RuntimeLibrary {
+
+	private static final ConcurrentHashMap<String,RuntimeLibrary> shared =
+		new ConcurrentHashMap<String,RuntimeLibrary>();
+
+	// the library file, as it was when it was read
+	private final long size;
+	private final FileTime modified;
+
+	// the file that is appended (the library file, or the processed
+	// text), and its mapping
+	private final Path path;
+	private final ByteBuffer bytes;
+	final int lines;
+
+	private RuntimeLibrary(Path p, String[] names) throws IOException {
+		modified = Files.getLastModifiedTime(p);
+		size = Files.size(p);
+		MappedByteBuffer mapped = map(p);
+		String text = StandardCharsets.ISO_8859_1.decode(mapped.duplicate()).toString();
+		if (hasConditionals(text)) {
+			path = Files.createTempFile("mjLib", ".asm");
+			path.toFile().deleteOnExit();
+			Files.write(path, preprocess(text, names));
+			bytes = map(path);
+		}
+		else {
+			path = p;
+			bytes = mapped;
+		}
+		int n = 0;
+		for (int i = 0; i < bytes.limit(); i++) {
+			if (bytes.get(i) == '\n') n++;
+		}
+		lines = n;
+	}
+
+	private static MappedByteBuffer map(Path p) throws IOException {
+		try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+			return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+		}
+	}
+
+	// returns the (shared) library for the given file, with the given
+	// names defined
+	static RuntimeLibrary forFile(String fileName, String... names) throws IOException {
+		Path p = Paths.get(fileName).toAbsolutePath().normalize();
+		String key = p+"|"+String.join(",", names);
+		RuntimeLibrary lib = shared.get(key);
+		if (lib == null || lib.size != Files.size(p)
+				|| !lib.modified.equals(Files.getLastModifiedTime(p))) {
+			lib = new RuntimeLibrary(p, names);
+			shared.put(key, lib);
+		}
+		return lib;
+	}
+
+	// appends the library to a file, letting the OS copy the bytes
+	// directly from the library file (or the processed one)
+	void transferTo(FileChannel out) throws IOException {
+		long length = bytes.limit();
+		try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+			long pos = 0;
+			while (pos < length) {
+				pos += in.transferTo(pos, length-pos, out);
+			}
+		}
+	}
+
+	// appends the library to a stream, from the shared mapping
+	void writeTo(OutputStream os) throws IOException {
+		WritableByteChannel ch = Channels.newChannel(os);
+		ByteBuffer buf = bytes.duplicate();
+		while (buf.hasRemaining()) {
+			ch.write(buf);
+		}
+	}
+
+	private static boolean isDirective(String line) {
+		return line.startsWith("#ifdef ") || line.startsWith("#ifndef ")
+			|| line.startsWith("#else") || line.startsWith("#endif");
+	}
+
+	private static boolean hasConditionals(String text) {
+		return text.startsWith("#if") || text.contains("\n#ifdef ") || text.contains("\n#ifndef ");
+	}
+
+	// the text of the library, keeping the lines that are in effect with
+	// the given names defined, and dropping the directive lines
+	private static byte[] preprocess(String text, String[] names) throws IOException {
+		java.util.Set<String> defined = new java.util.HashSet<String>();
+		java.util.Map<String,String> values = new java.util.HashMap<String,String>();
+		for (String name : names) {
+			int eq = name.indexOf('=');
+			if (eq < 0) {
+				defined.add(name);
+			}
+			else {
+				defined.add(name.substring(0, eq));
+				values.put(name.substring(0, eq), name.substring(eq+1));
+			}
+		}
+		// whether the lines around each enclosing #ifdef are in effect,
+		// and whether the current line is
+		java.util.Stack<Boolean> enclosing = new java.util.Stack<Boolean>();
+		boolean active = true;
+		StringBuilder out = new StringBuilder(text.length());
+		int pos = 0;
+		while (pos < text.length()) {
+			int nl = text.indexOf('\n', pos);
+			int end = nl < 0 ? text.length() : nl+1;
+			String line = text.substring(pos, end);
+			pos = end;
+			if (!isDirective(line)) {
+				if (active) out.append(substitute(line, values));
+				continue;
+			}
+			String[] words = line.trim().split("\\s+");
+			if (words[0].equals("#ifdef") || words[0].equals("#ifndef")) {
+				if (words.length < 2) throw new IOException("missing name: "+line.trim());
+				enclosing.push(active);
+				active = active && (defined.contains(words[1]) == words[0].equals("#ifdef"));
+			}
+			else if (enclosing.isEmpty()) {
+				throw new IOException("unmatched "+words[0]);
+			}
+			else if (words[0].equals("#else")) {
+				active = enclosing.peek() && !active;
+			}
+			else {
+				active = enclosing.pop();
+			}
+		}
+		if (!enclosing.isEmpty()) throw new IOException("missing #endif");
+		return out.toString().getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+	// a line with each name that has a value replaced by the value, where
+	// it is a whole word
+	private static String substitute(String line, java.util.Map<String,String> values) {
+		for (java.util.Map.Entry<String,String> e : values.entrySet()) {
+			String name = e.getKey();
+			int at = line.indexOf(name);
+			while (at >= 0) {
+				int end = at+name.length();
+				if ((at == 0 || !isWordChar(line.charAt(at-1)))
+						&& (end == line.length() || !isWordChar(line.charAt(end)))) {
+					line = line.substring(0, at)+e.getValue()+line.substring(end);
+					end = at+e.getValue().length();
+				}
+				at = line.indexOf(name, end);
+			}
+		}
+		return line;
+	}
+
+	private static boolean isWordChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '_';
+	}
+}
@@ -1,7 +1,9 @@
 package syntaxtree;
 
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Vector;
+import java.util.RandomAccess;
 import java.io.PrintStream;
 
 import prettyPrinter.PrettyPrinter;
@@ -10,9 +12,21 @@ import visitor.Visitor;
 
 /**
  * a list of a given AST node type (abstract)
+ * 
+ * The elements are kept in a plain array that is not synchronized, and
+ * that is not allocated until the first element is added; trimToSize
+ * (see visitor.TrimListsVisitor) drops the slack after parsing.  The
+ * Vector-style methods (addElement, elementAt, ...) are kept, as the
+ * parser and the semantic-analysis visitors use them.
  * @param <T> the base type of the list
  */
-public abstract class AstList<T> extends Vector<T> implements TreeDisplayable {
+public abstract class AstList<T> extends AbstractList<T> implements RandomAccess, TreeDisplayable {
+
+	private static final Object[] EMPTY = {};
+	private static final int MIN_CAPACITY = 4;
+
+	private Object[] elems = EMPTY;
+	private int count;
 
 	/**
 	 * constructor -- initializes to an empty list
@@ -28,7 +42,10 @@ public abstract class AstList<T> extends Vector<T> implements TreeDisplayable {
 	 */
 	public AstList(List<T> lst) {
 		this();
-		this.addAll(lst);
+		if (!lst.isEmpty()) {
+			elems = lst.toArray();
+			count = elems.length;
+		}
 	}
 
 	/**
@@ -36,7 +53,7 @@ public abstract class AstList<T> extends Vector<T> implements TreeDisplayable {
 	 * @param n the element to add
 	 */
 	public void addElement(T n) {
-		super.addElement(n);
+		add(n);
 	}
 
 	/**
@@ -44,7 +61,84 @@ public abstract class AstList<T> extends Vector<T> implements TreeDisplayable {
 	 * @param n the element to add
 	 */
 	public void addElementAtFront(T n) {
-		super.insertElementAt(n, 0);
+		add(0, n);
+	}
+
+	public void insertElementAt(T n, int idx) {
+		add(idx, n);
+	}
+
+	@SuppressWarnings("unchecked")
+	public T elementAt(int idx) {
+		if (idx >= count) throw new ArrayIndexOutOfBoundsException(idx+" >= "+count);
+		return (T)elems[idx];
+	}
+
+	public T firstElement() {
+		if (count == 0) throw new java.util.NoSuchElementException();
+		return elementAt(0);
+	}
+
+	public T lastElement() {
+		if (count == 0) throw new java.util.NoSuchElementException();
+		return elementAt(count-1);
+	}
+
+	/**
+	 * shrinks the backing array to the number of elements
+	 */
+	public void trimToSize() {
+		if (elems.length > count) {
+			elems = count == 0 ? EMPTY : Arrays.copyOf(elems, count);
+		}
+	}
+
+	@Override
+	public T get(int idx) {
+		return elementAt(idx);
+	}
+
+	@Override
+	public int size() {
+		return count;
+	}
+
+	@Override
+	public boolean add(T n) {
+		modCount++;
+		if (count == elems.length) grow();
+		elems[count++] = n;
+		return true;
+	}
+
+	@Override
+	public void add(int idx, T n) {
+		if (idx < 0 || idx > count) throw new ArrayIndexOutOfBoundsException(idx+" > "+count);
+		modCount++;
+		if (count == elems.length) grow();
+		System.arraycopy(elems, idx, elems, idx+1, count-idx);
+		elems[idx] = n;
+		count++;
+	}
+
+	@Override
+	public T set(int idx, T n) {
+		T old = elementAt(idx);
+		elems[idx] = n;
+		return old;
+	}
+
+	@Override
+	public T remove(int idx) {
+		T old = elementAt(idx);
+		modCount++;
+		System.arraycopy(elems, idx+1, elems, idx, count-idx-1);
+		elems[--count] = null;
+		return old;
+	}
+
+	private void grow() {
+		elems = Arrays.copyOf(elems, Math.max(MIN_CAPACITY, count + (count >> 1)));
 	}
 	
 	/*************** remaining methods are visitor- and display-related ****************/
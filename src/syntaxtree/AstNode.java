@@ -13,10 +13,8 @@ public abstract class AstNode implements TreeDisplayable {
 
 	// instance variables filled in by constructor
 	public int pos; // the character-position of this construct in the source file
-	public int uniqueId; // the object's unique ID
-
-	// static variable used to generate unique IDs
-	private static int uniqueIdCounter = 0;
+	public int uniqueId; // the object's unique ID within its compilation
+	public final int kind; // the node kind (see NodeKind)
 
 	/**
 	 * constructor
@@ -24,7 +22,8 @@ public abstract class AstNode implements TreeDisplayable {
 	 */
 	public AstNode(int poss) {
 		pos = poss;
-		uniqueId = uniqueIdCounter++;
+		uniqueId = CompilationContext.newNodeId();
+		kind = NodeKind.of(getClass());
 	}
 	
 	/*************** remaining methods are visitor- and display-related ****************/
@@ -0,0 +1,76 @@
+package syntaxtree;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * the state that belongs to one compilation rather than to the JVM;
+ * for now, the allocation of node IDs.  A compilation enters its
+ * context on the thread that runs it (the parser creates nodes without
+ * being handed a context), so that each compilation numbers its nodes
+ * from 0, whatever else is compiling alongside it or has compiled
+ * before it: the labels made from node IDs are then the same from one
+ * run to the next.  Nodes created on a thread with no context entered
+ * get IDs from a counter shared by the whole JVM.
+ */
+public final class CompilationContext {
+
+	// the context entered on each thread, if any
+	private static final ThreadLocal<CompilationContext> current = new ThreadLocal<CompilationContext>();
+
+	// IDs for nodes created outside of any compilation
+	private static final AtomicInteger sharedIdCounter = new AtomicInteger();
+
+	// the next node ID; only the compilation's thread allocates
+	private int nextId;
+
+	// the context this one replaced when it was entered
+	private CompilationContext outer;
+
+	/**
+	 * makes this the context of the calling thread, until exit is called
+	 * @return this context
+	 */
+	public CompilationContext enter() {
+		outer = current.get();
+		current.set(this);
+		return this;
+	}
+
+	/**
+	 * restores the context that was current when this one was entered
+	 */
+	public void exit() {
+		if (outer == null) {
+			current.remove();
+		}
+		else {
+			current.set(outer);
+		}
+		outer = null;
+	}
+
+	/**
+	 * the calling thread's context
+	 * @return the context, or null if none has been entered
+	 */
+	public static CompilationContext current() {
+		return current.get();
+	}
+
+	/**
+	 * the number of node IDs this context has handed out
+	 * @return the count
+	 */
+	public int idCount() {
+		return nextId;
+	}
+
+	/**
+	 * a new node ID from the calling thread's context
+	 * @return the ID
+	 */
+	static int newNodeId() {
+		CompilationContext ctx = current.get();
+		return ctx != null ? ctx.nextId++ : sharedIdCounter.getAndIncrement();
+	}
+}
@@ -9,6 +9,9 @@ public abstract class Exp extends AstNode {
 	
 	// instance variables filled in by constructor
 	public Type type; // the expression's type
+
+	// instance variables filled in by ConstEvalVisitor
+	public long constValue; // the memoized constant value (see there)
 	
 	/**
 	 * constructor
@@ -0,0 +1,172 @@
+package syntaxtree;
+
+/**
+ * the node kinds: a small integer for each AST node class, which each
+ * node carries in its 'kind' field, so that visitors can dispatch on it
+ * with a switch or index tables with it
+ */
+public final class NodeKind {
+
+	public static final int AST_NODE = 0;
+	public static final int AND = 1;
+	public static final int ARRAY_LENGTH = 2;
+	public static final int ARRAY_LOOKUP = 3;
+	public static final int ARRAY_TYPE = 4;
+	public static final int ASSIGN = 5;
+	public static final int BIN_EXP = 6;
+	public static final int BLOCK = 7;
+	public static final int BOOLEAN_TYPE = 8;
+	public static final int BREAK = 9;
+	public static final int BREAK_TARGET = 10;
+	public static final int CALL = 11;
+	public static final int CALL_STATEMENT = 12;
+	public static final int CASE = 13;
+	public static final int CAST = 14;
+	public static final int CLASS_DECL = 15;
+	public static final int DECL = 16;
+	public static final int DEFAULT = 17;
+	public static final int DIVIDE = 18;
+	public static final int EQUALS = 19;
+	public static final int EXP = 20;
+	public static final int FALSE = 21;
+	public static final int FORMAL_DECL = 22;
+	public static final int GREATER_THAN = 23;
+	public static final int IDENTIFIER_EXP = 24;
+	public static final int IDENTIFIER_TYPE = 25;
+	public static final int IF = 26;
+	public static final int INST_VAR_ACCESS = 27;
+	public static final int INST_VAR_DECL = 28;
+	public static final int INSTANCE_OF = 29;
+	public static final int INTEGER_LITERAL = 30;
+	public static final int INTEGER_TYPE = 31;
+	public static final int LABEL = 32;
+	public static final int LESS_THAN = 33;
+	public static final int LOCAL_DECL_STATEMENT = 34;
+	public static final int LOCAL_VAR_DECL = 35;
+	public static final int METHOD_DECL = 36;
+	public static final int METHOD_DECL_NON_VOID = 37;
+	public static final int METHOD_DECL_VOID = 38;
+	public static final int MINUS = 39;
+	public static final int NEW_ARRAY = 40;
+	public static final int NEW_OBJECT = 41;
+	public static final int NOT = 42;
+	public static final int NULL = 43;
+	public static final int NULL_TYPE = 44;
+	public static final int OR = 45;
+	public static final int PLUS = 46;
+	public static final int PROGRAM = 47;
+	public static final int REMAINDER = 48;
+	public static final int STATEMENT = 49;
+	public static final int STRING_LITERAL = 50;
+	public static final int SUPER = 51;
+	public static final int SWITCH = 52;
+	public static final int THIS = 53;
+	public static final int TIMES = 54;
+	public static final int TRUE = 55;
+	public static final int TYPE = 56;
+	public static final int UN_EXP = 57;
+	public static final int VAR_DECL = 58;
+	public static final int VOID_TYPE = 59;
+	public static final int WHILE = 60;
+
+	/**
+	 * the number of node kinds
+	 */
+	public static final int COUNT = 61;
+
+	// the node class of each kind, indexed by kind
+	private static final Class<?>[] CLASSES = {
+		AstNode.class,
+		And.class,
+		ArrayLength.class,
+		ArrayLookup.class,
+		ArrayType.class,
+		Assign.class,
+		BinExp.class,
+		Block.class,
+		BooleanType.class,
+		Break.class,
+		BreakTarget.class,
+		Call.class,
+		CallStatement.class,
+		Case.class,
+		Cast.class,
+		ClassDecl.class,
+		Decl.class,
+		Default.class,
+		Divide.class,
+		Equals.class,
+		Exp.class,
+		False.class,
+		FormalDecl.class,
+		GreaterThan.class,
+		IdentifierExp.class,
+		IdentifierType.class,
+		If.class,
+		InstVarAccess.class,
+		InstVarDecl.class,
+		InstanceOf.class,
+		IntegerLiteral.class,
+		IntegerType.class,
+		Label.class,
+		LessThan.class,
+		LocalDeclStatement.class,
+		LocalVarDecl.class,
+		MethodDecl.class,
+		MethodDeclNonVoid.class,
+		MethodDeclVoid.class,
+		Minus.class,
+		NewArray.class,
+		NewObject.class,
+		Not.class,
+		Null.class,
+		NullType.class,
+		Or.class,
+		Plus.class,
+		Program.class,
+		Remainder.class,
+		Statement.class,
+		StringLiteral.class,
+		Super.class,
+		Switch.class,
+		This.class,
+		Times.class,
+		True.class,
+		Type.class,
+		UnExp.class,
+		VarDecl.class,
+		VoidType.class,
+		While.class,
+	};
+
+	// each class's kind, found by a search the first time it is asked for
+	private static final ClassValue<Integer> kinds = new ClassValue<Integer>() {
+		protected Integer computeValue(Class<?> c) {
+			for (int i = 0; i < CLASSES.length; i++) {
+				if (CLASSES[i] == c) return i;
+			}
+			return -1;
+		}
+	};
+
+	private NodeKind() {
+	}
+
+	/**
+	 * the kind of the given node class
+	 * @param c the class
+	 * @return the kind, or -1 if the class is not one of the AST node classes
+	 */
+	public static int of(Class<?> c) {
+		return kinds.get(c);
+	}
+
+	/**
+	 * the node class of the given kind
+	 * @param kind the kind
+	 * @return the class
+	 */
+	public static Class<?> nodeClass(int kind) {
+		return CLASSES[kind];
+	}
+}
@@ -1,6 +1,7 @@
 package treedisplay;
 
 import java.io.*;
+import java.util.ArrayList;
 import java.util.Vector;
 import java.awt.Rectangle;
 
@@ -13,7 +14,7 @@ public class TreeDrawer {
 	private TDHelper linkObject;
 
 	public void printToStream(PrintStream ps) {
-		helpPrintToStream(ps, target, 0);
+		helpPrintToStream(ps, target);
 	}
 
 	private static void indent(PrintStream ps, int n) {
@@ -21,46 +22,44 @@ public class TreeDrawer {
 			ps.print(" ");
 	}
 
-	private void helpPrintToStream(PrintStream ps, TreeDisplayable tgt,
-			int indentNum) {
-		if (tgt == null) {
-			/***new***/ indent(ps, indentNum); ps.println("****NULL****");
-			return;
-		}
-		indent(ps, indentNum);
-		ps.println(tgt.shortDescription(auxData));
-		for (int subobjCount = 0;; subobjCount++) {
-			try {
-				TreeDisplayable subobj = tgt.getDrawTreeSubobj(subobjCount);
-				if (subobj != null && subobj.nodeIsList()) {
-					helpPrintToStream2(ps, subobj, indentNum + 1);
-				} else {
-					helpPrintToStream(ps, subobj, indentNum + 1);
-				}
-			} catch (TreeDrawException x) {
-				break;
-			}
+	// an object waiting to be printed, at a given indentation
+	private static class Pending {
+		TreeDisplayable tgt;
+		int indentNum;
+		boolean isList;
+		Pending(TreeDisplayable tgt, int indentNum, boolean isList) {
+			this.tgt = tgt; this.indentNum = indentNum; this.isList = isList;
 		}
 	}
 
-	private void helpPrintToStream2(PrintStream ps, TreeDisplayable tgt,
-			int indentNum) {
-		if (tgt == null) {
-			/***new***/ indent(ps, indentNum); ps.println("****NULL****");
-			return;
-		}
-		indent(ps, indentNum);
-		ps.println("*====list====*");
-		for (int subobjCount = 0;; subobjCount++) {
-			try {
-				TreeDisplayable subobj = tgt.getDrawTreeSubobj(subobjCount);
-				if (subobj != null && subobj.nodeIsList()) {
-					helpPrintToStream2(ps, subobj, indentNum + 1);
-				} else {
-					helpPrintToStream(ps, subobj, indentNum + 1);
+	// prints the tree in pre-order, each object indented by its depth;
+	// uses an explicit stack, so that deep trees do not overflow the
+	// Java stack
+	private void helpPrintToStream(PrintStream ps, TreeDisplayable root) {
+		ArrayList<Pending> stack = new ArrayList<Pending>();
+		ArrayList<TreeDisplayable> subobjs = new ArrayList<TreeDisplayable>();
+		stack.add(new Pending(root, 0, false));
+		while (!stack.isEmpty()) {
+			Pending p = stack.remove(stack.size()-1);
+			indent(ps, p.indentNum);
+			if (p.tgt == null) {
+				/***new***/ ps.println("****NULL****");
+				continue;
+			}
+			ps.println(p.isList ? "*====list====*" : p.tgt.shortDescription(auxData));
+			subobjs.clear();
+			for (int subobjCount = 0;; subobjCount++) {
+				try {
+					subobjs.add(p.tgt.getDrawTreeSubobj(subobjCount));
+				} catch (TreeDrawException x) {
+					break;
 				}
-			} catch (TreeDrawException x) {
-				break;
+			}
+			// pushed last-first, so that they are printed in order
+			for (int i = subobjs.size()-1; i >= 0; i--) {
+				TreeDisplayable subobj = subobjs.get(i);
+				stack.add(new Pending(subobj, p.indentNum + 1,
+						subobj != null && subobj.nodeIsList()));
 			}
 		}
 	}
@@ -4,12 +4,17 @@ import syntaxtree.*;
 
 public class ASTvisitor extends InhVisitor {
 	
+	// for each node kind, whether InhVisitor's visit method for the kind
+	// delegates to anything that does work in this visitor (see
+	// DispatchTable); the super.visitX calls below are skipped if not
+	private final boolean[] chainLive = DispatchTable.forVisitor(getClass());
+	
 	@Override
 	public Object visitAstList(AstList lst) {
 		for (int i = 0; i < lst.size(); i++) {
 			Object obj = lst.elementAt(i);
 			if (obj != null && obj instanceof AstNode) {
-				((AstNode)obj).accept(this);
+				dispatch((AstNode)obj);
 			}
 		}
 		return null;
@@ -22,122 +27,122 @@ public class ASTvisitor extends InhVisitor {
 	
 	@Override
 	public Object visitArrayLookup(ArrayLookup n) {
-		/**/super.visitArrayLookup(n);
-		n.arrExp.accept(this);
-		n.idxExp.accept(this);
+		if (chainLive[NodeKind.ARRAY_LOOKUP]) super.visitArrayLookup(n);
+		dispatch(n.arrExp);
+		dispatch(n.idxExp);
 		return null;
 	}
 	
 	@Override
 	public Object visitArrayType(ArrayType n) {
-		/**/super.visitArrayType(n);
-		n.baseType.accept(this);
+		if (chainLive[NodeKind.ARRAY_TYPE]) super.visitArrayType(n);
+		dispatch(n.baseType);
 		return null;
 	}
 	
 	@Override
 	public Object visitAssign(Assign n) {
-		/**/super.visitAssign(n);
-		n.lhs.accept(this);
-		n.rhs.accept(this);
+		if (chainLive[NodeKind.ASSIGN]) super.visitAssign(n);
+		dispatch(n.lhs);
+		dispatch(n.rhs);
 		return null;
 	}
 	
 	@Override
 	public Object visitBinExp(BinExp n) {
-		/**/super.visitBinExp(n);
-		n.left.accept(this);
-		n.right.accept(this);
+		if (chainLive[NodeKind.BIN_EXP]) super.visitBinExp(n);
+		dispatch(n.left);
+		dispatch(n.right);
 		return null;
 	}
 	
 	@Override
 	public Object visitBlock(Block n) {
-		/**/super.visitBlock(n);
+		if (chainLive[NodeKind.BLOCK]) super.visitBlock(n);
 		n.stmts.accept(this);
 		return null;
 	}
 	
 	@Override
 	public Object visitCast(Cast n) {
-		/**/super.visitCast(n);
-		n.castType.accept(this);
-		n.exp.accept(this);
+		if (chainLive[NodeKind.CAST]) super.visitCast(n);
+		dispatch(n.castType);
+		dispatch(n.exp);
 		return null;
 	}
 	
 	@Override
 	public Object visitCall(Call n) {
-		/**/super.visitCall(n);
-		n.obj.accept(this);
+		if (chainLive[NodeKind.CALL]) super.visitCall(n);
+		dispatch(n.obj);
 		n.parms.accept(this);
 		return null;
 	}
 	
 	@Override
 	public Object visitCase(Case n) {
-		/**/super.visitCase(n);
-		n.exp.accept(this);
+		if (chainLive[NodeKind.CASE]) super.visitCase(n);
+		dispatch(n.exp);
 		return null;
 	}
 	
 	@Override
 	public Object visitClassDecl(ClassDecl n) {
-		/**/super.visitClassDecl(n);
+		if (chainLive[NodeKind.CLASS_DECL]) super.visitClassDecl(n);
 		n.decls.accept(this);
 		return null;
 	}
 	
 	@Override
 	public Object visitCallStatement(CallStatement n) {
-		/**/super.visitCallStatement(n);
-		n.callExp.accept(this);
+		if (chainLive[NodeKind.CALL_STATEMENT]) super.visitCallStatement(n);
+		dispatch(n.callExp);
 		return null;
 	}
 	
 	@Override
 	public Object visitIf(If n) {
-		/**/super.visitIf(n);
-		n.exp.accept(this);
-		n.trueStmt.accept(this);
-		n.falseStmt.accept(this);
+		if (chainLive[NodeKind.IF]) super.visitIf(n);
+		dispatch(n.exp);
+		dispatch(n.trueStmt);
+		dispatch(n.falseStmt);
 		return null;
 	}
 
 	@Override
 	public Object visitInstanceOf(InstanceOf n) {
-		/**/super.visitInstanceOf(n);
-		n.exp.accept(this);
-		n.checkType.accept(this);
+		if (chainLive[NodeKind.INSTANCE_OF]) super.visitInstanceOf(n);
+		dispatch(n.exp);
+		dispatch(n.checkType);
 		return null;
 	}
 
 	
 	@Override
 	public Object visitInstVarAccess(InstVarAccess n) {
-		/**/super.visitInstVarAccess(n);
-		n.exp.accept(this);
+		if (chainLive[NodeKind.INST_VAR_ACCESS]) super.visitInstVarAccess(n);
+		dispatch(n.exp);
 		return null;
 	}
 	
 	@Override
 	public Object visitLocalDeclStatement(LocalDeclStatement n) {
-		/**/super.visitLocalDeclStatement(n);
-		n.localVarDecl.accept(this);
+		if (chainLive[NodeKind.LOCAL_DECL_STATEMENT]) super.visitLocalDeclStatement(n);
+		dispatch(n.localVarDecl);
 		return null;
 	}
 
 	
 	public Object visitLocalVarDecl(LocalVarDecl n) {
-		/**/super.visitLocalVarDecl(n);
+		if (chainLive[NodeKind.LOCAL_VAR_DECL]) super.visitLocalVarDecl(n);
 	    /*Object rtnVal = visitVarDecl(n);*/
-		n.initExp.accept(this);
+		dispatch(n.initExp);
 		return null;
 	}
 	
 	@Override
 	public Object visitMethodDecl(MethodDecl n) {
-		/**/super.visitMethodDecl(n);
+		if (chainLive[NodeKind.METHOD_DECL]) super.visitMethodDecl(n);
 		n.formals.accept(this);
 		n.stmts.accept(this);
 		return null;
@@ -145,63 +150,63 @@ public class ASTvisitor extends InhVisitor {
 	
 	@Override
 	public Object visitMethodDeclNonVoid(MethodDeclNonVoid n) {
-		/**/super.visitMethodDeclNonVoid(n);
-		n.rtnType.accept(this);
+		if (chainLive[NodeKind.METHOD_DECL_NON_VOID]) super.visitMethodDeclNonVoid(n);
+		dispatch(n.rtnType);
 		//Object rtnVal = visitMethodDecl(n);
-		n.rtnExp.accept(this);
+		dispatch(n.rtnExp);
 		return null;
 	}
 	
 	@Override
 	public Object visitNewArray(NewArray n) {
-		/**/super.visitNewArray(n);
-		n.objType.accept(this);
-		n.sizeExp.accept(this);
+		if (chainLive[NodeKind.NEW_ARRAY]) super.visitNewArray(n);
+		dispatch(n.objType);
+		dispatch(n.sizeExp);
 		return null;
 	}
 	
 	@Override
 	public Object visitNewObject(NewObject n) {
-		/**/super.visitNewObject(n);
-		n.objType.accept(this);
+		if (chainLive[NodeKind.NEW_OBJECT]) super.visitNewObject(n);
+		dispatch(n.objType);
 		return null;
 	}
 	
 	@Override
 	public Object visitProgram(Program n) {
-		/**/super.visitProgram(n);
-		n.mainStatement.accept(this);
+		if (chainLive[NodeKind.PROGRAM]) super.visitProgram(n);
+		dispatch(n.mainStatement);
 		n.classDecls.accept(this);
 		return null;
 	}
 	
 	@Override
 	public Object visitSwitch(Switch n) {
-		/**/super.visitSwitch(n);
-		n.exp.accept(this);
+		if (chainLive[NodeKind.SWITCH]) super.visitSwitch(n);
+		dispatch(n.exp);
 		n.stmts.accept(this);
 		return null;
 	}
 	
 	@Override
 	public Object visitUnExp(UnExp n) {
-		/**/super.visitUnExp(n);
-		n.exp.accept(this);
+		if (chainLive[NodeKind.UN_EXP]) super.visitUnExp(n);
+		dispatch(n.exp);
 		return null;
 	}
 	
 	@Override
 	public Object visitVarDecl(VarDecl n) {
-		/**/super.visitVarDecl(n);
-		n.type.accept(this);
+		if (chainLive[NodeKind.VAR_DECL]) super.visitVarDecl(n);
+		dispatch(n.type);
 		return null;
 	}
 	
 	@Override
 	public Object visitWhile(While n) {
-		/**/super.visitWhile(n);
-		n.exp.accept(this);
-		n.body.accept(this);
+		if (chainLive[NodeKind.WHILE]) super.visitWhile(n);
+		dispatch(n.exp);
+		dispatch(n.body);
 		return null;
 	}
 	
@@ -0,0 +1,189 @@
+package visitor;
+
+import java.util.ArrayList;
+import java.util.Stack;
+
+import syntaxtree.NodeKind;
+
+// The layout that CG1 assigns (the offsets of methods in the vtables, of
+// instance variables in objects, and of formal parameters in frames),
+// and the vtables it emits.  CG1Visitor (over the AST) and
+// flatAst.FlatCG1 (over a FlatAst) walk the classes in the same order
+// and drive this class, so that the two lay out and emit the same.
+public class CG1Emitter {
+
+	// IO stream to which we will emit code
+	private CodeStream code;
+
+	// the options for this compilation
+	private CodeGenOptions options;
+
+	// v-table offset of next method we encounter
+	private int currentMethodOffset;
+
+	// offset in object of next "object" instance variable we encounter
+	private int currentObjInstVarOffset;
+
+	// offset in object of next "data" instance variable we encounter
+	private int currentDataInstVarOffset;
+
+	// stack-offset of next formal parameter we encounter
+	private int currentFormalVarOffset;
+
+	// stack method tables for current class and all superclasses
+	private Stack<ArrayList<String>> superclassMethodTables;
+
+	// current method table
+	private ArrayList<String> currentMethodTable;
+
+	private static int SUPER_VPOINTER_SIZE = 0;
+
+	public CG1Emitter(CodeStream code, CodeGenOptions opts) {
+		this.code = code;
+		options = opts;
+		superclassMethodTables = new Stack<ArrayList<String>>();
+		superclassMethodTables.addElement(new ArrayList<String>());
+	}
+
+	// the label of a method's code; a method with no source position is
+	// one of the library's, named after its class
+	public static String methodLabel(int pos, int uniqueId, String name, String className) {
+		if (pos < 0) {
+			return name + "_" + className;
+		}
+		return "fcn_" + uniqueId + "_" + name;
+	}
+
+	public void programStart(int pos) {
+		code.emit(NodeKind.PROGRAM, pos, ".data");
+	}
+
+	public void programEnd() {
+		code.flush();
+	}
+
+	// the start of a class: its method table starts as a copy of its
+	// superclass's, and its members are laid out after those of its
+	// superclasses (see inherit)
+	public void classStart(int pos, String name) {
+		code.emit(NodeKind.CLASS_DECL, pos, "# ****** class "+name+" ****** ");
+		currentMethodTable = new ArrayList<String>(superclassMethodTables.peek());
+		currentMethodOffset = 0;
+		currentDataInstVarOffset = -16;
+		currentObjInstVarOffset = 0;
+	}
+
+	// for each superclass of the class just started, the numbers of its
+	// own methods and instance variables
+	public void inherit(int methods, int dataInstVars, int objInstVars) {
+		currentMethodOffset = currentMethodOffset + methods;
+		currentDataInstVarOffset = currentDataInstVarOffset - 4*dataInstVars;
+		currentObjInstVarOffset = currentObjInstVarOffset + 4*objInstVars;
+	}
+
+	// the numbers of data and object instance variables of the class,
+	// counting its superclasses', once its members have been laid out
+	public int numDataInstVars() {
+		return (-16 - currentDataInstVarOffset) / 4;
+	}
+
+	public int numObjInstVars() {
+		return currentObjInstVarOffset / 4;
+	}
+
+	// the class's vtable, after its members; its subclasses' vtables are
+	// emitted next, then classEnd
+	public void classVtable(int pos, String name, String printString) {
+		emitPrintString(NodeKind.IDENTIFIER_TYPE, pos, printString);
+		code.emit(NodeKind.CLASS_DECL, pos, "CLASS_" + name + ":");
+		for (String m : currentMethodTable) {
+			code.emit(NodeKind.CLASS_DECL, pos, " .word " + m);
+		}
+		superclassMethodTables.push(currentMethodTable);
+	}
+
+	public void classEnd(int pos, String name) {
+		superclassMethodTables.pop();
+		code.emit(NodeKind.CLASS_DECL, pos, "END_CLASS_" + name + ":");
+	}
+
+	// the vtable of an array type, which is Object's; emitted between
+	// Object's classVtable and classEnd
+	public void arrayVtable(int pos, String vtableName, String printString) {
+		ArrayList<String> objectMethods = superclassMethodTables.peek();
+		emitPrintString(NodeKind.ARRAY_TYPE, pos, printString);
+		code.emit(NodeKind.ARRAY_TYPE, pos, "CLASS_"+vtableName+":");
+		for (int i = SUPER_VPOINTER_SIZE; i < objectMethods.size(); i++) {
+			code.emit(NodeKind.ARRAY_TYPE, pos, " .word "+objectMethods.get(i));
+		}
+		code.emit(NodeKind.ARRAY_TYPE, pos, "END_CLASS_"+vtableName+":");
+	}
+
+	// label to separate array-of-object and array-of-data vtables
+	public void dataArrayVTableStart() {
+		code.emit(-1, -1, "dataArrayVTableStart:");
+	}
+
+	// the start of a method with the given numbers of int and other
+	// formals; returns the offset of its this-pointer
+	public int methodStart(int intFormals, int otherFormals) {
+		int numWordsFormals = intFormals*(options.intSize()/4) + otherFormals;
+		currentFormalVarOffset = 4 * (1 + numWordsFormals);
+		return currentFormalVarOffset;
+	}
+
+	// the offset of the next formal of the method
+	public int formalOffset(boolean isInt) {
+		if (isInt) {
+			currentFormalVarOffset -= options.intSize();
+		}
+		else {
+			currentFormalVarOffset -= 4;
+		}
+		return currentFormalVarOffset;
+	}
+
+	// the offset of the next int or boolean instance variable
+	public int dataInstVarOffset() {
+		int offset = currentDataInstVarOffset;
+		currentDataInstVarOffset -= 4;
+		return offset;
+	}
+
+	// the offset of the next instance variable that holds a pointer
+	public int objInstVarOffset() {
+		int offset = currentObjInstVarOffset;
+		currentObjInstVarOffset += 4;
+		return offset;
+	}
+
+	// a method, once its formals and body have been visited: puts its
+	// label in the method table, in the slot of the method it overrides
+	// (at superOffset), or else in a new one; returns its vtable offset
+	public int methodEntry(String label, int superOffset) {
+		if (superOffset >= 0) {
+			currentMethodTable.remove(superOffset);
+			currentMethodTable.add(superOffset, label);
+			return superOffset;
+		}
+		currentMethodTable.add(label);
+		return currentMethodOffset++;
+	}
+
+	private void emitPrintString(int kind, int pos, String printString) {
+		for (int i = (printString.length()+3)%4; i < 3; i++) {
+			code.emit(kind, pos, " .byte 0"); // padding
+		}
+
+		for (int i = 0; i < printString.length(); i++) {
+			char ch = printString.charAt(i);
+			int val = (int)ch;
+			if (i == 0) {
+				code.emit(kind, pos, " .byte "+ (val | 0x80) + " # '"+ch+"' with high bit set");
+			}
+			else {
+				code.emit(kind, pos, " .byte "+val+ " # '"+ch+"'");
+			}
+		}
+	}
+}
@@ -17,39 +17,23 @@ public class CG1Visitor extends ASTvisitor {
 	// error message object
 	private ErrorMsg errorMsg;
 	
-	// IO stream to which we will emit code
-	private CodeStream code;
-	
-	// v-table offset of next method we encounter
-	private int currentMethodOffset;
-	
-	// offset in object of next "object" instance variable we encounter
-	private int currentObjInstVarOffset;
-	
-	// offset in object of next "data" instance variable we encounter
-	private int currentDataInstVarOffset;
-	
-	// stack-offset of next formal parameter we encounter
-	private int currentFormalVarOffset;
-	
-	// stack method tables for current class and all superclasses
-	private Stack<ArrayList<String>> superclassMethodTables;
-	
-	// current method table
-	private ArrayList<String> currentMethodTable;
+	// the layout and the vtables (shared with flatAst.FlatCG1)
+	private CG1Emitter emitter;
 	
 	// to collect the array types that are referenced in the code
 	private HashSet<ArrayType> arrayTypesInCode;
 	
-	private static int SUPER_VPOINTER_SIZE = 0;
-	
 	////************** BEGIN STARTER-FILE ALREADY-IMPLEMENETED HELPER-METHODS *************
 	////
 	////********** CS 358 STUDENTS SHOULD NOT MODIFY THESE UNLESS THEY
 	////**********REALLY KNOW WHAT THEY ARE DOING
 	
 	public CG1Visitor(ErrorMsg e, PrintStream out) {
-		initInstanceVars(e, out);
+		this(e, out, new CodeGenOptions());
+	}
+	
+	public CG1Visitor(ErrorMsg e, PrintStream out, CodeGenOptions opts) {
+		initInstanceVars(e, out, opts);
 	}
 	
 	public static String vtableNameFor(Type t) {
@@ -98,34 +82,7 @@ public class CG1Visitor extends ASTvisitor {
 		return prefix + name + suffix;
 	}
 	
-	private void emitPrintStringNameFor(ClassDecl cd) {
-		IdentifierType temp = new IdentifierType(cd.pos, cd.name);
-		temp.link = cd;
-		emitPrintStringNameFor(temp);
-	}
-	
-	private void emitPrintStringNameFor(Type t) {
-		String printString = printStringNameFor(t,"","");
-		for (int i = (printString.length()+3)%4; i < 3; i++) {
-			code.emit(t, " .byte 0"); // padding
-		}
-		
-		for (int i = 0; i < printString.length(); i++) {
-			char ch = printString.charAt(i);
-			int val = (int)ch;
-			if (i == 0) {
-				code.emit(t, " .byte "+ (val | 0x80) + " # '"+ch+"' with high bit set");
-			}
-			else {
-				code.emit(t, " .byte "+val+ " # '"+ch+"'");
-			}
-		}
-	}
-	
 	private void emitArrayTypeVtables() {
-		// vtable for class Object, which we will use
-		currentMethodTable = superclassMethodTables.peek();
-		
 		// array-lists for object base types ([0]) and non-object base
 		// types ([1]); this ensures that the data-array objects are
 		// emitted last
@@ -139,27 +96,17 @@ public class CG1Visitor extends ASTvisitor {
 		for (int j = 0; j < 2; j++) {
 			// emit label to separate array-of-object and array-of-data vtables
 			if (j == 1) {
-				code.emit(null, "dataArrayVTableStart:");
+				emitter.dataArrayVTableStart();
 			}
 			for (ArrayType at : arrayTypes[j]) {
-				emitPrintStringNameFor(at);
-				code.emit(at, "CLASS_"+vtableNameFor(at)+":");
-				for (int i = SUPER_VPOINTER_SIZE; i < currentMethodTable.size(); i++) {
-					code.emit(at, " .word "+currentMethodTable.get(i));
-				}
-				code.emit(at, "END_CLASS_"+vtableNameFor(at)+":");
+				emitter.arrayVtable(at.pos, vtableNameFor(at), printStringNameFor(at,"",""));
 			}
 		}
 	}
 	
-	private void initInstanceVars(ErrorMsg e, PrintStream out) {
+	private void initInstanceVars(ErrorMsg e, PrintStream out, CodeGenOptions opts) {
 		errorMsg = e;
-		currentMethodOffset = 0;
-		currentObjInstVarOffset = 0;
-		currentDataInstVarOffset = 0;
-		code = new CodeStream(out, e);
-		superclassMethodTables = new Stack<ArrayList<String>>();
-		superclassMethodTables.addElement(new ArrayList<String>());
+		emitter = new CG1Emitter(new CodeStream(out, e, opts), opts);
 		arrayTypesInCode = new HashSet<ArrayType>();
 	}
 	
@@ -184,93 +131,54 @@ public class CG1Visitor extends ASTvisitor {
 
 	@Override
 	public Object visitProgram(Program p) {
-		code.emit(p, ".data");
+		emitter.programStart(p.pos);
 		ClassDecl cur = p.classDecls.elementAt(0);
 		while (cur.superLink != null) {
 			cur = cur.superLink;
 		}
 		cur.accept(this);
-		code.flush();
+		emitter.programEnd();
 		return null;
 	}
 
 	@Override
 	public Object visitClassDecl(ClassDecl cd) {
-		code.emit(cd, "# ****** class "+cd.name+" ****** ");
-		currentMethodTable = (ArrayList<String>) superclassMethodTables.peek().clone();
-		if (cd.superLink == null) {
-			currentMethodOffset = 0;
-			currentDataInstVarOffset = -16;
-			currentObjInstVarOffset = 0;
-		} else {
-//			currentMethodOffset = cd.superLink.methodTable.size();
-//			currentDataInstVarOffset = -16 - 4*cd.superLink.numDataInstVars;
-//			currentObjInstVarOffset = 4*cd.superLink.numObjInstVars;
-			ClassDecl cur = cd;
-			currentMethodOffset = 0;
-			currentDataInstVarOffset = -16;
-			currentObjInstVarOffset = 0;
-			while (cur.superLink != null) {
-				currentMethodOffset = currentMethodOffset + cur.superLink.methodTable.size();
-				currentDataInstVarOffset = currentDataInstVarOffset - 4*cur.superLink.numDataInstVars;
-				currentObjInstVarOffset = currentObjInstVarOffset + 4*cur.superLink.numObjInstVars;
-				cur = cur.superLink;
-			}
+		emitter.classStart(cd.pos, cd.name);
+		ClassDecl cur = cd;
+		while (cur.superLink != null) {
+			emitter.inherit(cur.superLink.methodTable.size(), cur.superLink.numDataInstVars,
+					cur.superLink.numObjInstVars);
+			cur = cur.superLink;
 		}
 		super.visitClassDecl(cd);
-		cd.numDataInstVars = (-16 - currentDataInstVarOffset) / 4;
-		cd.numObjInstVars = currentObjInstVarOffset / 4;
-		emitPrintStringNameFor(cd);
-		code.emit(cd, "CLASS_" + cd.name + ":");
-		for (String m : currentMethodTable) {
-			code.emit(cd, " .word " + m);
-		}
-		superclassMethodTables.push(currentMethodTable);
+		cd.numDataInstVars = emitter.numDataInstVars();
+		cd.numObjInstVars = emitter.numObjInstVars();
+		emitter.classVtable(cd.pos, cd.name, printStringNameFor(cd, "", ""));
 		cd.subclasses.accept(this);
 		if (cd.name.equals("Object")) {
 			emitArrayTypeVtables();
 		}
-		superclassMethodTables.pop();
-		code.emit(cd, "END_CLASS_" + cd.name + ":");
+		emitter.classEnd(cd.pos, cd.name);
 		return null;
 	}
 
 	@Override
 	public Object visitMethodDecl(MethodDecl md){
 		//code.emit(md, "# ****** method "+md.name+" start ****** ");
-		int numWordsFormals = 0;
+		int intFormals = 0;
+		int otherFormals = 0;
 		for (VarDecl v: md.formals) {
 			if (v.type instanceof IntegerType) {
-				numWordsFormals ++;
-				numWordsFormals ++;
+				intFormals++;
 			} else {
-				numWordsFormals ++;
+				otherFormals++;
 			}
 		}
-		md.thisPtrOffset = 4 * (1 + numWordsFormals);
-		currentFormalVarOffset = md.thisPtrOffset;
+		md.thisPtrOffset = emitter.methodStart(intFormals, otherFormals);
 		super.visitMethodDecl(md);
-		if(md.superMethod != null){
-			md.vtableOffset = md.superMethod.vtableOffset;
-		} else {
-			md.vtableOffset = currentMethodOffset;
-			currentMethodOffset++;
-		}
-		if(md.pos < 0){
-			if (md.superMethod == null) {
-				currentMethodTable.add(md.name + "_" + md.classDecl.name);
-			} else {
-				currentMethodTable.remove(md.superMethod.vtableOffset);
-				currentMethodTable.add(md.superMethod.vtableOffset, md.name + "_" + md.classDecl.name);
-			}
-		} else {
-			if (md.superMethod == null) {
-				currentMethodTable.add("fcn_" + md.uniqueId + "_" + md.name);
-			} else {
-				currentMethodTable.remove(md.superMethod.vtableOffset);
-				currentMethodTable.add(md.superMethod.vtableOffset, "fcn_" + md.uniqueId + "_" + md.name);
-			}
-		}
+		md.vtableOffset = emitter.methodEntry(
+				CG1Emitter.methodLabel(md.pos, md.uniqueId, md.name, md.classDecl.name),
+				md.superMethod == null ? -1 : md.superMethod.vtableOffset);
 		return null;
 	}
 
@@ -278,11 +186,9 @@ public class CG1Visitor extends ASTvisitor {
 	public Object visitInstVarDecl(InstVarDecl n) {
 		super.visitInstVarDecl(n);
 		if (n.type instanceof IntegerType || n.type instanceof BooleanType) {
-			n.offset = currentDataInstVarOffset;
-			currentDataInstVarOffset -= 4;
+			n.offset = emitter.dataInstVarOffset();
 		} else if (!(n.type instanceof VoidType)) {
-			n.offset = currentObjInstVarOffset;
-			currentObjInstVarOffset += 4;
+			n.offset = emitter.objInstVarOffset();
 		}
 		return null;
 	}
@@ -290,12 +196,7 @@ public class CG1Visitor extends ASTvisitor {
 	@Override
 	public Object visitFormalDecl(FormalDecl n) {
 		super.visitFormalDecl(n);
-		if (n.type instanceof IntegerType) {
-			currentFormalVarOffset -= 8;
-		} else {
-			currentFormalVarOffset -= 4;
-		}
-		n.offset = currentFormalVarOffset;
+		n.offset = emitter.formalOffset(n.type instanceof IntegerType);
 		return null;
 	}
 
@@ -23,8 +23,12 @@ public class CG2Visitor extends CG2VisitorSimple {
 	private Hashtable<String,StringLiteral> stringTable;
 	
 	public CG2Visitor(ErrorMsg e, PrintStream out) {
+		this(e, out, new CodeGenOptions());
+	}
+	
+	public CG2Visitor(ErrorMsg e, PrintStream out, CodeGenOptions opts) {
 		super(e, out);
-		initInstanceVars(e, out);
+		initInstanceVars(e, out, opts);
 	}
 	
 	@Override
@@ -35,9 +39,12 @@ public class CG2Visitor extends CG2VisitorSimple {
 		return null;
 	}
 	
-	private void initInstanceVars(ErrorMsg e, PrintStream out) {
+	private void initInstanceVars(ErrorMsg e, PrintStream out, CodeGenOptions opts) {
 		errorMsg = e;
-		code = new CodeStream(out, e);
+		code = new CodeStream(out, e, opts);
+		// the string literals are emitted by CG2VisitorSimple, through its
+		// own stream
+		super.code = code;
 		stringTable = new Hashtable<String,StringLiteral>();	
 	}
 
@@ -0,0 +1,816 @@
+package visitor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import syntaxtree.NodeKind;
+
+// The code that CG3 emits for each kind of node, and the state it needs:
+// the stack height, which stack slots hold pointers, and the stack maps.
+// CG3Visitor (over the AST) and flatAst.FlatCG3 (over a FlatAst) walk
+// their trees, and evaluate the operands, and leave the instructions to
+// this class, so that the two generate the same code.  A node is given
+// by its kind (a NodeKind constant) and source position, which annotate
+// the lines, and, where it names labels, its uniqueId; a type by how a
+// value of it is kept on the stack (INT ... VOID).
+public class CG3Emitter {
+
+	// how a value is kept on the stack: an int has a GC tag above it,
+	// unless there are stack maps; a POINTER's slot goes in the stack
+	// maps (a null's too, as the variable or parameter it is in may later
+	// be assigned an object); a DATA value (a boolean) has neither; VOID
+	// is no value
+	public static final int INT = 0;
+	public static final int POINTER = 1;
+	public static final int DATA = 2;
+	public static final int VOID = 3;
+
+	// the this-pointer offset for the main program, which has none
+	private static final int MAIN = -1;
+
+	// IO stream to which we will emit code
+	private CodeStream code;
+
+	// the options for this compilation
+	private CodeGenOptions options;
+
+	// current stack height
+	private int stackHeight;
+
+	// with stack maps: whether the word at each stack height (in words)
+	// holds a pointer, the maps emitted so far, and the this-pointer
+	// offset of the method whose code is being generated (MAIN for the
+	// main program)
+	private boolean[] pointerSlots = new boolean[16];
+	private ArrayList<String> stackMaps = new ArrayList<String>();
+	private int thisPtrOffset = MAIN;
+
+	public CG3Emitter(CodeStream code, CodeGenOptions opts) {
+		this.code = code;
+		options = opts;
+	}
+
+	public int stackHeight() {
+		return stackHeight;
+	}
+
+	// the number of bytes an int takes on the stack, as a value or a
+	// parameter
+	private int intSize() {
+		return options.intSize();
+	}
+
+	// whether a value is pushed with a GC tag above it
+	private boolean isTagged(int value) {
+		return value == INT && !options.stackMaps;
+	}
+
+	private void emit(int kind, int pos, String str) {
+		code.emit(kind, pos, str);
+	}
+
+	// records how the value on top of the stack is kept
+	private void markTop(int value) {
+		int slot = stackHeight/4;
+		if (slot >= pointerSlots.length) {
+			pointerSlots = Arrays.copyOf(pointerSlots, 2*slot);
+		}
+		pointerSlots[slot] = value == POINTER;
+	}
+
+	// pushes a slot for a value, tagging it if it is an int and stack maps
+	// are off; the value is stored by the caller
+	private void openSlot(int kind, int pos, int value) {
+		if (isTagged(value)) {
+			emit(kind, pos, "subu $sp,$sp,8");
+			stackHeight += 8;
+			emit(kind, pos, "sw $s5,4($sp)");
+		}
+		else {
+			emit(kind, pos, "subu $sp,$sp,4");
+			stackHeight += 4;
+		}
+		markTop(value);
+	}
+
+	// With stack maps, labels the return address of a call during which
+	// the collector may run, and records a map for it: the size of the
+	// caller's part of the stack (from $sp up to and including the saved
+	// this-pointer, or in main up to the bottom of the stack), where in it
+	// the return address of the caller's own caller is (-1 in main), and
+	// the offsets of the words that hold pointers.  Called with
+	// stackHeight as it was at the call.
+	private void stackMap(int kind, int pos, int id) {
+		if (!options.stackMaps) return;
+		String label = "gc_"+id;
+		emit(kind, pos, label+":");
+		String offsets = "";
+		int count = 0;
+		for (int h = stackHeight; h > 0; h -= 4) {
+			if (pointerSlots[h/4]) {
+				offsets += ","+(stackHeight-h);
+				count++;
+			}
+		}
+		int size = stackHeight;
+		int raOffset = -1;
+		if (thisPtrOffset != MAIN) {
+			offsets += ","+stackHeight;
+			count++;
+			size += 4;
+			raOffset = stackHeight+thisPtrOffset;
+		}
+		stackMaps.add(" .word "+label+","+size+","+raOffset+","+count+offsets);
+	}
+
+	// with the generational collector, after the value in register
+	// 'value' has been stored into a slot of the object in 'obj', at
+	// 'offset' from the address in 'base': records the slot in the
+	// runtime's remembered set if it now points from the old space into
+	// the nursery.  The nursery is above both semispaces, so one compare
+	// tells where each is.  Uses $t3.
+	private void writeBarrier(int kind, int pos, int id, String value, String obj, String base, int offset) {
+		if (!options.generational) return;
+		String done = "barrier_done_"+id;
+		emit(kind, pos, "lw $t3,gcNursery");
+		emit(kind, pos, "bgeu "+obj+",$t3,"+done);
+		emit(kind, pos, "bleu "+value+",$t3,"+done);
+		if (offset == 0) {
+			emit(kind, pos, "move $t3,"+base);
+		}
+		else {
+			emit(kind, pos, "addu $t3,"+base+","+offset);
+		}
+		emit(kind, pos, "jal gcRemember");
+		emit(kind, pos, done+":");
+	}
+
+	// whether an assignment of a value to a variable or slot of the given
+	// kind must go through the write barrier
+	public static boolean needsBarrier(int lhsValue, boolean rhsNull) {
+		return lhsValue == POINTER && !rhsNull;
+	}
+
+	// loads the top of the stack into $zero, touching the new slot
+	public void probe(int kind, int pos) {
+		emit(kind, pos, "lw $zero,($sp)");
+	}
+
+	// pushes the value in a register
+	public void pushRegister(int kind, int pos, int value, String reg) {
+		openSlot(kind, pos, value);
+		emit(kind, pos, "sw "+reg+",($sp)");
+	}
+
+	public void pushInt(int kind, int pos, int value, int val) {
+		openSlot(kind, pos, value);
+		emit(kind, pos, "li $t0,"+val);
+		emit(kind, pos, "sw $t0,($sp)");
+	}
+
+	// pushes the address of a string literal
+	public void pushString(int kind, int pos, int value, int literalId) {
+		openSlot(kind, pos, value);
+		emit(kind, pos, "la $t0,strLit_"+literalId);
+		emit(kind, pos, "sw $t0,($sp)");
+	}
+
+	// pushes a folded constant (see ConstEvalVisitor) the way the literal
+	// would be pushed, and returns true; false if it is NOT_CONSTANT
+	public boolean pushConstant(int kind, int pos, int value, long val) {
+		if (ConstEvalVisitor.isInt(val)) {
+			code.indent(kind, pos);
+			pushInt(kind, pos, value, ConstEvalVisitor.intValue(val));
+			code.unindent(kind, pos);
+			return true;
+		}
+		if (ConstEvalVisitor.isBoolean(val)) {
+			code.indent(kind, pos);
+			if (ConstEvalVisitor.booleanValue(val)) {
+				pushInt(kind, pos, value, 1);
+			}
+			else {
+				pushRegister(kind, pos, value, "$zero");
+			}
+			code.unindent(kind, pos);
+			return true;
+		}
+		return false;
+	}
+
+	// pushes the value of an instance variable, or of a local variable or
+	// parameter (at 'offset' from the bottom of the frame)
+	public void pushVariable(int kind, int pos, int value, boolean instVar, int offset) {
+		if (instVar) {
+			emit(kind, pos, "lw $t0,"+offset+"($s2)");
+		}
+		else {
+			int NNN = offset+stackHeight;
+			emit(kind, pos, "lw $t0,"+NNN+"($sp)" + "# local: stackHeight:" + stackHeight + " var-offset:" + offset);
+		}
+		if (value != VOID) {
+			pushRegister(kind, pos, value, "$t0");
+		}
+	}
+
+	public void not(int kind, int pos) {
+		emit(kind, pos, "lw $t0,($sp)");
+		emit(kind, pos, "xor $t0,$t0,1");
+		emit(kind, pos, "sw $t0,($sp)");
+	}
+
+	// the right operand of an int operator into $t0, the left into $t1
+	private void loadOperands(int kind, int pos) {
+		emit(kind, pos, "lw $t0,($sp)");
+		emit(kind, pos, "lw $t1,"+intSize()+"($sp)");
+	}
+
+	// replaces the operands of an int operator by its result, in $t0
+	private void storeResult(int kind, int pos) {
+		emit(kind, pos, "addu $sp,$sp,"+intSize());
+		stackHeight -= intSize();
+		emit(kind, pos, "sw $t0,($sp)");
+	}
+
+	public void plus(int kind, int pos) {
+		loadOperands(kind, pos);
+		emit(kind, pos, "addu $t0,$t0,$t1");
+		storeResult(kind, pos);
+	}
+
+	public void minus(int kind, int pos) {
+		loadOperands(kind, pos);
+		emit(kind, pos, "subu $t0,$t1,$t0");
+		storeResult(kind, pos);
+	}
+
+	public void times(int kind, int pos) {
+		loadOperands(kind, pos);
+		emit(kind, pos, "mult $t0,$t1");
+		emit(kind, pos, "mflo $t0");
+		storeResult(kind, pos);
+	}
+
+	// divide and remainder, which the runtime does
+	public void divide(int kind, int pos, int value) {
+		emit(kind, pos, kind == NodeKind.DIVIDE ? "jal divide" : "jal remainder");
+		// the operands are replaced by the result
+		stackHeight -= intSize();
+		markTop(value);
+	}
+
+	// greater-than and less-than
+	public void compare(int kind, int pos) {
+		loadOperands(kind, pos);
+		emit(kind, pos, kind == NodeKind.LESS_THAN ? "slt $t0,$t1,$t0" : "sgt $t0,$t1,$t0");
+		emit(kind, pos, "addu $sp,$sp,"+(2*intSize()-4));
+		stackHeight -= 2*intSize()-4;
+		emit(kind, pos, "sw $t0,($sp)");
+	}
+
+	// 'operand' is how the operands are kept on the stack
+	public void equals(int kind, int pos, int operand) {
+		int size = operand == INT ? intSize() : 4;
+		emit(kind, pos, "lw $t0,($sp)");
+		emit(kind, pos, "lw $t1,"+size+"($sp)");
+		emit(kind, pos, "seq $t0,$t0,$t1");
+		emit(kind, pos, "addu $sp,$sp,"+(2*size-4));
+		stackHeight -= 2*size-4;
+		emit(kind, pos, "sw $t0,($sp)");
+	}
+
+	// and and or, after the left operand: skips the right one if the
+	// left decides the result, and otherwise pops it
+	public void shortCircuitTest(int kind, int pos, int id) {
+		emit(kind, pos, "lw $t0,($sp)");
+		emit(kind, pos, (kind == NodeKind.AND ? "beq" : "bne")+" $t0,$zero,skip_"+id);
+		emit(kind, pos, "addu $sp,$sp,4");
+		stackHeight -= 4;
+	}
+
+	// and and or, after the right operand (on the stack or in a register)
+	public void shortCircuitEnd(int kind, int pos, int id) {
+		emit(kind, pos, "skip_"+id+":");
+	}
+
+	public void arrayLength(int kind, int pos, int value) {
+		emit(kind, pos, "lw $t0, ($sp)");
+		emit(kind, pos, "beq $t0,$zero,nullPtrException");
+		emit(kind, pos, "lw $t0,-4($t0)");
+		if (isTagged(value)) {
+			emit(kind, pos, "sw $s5,($sp)");
+			emit(kind, pos, "subu $sp,4");
+			stackHeight += 4;
+		}
+		emit(kind, pos, "sw $t0,($sp)");
+		markTop(value);
+	}
+
+	// replaces the array and the index by the element
+	public void arrayLookup(int kind, int pos, int value) {
+		emit(kind, pos, "lw $t0,"+intSize()+"($sp)");
+		emit(kind, pos, "beq $t0,$zero,nullPtrException");
+		emit(kind, pos, "lw $t1,-4($t0)");
+		emit(kind, pos, "lw $t2,($sp)");
+		emit(kind, pos, "bgeu $t2,$t1,arrayIndexOutOfBounds");
+		emit(kind, pos, "sll $t2,$t2,2");
+		emit(kind, pos, "addu $t2,$t2,$t0");
+		emit(kind, pos, "lw $t0,($t2)");
+		if (isTagged(value)) {
+			emit(kind, pos, "sw $t0,4($sp)");
+			emit(kind, pos, "sw $s5,8($sp)");
+			emit(kind, pos, "addu $sp,$sp,4");
+			stackHeight -= 4;
+		}
+		else {
+			emit(kind, pos, "sw $t0,"+intSize()+"($sp)");
+			emit(kind, pos, "addu $sp,$sp,"+intSize());
+			stackHeight -= intSize();
+		}
+		markTop(value);
+	}
+
+	public void instVarAccess(int kind, int pos, int offset, int value) {
+		emit(kind, pos, "lw $t0,($sp)");
+		emit(kind, pos, "beq $t0,$zero,nullPtrException");
+		emit(kind, pos, "lw $t0,"+offset+"($t0)");
+		if (isTagged(value)) {
+			emit(kind, pos, "subu $sp,$sp,4");
+			stackHeight += 4;
+			emit(kind, pos, "sw $s5,4($sp)");
+			emit(kind, pos, "sw $t0,($sp)");
+		}
+		else {
+			emit(kind, pos, "sw $t0,($sp)");
+		}
+		markTop(value);
+	}
+
+	public void instanceOf(int kind, int pos, String vtableName, int value) {
+		emit(kind, pos, "la $t0,CLASS_"+vtableName);
+		emit(kind, pos, "la $t1,END_CLASS_"+vtableName);
+		emit(kind, pos, "jal instanceOf");
+		markTop(value);
+	}
+
+	public void checkCast(int kind, int pos, String vtableName) {
+		emit(kind, pos, "la $t0,CLASS_"+vtableName);
+		emit(kind, pos, "la $t1,END_CLASS_"+vtableName);
+		emit(kind, pos, "jal checkCast");
+	}
+
+	// an object of a class with the given numbers of data words (counting
+	// the vtable pointer) and object words
+	public void newObject(int kind, int pos, int id, int dataWords, int objWords, String className) {
+		emit(kind, pos, "# Before NewObject stackHeight equals: "+stackHeight);
+		if (options.allocatesInline(dataWords, objWords)) {
+			allocInline(kind, pos, id, dataWords, objWords);
+		}
+		else {
+			emit(kind, pos, " li $s6,"+dataWords);
+			emit(kind, pos, " li $s7,"+objWords);
+			emit(kind, pos, " jal newObject");
+			stackMap(kind, pos, id);
+		}
+		stackHeight += 4;
+		markTop(POINTER);
+		emit(kind, pos, " la $t0,CLASS_"+className);
+		emit(kind, pos, " sw $t0,-12($s7)");
+		emit(kind, pos, "# After NewObject stackHeight equals: "+stackHeight);
+	}
+
+	// allocates an object of a class inline, doing what newObject does:
+	// the first header word gets the data-word count and the next hash
+	// bits, the second the object-word count, and the pointer goes into
+	// $s7 and onto the stack.  (The runtime keeps its free space
+	// cleared, so the fields are already zero.)  Only if the heap is
+	// too full is newObject called, for a GC.  The code for
+	// the call comes first, so the fast path takes its branch and falls
+	// into the vtable store.
+	private void allocInline(int kind, int pos, int id, int dataWords, int objWords) {
+		String fast = "new_fast_"+id;
+		String done = "new_done_"+id;
+		int bytes = (dataWords+objWords+2)*4;
+		int header = (dataWords-1)*4; // from $s3 to the vtable pointer
+		emit(kind, pos, " addu $t0,$s3,"+bytes);
+		emit(kind, pos, " bleu $t0,$s4,"+fast);
+		emit(kind, pos, " li $s6,"+dataWords);
+		emit(kind, pos, " li $s7,"+objWords);
+		emit(kind, pos, " jal newObject");
+		stackMap(kind, pos, id);
+		emit(kind, pos, " j "+done);
+		emit(kind, pos, fast+":");
+		emit(kind, pos, " lw $t1,prevHashConstant");
+		emit(kind, pos, " addu $t1,$t1,0x12b68fd2");
+		emit(kind, pos, " sw $t1,prevHashConstant");
+		emit(kind, pos, " srl $t1,$t1,8");
+		emit(kind, pos, " sll $t1,$t1,8");
+		emit(kind, pos, " or $t1,$t1,0x"+Integer.toHexString(0x80000000|dataWords));
+		emit(kind, pos, " sw $t1,"+(header+4)+"($s3)");
+		if (objWords == 0) {
+			emit(kind, pos, " sw $zero,"+(header+8)+"($s3)");
+		}
+		else {
+			emit(kind, pos, " li $t1,"+objWords);
+			emit(kind, pos, " sw $t1,"+(header+8)+"($s3)");
+		}
+		emit(kind, pos, " addu $s7,$s3,"+(header+12));
+		emit(kind, pos, " move $s3,$t0");
+		emit(kind, pos, " subu $sp,$sp,4");
+		emit(kind, pos, " sw $s7,($sp)");
+		emit(kind, pos, done+":");
+	}
+
+	// an array, once its size has been evaluated, onto the stack or into
+	// $t0
+	public void newArray(int kind, int pos, int id, boolean sizeInRegister, String vtableName) {
+		if (sizeInRegister) {
+			emit(kind, pos, "move $s7,$t0");
+		}
+		else {
+			emit(kind, pos, "lw $s7,($sp)");
+			emit(kind, pos, "addu $sp,$sp,"+intSize());
+			stackHeight -= intSize();
+		}
+		emit(kind, pos, "li $s6,1");
+		emit(kind, pos, "jal newObject");
+		stackMap(kind, pos, id);
+		stackHeight += 4;
+		markTop(POINTER);
+		emit(kind, pos, "la $t0,CLASS_"+vtableName);
+		emit(kind, pos, "sw $t0,-12($s7)");
+		emit(kind, pos, "# The stack height after New Arrary is " + stackHeight);
+	}
+
+	// a call through super, to the method with the given label, once the
+	// this-pointer and the parameters have been pushed
+	public void callSuper(int kind, int pos, int id, String label) {
+		emit(kind, pos, " jal "+label);
+		stackMap(kind, pos, id);
+	}
+
+	// a call through the vtable, once the object and the parameters have
+	// been pushed
+	public void callVirtual(int kind, int pos, int id, int thisPtr, int vtableOffset) {
+		int MMM = thisPtr-4;
+		int NNN = 4*vtableOffset;
+		emit(kind, pos, " lw $t0,"+MMM+"($sp)");
+		emit(kind, pos, " beq $t0,$zero,nullPtrException");
+		emit(kind, pos, " lw $t0,-12($t0)");
+		emit(kind, pos, " lw $t0,"+NNN+"($t0)");
+		emit(kind, pos, " jalr $t0");
+		stackMap(kind, pos, id);
+	}
+
+	// after a call: the callee has popped its parameters and the object,
+	// and left its result in their place; 'height' is the stack height
+	// before the object was pushed
+	public void callReturned(int height, int value) {
+		if (isTagged(value)) {
+			stackHeight = height + 8;
+		}
+		else if (value == VOID) {
+			stackHeight = height;
+		}
+		else {
+			stackHeight = height + 4;
+		}
+		if (value != VOID) markTop(value);
+	}
+
+	// pops a call statement's result, if it has one
+	public void popResult(int kind, int pos, int value) {
+		if (isTagged(value)) {
+			emit(kind, pos, "addu $sp,$sp,8");
+			stackHeight -= 8;
+		}
+		else if (value != VOID) {
+			emit(kind, pos, "addu $sp,$sp,4");
+			stackHeight -= 4;
+		}
+	}
+
+	// at the end of a block, pops its local variables
+	public void popTo(int kind, int pos, int height) {
+		if (stackHeight != height) {
+			int DDD = stackHeight - height;
+			emit(kind, pos, "addu $sp,"+DDD);
+		}
+		stackHeight = height;
+	}
+
+	// a break out of a loop or switch whose stack height was 'height'
+	public void breakTo(int kind, int pos, int id, int height) {
+		int diff = stackHeight - height;
+		if (diff != 0) {
+			emit(kind, pos, "addu $sp,"+diff);
+		}
+		emit(kind, pos, "j break_target_"+id);
+	}
+
+	// a case or default label of a switch whose stack height was 'height'
+	public void caseLabel(int kind, int pos, int id, int height) {
+		stackHeight = height;
+		emit(kind, pos, "case_label_"+id);
+	}
+
+	// pops a condition's value, and branches to a label if it has the
+	// given value
+	public void branchOnTop(int kind, int pos, boolean value, String label) {
+		emit(kind, pos, "lw $t0,($sp)");
+		emit(kind, pos, "addu $sp,$sp,4");
+		stackHeight -= 4;
+		branchOnRegister(kind, pos, value, label);
+	}
+
+	// branches to a label if the condition in $t0 has the given value
+	public void branchOnRegister(int kind, int pos, boolean value, String label) {
+		emit(kind, pos, (value ? "bne" : "beq")+" $t0,$zero,"+label);
+	}
+
+	// branches to a label if a less-than or greater-than comparison of
+	// two registers (or a register and an immediate) has the given value
+	public void branchOnCompare(int kind, int pos, boolean lessThan, boolean value,
+			String left, String right, String label) {
+		String op;
+		if (lessThan) {
+			op = value ? "blt " : "bge ";
+		}
+		else {
+			op = value ? "bgt " : "ble ";
+		}
+		emit(kind, pos, op+left+","+right+","+label);
+	}
+
+	// register mode (see CG3Visitor.evalRegisters): a folded constant
+	// into a register; returns false if it is NOT_CONSTANT
+	public boolean constantRegister(int kind, int pos, String dest, long val) {
+		if (ConstEvalVisitor.isInt(val)) {
+			emit(kind, pos, "li "+dest+","+ConstEvalVisitor.intValue(val));
+			return true;
+		}
+		else if (ConstEvalVisitor.isBoolean(val)) {
+			emit(kind, pos, "li "+dest+","+(ConstEvalVisitor.booleanValue(val) ? 1 : 0));
+			return true;
+		}
+		return false;
+	}
+
+	public void intRegister(int kind, int pos, String dest, int val) {
+		emit(kind, pos, "li "+dest+","+val);
+	}
+
+	// a register from another (such as $zero, for false and null)
+	public void moveRegister(int kind, int pos, String dest, String src) {
+		emit(kind, pos, "move "+dest+","+src);
+	}
+
+	public void stringRegister(int kind, int pos, String dest, int literalId) {
+		emit(kind, pos, "la "+dest+",strLit_"+literalId);
+	}
+
+	// a variable into a register, as pushVariable loads it
+	public void variableRegister(int kind, int pos, String dest, boolean instVar, int offset) {
+		if (instVar) {
+			emit(kind, pos, "lw "+dest+","+offset+"($s2)");
+		}
+		else {
+			emit(kind, pos, "lw "+dest+","+(offset+stackHeight)+"($sp)");
+		}
+	}
+
+	public void notRegister(int kind, int pos, String dest) {
+		emit(kind, pos, "xor "+dest+","+dest+",1");
+	}
+
+	// and and or, after the left operand, into 'dest'
+	public void shortCircuitRegister(int kind, int pos, int id, String dest) {
+		emit(kind, pos, (kind == NodeKind.AND ? "beq " : "bne ")+dest+",$zero,skip_"+id);
+	}
+
+	public void arrayLengthRegister(int kind, int pos, String dest) {
+		emit(kind, pos, "beq "+dest+",$zero,nullPtrException");
+		emit(kind, pos, "lw "+dest+",-4("+dest+")");
+	}
+
+	public void instVarAccessRegister(int kind, int pos, String dest, int offset) {
+		emit(kind, pos, "beq "+dest+",$zero,nullPtrException");
+		emit(kind, pos, "lw "+dest+","+offset+"("+dest+")");
+	}
+
+	// an array element into 'dest', with 'len' free for the length
+	public void arrayLookupRegister(int kind, int pos, String dest, String arr, String idx, String len) {
+		emit(kind, pos, "beq "+arr+",$zero,nullPtrException");
+		emit(kind, pos, "lw "+len+",-4("+arr+")");
+		emit(kind, pos, "bgeu "+idx+","+len+",arrayIndexOutOfBounds");
+		emit(kind, pos, "sll "+idx+","+idx+",2");
+		emit(kind, pos, "addu "+idx+","+idx+","+arr);
+		emit(kind, pos, "lw "+dest+",("+idx+")");
+	}
+
+	// plus, minus, times, equals, less-than or greater-than, on two
+	// registers, or a register and an immediate
+	public void operatorRegister(int kind, int pos, String dest, String left, String right) {
+		switch (kind) {
+		case NodeKind.PLUS:
+			emit(kind, pos, "addu "+dest+","+left+","+right);
+			break;
+		case NodeKind.MINUS:
+			emit(kind, pos, "subu "+dest+","+left+","+right);
+			break;
+		case NodeKind.TIMES:
+			emit(kind, pos, "mult "+left+","+right);
+			emit(kind, pos, "mflo "+dest);
+			break;
+		case NodeKind.EQUALS:
+			emit(kind, pos, "seq "+dest+","+left+","+right);
+			break;
+		case NodeKind.LESS_THAN:
+			emit(kind, pos, "slt "+dest+","+left+","+right);
+			break;
+		case NodeKind.GREATER_THAN:
+			emit(kind, pos, "sgt "+dest+","+left+","+right);
+			break;
+		}
+	}
+
+	// an assignment to a variable, once the value has been pushed or put
+	// in $t0
+	public void assignVariable(int kind, int pos, int id, boolean rhsInRegister,
+			boolean instVar, int offset, int lhsValue, boolean barrier) {
+		if (!rhsInRegister) emit(kind, pos, "lw $t0,($sp)");
+		if (instVar) {
+			emit(kind, pos, "sw $t0,"+offset+"($s2)");
+			if (barrier) writeBarrier(kind, pos, id, "$t0", "$s2", "$s2", offset);
+		}
+		else {
+			int MMM = offset + stackHeight;
+			emit(kind, pos, "sw $t0,"+MMM+"($sp)");
+		}
+		if (rhsInRegister) {
+			// nothing was pushed
+		}
+		else if (isTagged(lhsValue)) {
+			emit(kind, pos, "addu $sp,$sp,8");
+			stackHeight -= 8;
+		}
+		else {
+			emit(kind, pos, "addu $sp,$sp,4");
+			stackHeight -= 4;
+		}
+	}
+
+	// an assignment to an instance variable of an object, once the object
+	// and the value have been pushed
+	public void assignField(int kind, int pos, int id, int offset, int lhsValue, int rhsValue,
+			boolean barrier) {
+		emit(kind, pos, "lw $t0,($sp)");
+		if (isTagged(rhsValue)) {
+			emit(kind, pos, "lw $t1,8($sp)");
+		}
+		else {
+			emit(kind, pos, "lw $t1,4($sp)");
+		}
+		emit(kind, pos, "beq $t1,$zero,nullPtrException");
+		emit(kind, pos, "sw $t0,"+offset+"($t1)");
+		if (barrier) writeBarrier(kind, pos, id, "$t0", "$t1", "$t1", offset);
+		if (isTagged(lhsValue)) {
+			emit(kind, pos, "addu $sp,$sp,12");
+			stackHeight -= 12;
+		}
+		else {
+			emit(kind, pos, "addu $sp,$sp,8");
+			stackHeight -= 8;
+		}
+	}
+
+	// the same, with the object and the value in registers
+	public void assignFieldRegisters(int kind, int pos, int id, int offset, String obj, String val,
+			boolean barrier) {
+		emit(kind, pos, "beq "+obj+",$zero,nullPtrException");
+		emit(kind, pos, "sw "+val+","+offset+"("+obj+")");
+		if (barrier) writeBarrier(kind, pos, id, val, obj, obj, offset);
+	}
+
+	// an assignment to an array element, once the array, the index and
+	// the value have been pushed
+	public void assignElement(int kind, int pos, int id, int rhsValue, boolean barrier) {
+		// the value, then the index, then the array
+		int rhsSize = isTagged(rhsValue) ? 8 : 4;
+		emit(kind, pos, "lw $t0,($sp)");
+		emit(kind, pos, "lw $t1,"+(rhsSize+intSize())+"($sp)");
+		emit(kind, pos, "beq $t1,$zero,nullPtrException");
+		emit(kind, pos, "lw $t2,"+rhsSize+"($sp)");
+		emit(kind, pos, "lw $t3,-4($t1)");
+		emit(kind, pos, "bgeu $t2,$t3,arrayIndexOutOfBounds");
+		emit(kind, pos, "sll $t2,$t2,2");
+		emit(kind, pos, "addu $t2,$t2,$t1");
+		emit(kind, pos, "sw $t0,($t2)");
+		if (barrier) writeBarrier(kind, pos, id, "$t0", "$t1", "$t2", 0);
+		emit(kind, pos, "addu $sp,$sp,"+(rhsSize+intSize()+4));
+		stackHeight -= rhsSize+intSize()+4;
+	}
+
+	// the same, with the array, index and value in $t0, $t1 and $t2; the
+	// length goes in $t3
+	public void assignElementRegisters(int kind, int pos, int id, boolean barrier) {
+		emit(kind, pos, "beq $t0,$zero,nullPtrException");
+		emit(kind, pos, "lw $t3,-4($t0)");
+		emit(kind, pos, "bgeu $t1,$t3,arrayIndexOutOfBounds");
+		emit(kind, pos, "sll $t1,$t1,2");
+		emit(kind, pos, "addu $t1,$t1,$t0");
+		emit(kind, pos, "sw $t2,($t1)");
+		if (barrier) writeBarrier(kind, pos, id, "$t2", "$t0", "$t1", 0);
+	}
+
+	// the start of a method: saves the this-pointer and return address.
+	// (A void method's lines are indented by a space, a non-void one's
+	// are not, as they always have been.)
+	public void methodPrologue(int kind, int pos, String label, int thisPtr) {
+		String prefix = kind == NodeKind.METHOD_DECL_VOID ? " " : "";
+		emit(kind, pos, ".globl "+label);
+		emit(kind, pos, label+":");
+		emit(kind, pos, prefix+"subu $sp,$sp,4");
+		stackHeight += 4;
+		emit(kind, pos, prefix+"sw $s2,($sp)");
+		int NNN = thisPtr;
+		emit(kind, pos, prefix+"lw $s2,"+NNN+"($sp)");
+		emit(kind, pos, prefix+"sw $ra,"+NNN+"($sp)");
+		stackHeight = 0;
+		thisPtrOffset = thisPtr;
+	}
+
+	// the end of a void method: restores the return address and the
+	// caller's this-pointer, and pops the frame and the parameters
+	public void methodReturnVoid(int kind, int pos) {
+		emit(kind, pos, "# the stackHeight is " + stackHeight);
+		int savedReturnAddressOffset = stackHeight+thisPtrOffset; //offset of saved return address relative to current stack height
+		int thisPointerOffset = stackHeight; //offset of  saved this-pointer relative to current stack height
+		emit(kind, pos, " lw $ra,"+ savedReturnAddressOffset +"($sp)");
+		emit(kind, pos, " lw $s2,"+ thisPointerOffset +"($sp)");
+		int amountPopStack = stackHeight + thisPtrOffset + 4; // the amount that we need to pop off the stack
+		emit(kind, pos, " addu $sp,$sp,"+amountPopStack);
+		emit(kind, pos, " jr $ra");
+	}
+
+	// the same for a non-void method, leaving the return value (pushed,
+	// or in $t0) where the this-pointer was
+	public void methodReturn(int kind, int pos, boolean rtnInRegister, boolean intRtn) {
+		boolean tagged = isTagged(intRtn ? INT : DATA);
+		int savedReturnAddressOffset = stackHeight+thisPtrOffset; //offset of saved return address relative to current stack height
+		int thisPointerOffset = stackHeight; //offset of  saved this-pointer relative to current stack height
+		emit(kind, pos, "lw $ra,"+ savedReturnAddressOffset +"($sp)");
+		emit(kind, pos, "lw $s2,"+ thisPointerOffset +"($sp)");
+		if (!rtnInRegister) emit(kind, pos, "lw $t0,($sp)");
+		if (tagged) {
+			int returnValueOffset = stackHeight+thisPtrOffset-4;
+			int returnValueOffsetCG = stackHeight+thisPtrOffset;
+			emit(kind, pos, "sw $t0,"+returnValueOffset+"($sp)");
+			emit(kind, pos, "sw $s5,"+ returnValueOffsetCG +"($sp)");
+		}
+		else {
+			int returnValueOffset = stackHeight+thisPtrOffset;
+			emit(kind, pos, "sw $t0,"+returnValueOffset+"($sp)");
+		}
+		int amountPopStack = stackHeight + thisPtrOffset + 4;// the amount that we need to pop off the stack
+		if (tagged) {
+			amountPopStack -= 8;
+		}
+		else {
+			amountPopStack -= 4;
+		}
+		emit(kind, pos, "addu $sp,$sp,"+ amountPopStack);
+		emit(kind, pos, "jr $ra");
+		emit(kind, pos, "# After MethodDeclNonVoid the stackHeight is " + stackHeight);
+	}
+
+	// the start of the main program
+	public void programStart(int kind, int pos) {
+		emit(kind, pos, " .text");
+		emit(kind, pos, " .globl main");
+		emit(kind, pos, "main:");
+		emit(kind, pos, "jal vm_init");
+		stackHeight = 0;
+		thisPtrOffset = MAIN;
+	}
+
+	public void programExit(int kind, int pos) {
+		emit(kind, pos, " li $v0,10");
+		emit(kind, pos, " syscall");
+	}
+
+	// after the methods: the stack maps, if there are any, and the end of
+	// the code
+	public void programEnd(int kind, int pos) {
+		if (options.stackMaps) {
+			// the maps, in the order of their return addresses
+			emit(kind, pos, " .data");
+			emit(kind, pos, "gcMaps:");
+			for (String map : stackMaps) {
+				emit(kind, pos, map);
+			}
+			emit(kind, pos, "gcMapsEnd:");
+		}
+		code.flush();
+	}
+}
@@ -22,33 +22,319 @@ public class CG3Visitor extends ASTvisitor {
 	// IO stream to which we will emit code
 	private CodeStream code;
 
-	// current stack height
-	private int stackHeight;
+	// the code sequences, and the stack height and stack maps (shared
+	// with flatAst.FlatCG3)
+	private CG3Emitter emitter;
 	
 	// for constant evaluation
 	private ConstEvalVisitor conEvalVis;
+
+	// the options for this compilation
+	private CodeGenOptions options;
+
+	// the registers that register mode uses, $t0 through $t9
+	private static final int NUM_REGS = 10;
+
+	// the register need (see regNeed) of each expression node, by
+	// uniqueId, plus one; 0 if not yet computed
+	private int[] regMemo = new int[0];
 	
 	public CG3Visitor(ErrorMsg e, PrintStream out) {
-		initInstanceVars(e, out);
+		this(e, out, new CodeGenOptions());
+	}
+	
+	public CG3Visitor(ErrorMsg e, PrintStream out, CodeGenOptions opts) {
+		initInstanceVars(e, out, opts);
 		conEvalVis = new ConstEvalVisitor();
 	}
 	
-	private void initInstanceVars(ErrorMsg e, PrintStream out) {
+	private void initInstanceVars(ErrorMsg e, PrintStream out, CodeGenOptions opts) {
 		errorMsg = e;
-		code = new CodeStream(out, errorMsg);
-		stackHeight = 0;
+		options = opts;
+		code = new CodeStream(out, errorMsg, opts);
+		if (opts.peephole) code.setPeephole(new Peephole());
+		emitter = new CG3Emitter(code, opts);
+	}
+
+	// how a value of the given type is kept on the stack
+	private static int valueKind(Type t) {
+		if (t instanceof IntegerType) return CG3Emitter.INT;
+		if (t instanceof BooleanType) return CG3Emitter.DATA;
+		if (t instanceof VoidType) return CG3Emitter.VOID;
+		return CG3Emitter.POINTER;
+	}
+
+	// the value of an if or while condition, or NOT_CONSTANT if it is
+	// not known at compile time or folding is off
+	private long constCondition(Exp n) {
+		return options.constantFolding ? conEvalVis.eval(n) : ConstEvalVisitor.NOT_CONSTANT;
 	}
 
+    // if folding is on and the expression is constant, pushes its value
+    // the way the literal would be pushed, and returns true
+    private boolean pushConstant(Exp n) {
+        if (!options.constantFolding) return false;
+        return emitter.pushConstant(n.kind, n.pos, valueKind(n.type), conEvalVis.eval(n));
+    }
+
+    // whether an assignment stores a value that the write barrier must
+    // see
+    private static boolean needsBarrier(Assign n) {
+        return CG3Emitter.needsBarrier(valueKind(n.lhs.type), n.rhs instanceof Null);
+    }
+
+    // Register mode.  An expression whose subtree has no call, allocation,
+    // instanceof, cast, divide or remainder (nothing that calls into the
+    // runtime, where the collector may run) is evaluated in $t registers,
+    // with Sethi-Ullman numbering to order the operands.  Only its value
+    // is pushed; for conditions, assignments, array sizes and return
+    // values it is used straight from $t0.  Since no collection can happen
+    // while a value is in a register, the stack still holds every live
+    // pointer, tagged as before, whenever the collector scans it.
+    // Expressions that do call out are evaluated on the stack, with their
+    // call-free operands evaluated in registers and pushed.
+
+    // regNeed: the number of registers needed to evaluate an expression,
+    // or more than NUM_REGS if it cannot be evaluated in registers; the
+    // TRAPS bit is set if it can branch to an exception exit
+    private static final int TRAPS = 1 << 16;
+    private static final int NEED_MASK = TRAPS-1;
+
+    private int regNeed(Exp n) {
+        int id = n.uniqueId;
+        if (id < regMemo.length && regMemo[id] != 0) return regMemo[id]-1;
+        int need = computeNeed(n);
+        if (id >= regMemo.length) {
+            regMemo = java.util.Arrays.copyOf(regMemo, Math.max(id+1, 2*regMemo.length));
+        }
+        regMemo[id] = need+1;
+        return need;
+    }
+
+    private int computeNeed(Exp n) {
+        if (options.constantFolding && conEvalVis.eval(n) != ConstEvalVisitor.NOT_CONSTANT) return 1;
+        switch (n.kind) {
+        case NodeKind.INTEGER_LITERAL: case NodeKind.TRUE: case NodeKind.FALSE:
+        case NodeKind.NULL: case NodeKind.STRING_LITERAL: case NodeKind.THIS:
+        case NodeKind.SUPER: case NodeKind.IDENTIFIER_EXP:
+            return 1;
+        case NodeKind.NOT:
+            return regNeed(((Not)n).exp);
+        case NodeKind.ARRAY_LENGTH:
+            return regNeed(((ArrayLength)n).exp) | TRAPS;
+        case NodeKind.INST_VAR_ACCESS:
+            return regNeed(((InstVarAccess)n).exp) | TRAPS;
+        case NodeKind.AND: case NodeKind.OR: {
+            // both operands are evaluated into the same register
+            int left = regNeed(((BinExp)n).left);
+            int right = regNeed(((BinExp)n).right);
+            return Math.max(left & NEED_MASK, right & NEED_MASK) | ((left|right) & TRAPS);
+        }
+        case NodeKind.PLUS: case NodeKind.MINUS: case NodeKind.EQUALS:
+        case NodeKind.LESS_THAN: case NodeKind.GREATER_THAN:
+            // a small constant right operand is an immediate operand
+            if (immediate(((BinExp)n).right) != ConstEvalVisitor.NOT_CONSTANT) {
+                return regNeed(((BinExp)n).left);
+            }
+            return pairNeed(((BinExp)n).left, ((BinExp)n).right);
+        case NodeKind.TIMES:
+            return pairNeed(((BinExp)n).left, ((BinExp)n).right);
+        case NodeKind.ARRAY_LOOKUP: {
+            // a third register holds the array's length
+            int need = pairNeed(((ArrayLookup)n).arrExp, ((ArrayLookup)n).idxExp);
+            return Math.max(need & NEED_MASK, 3) | TRAPS;
+        }
+        default:
+            return NUM_REGS+1;
+        }
+    }
+
+    // the need of a pair of operands, both of which are in registers
+    // when the operation is done
+    private int pairNeed(Exp left, Exp right) {
+        int l = regNeed(left);
+        int r = regNeed(right);
+        int need;
+        if (swapOperands(l, r)) {
+            need = Math.max(r & NEED_MASK, (l & NEED_MASK)+1);
+        } else {
+            need = Math.max(l & NEED_MASK, (r & NEED_MASK)+1);
+        }
+        return Math.min(need, NUM_REGS+1) | ((l|r) & TRAPS);
+    }
+
+    // whether to evaluate the right operand first: it needs more
+    // registers, and the order is not visible, since at most one of the
+    // operands can raise an exception
+    private static boolean swapOperands(int left, int right) {
+        return (right & NEED_MASK) > (left & NEED_MASK) && (left & right & TRAPS) == 0;
+    }
+
+    // the value of an int constant that fits in an instruction's 16-bit
+    // immediate field, or NOT_CONSTANT
+    private long immediate(Exp n) {
+        long val;
+        if (options.constantFolding) {
+            val = conEvalVis.eval(n);
+        } else if (n.kind == NodeKind.INTEGER_LITERAL) {
+            val = ConstEvalVisitor.ofInt(((IntegerLiteral)n).val);
+        } else {
+            return ConstEvalVisitor.NOT_CONSTANT;
+        }
+        if (!ConstEvalVisitor.isInt(val)) return ConstEvalVisitor.NOT_CONSTANT;
+        int v = ConstEvalVisitor.intValue(val);
+        return v > -32768 && v < 32768 ? val : ConstEvalVisitor.NOT_CONSTANT;
+    }
+
+    // whether an expression is evaluated in registers
+    private boolean inRegisters(Exp n) {
+        return options.registerExpressions && (regNeed(n) & NEED_MASK) <= NUM_REGS;
+    }
+
+    private static String reg(int r) {
+        return "$t"+r;
+    }
+
+    // evaluates an expression into $t<r>, using only $t<r> and above
+    private void evalRegisters(Exp n, int r) {
+        String dest = reg(r);
+        if (options.constantFolding && emitter.constantRegister(n.kind, n.pos, dest, conEvalVis.eval(n))) {
+            return;
+        }
+        switch (n.kind) {
+        case NodeKind.INTEGER_LITERAL:
+            emitter.intRegister(n.kind, n.pos, dest, ((IntegerLiteral)n).val);
+            break;
+        case NodeKind.TRUE:
+            emitter.intRegister(n.kind, n.pos, dest, 1);
+            break;
+        case NodeKind.FALSE: case NodeKind.NULL:
+            emitter.moveRegister(n.kind, n.pos, dest, "$zero");
+            break;
+        case NodeKind.STRING_LITERAL:
+            emitter.stringRegister(n.kind, n.pos, dest, ((StringLiteral)n).uniqueCgRep.uniqueId);
+            break;
+        case NodeKind.THIS: case NodeKind.SUPER:
+            emitter.moveRegister(n.kind, n.pos, dest, "$s2");
+            break;
+        case NodeKind.IDENTIFIER_EXP: {
+            VarDecl link = ((IdentifierExp)n).link;
+            emitter.variableRegister(n.kind, n.pos, dest, link instanceof InstVarDecl, link.offset);
+            break;
+        }
+        case NodeKind.NOT:
+            evalRegisters(((Not)n).exp, r);
+            emitter.notRegister(n.kind, n.pos, dest);
+            break;
+        case NodeKind.AND: case NodeKind.OR:
+            evalRegisters(((BinExp)n).left, r);
+            emitter.shortCircuitRegister(n.kind, n.pos, n.uniqueId, dest);
+            evalRegisters(((BinExp)n).right, r);
+            emitter.shortCircuitEnd(n.kind, n.pos, n.uniqueId);
+            break;
+        case NodeKind.ARRAY_LENGTH:
+            evalRegisters(((ArrayLength)n).exp, r);
+            emitter.arrayLengthRegister(n.kind, n.pos, dest);
+            break;
+        case NodeKind.INST_VAR_ACCESS:
+            evalRegisters(((InstVarAccess)n).exp, r);
+            emitter.instVarAccessRegister(n.kind, n.pos, dest, ((InstVarAccess)n).varDec.offset);
+            break;
+        case NodeKind.ARRAY_LOOKUP: {
+            ArrayLookup a = (ArrayLookup)n;
+            int first = evalPair(a.arrExp, a.idxExp, r);
+            emitter.arrayLookupRegister(n.kind, n.pos, dest, reg(first), reg(2*r+1-first), reg(r+2));
+            break;
+        }
+        default: {
+            BinExp b = (BinExp)n;
+            String left, right;
+            long imm = n.kind == NodeKind.TIMES ? ConstEvalVisitor.NOT_CONSTANT : immediate(b.right);
+            if (imm != ConstEvalVisitor.NOT_CONSTANT) {
+                evalRegisters(b.left, r);
+                left = dest;
+                right = ""+ConstEvalVisitor.intValue(imm);
+            } else {
+                int first = evalPair(b.left, b.right, r);
+                left = reg(first);
+                right = reg(2*r+1-first);
+            }
+            emitter.operatorRegister(n.kind, n.pos, dest, left, right);
+        }
+        }
+    }
+
+    // evaluates two operands into $t<r> and $t<r+1>, in the order that
+    // needs fewer registers; returns the number of the register holding
+    // the left one
+    private int evalPair(Exp left, Exp right, int r) {
+        if (swapOperands(regNeed(left), regNeed(right))) {
+            evalRegisters(right, r);
+            evalRegisters(left, r+1);
+            return r+1;
+        }
+        evalRegisters(left, r);
+        evalRegisters(right, r+1);
+        return r;
+    }
+
+    // whether an array element assignment is done in registers: the
+    // array, index and value are evaluated in that order, into $t0, $t1
+    // and $t2
+    private boolean inRegisters(ArrayLookup lhs, Exp rhs) {
+        if (!options.registerExpressions) return false;
+        int need = Math.max(regNeed(lhs.arrExp) & NEED_MASK, (regNeed(lhs.idxExp) & NEED_MASK)+1);
+        need = Math.max(need, (regNeed(rhs) & NEED_MASK)+2);
+        return Math.max(need, 4) <= NUM_REGS;
+    }
+
+    // if register mode is on and the expression can be evaluated in
+    // registers, evaluates it and pushes its value, and returns true
+    private boolean pushRegisters(Exp n) {
+        if (!inRegisters(n)) return false;
+        code.indent(n);
+        evalRegisters(n, 0);
+        emitter.pushRegister(n.kind, n.pos, valueKind(n.type), "$t0");
+        code.unindent(n);
+        return true;
+    }
+
+    // evaluates an if or while condition, and branches to a label if it
+    // has the given value.  In register mode, a comparison is branched on
+    // directly, and a not by branching on the opposite value.
+    private void branchOn(Statement s, Exp n, boolean value, String label) {
+        if (!inRegisters(n)) {
+            n.accept(this);
+            emitter.branchOnTop(s.kind, s.pos, value, label);
+            return;
+        }
+        boolean constant = options.constantFolding && conEvalVis.eval(n) != ConstEvalVisitor.NOT_CONSTANT;
+        if (!constant && n.kind == NodeKind.NOT) {
+            branchOn(s, ((Not)n).exp, !value, label);
+        } else if (!constant && (n.kind == NodeKind.LESS_THAN || n.kind == NodeKind.GREATER_THAN)) {
+            BinExp b = (BinExp)n;
+            String left, right;
+            long imm = immediate(b.right);
+            if (imm != ConstEvalVisitor.NOT_CONSTANT) {
+                evalRegisters(b.left, 0);
+                left = "$t0";
+                right = ""+ConstEvalVisitor.intValue(imm);
+            } else {
+                int first = evalPair(b.left, b.right, 0);
+                left = reg(first);
+                right = reg(1-first);
+            }
+            emitter.branchOnCompare(s.kind, s.pos, n.kind == NodeKind.LESS_THAN, value, left, right, label);
+        } else {
+            evalRegisters(n, 0);
+            emitter.branchOnRegister(s.kind, s.pos, value, label);
+        }
+    }
+
     @Override
     public Object visitIntegerLiteral(IntegerLiteral n) {
 	    code.indent(n);
-        //code.emit(n, "# Before IntegerLiteral stackHeight equals: "+stackHeight);
-	    code.emit(n, "subu $sp,$sp,8");
-        stackHeight += 8;
-        code.emit(n, "sw $s5,4($sp)");
-        code.emit(n,"li $t0,"+n.val);
-        code.emit(n, "sw $t0,($sp)");
-        //code.emit(n, "# After IntegerLiteral stackHeight equals: "+stackHeight);
+        emitter.pushInt(n.kind, n.pos, valueKind(n.type), n.val);
         code.unindent(n);
 	    return null;
     }
@@ -56,9 +342,7 @@ public class CG3Visitor extends ASTvisitor {
     @Override
     public Object visitNull(Null n) {
         code.indent(n);
-        code.emit(n,"subu $sp,$sp,4");
-        stackHeight += 4;
-        code.emit(n, "sw $zero,($sp)");
+        emitter.pushRegister(n.kind, n.pos, valueKind(n.type), "$zero");
         code.unindent(n);
 	    return null;
     }
@@ -66,10 +350,7 @@ public class CG3Visitor extends ASTvisitor {
     @Override
     public Object visitTrue(True n) {
         code.indent(n);
-        code.emit(n, "subu $sp,$sp,4");
-        stackHeight += 4;
-        code.emit(n, "li $t0,1");
-        code.emit(n, "sw $t0,($sp)");
+        emitter.pushInt(n.kind, n.pos, valueKind(n.type), 1);
         code.unindent(n);
 	    return null;
     }
@@ -77,9 +358,7 @@ public class CG3Visitor extends ASTvisitor {
     @Override
     public Object visitFalse(False n) {
         code.indent(n);
-        code.emit(n,"subu $sp,$sp,4");
-        stackHeight += 4;
-        code.emit(n, "sw $zero,($sp)");
+        emitter.pushRegister(n.kind, n.pos, valueKind(n.type), "$zero");
         code.unindent(n);
 	    return null;
     }
@@ -87,23 +366,16 @@ public class CG3Visitor extends ASTvisitor {
     @Override
     public Object visitStringLiteral(StringLiteral n) {
         code.indent(n);
-        //code.emit(n, "# Before StringLiteral stackHeight equals: "+stackHeight);
-        code.emit(n, "subu $sp,$sp,4");
-        stackHeight += 4;
-        code.emit(n, "la $t0,strLit_"+n.uniqueCgRep.uniqueId);
-        code.emit(n, "sw $t0,($sp)");
-        //code.emit(n, "# After StringLiteral stackHeight equals: "+stackHeight);
+        emitter.pushString(n.kind, n.pos, valueKind(n.type), n.uniqueCgRep.uniqueId);
         code.unindent(n);
-        code.emit(n, "lw $zero,($sp)");
+        emitter.probe(n.kind, n.pos);
 	    return null;
     }
 
     @Override
     public Object visitThis(This n) {
         code.indent(n);
-        code.emit(n, "subu $sp,$sp,4");
-        stackHeight += 4;
-        code.emit(n, "sw $s2,($sp)");
+        emitter.pushRegister(n.kind, n.pos, valueKind(n.type), "$s2");
         code.unindent(n);
 	    return null;
     }
@@ -111,9 +383,7 @@ public class CG3Visitor extends ASTvisitor {
     @Override
     public Object visitSuper(Super n) {
         code.indent(n);
-        code.emit(n, "subu $sp,$sp,4");
-        stackHeight += 4;
-        code.emit(n, "sw $s2,($sp)");
+        emitter.pushRegister(n.kind, n.pos, valueKind(n.type), "$s2");
         code.unindent(n);
 	    return null;
     }
@@ -121,255 +391,172 @@ public class CG3Visitor extends ASTvisitor {
     @Override
     public Object visitIdentifierExp(IdentifierExp n) {
         code.indent(n);
-        //code.emit(n, "# Before IdentifierExp stackHeight equals: "+stackHeight);
-        if (n.link instanceof InstVarDecl) {
-            int NNN = n.link.offset;
-            code.emit(n, "lw $t0,"+NNN+"($s2)");
-        } else {
-            int NNN = n.link.offset+stackHeight;
-            code.emit(n, "lw $t0,"+NNN+"($sp)" + "# local: stackHeight:" + stackHeight + " var-offset:" + n.link.offset);
-        }
-        if (n.type instanceof IntegerType) {
-            code.emit(n, "subu $sp,$sp,8");
-            stackHeight += 8;
-            code.emit(n, "sw $s5,4($sp)");
-            code.emit(n, "sw $t0,($sp)");
-        }else if (!(n.type instanceof VoidType)) {
-            code.emit(n, "subu $sp,$sp,4");
-            stackHeight += 4;
-            code.emit(n, "sw $t0,($sp)");
-        }
-        //code.emit(n, "# After IdentifierExp stackHeight equals: "+stackHeight);
+        emitter.pushVariable(n.kind, n.pos, valueKind(n.type), n.link instanceof InstVarDecl, n.link.offset);
         code.unindent(n);
-        code.emit(n, "lw $zero,($sp)");
+        emitter.probe(n.kind, n.pos);
 	    return null;
     }
 
     @Override
     public Object visitNot(Not n) {
+        if (pushConstant(n)) return null;
+        if (pushRegisters(n)) return null;
         code.indent(n);
         n.exp.accept(this);
-        code.emit(n, "lw $t0,($sp)");
-        code.emit(n, "xor $t0,$t0,1");
-        code.emit(n, "sw $t0,($sp)");
+        emitter.not(n.kind, n.pos);
         code.unindent(n);
 	    return null;
     }
 
     @Override
     public Object visitPlus(Plus n) {
+        if (pushConstant(n)) return null;
+        if (pushRegisters(n)) return null;
         code.indent(n);
-        code.emit(n, "# Before Plus stackHeight equals: "+stackHeight);
+        code.emit(n, "# Before Plus stackHeight equals: "+emitter.stackHeight());
         n.left.accept(this);
         n.right.accept(this);
-        //code.emit(n, "# Plus two sides traverse stackHeight equals: "+stackHeight);
-        code.emit(n, "lw $t0,($sp)");
-        code.emit(n, "lw $t1,8($sp)");
-        code.emit(n, "addu $t0,$t0,$t1");
-        code.emit(n, "addu $sp,$sp,8");
-        stackHeight -= 8;
-        code.emit(n, "sw $t0,($sp)");
-        code.emit(n, "# After Plus stackHeight equals: "+stackHeight);
+        emitter.plus(n.kind, n.pos);
+        code.emit(n, "# After Plus stackHeight equals: "+emitter.stackHeight());
         code.unindent(n);
 	    return null;
     }
 
     @Override
     public Object visitMinus(Minus n) {
+        if (pushConstant(n)) return null;
+        if (pushRegisters(n)) return null;
         code.indent(n);
-	    //code.emit(n, "# Before Minus stackHeight equals: "+stackHeight);
         n.left.accept(this);
         n.right.accept(this);
-        //code.emit(n, "# sMinus two sides traverse tackHeight equals: "+stackHeight);
-        code.emit(n, "lw $t0,($sp)");
-        code.emit(n, "lw $t1,8($sp)");
-        code.emit(n, "subu $t0,$t1,$t0");
-        code.emit(n, "addu $sp,$sp,8");
-        stackHeight -= 8;
-        code.emit(n, "sw $t0,($sp)");
-        //code.emit(n, "# After Minus stackHeight equals: "+stackHeight);
+        emitter.minus(n.kind, n.pos);
         code.unindent(n);
         return null;
     }
 
     @Override
     public Object visitTimes(Times n) {
+        if (pushConstant(n)) return null;
+        if (pushRegisters(n)) return null;
         code.indent(n);
         n.left.accept(this);
         n.right.accept(this);
-        code.emit(n, "lw $t0,($sp)");
-        code.emit(n, "lw $t1,8($sp)");
-        code.emit(n, "mult $t0,$t1");
-        code.emit(n, "mflo $t0");
-        code.emit(n, "addu $sp,$sp,8");
-        stackHeight -= 8;
-        code.emit(n, "sw $t0,($sp)");
+        emitter.times(n.kind, n.pos);
         code.unindent(n);
 	    return null;
     }
 
     @Override
     public Object visitDivide(Divide n) {
+        if (pushConstant(n)) return null;
         code.indent(n);
         n.left.accept(this);
         n.right.accept(this);
-        code.emit(n, "jal divide");
-        stackHeight += 8;
+        emitter.divide(n.kind, n.pos, valueKind(n.type));
         code.unindent(n);
 	    return null;
     }
 
     @Override
     public Object visitRemainder(Remainder n) {
+        if (pushConstant(n)) return null;
         code.indent(n);
         n.left.accept(this);
         n.right.accept(this);
-        code.emit(n, "jal remainder");
-        stackHeight += 8;
+        emitter.divide(n.kind, n.pos, valueKind(n.type));
         code.unindent(n);
 	    return null;
     }
 
     @Override
     public Object visitEquals(Equals n) {
+        if (pushConstant(n)) return null;
+        if (pushRegisters(n)) return null;
         code.indent(n);
         n.left.accept(this);
         n.right.accept(this);
-        if (n.type instanceof IntegerType) {
-            code.emit(n, "lw $t0,($sp)");
-            code.emit(n, "lw $t1,8($sp)");
-            code.emit(n, "seq $t0,$t0,$t1");
-            code.emit(n, "addu $sp,$sp,12");
-            stackHeight -= 12;
-            code.emit(n, "sw $t0,($sp)");
-        } else {
-            code.emit(n, "lw $t0,($sp)");
-            code.emit(n, "lw $t1,4($sp)");
-            code.emit(n, "seq $t0,$t0,$t1");
-            code.emit(n, "addu $sp,$sp,4");
-            stackHeight -= 4;
-            code.emit(n, "sw $t0,($sp)");
-        }
+        emitter.equals(n.kind, n.pos, valueKind(n.left.type));
         code.unindent(n);
 	    return null;
     }
 
     @Override
     public Object visitGreaterThan(GreaterThan n) {
+        if (pushConstant(n)) return null;
+        if (pushRegisters(n)) return null;
         code.indent(n);
         n.left.accept(this);
         n.right.accept(this);
-        code.emit(n, "lw $t0,($sp)");
-        code.emit(n, "lw $t1,8($sp)");
-        code.emit(n, "sgt $t0,$t1,$t0");
-        code.emit(n, "addu $sp,$sp,12");
-        stackHeight -= 12;
-        code.emit(n, "sw $t0,($sp)");
+        emitter.compare(n.kind, n.pos);
         code.unindent(n);
 	    return null;
     }
 
     @Override
     public Object visitLessThan(LessThan n) {
+        if (pushConstant(n)) return null;
+        if (pushRegisters(n)) return null;
         code.indent(n);
         n.left.accept(this);
         n.right.accept(this);
-        code.emit(n, "lw $t0,($sp)");
-        code.emit(n, "lw $t1,8($sp)");
-        code.emit(n, "slt $t0,$t1,$t0");
-        code.emit(n, "addu $sp,$sp,12");
-        stackHeight -= 12;
-        code.emit(n, "sw $t0,($sp)");
+        emitter.compare(n.kind, n.pos);
         code.unindent(n);
         return null;
     }
 
     @Override
     public Object visitAnd(And n) {
+        if (pushConstant(n)) return null;
+        if (pushRegisters(n)) return null;
         code.indent(n);
         n.left.accept(this);
-        code.emit(n, "lw $t0,($sp)");
-        code.emit(n, "beq $t0,$zero,skip_"+n.uniqueId);
-        code.emit(n, "addu $sp,$sp,4");
-        stackHeight -= 4;
+        emitter.shortCircuitTest(n.kind, n.pos, n.uniqueId);
         n.right.accept(this);
-        code.emit(n, "skip_"+n.uniqueId+":");
+        emitter.shortCircuitEnd(n.kind, n.pos, n.uniqueId);
         code.unindent(n);
 	    return null;
     }
 
     @Override
     public Object visitOr(Or n) { // TODO: Further Inspection needed.
+        if (pushConstant(n)) return null;
+        if (pushRegisters(n)) return null;
         code.indent(n);
         n.left.accept(this);
-        code.emit(n, "lw $t0,($sp)");
-        code.emit(n, "bne $t0,$zero,skip_"+n.uniqueId);
-        code.emit(n, "addu $sp,$sp,4");
-        stackHeight -= 4;
+        emitter.shortCircuitTest(n.kind, n.pos, n.uniqueId);
         n.right.accept(this);
-        code.emit(n, "skip_"+n.uniqueId+":");
+        emitter.shortCircuitEnd(n.kind, n.pos, n.uniqueId);
         code.unindent(n);
 	    return null;
     }
 
     @Override
     public Object visitArrayLength(ArrayLength n) {
+        if (pushRegisters(n)) return null;
         code.indent(n);
         n.exp.accept(this);
-        code.emit(n, "lw $t0, ($sp)");
-        code.emit(n, "beq $t0,$zero,nullPtrException");
-        code.emit(n, "lw $t0,-4($t0)");
-        code.emit(n, "sw $s5,($sp)");
-        code.emit(n, "subu $sp,4");
-        stackHeight += 4;
-        code.emit(n, "sw $t0,($sp)");
+        emitter.arrayLength(n.kind, n.pos, valueKind(n.type));
         code.unindent(n);
 	    return null;
     }
 
     @Override
     public Object visitArrayLookup(ArrayLookup n) {
+        if (pushRegisters(n)) return null;
         code.indent(n);
 	    n.arrExp.accept(this);
 	    n.idxExp.accept(this);
-        code.emit(n, "lw $t0,8($sp)");
-        code.emit(n, "beq $t0,$zero,nullPtrException");
-        code.emit(n, "lw $t1,-4($t0)");
-        code.emit(n, "lw $t2,($sp)");
-        code.emit(n, "bgeu $t2,$t1,arrayIndexOutOfBounds");
-        code.emit(n, "sll $t2,$t2,2");
-        code.emit(n, "addu $t2,$t2,$t0");
-        code.emit(n, "lw $t0,($t2)");
-        if (n.arrExp.type instanceof IntegerType) {
-            code.emit(n, "sw $t0,4($sp)");
-            code.emit(n, "sw $s5,8($sp)");
-            code.emit(n, "addu $sp,$sp,4");
-            stackHeight -= 4;
-        } else {
-            code.emit(n, "sw $t0,8($sp)");
-            code.emit(n, "addu $sp,$sp,8");
-            stackHeight -= 8;
-        }
+        emitter.arrayLookup(n.kind, n.pos, valueKind(n.type));
         code.unindent(n);
         return null;
     }
 
     @Override
     public Object visitInstVarAccess(InstVarAccess n) {
+        if (pushRegisters(n)) return null;
         code.indent(n);
         n.exp.accept(this);
-        int offset = n.varDec.offset;
-        code.emit(n, "lw $t0,($sp)");
-        code.emit(n, "beq $t0,$zero,nullPtrException");
-        code.emit(n, "lw $t0,"+offset+"($t0)");
-        if (n.type instanceof IntegerType) {
-            code.emit(n, "subu $sp,$sp,4");
-            stackHeight += 4;
-            code.emit(n, "sw $s5,4($sp)");
-            code.emit(n, "sw $t0,($sp)");
-        } else {
-            code.emit(n, "sw $t0,($sp)");
-        }
+        emitter.instVarAccess(n.kind, n.pos, n.varDec.offset, valueKind(n.type));
         code.unindent(n);
 	    return null;
     }
@@ -378,9 +565,7 @@ public class CG3Visitor extends ASTvisitor {
     public Object visitInstanceOf(InstanceOf n) {
         code.indent(n);
         n.exp.accept(this);
-        code.emit(n, "la $t0,CLASS_"+CG1Visitor.vtableNameFor(n.type));
-        code.emit(n, "la $t1,END_CLASS_"+CG1Visitor.vtableNameFor(n.type));
-        code.emit(n, "jal instanceOf");
+        emitter.instanceOf(n.kind, n.pos, CG1Visitor.vtableNameFor(n.type), valueKind(n.type));
         code.unindent(n);
 	    return null;
     }
@@ -390,9 +575,7 @@ public class CG3Visitor extends ASTvisitor {
         code.indent(n);
         n.exp.accept(this);
         if (n.type.getClass().equals(n.castType.getClass().getGenericSuperclass())) {
-            code.emit(n, "la $t0,CLASS_"+CG1Visitor.vtableNameFor(n.type));
-            code.emit(n, "la $t1,END_CLASS_"+CG1Visitor.vtableNameFor(n.type));
-            code.emit(n, "jal checkCast");
+            emitter.checkCast(n.kind, n.pos, CG1Visitor.vtableNameFor(n.type));
         }
         code.unindent(n);
 	    return null;
@@ -401,16 +584,9 @@ public class CG3Visitor extends ASTvisitor {
     @Override
     public Object visitNewObject(NewObject n) {
         code.indent(n);
-        code.emit(n, "# Before NewObject stackHeight equals: "+stackHeight);
         int numOfObjInstVar = n.objType.link.numObjInstVars;
         int numOfDataInstVar = n.objType.link.numDataInstVars+1;
-        code.emit(n, " li $s6,"+numOfDataInstVar);
-        code.emit(n, " li $s7,"+numOfObjInstVar);
-        code.emit(n, " jal newObject");
-        stackHeight += 4;
-        code.emit(n, " la $t0,CLASS_"+n.objType.link.name);
-        code.emit(n, " sw $t0,-12($s7)");
-        code.emit(n, "# After NewObject stackHeight equals: "+stackHeight);
+        emitter.newObject(n.kind, n.pos, n.uniqueId, numOfDataInstVar, numOfObjInstVar, n.objType.link.name);
         code.unindent(n);
 	    return null;
     }
@@ -418,17 +594,14 @@ public class CG3Visitor extends ASTvisitor {
     @Override
     public Object visitNewArray(NewArray n) {
         code.indent(n);
-        code.emit(n, "# The stack height before New Arrary is " + stackHeight);
-        n.sizeExp.accept(this);
-        code.emit(n, "lw $s7,($sp)");
-        code.emit(n, "addu $sp,$sp,8");
-        stackHeight -= 8;
-        code.emit(n, "li $s6,1");
-        code.emit(n, "jal newObject");
-        stackHeight += 4;
-        code.emit(n, "la $t0,CLASS_"+CG1Visitor.vtableNameFor(n.type));
-        code.emit(n, "sw $t0,-12($s7)");
-        code.emit(n, "# The stack height after New Arrary is " + stackHeight);
+        code.emit(n, "# The stack height before New Arrary is " + emitter.stackHeight());
+        boolean sizeInRegister = inRegisters(n.sizeExp);
+        if (sizeInRegister) {
+            evalRegisters(n.sizeExp, 0);
+        } else {
+            n.sizeExp.accept(this);
+        }
+        emitter.newArray(n.kind, n.pos, n.uniqueId, sizeInRegister, CG1Visitor.vtableNameFor(n.type));
         code.unindent(n);
 	    return null;
     }
@@ -436,54 +609,20 @@ public class CG3Visitor extends ASTvisitor {
     @Override
     public Object visitCall(Call n) {
         code.indent(n);
-        //code.emit(n, "# Before call stackHeight equals: "+stackHeight);
+        int oldStackHeight = emitter.stackHeight();
 	    if (n.obj instanceof Super) {
-            int oldStackHeight = stackHeight;
             n.obj.accept(this);
             n.parms.accept(this);
-            if (n.methodLink.pos < 0) {
-                code.emit(n, " jal "+n.methodLink.name+"_"+n.methodLink.classDecl.name);
-            } else {
-                code.emit(n, " jal fcn_"+n.methodLink.uniqueId+"_"+n.methodLink.name);
-            }
-            if (n.type instanceof IntegerType) {
-                stackHeight = oldStackHeight + 8;
-            } else if (n.type instanceof VoidType) {
-                stackHeight = oldStackHeight;
-            } else {
-                stackHeight = oldStackHeight + 4;
-            }
+            MethodDecl m = n.methodLink;
+            emitter.callSuper(n.kind, n.pos, n.uniqueId,
+                    CG1Emitter.methodLabel(m.pos, m.uniqueId, m.name, m.classDecl.name));
         } else {
-            int oldStackHeight = stackHeight;
-            //code.emit(n, "# the stackHeight before obj is " + stackHeight);
             n.obj.accept(this);
-            code.emit(n, "lw $zero,($sp)");
-            //code.emit(n, "# the stackHeight after obj is " + stackHeight);
-            //code.emit(n, "# the stackHeight before parms is " + stackHeight);
+            emitter.probe(n.kind, n.pos);
             n.parms.accept(this);
-            //code.emit(n, "# the stackHeight after parms is " + stackHeight);
-            int MMM = n.methodLink.thisPtrOffset-4;
-            int NNN = 4*n.methodLink.vtableOffset;
-            //code.emit(n, "# Now the vtableOffset is:" + n.methodLink.vtableOffset);
-            code.emit(n, " lw $t0,"+MMM+"($sp)");
-            code.emit(n, " beq $t0,$zero,nullPtrException");
-            code.emit(n, " lw $t0,-12($t0)");
-            code.emit(n, " lw $t0,"+NNN+"($t0)");
-            code.emit(n, " jalr $t0");
-            //code.emit(n, "# stackHeight before change in call is " + stackHeight + " the old is " + oldStackHeight);
-            if (n.type instanceof IntegerType) {
-                stackHeight = oldStackHeight + 8;
-                //code.emit(n, "# Integer type found");
-            } else if (n.type instanceof VoidType) {
-                stackHeight = oldStackHeight;
-                //code.emit(n, "# Void Type found");
-            } else {
-                stackHeight = oldStackHeight + 4;
-                //code.emit(n, "# Obj Type found");
-            }
-            //code.emit(n, "# stackHeight after change in call is " + stackHeight + " the old is " + oldStackHeight);
+            emitter.callVirtual(n.kind, n.pos, n.uniqueId, n.methodLink.thisPtrOffset, n.methodLink.vtableOffset);
         }
-        //code.emit(n, "# After Call stackHeight equals: "+stackHeight);
+        emitter.callReturned(oldStackHeight, valueKind(n.type));
         code.unindent(n);
 	    return null;
     }
@@ -491,11 +630,9 @@ public class CG3Visitor extends ASTvisitor {
     @Override
     public Object visitLocalVarDecl(LocalVarDecl n) {
         code.indent(n);
-        //code.emit(n, "# The stack height before LocalVarDecl is " + stackHeight);
         n.initExp.accept(this);
-        n.offset = -stackHeight;
-        code.emit(n, "lw $zero,($sp)");
-        //code.emit(n, "# The stack height after LocalVarDecl is " + stackHeight);
+        n.offset = -emitter.stackHeight();
+        emitter.probe(n.kind, n.pos);
         code.unindent(n);
 	    return null;
     }
@@ -503,16 +640,8 @@ public class CG3Visitor extends ASTvisitor {
     @Override
     public Object visitCallStatement(CallStatement n) {
         code.indent(n);
-        //code.emit(n, "# Before CallStatement stackHeight equals: "+stackHeight);
         n.callExp.accept(this);
-        if (n.callExp.type instanceof IntegerType) {
-            code.emit(n, "addu $sp,$sp,8");
-            stackHeight -= 8;
-        } else if (!(n.callExp.type instanceof VoidType)) {
-            code.emit(n, "addu $sp,$sp,4");
-            stackHeight -= 4;
-        }
-        //code.emit(n, "# After CallStatement stackHeight equals: "+stackHeight);
+        emitter.popResult(n.kind, n.pos, valueKind(n.callExp.type));
         code.unindent(n);
 	    return null;
     }
@@ -520,13 +649,9 @@ public class CG3Visitor extends ASTvisitor {
     @Override
     public Object visitBlock(Block n) {
         code.indent(n);
-        int oldStackHeight = stackHeight;
+        int oldStackHeight = emitter.stackHeight();
         n.stmts.accept(this);
-        if (stackHeight != oldStackHeight) {
-            int DDD = stackHeight - oldStackHeight;
-            code.emit(n, "addu $sp,"+DDD);
-        }
-        stackHeight = oldStackHeight;
+        emitter.popTo(n.kind, n.pos, oldStackHeight);
         code.unindent(n);
 	    return null;
     }
@@ -534,11 +659,17 @@ public class CG3Visitor extends ASTvisitor {
     @Override
     public Object visitIf(If n) {
         code.indent(n);
-        n.exp.accept(this);
-        code.emit(n, "lw $t0,($sp)");
-        code.emit(n, "addu $sp,$sp,4");
-        stackHeight -= 4;
-        code.emit(n, "beq $t0,$zero,if_else_"+n.uniqueId);
+        long cond = constCondition(n.exp);
+        if (cond == ConstEvalVisitor.TRUE) {
+            n.trueStmt.accept(this);
+            code.unindent(n);
+            return null;
+        } else if (cond == ConstEvalVisitor.FALSE) {
+            n.falseStmt.accept(this);
+            code.unindent(n);
+            return null;
+        }
+        branchOn(n, n.exp, false, "if_else_"+n.uniqueId);
         n.trueStmt.accept(this);
         code.emit(n, "j if_done_"+n.uniqueId);
         code.emit(n, "if_else_"+n.uniqueId+":");
@@ -551,17 +682,27 @@ public class CG3Visitor extends ASTvisitor {
     @Override
     public Object visitWhile(While n) {
         code.indent(n);
-        code.emit(n, "# The stack height before While is " + stackHeight);
-        n.stackHeight = stackHeight;
+        code.emit(n, "# The stack height before While is " + emitter.stackHeight());
+        n.stackHeight = emitter.stackHeight();
+        long cond = constCondition(n.exp);
+        if (cond == ConstEvalVisitor.FALSE) {
+            // the body is never executed
+            code.unindent(n);
+            return null;
+        } else if (cond == ConstEvalVisitor.TRUE) {
+            // left only by a break
+            code.emit(n, "while_top_"+n.uniqueId+":");
+            n.body.accept(this);
+            code.emit(n, "j while_top_"+n.uniqueId);
+            code.emit(n, "break_target_"+n.uniqueId+":");
+            code.unindent(n);
+            return null;
+        }
         code.emit(n, "j while_enter_"+n.uniqueId);
         code.emit(n, "while_top_"+n.uniqueId+":");
         n.body.accept(this);
         code.emit(n, "while_enter_"+n.uniqueId+":");
-        n.exp.accept(this);
-        code.emit(n, "lw $t0,($sp)");
-        code.emit(n, "addu $sp,$sp,4");
-        stackHeight -= 4;
-        code.emit(n, "bne $t0,$zero,while_top_"+n.uniqueId);
+        branchOn(n, n.exp, true, "while_top_"+n.uniqueId);
         code.emit(n, "break_target_"+n.uniqueId+":");
         code.unindent(n);
 	    return null;
@@ -570,11 +711,7 @@ public class CG3Visitor extends ASTvisitor {
     @Override
     public Object visitBreak(Break n) {
         code.indent(n);
-        int diff = stackHeight - n.breakLink.stackHeight;
-        if (diff != 0) {
-            code.emit(n, "addu $sp,"+diff);
-        }
-        code.emit(n, "j break_target_"+n.uniqueId);
+        emitter.breakTo(n.kind, n.pos, n.uniqueId, n.breakLink.stackHeight);
         code.unindent(n);
 	    return null;
     }
@@ -583,69 +720,37 @@ public class CG3Visitor extends ASTvisitor {
     public Object visitAssign(Assign n) {
         code.indent(n);
         if (n.lhs instanceof IdentifierExp) {
-            n.rhs.accept(this);
-            code.emit(n, "lw $t0,($sp)");
-            if (((IdentifierExp) n.lhs).link instanceof InstVarDecl) {
-                int NNN = ((IdentifierExp) n.lhs).link.offset;
-                code.emit(n, "sw $t0,"+NNN+"($s2)");
+            boolean rhsInRegister = inRegisters(n.rhs);
+            if (rhsInRegister) {
+                evalRegisters(n.rhs, 0);
             } else {
-                int MMM = ((IdentifierExp) n.lhs).link.offset + stackHeight;
-                code.emit(n, "sw $t0,"+MMM+"($sp)");
-            }
-            if (n.lhs.type instanceof IntegerType) {
-                code.emit(n, "addu $sp,$sp,8");
-                stackHeight -= 8;
-            } else {
-                code.emit(n, "addu $sp,$sp,4");
-                stackHeight -= 4;
+                n.rhs.accept(this);
             }
+            VarDecl link = ((IdentifierExp) n.lhs).link;
+            emitter.assignVariable(n.kind, n.pos, n.uniqueId, rhsInRegister,
+                    link instanceof InstVarDecl, link.offset, valueKind(n.lhs.type), needsBarrier(n));
+        } else if (n.lhs instanceof InstVarAccess && options.registerExpressions
+                && (pairNeed(((InstVarAccess) n.lhs).exp, n.rhs) & NEED_MASK) <= NUM_REGS) {
+            int obj = evalPair(((InstVarAccess) n.lhs).exp, n.rhs, 0);
+            emitter.assignFieldRegisters(n.kind, n.pos, n.uniqueId, ((InstVarAccess) n.lhs).varDec.offset,
+                    reg(obj), reg(1-obj), needsBarrier(n));
         } else if (n.lhs instanceof InstVarAccess) {
             ((InstVarAccess) n.lhs).exp.accept(this);
             n.rhs.accept(this);
-            code.emit(n, "lw $t0,($sp)");
-            if (n.rhs.type instanceof IntegerType) {
-                code.emit(n, "lw $t1,8($sp)");
-            } else {
-                code.emit(n, "lw $t1,4($sp)");
-            }
-            code.emit(n, "beq $t1,$zero,nullPtrException");
-            int NNN = ((InstVarAccess) n.lhs).varDec.offset;
-            code.emit(n, "sw $t0,"+NNN+"($t1)");
-            if (n.lhs.type instanceof IntegerType) {
-                code.emit(n, "addu $sp,$sp,12");
-                stackHeight -= 12;
-            } else {
-                code.emit(n, "addu $sp,$sp,8");
-                stackHeight -= 8;
-            }
+            emitter.assignField(n.kind, n.pos, n.uniqueId, ((InstVarAccess) n.lhs).varDec.offset,
+                    valueKind(n.lhs.type), valueKind(n.rhs.type), needsBarrier(n));
+        } else if (n.lhs instanceof ArrayLookup && inRegisters((ArrayLookup) n.lhs, n.rhs)) {
+            // the array, index and value in $t0, $t1 and $t2, in that
+            // order
+            evalRegisters(((ArrayLookup) n.lhs).arrExp, 0);
+            evalRegisters(((ArrayLookup) n.lhs).idxExp, 1);
+            evalRegisters(n.rhs, 2);
+            emitter.assignElementRegisters(n.kind, n.pos, n.uniqueId, needsBarrier(n));
         } else if (n.lhs instanceof ArrayLookup) {
             ((ArrayLookup) n.lhs).arrExp.accept(this);
             ((ArrayLookup) n.lhs).idxExp.accept(this);
             n.rhs.accept(this);
-            code.emit(n, "lw $t0,($sp)");
-            if (n.rhs.type instanceof IntegerType) {
-                code.emit(n, "lw $t1,16($sp)");
-            } else {
-                code.emit(n, "lw $t1,12($sp)");
-            }
-            code.emit(n, "beq $t1,$zero,nullPtrException");
-            if (n.rhs.type instanceof IntegerType) {
-                code.emit(n, "lw $t2,8($sp)");
-            } else {
-                code.emit(n, "lw $t2,4($sp)");
-            }
-            code.emit(n, "lw $t3,-4($t1)");
-            code.emit(n, "bgeu $t2,$t3,arrayIndexOutOfBounds");
-            code.emit(n, "sll $t2,$t2,2");
-            code.emit(n, "addu $t2,$t2,$t1");
-            code.emit(n, "sw $t0,($t2)");
-            if (n.rhs.type instanceof IntegerType) {
-                code.emit(n, "addu $sp,$sp,20");
-                stackHeight -= 20;
-            } else {
-                code.emit(n, "addu $sp,$sp,16");
-                stackHeight -= 16;
-            }
+            emitter.assignElement(n.kind, n.pos, n.uniqueId, valueKind(n.rhs.type), needsBarrier(n));
         }
         code.unindent(n);
 	    return null;
@@ -654,8 +759,7 @@ public class CG3Visitor extends ASTvisitor {
     @Override
     public Object visitLabel(Label n) {
         code.indent(n);
-        stackHeight = n.enclosingSwitch.stackHeight;
-        code.emit(n, "case_label_"+n.uniqueId);
+        emitter.caseLabel(n.kind, n.pos, n.uniqueId, n.enclosingSwitch.stackHeight);
         code.unindent(n);
 	    return null;
     }
@@ -663,26 +767,9 @@ public class CG3Visitor extends ASTvisitor {
     @Override
     public Object visitMethodDeclVoid(MethodDeclVoid n) {
         code.indent(n);
-        //code.emit(n, "# Before MethodDeclVoid the stackHeight is " + stackHeight);
-        code.emit(n, ".globl fcn_"+n.uniqueId+"_"+n.name);
-        code.emit(n, "fcn_"+n.uniqueId+"_"+n.name+":");
-        code.emit(n, " subu $sp,$sp,4");
-        stackHeight += 4;
-        code.emit(n, " sw $s2,($sp)");
-        int NNN = n.thisPtrOffset;
-        code.emit(n, " lw $s2,"+NNN+"($sp)");
-        code.emit(n, " sw $ra,"+NNN+"($sp)");
-        stackHeight = 0;
+        emitter.methodPrologue(n.kind, n.pos, "fcn_"+n.uniqueId+"_"+n.name, n.thisPtrOffset);
         n.stmts.accept(this);
-        code.emit(n, "# the stackHeight is " + stackHeight);
-        int savedReturnAddressOffset = stackHeight+n.thisPtrOffset; //offset of saved return address relative to current stack height
-        int thisPointerOffset = stackHeight; //offset of  saved this-pointer relative to current stack height
-        code.emit(n, " lw $ra,"+ savedReturnAddressOffset +"($sp)");
-        code.emit(n, " lw $s2,"+ thisPointerOffset +"($sp)");
-        int amountPopStack = stackHeight + n.thisPtrOffset + 4; // the amount that we need to pop off the stack
-        code.emit(n, " addu $sp,$sp,"+amountPopStack);
-        code.emit(n, " jr $ra");
-        //code.emit(n, "# After MethodDeclVoid the stackHeight is " + stackHeight);
+        emitter.methodReturnVoid(n.kind, n.pos);
         code.unindent(n);
         return null;
     }
@@ -690,41 +777,17 @@ public class CG3Visitor extends ASTvisitor {
     @Override
     public Object visitMethodDeclNonVoid(MethodDeclNonVoid n) {
         code.indent(n);
-        code.emit(n, "# Before MethodDeclNonVoid the stackHeight is " + stackHeight);
-        code.emit(n, ".globl fcn_"+n.uniqueId+"_"+n.name);
-        code.emit(n, "fcn_"+n.uniqueId+"_"+n.name+":");
-        code.emit(n, "subu $sp,$sp,4");
-        stackHeight += 4;
-        code.emit(n, "sw $s2,($sp)");
-        int NNN = n.thisPtrOffset;
-        code.emit(n, "lw $s2,"+NNN+"($sp)");
-        code.emit(n, "sw $ra,"+NNN+"($sp)");
-        stackHeight = 0;
+        code.emit(n, "# Before MethodDeclNonVoid the stackHeight is " + emitter.stackHeight());
+        emitter.methodPrologue(n.kind, n.pos, "fcn_"+n.uniqueId+"_"+n.name, n.thisPtrOffset);
         n.stmts.accept(this);
-        n.rtnExp.accept(this);
-        int savedReturnAddressOffset = stackHeight+n.thisPtrOffset; //offset of saved return address relative to current stack height
-        int thisPointerOffset = stackHeight; //offset of  saved this-pointer relative to current stack height
-        code.emit(n, "lw $ra,"+ savedReturnAddressOffset +"($sp)");
-        code.emit(n, "lw $s2,"+ thisPointerOffset +"($sp)");
-        code.emit(n, "lw $t0,($sp)");
-        if (n.rtnType instanceof IntegerType) {
-            int returnValueOffset = stackHeight+n.thisPtrOffset-4;
-            int returnValueOffsetCG = stackHeight+n.thisPtrOffset;
-            code.emit(n, "sw $t0,"+returnValueOffset+"($sp)");
-            code.emit(n, "sw $s5,"+ returnValueOffsetCG +"($sp)");
-        } else {
-            int returnValueOffset = stackHeight+n.thisPtrOffset;
-            code.emit(n, "sw $t0,"+returnValueOffset+"($sp)");
-        }
-        int amountPopStack = stackHeight + n.thisPtrOffset + 4;// the amount that we need to pop off the stack
-        if (n.rtnType instanceof IntegerType) {
-            amountPopStack -= 8;
+        // in register mode, the return value may be left in $t0 instead
+        boolean rtnInRegister = inRegisters(n.rtnExp);
+        if (rtnInRegister) {
+            evalRegisters(n.rtnExp, 0);
         } else {
-            amountPopStack -= 4;
+            n.rtnExp.accept(this);
         }
-        code.emit(n, "addu $sp,$sp,"+ amountPopStack);
-        code.emit(n, "jr $ra");
-        code.emit(n, "# After MethodDeclNonVoid the stackHeight is " + stackHeight);
+        emitter.methodReturn(n.kind, n.pos, rtnInRegister, n.rtnType instanceof IntegerType);
         code.unindent(n);
         return null;
     }
@@ -741,21 +804,12 @@ public class CG3Visitor extends ASTvisitor {
     @Override
     public Object visitProgram(Program n) {
         code.indent(n);
-        code.emit(n, " .text");
-        code.emit(n, " .globl main");
-        code.emit(n, "main:");
-        //code.emit(n, "# initialize registers, etc.");
-        code.emit(n, "jal vm_init");
-        stackHeight = 0;
+        emitter.programStart(n.kind, n.pos);
         n.mainStatement.accept(this);
-        //code.emit(n, "# exit program");
-        code.emit(n, " li $v0,10");
-        code.emit(n, " syscall");
+        emitter.programExit(n.kind, n.pos);
         code.unindent(n);
-        //code.emit(n, "# program exited...............");
         n.classDecls.accept(this);
-        code.flush();
-        //code.emit(n, "# After Program stackHeight equals: "+stackHeight);
+        emitter.programEnd(n.kind, n.pos);
         return null;
     }
 }
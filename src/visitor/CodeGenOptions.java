@@ -0,0 +1,65 @@
+package visitor;
+
+// The options for the code generated in one compilation.  Main5 makes
+// one for each compilation, from its command line, and passes it to the
+// code-generation passes, so that compilations running side by side (in
+// a batch, or in the compile server) do not affect each other.  The
+// defaults are those of a compilation with no switches.
+public class CodeGenOptions {
+
+	// whether the random whitespace that CodeStream appends to each line
+	// is left off, so that the output is the same from one run to the
+	// next, as it must be for the compile cache (-d)
+	public boolean deterministic = false;
+
+	// whether CodeStream emits only instructions, directives and labels:
+	// no ENTER/EXIT NODE traces, no comments, no node annotations and no
+	// 'lw $zero' memory-tagging probes (-r)
+	public boolean release = false;
+
+	// whether constant expressions are folded into a single push, and
+	// constant if and while conditions into straight-line code (-nofold
+	// turns it off)
+	public boolean constantFolding = true;
+
+	// whether CG3's code goes through a Peephole (-nopeep turns it off)
+	public boolean peephole = true;
+
+	// whether expressions without calls or allocations are evaluated in
+	// registers (see CG3Visitor.evalRegisters), rather than on the stack
+	// (-regs)
+	public boolean registerExpressions = false;
+
+	// whether the collector finds the pointers on the stack through maps
+	// emitted for each call site (see CG3Visitor.stackMap), rather than
+	// by skipping tagged data; an int is then a single word on the stack,
+	// with no GC tag (-maps)
+	public boolean stackMaps = false;
+
+	// whether the runtime's collector is generational, so that a store of
+	// a pointer into an object goes through a write barrier (see
+	// CG3Visitor.writeBarrier), and the GEN library is linked (-gen)
+	public boolean generational = false;
+
+	// whether a small object is allocated inline, by bumping the heap
+	// pointer, with newObject called only when the heap is full (see
+	// CG3Visitor.allocInline; -nofastnew turns it off)
+	public boolean inlineAllocation = true;
+
+	// the most words (data and object, not counting the headers) in an
+	// object allocated inline
+	private static final int INLINE_ALLOC_WORDS = 32;
+
+	// the number of bytes an int takes on the stack, as a value or a
+	// parameter
+	public int intSize() {
+		return stackMaps ? 4 : 8;
+	}
+
+	// whether an object with the given numbers of data words (counting
+	// the vtable pointer) and object words is allocated inline; a larger
+	// one goes to newObject
+	public boolean allocatesInline(int dataWords, int objWords) {
+		return inlineAllocation && dataWords < 255 && dataWords+objWords <= INLINE_ALLOC_WORDS;
+	}
+}
@@ -1,45 +1,208 @@
 package visitor;
 
 import java.io.PrintStream;
+import java.util.concurrent.ThreadLocalRandom;
+
 import syntaxtree.AstNode;
+import syntaxtree.NodeKind;
 import errorMsg.ErrorMsg;
 
 public class CodeStream {
 	private PrintStream out;
 	private ErrorMsg err;
-	String indentStr;
+	private int indentLevel;
+	private boolean randomSpaces;
+	private boolean release;
+	
+	// the line being built, and the bytes it is encoded into; both are
+	// reused for every line, so that emitting a line allocates nothing
+	private StringBuilder line;
+	private byte[] bytes;
+	
+	// if not null, the lines are held back here, a method at a time, and
+	// optimized before they are written
+	private Peephole peephole;
 	
-	private static boolean RANDOMSPACES = false;
+	private static final String NEWLINE = System.lineSeparator();
+	
+	// short (package-less) class name for each node class, computed once
+	private static final ClassValue<String> shortNames = new ClassValue<String>() {
+		@Override
+		protected String computeValue(Class<?> c) {
+			String className = c.getName();
+			return className.substring(className.lastIndexOf('.')+1);
+		}
+	};
 	
 	public CodeStream(PrintStream ps, ErrorMsg e) {
+		this(ps, e, new CodeGenOptions());
+	}
+	
+	public CodeStream(PrintStream ps, ErrorMsg e, CodeGenOptions opts) {
 		out = ps;
 		err = e;
-		indentStr = "";
+		indentLevel = 0;
+		randomSpaces = !opts.deterministic;
+		release = opts.release;
+		line = new StringBuilder(128);
+		bytes = new byte[128];
 	}
+	
+	// has the stream pass its code through a peephole optimizer
+	public void setPeephole(Peephole p) {
+		peephole = p;
+	}
+	
 	public void flush() {
+		if (peephole != null) drain();
 		out.flush();
 	}
 	
 	public void emit(AstNode node, String str) {
-		int pos = -1;
-		String className = "";
-		if (node != null) {
-			className = ""+node.getClass();
-			int lastDotSpot = className.lastIndexOf(".");
-			className = className.substring(lastDotSpot+1);
-			pos = node.pos;
+		if (node == null) {
+			emitLine("", -1, str);
+		}
+		else {
+			emitLine(shortNames.get(node.getClass()), node.pos, str);
+		}
+	}
+	
+	// emits a line for a node given by its kind (a NodeKind constant) and
+	// source position, as for passes over a FlatAst; a negative kind
+	// stands for no node
+	public void emit(int kind, int pos, String str) {
+		if (kind < 0) {
+			emitLine("", -1, str);
+		}
+		else {
+			emitLine(shortNames.get(NodeKind.nodeClass(kind)), pos, str);
 		}
-		out.println(indentStr+str+" # "+className+" at "+err.lineAndChar(pos)+
-				randomWhitespace());
+	}
+	
+	private void emitLine(String className, int pos, String str) {
+		if (peephole != null) {
+			if (release) {
+				str = releaseText(str);
+				if (str == null) return;
+			}
+			if (peephole.add(str, className, pos, indentLevel)) drain();
+			return;
+		}
+		if (release) {
+			emitRelease(str);
+			return;
+		}
+		writeAnnotated(className, pos, indentLevel, str);
+	}
+	
+	// optimizes the lines held back by the peephole, and writes them
+	private void drain() {
+		Peephole p = peephole;
+		p.optimize();
+		StringBuilder sb = line;
+		for (int i = 0; i < p.size(); i++) {
+			if (!p.isLive(i)) continue;
+			if (release) {
+				sb.setLength(0);
+				sb.append(p.text(i)).append(NEWLINE);
+				writeLine(sb);
+			}
+			else {
+				writeAnnotated(p.className(i), p.pos(i), p.indent(i), p.text(i));
+			}
+		}
+		p.clear();
+	}
+	
+	private void writeAnnotated(String className, int pos, int indentLevel, String str) {
+		StringBuilder sb = line;
+		sb.setLength(0);
+		for (int i = 0; i < indentLevel; i++) {
+			sb.append("  ");
+		}
+		sb.append(str).append(" # ").append(className).append(" at ");
+		err.appendLineAndChar(sb, pos);
+		if (randomSpaces) {
+			sb.append(randomWhitespace());
+		}
+		sb.append(NEWLINE);
+		writeLine(sb);
 	}
 	
 	public void indent(AstNode n) {
-		indentStr += "  ";
-		emit(n, "# ENTER NODE");
+		indentLevel++;
+		if (!release) emit(n, "# ENTER NODE");
 	}
 	public void unindent(AstNode n) {
-		emit(n, "# EXIT NODE");
-		indentStr = indentStr.substring(Math.min(2,indentStr.length()));
+		if (!release) emit(n, "# EXIT NODE");
+		if (indentLevel > 0) indentLevel--;
+	}
+	
+	public void indent(int kind, int pos) {
+		indentLevel++;
+		if (!release) emit(kind, pos, "# ENTER NODE");
+	}
+	public void unindent(int kind, int pos) {
+		if (!release) emit(kind, pos, "# EXIT NODE");
+		if (indentLevel > 0) indentLevel--;
+	}
+	
+	// emits the code-part of a line, dropping any comment; lines that
+	// are only a comment or a memory-tagging probe are dropped entirely
+	private void emitRelease(String str) {
+		int end = codeEnd(str);
+		if (end < 0) return;
+		StringBuilder sb = line;
+		sb.setLength(0);
+		sb.append(str, 0, end).append(NEWLINE);
+		writeLine(sb);
+	}
+	
+	// the code-part of a line, as emitRelease writes it, or null if the
+	// line is dropped
+	private static String releaseText(String str) {
+		int end = codeEnd(str);
+		if (end < 0) return null;
+		return end == str.length() ? str : str.substring(0, end);
+	}
+	
+	// where the code-part of a line ends, or -1 if the line is dropped in
+	// release mode
+	private static int codeEnd(String str) {
+		int end = str.indexOf('#');
+		if (end < 0) end = str.length();
+		while (end > 0 && Character.isWhitespace(str.charAt(end-1))) {
+			end--;
+		}
+		int start = 0;
+		while (start < end && Character.isWhitespace(str.charAt(start))) {
+			start++;
+		}
+		if (start == end || str.startsWith("lw $zero,", start)) {
+			return -1;
+		}
+		return end;
+	}
+	
+	// writes the line to the underlying stream as bytes; the text is
+	// almost always ASCII, which is encoded directly into the reusable
+	// byte buffer
+	private void writeLine(StringBuilder sb) {
+		int len = sb.length();
+		if (bytes.length < len) {
+			bytes = new byte[Math.max(len, 2*bytes.length)];
+		}
+		byte[] buf = bytes;
+		for (int i = 0; i < len; i++) {
+			char ch = sb.charAt(i);
+			if (ch >= 0x80) {
+				// non-ASCII: let the stream do the encoding
+				out.print(sb.toString());
+				return;
+			}
+			buf[i] = (byte)ch;
+		}
+		out.write(buf, 0, len);
 	}
 	
 	private static String[] whiteSpace = {
@@ -60,6 +223,6 @@ public class CodeStream {
 	};
 	
 	private String randomWhitespace() {
-		return whiteSpace[(int)(whiteSpace.length*Math.random())];
+		return whiteSpace[ThreadLocalRandom.current().nextInt(whiteSpace.length)];
 	}
-}
\ No newline at end of file
+}
@@ -10,142 +10,223 @@ import syntaxtree.*;
 //   - null, which means that the expression did NOT evaluate to a constant
 //   - An object of (wrapper-class) type Boolean or Integer, in which case
 //     the evaluated.
+//
+// The work is done by 'eval', which code generators should call
+// directly: it returns the value as a long (see the encoding below), so
+// that evaluation neither boxes intermediate values nor uses exceptions
+// to signal that an expression is not constant.  The value of each
+// operator node is remembered in the node's constValue field the first
+// time it is computed, so asking again about the same node, or about
+// one of its subexpressions, does not walk the subtree again.  The
+// field is stamped with the visitor that filled it in, and other
+// visitors ignore it; a visitor assumes that the tree is not rewritten
+// while it is in use.
 public class ConstEvalVisitor extends ASTvisitor {
-	
+
+	// the encoding: the tag in the high word, the value in the low word
+	public static final long NOT_CONSTANT = 0L;
+	private static final long INT_TAG = 1L << 32;
+	private static final long BOOLEAN_TAG = 2L << 32;
+	public static final long FALSE = BOOLEAN_TAG;
+	public static final long TRUE = BOOLEAN_TAG | 1;
+	public static final long NULL = 3L << 32;
+	private static final long TAG_MASK = ~0L << 32;
+
+	// the memo stamp: the bits above the encoded value in constValue
+	private static final int STAMP_SHIFT = 34;
+	private static final long VALUE_MASK = (1L << STAMP_SHIFT)-1;
+	private static final int STAMP_LIMIT = 1 << (64-STAMP_SHIFT-1);
+	private static final java.util.concurrent.atomic.AtomicInteger stampCounter =
+		new java.util.concurrent.atomic.AtomicInteger();
+
+	// this visitor's stamp: never 0, the value of a field not filled in
+	private final long stamp;
+
 	public ConstEvalVisitor() {
+		int n = stampCounter.incrementAndGet() & (STAMP_LIMIT-1);
+		stamp = (long)(n == 0 ? 1 : n) << STAMP_SHIFT;
 	}
 
-	public Object visitAnd(And n) {
-		try {
-			return new Boolean(getBool(n.left) && getBool(n.right));
-		}
-		catch (NullPointerException npx) {
-			return null;
+	/**
+	 * the value of an expression
+	 * @param e the expression
+	 * @return the encoded value, or NOT_CONSTANT
+	 */
+	public long eval(Exp e) {
+		if (e == null) return NOT_CONSTANT;
+		switch (e.kind) {
+		case NodeKind.INTEGER_LITERAL:
+			return ofInt(((IntegerLiteral)e).val);
+		case NodeKind.TRUE:
+			return TRUE;
+		case NodeKind.FALSE:
+			return FALSE;
+		case NodeKind.NULL:
+			return NULL;
+		case NodeKind.AND: case NodeKind.OR: case NodeKind.EQUALS:
+		case NodeKind.LESS_THAN: case NodeKind.GREATER_THAN:
+		case NodeKind.PLUS: case NodeKind.MINUS: case NodeKind.TIMES:
+		case NodeKind.DIVIDE: case NodeKind.REMAINDER: case NodeKind.NOT:
+			break;
+		default:
+			return NOT_CONSTANT;
+		}
+		long memo = e.constValue;
+		if ((memo & ~VALUE_MASK) == stamp) return memo & VALUE_MASK;
+		long val = compute(e);
+		e.constValue = stamp | val;
+		return val;
+	}
+
+	// evaluates an operator node
+	private long compute(Exp e) {
+		if (e.kind == NodeKind.NOT) {
+			long v = eval(((Not)e).exp);
+			return isBoolean(v) ? ofBoolean(!booleanValue(v)) : NOT_CONSTANT;
+		}
+		BinExp b = (BinExp)e;
+		long left = eval(b.left);
+		switch (e.kind) {
+		case NodeKind.AND:
+			// as in Java, a false left operand decides the result
+			if (left == FALSE) return FALSE;
+			if (left != TRUE) return NOT_CONSTANT;
+			return isBoolean(left = eval(b.right)) ? left : NOT_CONSTANT;
+		case NodeKind.OR:
+			if (left == TRUE) return TRUE;
+			if (left != FALSE) return NOT_CONSTANT;
+			return isBoolean(left = eval(b.right)) ? left : NOT_CONSTANT;
+		case NodeKind.EQUALS: {
+			long right = eval(b.right);
+			if (left == NOT_CONSTANT || right == NOT_CONSTANT) return NOT_CONSTANT;
+			return ofBoolean(left == right);
+		}
+		}
+		if (!isInt(left)) return NOT_CONSTANT;
+		long right = eval(b.right);
+		if (!isInt(right)) return NOT_CONSTANT;
+		int x = intValue(left);
+		int y = intValue(right);
+		switch (e.kind) {
+		case NodeKind.LESS_THAN:
+			return ofBoolean(x < y);
+		case NodeKind.GREATER_THAN:
+			return ofBoolean(x > y);
+		case NodeKind.PLUS:
+			return ofInt(x + y);
+		case NodeKind.MINUS:
+			return ofInt(x - y);
+		case NodeKind.TIMES:
+			return ofInt(x * y);
+		case NodeKind.DIVIDE:
+			return y == 0 ? NOT_CONSTANT : ofInt(x / y);
+		default: // REMAINDER
+			return y == 0 ? NOT_CONSTANT : ofInt(x % y);
 		}
 	}
-	
+
+	/************** the encoding ***************/
+
+	public static long ofInt(int v) {
+		return INT_TAG | (v & 0xFFFFFFFFL);
+	}
+
+	public static long ofBoolean(boolean v) {
+		return v ? TRUE : FALSE;
+	}
+
+	public static boolean isConstant(long v) {
+		return v != NOT_CONSTANT;
+	}
+
+	public static boolean isInt(long v) {
+		return (v & TAG_MASK) == INT_TAG;
+	}
+
+	public static boolean isBoolean(long v) {
+		return (v & TAG_MASK) == BOOLEAN_TAG;
+	}
+
+	public static int intValue(long v) {
+		return (int)v;
+	}
+
+	public static boolean booleanValue(long v) {
+		return v == TRUE;
+	}
+
+	/**
+	 * the value as the visit methods return it
+	 * @param v the encoded value
+	 * @return an Integer, a Boolean, "NULL" for null, or null if the
+	 * value is not constant
+	 */
+	public static Object toObject(long v) {
+		if (isInt(v)) return Integer.valueOf(intValue(v));
+		if (isBoolean(v)) return Boolean.valueOf(booleanValue(v));
+		if (v == NULL) return "NULL";
+		return null;
+	}
+
+	/************** the visit methods ***************/
+
+	public Object visitAnd(And n) {
+		return toObject(eval(n));
+	}
+
 	public Object visitDivide(Divide n) {
-		try {
-			return new Integer(getInt(n.left) / getInt(n.right));
-		}
-		catch (NullPointerException npx) {
-			return null;
-		}
-		catch (ArithmeticException dbzx) {
-			return null;
-		}
+		return toObject(eval(n));
 	}
-	
+
 	public Object visitEquals(Equals n) {
-		Object left = n.left.accept(this);
-		Object right = n.right.accept(this);
-		if (left == null || right == null) return null;
-		else return new Boolean(left.equals(right));
+		return toObject(eval(n));
 	}
-	
+
 	public Object visitFalse(False n) {
 		return Boolean.FALSE;
 	}
-	
+
 	public Object visitGreaterThan(GreaterThan n) {
-		try {
-			return new Boolean(getInt(n.left) > getInt(n.right));
-		}
-		catch (NullPointerException npx) {
-			return null;
-		}
+		return toObject(eval(n));
 	}
-	
+
 	public Object visitIntegerLiteral(IntegerLiteral n) {
-		try {
-			return new Integer(n.val);
-		}
-		catch (NullPointerException npx) {
-			return null;
-		}
+		return Integer.valueOf(n.val);
 	}
-	
+
 	public Object visitLessThan(LessThan n) {
-		try {
-			return new Boolean(getInt(n.left) < getInt(n.right));
-		}
-		catch (NullPointerException npx) {
-			return null;
-		}
+		return toObject(eval(n));
 	}
-	
+
 	public Object visitMinus(Minus n) {
-		try {
-			return new Integer(getInt(n.left) - getInt(n.right));
-		}
-		catch (NullPointerException npx) {
-			return null;
-		}
+		return toObject(eval(n));
 	}
-	
+
 	public Object visitNot(Not n) {
-		try {
-			return new Boolean(!getBool(n.exp));
-		}
-		catch (NullPointerException npx) {
-			return null;
-		}
+		return toObject(eval(n));
 	}
-	
+
 	public Object visitNull(Null n) {
 		return "NULL";
 	}
 
 	public Object visitOr(Or n) {
-		try {
-			return new Boolean(getBool(n.left) || getBool(n.right));
-		}
-		catch (NullPointerException npx) {
-			return null;
-		}
+		return toObject(eval(n));
 	}
-	
+
 	public Object visitPlus(Plus n) {
-		try {
-			return new Integer(getInt(n.left) + getInt(n.right));
-		}
-		catch (NullPointerException npx) {
-			return null;
-		}
+		return toObject(eval(n));
 	}
-	
+
 	public Object visitRemainder(Remainder n) {
-		try {
-			return new Integer(getInt(n.left) % getInt(n.right));
-		}
-		catch (NullPointerException npx) {
-			return null;
-		}
-		catch (ArithmeticException dbzx) {
-			return null;
-		}
+		return toObject(eval(n));
 	}
-	
+
 	public Object visitTimes(Times n) {
-		try {
-			return new Integer(getInt(n.left) * getInt(n.right));
-		}
-		catch (NullPointerException npx) {
-			return null;
-		}
+		return toObject(eval(n));
 	}
-	
+
 	public Object visitTrue(True n) {
 		return Boolean.TRUE;
 	}
-	
-	private boolean getBool(Exp e) throws NullPointerException {
-		return ((Boolean)e.accept(this)).booleanValue();
-	}
-	
-	private int getInt(Exp e) throws NullPointerException {
-		return ((Integer)e.accept(this)).intValue();
-	}
 }
-
-	
@@ -0,0 +1,66 @@
+package visitor;
+
+import java.lang.reflect.Method;
+
+import syntaxtree.*;
+
+// For each visitor class, and each node kind, whether InhVisitor's
+// delegation chain for that kind does anything.  InhVisitor.visitPlus
+// calls visitBinExp, which calls visitExp, which calls visitAstNode,
+// following the node class hierarchy; if the visitor class overrides
+// none of the methods above visitPlus, and visitAstNode is ASTvisitor's
+// (which returns null), then the whole chain does nothing, and ASTvisitor
+// need not make the super.visitPlus call that starts it.
+//
+// The table is computed once per visitor class, by reflection.
+class DispatchTable {
+
+	// every chain is live: used when table dispatch is off
+	static final boolean[] ALL_LIVE = allLive();
+
+	private static final ClassValue<boolean[]> tables = new ClassValue<boolean[]>() {
+		protected boolean[] computeValue(Class<?> c) {
+			boolean[] live = new boolean[NodeKind.COUNT];
+			for (int k = 0; k < NodeKind.COUNT; k++) {
+				live[k] = chainIsLive(c, NodeKind.nodeClass(k));
+			}
+			return live;
+		}
+	};
+
+	private DispatchTable() {
+	}
+
+	// the table for the given visitor class, indexed by node kind:
+	// whether the chain that InhVisitor's visit method for that kind
+	// starts reaches a method that does something
+	static boolean[] forVisitor(Class<? extends InhVisitor> c) {
+		return InhVisitor.isTableDispatch() ? tables.get(c) : ALL_LIVE;
+	}
+
+	private static boolean chainIsLive(Class<?> visitorClass, Class<?> nodeClass) {
+		for (Class<?> s = nodeClass.getSuperclass(); AstNode.class.isAssignableFrom(s); s = s.getSuperclass()) {
+			Class<?> declarer;
+			try {
+				Method m = visitorClass.getMethod("visit"+s.getSimpleName(), s);
+				declarer = m.getDeclaringClass();
+			}
+			catch (NoSuchMethodException x) {
+				return true;
+			}
+			if (s == AstNode.class) {
+				return declarer != ASTvisitor.class;
+			}
+			if (declarer != InhVisitor.class) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean[] allLive() {
+		boolean[] live = new boolean[NodeKind.COUNT];
+		java.util.Arrays.fill(live, true);
+		return live;
+	}
+}
@@ -4,8 +4,79 @@ import syntaxtree.*;
 
 public abstract class InhVisitor implements Visitor {
 	
+	// whether 'dispatch' switches on the node kind (rather than calling
+	// 'accept'), and ASTvisitor skips delegation chains that do nothing
+	private static boolean TABLE_DISPATCH = true;
+
+	public static void setTableDispatch(boolean on) {
+		TABLE_DISPATCH = on;
+	}
+
+	public static boolean isTableDispatch() {
+		return TABLE_DISPATCH;
+	}
+
 	public final Object visit(AstNode n) {
-		return n.accept(this);
+		return dispatch(n);
+	}
+
+	// same as n.accept(this), but calls the visit method for the node's
+	// kind directly, rather than through two interface calls
+	protected final Object dispatch(AstNode n) {
+		if (!TABLE_DISPATCH) return n.accept(this);
+		switch (n.kind) {
+		case NodeKind.AND: return visitAnd((And)n);
+		case NodeKind.ARRAY_LENGTH: return visitArrayLength((ArrayLength)n);
+		case NodeKind.ARRAY_LOOKUP: return visitArrayLookup((ArrayLookup)n);
+		case NodeKind.ARRAY_TYPE: return visitArrayType((ArrayType)n);
+		case NodeKind.ASSIGN: return visitAssign((Assign)n);
+		case NodeKind.BLOCK: return visitBlock((Block)n);
+		case NodeKind.BOOLEAN_TYPE: return visitBooleanType((BooleanType)n);
+		case NodeKind.BREAK: return visitBreak((Break)n);
+		case NodeKind.CALL: return visitCall((Call)n);
+		case NodeKind.CALL_STATEMENT: return visitCallStatement((CallStatement)n);
+		case NodeKind.CASE: return visitCase((Case)n);
+		case NodeKind.CAST: return visitCast((Cast)n);
+		case NodeKind.CLASS_DECL: return visitClassDecl((ClassDecl)n);
+		case NodeKind.DEFAULT: return visitDefault((Default)n);
+		case NodeKind.DIVIDE: return visitDivide((Divide)n);
+		case NodeKind.EQUALS: return visitEquals((Equals)n);
+		case NodeKind.FALSE: return visitFalse((False)n);
+		case NodeKind.FORMAL_DECL: return visitFormalDecl((FormalDecl)n);
+		case NodeKind.GREATER_THAN: return visitGreaterThan((GreaterThan)n);
+		case NodeKind.IDENTIFIER_EXP: return visitIdentifierExp((IdentifierExp)n);
+		case NodeKind.IDENTIFIER_TYPE: return visitIdentifierType((IdentifierType)n);
+		case NodeKind.IF: return visitIf((If)n);
+		case NodeKind.INST_VAR_ACCESS: return visitInstVarAccess((InstVarAccess)n);
+		case NodeKind.INST_VAR_DECL: return visitInstVarDecl((InstVarDecl)n);
+		case NodeKind.INSTANCE_OF: return visitInstanceOf((InstanceOf)n);
+		case NodeKind.INTEGER_LITERAL: return visitIntegerLiteral((IntegerLiteral)n);
+		case NodeKind.INTEGER_TYPE: return visitIntegerType((IntegerType)n);
+		case NodeKind.LESS_THAN: return visitLessThan((LessThan)n);
+		case NodeKind.LOCAL_DECL_STATEMENT: return visitLocalDeclStatement((LocalDeclStatement)n);
+		case NodeKind.LOCAL_VAR_DECL: return visitLocalVarDecl((LocalVarDecl)n);
+		case NodeKind.METHOD_DECL_NON_VOID: return visitMethodDeclNonVoid((MethodDeclNonVoid)n);
+		case NodeKind.METHOD_DECL_VOID: return visitMethodDeclVoid((MethodDeclVoid)n);
+		case NodeKind.MINUS: return visitMinus((Minus)n);
+		case NodeKind.NEW_ARRAY: return visitNewArray((NewArray)n);
+		case NodeKind.NEW_OBJECT: return visitNewObject((NewObject)n);
+		case NodeKind.NOT: return visitNot((Not)n);
+		case NodeKind.NULL: return visitNull((Null)n);
+		case NodeKind.NULL_TYPE: return visitNullType((NullType)n);
+		case NodeKind.OR: return visitOr((Or)n);
+		case NodeKind.PLUS: return visitPlus((Plus)n);
+		case NodeKind.PROGRAM: return visitProgram((Program)n);
+		case NodeKind.REMAINDER: return visitRemainder((Remainder)n);
+		case NodeKind.STRING_LITERAL: return visitStringLiteral((StringLiteral)n);
+		case NodeKind.SUPER: return visitSuper((Super)n);
+		case NodeKind.SWITCH: return visitSwitch((Switch)n);
+		case NodeKind.THIS: return visitThis((This)n);
+		case NodeKind.TIMES: return visitTimes((Times)n);
+		case NodeKind.TRUE: return visitTrue((True)n);
+		case NodeKind.VOID_TYPE: return visitVoidType((VoidType)n);
+		case NodeKind.WHILE: return visitWhile((While)n);
+		default: return n.accept(this);
+		}
 	}
 
 	public abstract Object visitAstNode(AstNode n);
@@ -0,0 +1,24 @@
+package visitor;
+
+import syntaxtree.*;
+
+// counts the nodes in an AST:
+//   int count = new NodeCountVisitor().count(ast);
+// (lists are not counted, but their elements are; walks with an
+// explicit stack, so any depth of tree can be counted)
+public class NodeCountVisitor extends TreeWalker {
+	
+	private int count;
+	
+	public int count(AstNode n) {
+		count = 0;
+		if (n != null) walk(n);
+		return count;
+	}
+	
+	@Override
+	protected boolean pre(AstNode n) {
+		count++;
+		return true;
+	}
+}
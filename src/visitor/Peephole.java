@@ -0,0 +1,1029 @@
+package visitor;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// A peephole optimizer for the stack-machine code that CG3 generates.  A
+// CodeStream with a Peephole holds back the lines it is asked to emit,
+// a method at a time, and writes what is left of them after the rewrite
+// rules have been applied:
+//   - forwarding: a load from a stack slot that was just stored to (or
+//     loaded from) becomes a move from the register that holds the value,
+//     or disappears if that is the register being loaded; if that
+//     register has since been overwritten, the move is made before it is
+//     (for the push of a binary operator's left operand, say)
+//   - renaming: a move from a register that was just set, and is not
+//     read again, is folded into the instruction that set it
+//   - probes: an 'lw $zero' probe of a slot that was just accessed is
+//     deleted
+//   - push/pop: a push whose slot is no longer read before it is popped
+//     is removed, along with its stores, and the offsets of the accesses
+//     in between are adjusted
+//   - dead stores: a store to a slot that is not read before the slot is
+//     stored to again or popped, or that stores the value the slot
+//     already holds, is deleted
+//   - merging: stack-pointer adjustments with only register instructions
+//     between them are combined
+// No rule looks across a label, a branch or a call: the code between is
+// straight-line, and the layout of the stack at each call, which is what
+// the garbage collector sees, is unchanged.  Branches to the runtime
+// error exits are not counted as branches, since those never return.
+// The rules assume that stack slots are only accessed at an offset from
+// $sp, as in CG3's code.
+//
+// Each pass over the lines takes time linear in their number: the first
+// four rules are applied in one forward scan, which keeps the state of
+// each slot and register that the straight-line code so far has touched,
+// and renaming and merging take a scan each.  A rule that applies can
+// make another one apply, so the passes are repeated until one changes
+// nothing, but at most three times: a fourth pass seldom finds more.
+public class Peephole {
+
+	// the rules, for the hit counters
+	public static final int FORWARD = 0;
+	public static final int RENAME = 1;
+	public static final int PROBE = 2;
+	public static final int PUSH_POP = 3;
+	public static final int DEAD_STORE = 4;
+	public static final int MERGE = 5;
+	private static final String[] ruleNames = {
+		"forward", "rename", "probe", "push/pop", "dead store", "merge",
+	};
+
+	// counters for all peepholes in this JVM: hits for each rule, then the
+	// instructions that came in and the ones that went out
+	private static final int IN = ruleNames.length;
+	private static final int OUT = IN+1;
+	private static final AtomicLongArray counts = new AtomicLongArray(OUT+1);
+
+	// the kinds of line
+	private static final byte NONE = 0;       // no instruction, or deleted
+	private static final byte PUSH = 1;       // subu $sp,$sp,n
+	private static final byte POP = 2;        // addu $sp,$sp,n
+	private static final byte STORE = 3;      // sw $r,n($sp)
+	private static final byte LOAD = 4;       // lw $r,n($sp)
+	private static final byte PROBE_LINE = 5; // lw $zero,n($sp)
+	private static final byte PLAIN = 6;      // touches no stack slot
+	private static final byte BARRIER = 7;    // label, branch, call, ...
+	private static final byte REMOVED = 8;    // a push the scan is removing
+
+	// the number of lines beyond which a method is written out in pieces;
+	// the rules treat the end of a piece as they do a barrier
+	private static final int MAX_LINES = 1 << 14;
+
+	// the number of stack slots that the scan keeps track of; an access
+	// beyond them is treated as a barrier
+	private static final int MAX_SLOTS = 1 << 16;
+
+	// the error exits in the runtime library
+	private static final String[] errorExits = {
+		"nullPtrException", "arrayIndexOutOfBounds", "arraySizeOutOfBounds",
+		"castException",
+	};
+
+	// the opcodes that the rules know about; these strings can be
+	// compared with ==
+	private static final String[] opcodes = {
+		"lw", "sw", "addu", "subu", "li", "la", "move", "beq", "bne", "jr",
+		"xor", "sll", "mult", "mflo", "seq", "slt", "sgt", "bgeu", "mfhi",
+		"and", "or", "nor", "srl", "sra", "sne", "sle", "sge", "sltu", "mul",
+		"neg", "not", "bltu", "blt", "bgt",
+	};
+
+	// the registers, by number
+	private static final String[] registers = {
+		"$zero", "$at", "$v0", "$v1", "$a0", "$a1", "$a2", "$a3",
+		"$t0", "$t1", "$t2", "$t3", "$t4", "$t5", "$t6", "$t7",
+		"$s0", "$s1", "$s2", "$s3", "$s4", "$s5", "$s6", "$s7",
+		"$t8", "$t9", "$k0", "$k1", "$gp", "$sp", "$fp", "$ra",
+	};
+	private static final byte NO_REG = -1;    // not a register
+	private static final byte BAD_REG = -2;   // a register of another name
+	private static final byte ZERO = 0;
+	private static final byte SP = 29;
+	private static final byte RA = 31;
+
+	// the buffered lines: what CodeStream needs to write each one, and the
+	// instruction parsed into one of the kinds above
+	private int size;
+	private String[] text;
+	private String[] className;
+	private int[] pos;
+	private int[] indent;
+	private boolean[] isCode;
+	private byte[] kind;
+	private String[] op;
+	private byte[] reg;        // the register stored or loaded, or set
+	private byte[] use1;       // the registers read, other than $sp
+	private byte[] use2;
+	private int[] amount;      // the offset, or the stack adjustment
+	private int[] record;      // the push that made the slot accessed
+
+	// whether the current pass has changed any line
+	private boolean changed;
+
+	// the moves that forwarding is to insert, and the last line of the
+	// range that the latest of them covers
+	private int inserts;
+	private int[] insertAt = new int[16];
+	private int[] insertLike = new int[16];
+	private byte[] insertDest = new byte[16];
+	private byte[] insertSrc = new byte[16];
+	private int insertedUpTo = -1;
+
+	// the state of the scan: the straight-line stretch of code it is in,
+	// and the bytes pushed since its start
+	private int block;
+	private int height;
+	private boolean removals;
+
+	// for each register, the line that last read or set it, and a stamp
+	// that changes whenever it is set
+	private final int[] mention = new int[registers.length];
+	private final int[] version = new int[registers.length];
+	private int clock;
+
+	// for each register, the move from it that renaming may fold
+	private final int[] renaming = new int[registers.length];
+
+	// the state of each stack slot, indexed by its offset from $sp at the
+	// start of the stretch (see slot()); it is current only if slotBlock
+	// is the stretch's number
+	private int[] slotBlock = new int[64];
+	private int[] slotLast = new int[64];     // the last store or load
+	private byte[] slotReg = new byte[64];    // its register
+	private int[] slotVersion = new int[64];  // the register's stamp then
+	private int[] slotStore = new int[64];    // a store not yet read
+	private int[] slotProbe = new int[64];    // the probe kept
+	private boolean[] slotAccessed = new boolean[64];
+	private int[] slotRecord = new int[64];   // the push, if in the stretch
+
+	// the pushes of the stretch that are not yet popped, innermost last:
+	// each one's line, the height before it and its size, whether its
+	// slots have been read, and the bytes of the removed ones below it
+	private int records;
+	private int[] recLine = new int[16];
+	private int[] recBase = new int[16];
+	private int[] recSize = new int[16];
+	private boolean[] recRead = new boolean[16];
+	private int[] recRemoved = new int[17];
+
+	// the bounds of the operands of the line being parsed
+	private final int[] operandStart = new int[3];
+	private final int[] operandEnd = new int[3];
+
+	public Peephole() {
+		int cap = 256;
+		text = new String[cap];
+		className = new String[cap];
+		pos = new int[cap];
+		indent = new int[cap];
+		isCode = new boolean[cap];
+		kind = new byte[cap];
+		op = new String[cap];
+		reg = new byte[cap];
+		use1 = new byte[cap];
+		use2 = new byte[cap];
+		amount = new int[cap];
+		record = new int[cap];
+	}
+
+	/**
+	 * the number of times a rule has been applied, in this JVM
+	 * @param rule the rule (FORWARD ... MERGE)
+	 * @return the count
+	 */
+	public static long hits(int rule) {
+		return counts.get(rule);
+	}
+
+	/**
+	 * the number of instructions the peepholes in this JVM were given
+	 * @return the count
+	 */
+	public static long instructionsIn() {
+		return counts.get(IN);
+	}
+
+	/**
+	 * the number of instructions the peepholes in this JVM wrote out
+	 * @return the count
+	 */
+	public static long instructionsOut() {
+		return counts.get(OUT);
+	}
+
+	public static String counters() {
+		StringBuilder sb = new StringBuilder("Peephole: ");
+		sb.append(instructionsIn()).append(" -> ").append(instructionsOut()).append(" instructions (");
+		for (int i = 0; i < ruleNames.length; i++) {
+			if (i > 0) sb.append(", ");
+			sb.append(ruleNames[i]).append(' ').append(hits(i));
+		}
+		return sb.append(").").toString();
+	}
+
+	/**
+	 * adds a line to the buffer
+	 * @param str the line's text
+	 * @param cls the class name of the node it is for
+	 * @param p the source position of the node
+	 * @param ind the indentation level
+	 * @return whether the buffer should now be written out: at the end
+	 * of a method, or when it has grown too big
+	 */
+	boolean add(String str, String cls, int p, int ind) {
+		if (size == text.length) grow();
+		int i = size++;
+		text[i] = str;
+		className[i] = cls;
+		pos[i] = p;
+		indent[i] = ind;
+		parse(i);
+		isCode[i] = kind[i] != NONE;
+		return size >= MAX_LINES || kind[i] == BARRIER && op[i] == "jr";
+	}
+
+	int size() {
+		return size;
+	}
+
+	// whether a line is still to be written: it is a comment, or an
+	// instruction that was not deleted
+	boolean isLive(int i) {
+		return kind[i] != NONE || !isCode[i];
+	}
+
+	String text(int i) {
+		return text[i];
+	}
+
+	String className(int i) {
+		return className[i];
+	}
+
+	int pos(int i) {
+		return pos[i];
+	}
+
+	int indent(int i) {
+		return indent[i];
+	}
+
+	void clear() {
+		Arrays.fill(text, 0, size, null);
+		Arrays.fill(className, 0, size, null);
+		Arrays.fill(op, 0, size, null);
+		size = 0;
+	}
+
+	/**
+	 * applies the rules to the buffered lines until none applies, or for
+	 * three passes
+	 */
+	void optimize() {
+		counts.addAndGet(IN, instructions());
+		changed = true;
+		for (int pass = 0; changed && pass < 3; pass++) {
+			changed = false;
+			scan();
+			insertMoves();
+			renameMoves();
+			mergeAdjustments();
+		}
+		counts.addAndGet(OUT, instructions());
+	}
+
+	private int instructions() {
+		int n = 0;
+		for (int i = 0; i < size; i++) {
+			if (kind[i] != NONE) n++;
+		}
+		return n;
+	}
+
+	/************** the scan ***************/
+
+	// applies forwarding, probe deletion, dead-store deletion and push
+	// removal, in one pass over the lines
+	private void scan() {
+		Arrays.fill(mention, -1);
+		Arrays.fill(slotBlock, 0);
+		block = 0;
+		removals = false;
+		startBlock();
+		for (int j = 0; j < size; j++) {
+			switch (kind[j]) {
+			case NONE:
+				break;
+			case PUSH:
+				push(j);
+				break;
+			case POP:
+				pop(j);
+				break;
+			case STORE:
+				store(j);
+				break;
+			case LOAD:
+				load(j);
+				break;
+			case PROBE_LINE:
+				probe(j);
+				break;
+			case PLAIN:
+				if (use1[j] >= 0) mention[use1[j]] = j;
+				if (use2[j] >= 0) mention[use2[j]] = j;
+				if (reg[j] >= 0) set(reg[j], j);
+				break;
+			default:
+				startBlock();
+				break;
+			}
+		}
+		if (removals) removePushes();
+	}
+
+	// starts a new straight-line stretch, in which nothing is known
+	private void startBlock() {
+		block++;
+		height = 0;
+		records = 0;
+	}
+
+	// treats line j, which the scan cannot follow, as a barrier
+	private void barrier(int j) {
+		kind[j] = BARRIER;
+		startBlock();
+	}
+
+	private void set(int r, int j) {
+		mention[r] = j;
+		version[r] = ++clock;
+	}
+
+	// the index of the slot at offset off from $sp, with its state made
+	// current; or -1 if there are too many slots to keep track of
+	private int slot(int off) {
+		int s = slotIndex(off-height);
+		if (s >= MAX_SLOTS) return -1;
+		if (s >= slotBlock.length) growSlots(s);
+		if (slotBlock[s] != block) initSlot(s, -1);
+		return s;
+	}
+
+	// the index of the slot at an offset from $sp at the start of the
+	// stretch: those above it take the even numbers, those below the odd
+	private static int slotIndex(int a) {
+		return a >= 0 ? a >> 1 : (-a >> 1)-1;
+	}
+
+	private void initSlot(int s, int rec) {
+		slotBlock[s] = block;
+		slotLast[s] = -1;
+		slotReg[s] = NO_REG;
+		slotStore[s] = -1;
+		slotProbe[s] = -1;
+		slotAccessed[s] = false;
+		slotRecord[s] = rec;
+	}
+
+	// whether the register that slot s was last stored from, or loaded
+	// into, still holds its value
+	private boolean holds(int s) {
+		return slotReg[s] >= 0 && version[slotReg[s]] == slotVersion[s];
+	}
+
+	private void remember(int s, int j, byte r) {
+		slotLast[s] = j;
+		slotReg[s] = r;
+		slotVersion[s] = version[r];
+	}
+
+	private void push(int j) {
+		int from = height;
+		int to = height+amount[j];
+		for (int a = -to; a < -from; a += 4) {
+			if (slotIndex(a) >= MAX_SLOTS) {
+				barrier(j);
+				return;
+			}
+		}
+		if (records == recLine.length) growRecords();
+		recLine[records] = j;
+		recBase[records] = from;
+		recSize[records] = to-from;
+		recRead[records] = false;
+		for (int a = -to; a < -from; a += 4) {
+			int s = slotIndex(a);
+			if (s >= slotBlock.length) growSlots(s);
+			initSlot(s, records);
+		}
+		records++;
+		height = to;
+	}
+
+	// pops slots: a push whose slots are all popped here, without having
+	// been read, is removed, and a store to a popped slot is dead
+	private void pop(int j) {
+		int to = height-amount[j];
+		while (records > 0 && recBase[records-1] >= to) {
+			records--;
+			if (!recRead[records]) {
+				kind[recLine[records]] = REMOVED;
+				removals = true;
+			}
+		}
+		if (records > 0 && recBase[records-1]+recSize[records-1] > to) {
+			// partly popped, so not removable
+			recSize[records-1] = to-recBase[records-1];
+			recRead[records-1] = true;
+		}
+		for (int a = -height; a < -to; a += 4) {
+			int s = slotIndex(a);
+			if (s >= slotBlock.length || slotBlock[s] != block) continue;
+			if (slotStore[s] >= 0) delete(slotStore[s], DEAD_STORE);
+			int rec = slotRecord[s];
+			if (slotProbe[s] >= 0 && rec >= records && kind[recLine[rec]] == REMOVED) {
+				delete(slotProbe[s], -1);
+			}
+			slotBlock[s] = 0;
+		}
+		height = to;
+	}
+
+	private void store(int j) {
+		int s = slot(amount[j]);
+		if (s < 0) {
+			barrier(j);
+			return;
+		}
+		byte r = reg[j];
+		record[j] = slotRecord[s];
+		slotAccessed[s] = true;
+		if (holds(s) && slotReg[s] == r) {
+			delete(j, DEAD_STORE);
+			return;
+		}
+		mention[r] = j;
+		if (slotStore[s] >= 0) delete(slotStore[s], DEAD_STORE);
+		slotStore[s] = j;
+		remember(s, j, r);
+	}
+
+	private void load(int j) {
+		int s = slot(amount[j]);
+		if (s < 0) {
+			barrier(j);
+			return;
+		}
+		byte dest = reg[j];
+		record[j] = slotRecord[s];
+		slotAccessed[s] = true;
+		int i = slotLast[s];
+		if (i >= 0) {
+			byte val = slotReg[s];
+			if (holds(s)) {
+				if (dest == val) {
+					delete(j, FORWARD);
+				}
+				else {
+					toMove(j, dest, val);
+					counts.incrementAndGet(FORWARD);
+					mention[val] = j;
+					set(dest, j);
+				}
+				return;
+			}
+			// copy the value while it is still in the register, if the
+			// register loaded is free from there to here (and the lines
+			// in between are not those of a copy yet to be inserted)
+			if (dest != val && i > insertedUpTo && mention[dest] <= i) {
+				delete(j, FORWARD);
+				addInsert(i+1, j, dest, val);
+				insertedUpTo = j;
+				set(dest, j);
+				remember(s, j, dest);
+				return;
+			}
+		}
+		set(dest, j);
+		slotStore[s] = -1;
+		if (slotRecord[s] >= 0) recRead[slotRecord[s]] = true;
+		remember(s, j, dest);
+	}
+
+	private void probe(int j) {
+		int s = slot(amount[j]);
+		if (s < 0) {
+			barrier(j);
+			return;
+		}
+		record[j] = slotRecord[s];
+		if (slotAccessed[s]) {
+			delete(j, PROBE);
+			return;
+		}
+		slotAccessed[s] = true;
+		slotProbe[s] = j;
+	}
+
+	// deletes the pushes that the scan found removable, along with their
+	// pops; the accesses made while such a push was in effect, to slots
+	// pushed before it, are now that much closer to $sp
+	private void removePushes() {
+		records = 0;
+		height = 0;
+		for (int j = 0; j < size; j++) {
+			switch (kind[j]) {
+			case PUSH:
+			case REMOVED:
+				if (records == recLine.length) growRecords();
+				recLine[records] = j;
+				recBase[records] = height;
+				recSize[records] = amount[j];
+				recRemoved[records+1] = recRemoved[records]+(kind[j] == REMOVED ? amount[j] : 0);
+				records++;
+				height += amount[j];
+				break;
+			case POP:
+				int to = height-amount[j];
+				int removed = 0;
+				while (records > 0 && recBase[records-1] >= to) {
+					records--;
+					if (kind[recLine[records]] == REMOVED) {
+						removed += recSize[records];
+						delete(recLine[records], PUSH_POP);
+					}
+				}
+				if (records > 0 && recBase[records-1]+recSize[records-1] > to) {
+					recSize[records-1] = to-recBase[records-1];
+				}
+				height = to;
+				if (removed == amount[j]) {
+					delete(j, -1);
+				}
+				else if (removed > 0) {
+					setAmount(j, amount[j]-removed);
+				}
+				break;
+			case STORE:
+			case LOAD:
+			case PROBE_LINE:
+				int shift = recRemoved[records]-recRemoved[record[j]+1];
+				if (shift > 0) setOffset(j, amount[j]-shift);
+				break;
+			case BARRIER:
+				records = 0;
+				height = 0;
+				break;
+			}
+		}
+	}
+
+	/************** renaming and merging ***************/
+
+	// folds each move into the instruction before it, if that sets the
+	// register moved from, and the register is set again before it is
+	// read
+	private void renameMoves() {
+		Arrays.fill(renaming, -1);
+		int prev = -1;
+		for (int j = 0; j < size; j++) {
+			byte k = kind[j];
+			if (k == NONE) continue;
+			if (k == BARRIER) {
+				Arrays.fill(renaming, -1);
+				prev = j;
+				continue;
+			}
+			if (use1[j] >= 0) renaming[use1[j]] = -1;
+			if (use2[j] >= 0) renaming[use2[j]] = -1;
+			byte r = reg[j];
+			if ((k == LOAD || k == PLAIN) && r >= 0 && renaming[r] >= 0) {
+				int m = renaming[r];
+				renaming[r] = -1;
+				int p = fold(m);
+				if (m == prev && p >= 0) prev = p;
+			}
+			if (k == PLAIN && op[j] == "move" && use1[j] >= 0 && prev >= 0 && reg[prev] == use1[j]
+					&& (kind[prev] == LOAD || kind[prev] == PLAIN)) {
+				renaming[use1[j]] = j;
+			}
+			prev = j;
+		}
+	}
+
+	// folds the move at line k into the instruction before it, if that
+	// sets the register moved from; returns that line, or -1
+	private int fold(int k) {
+		byte dest = reg[k];
+		byte src = use1[k];
+		int p = k-1;
+		while (p >= 0 && kind[p] == NONE) p--;
+		if (p < 0 || reg[p] != src || (kind[p] != LOAD && kind[p] != PLAIN)) return -1;
+		reg[p] = dest;
+		if (kind[p] == LOAD) {
+			setOffset(p, amount[p]);
+		}
+		else {
+			setFirstOperand(p, registers[dest]);
+		}
+		delete(k, RENAME);
+		return p;
+	}
+
+	// combines each stack-pointer adjustment with the next one, if only
+	// instructions that do not use the stack come between
+	private void mergeAdjustments() {
+		int prev = -1;
+		for (int j = 0; j < size; j++) {
+			byte k = kind[j];
+			if (k == NONE || k == PLAIN) continue;
+			if (k != PUSH && k != POP) {
+				prev = -1;
+				continue;
+			}
+			if (prev >= 0) {
+				int net = (kind[prev] == POP ? amount[prev] : -amount[prev])+(k == POP ? amount[j] : -amount[j]);
+				delete(prev, MERGE);
+				if (net == 0) {
+					delete(j, -1);
+					prev = -1;
+					continue;
+				}
+				kind[j] = net > 0 ? POP : PUSH;
+				setAmount(j, Math.abs(net));
+			}
+			prev = j;
+		}
+	}
+
+	/************** rewriting lines ***************/
+
+	private void delete(int i, int rule) {
+		kind[i] = NONE;
+		changed = true;
+		if (rule >= 0) counts.incrementAndGet(rule);
+	}
+
+	private void setOffset(int i, int off) {
+		amount[i] = off;
+		rewrite(i, op[i]+" "+registers[reg[i]]+","+off+"($sp)");
+	}
+
+	private void setAmount(int i, int amt) {
+		amount[i] = amt;
+		rewrite(i, (kind[i] == POP ? "addu" : "subu")+" $sp,$sp,"+amt);
+	}
+
+	// turns line i into 'move dest,src'
+	private void toMove(int i, byte dest, byte src) {
+		rewrite(i, "move "+registers[dest]+","+registers[src]);
+		kind[i] = PLAIN;
+		op[i] = "move";
+		reg[i] = dest;
+		use1[i] = src;
+		use2[i] = NO_REG;
+	}
+
+	// arranges for 'move dest,src' to be inserted before line i,
+	// annotated as line 'like'
+	private void addInsert(int i, int like, byte dest, byte src) {
+		if (inserts == insertAt.length) {
+			int cap = 2*inserts;
+			insertAt = Arrays.copyOf(insertAt, cap);
+			insertLike = Arrays.copyOf(insertLike, cap);
+			insertDest = Arrays.copyOf(insertDest, cap);
+			insertSrc = Arrays.copyOf(insertSrc, cap);
+		}
+		insertAt[inserts] = i;
+		insertLike[inserts] = like;
+		insertDest[inserts] = dest;
+		insertSrc[inserts] = src;
+		inserts++;
+	}
+
+	// makes the insertions arranged for (in order of position), moving
+	// each line only once
+	private void insertMoves() {
+		if (inserts == 0) return;
+		while (size+inserts > text.length) grow();
+		int from = size-1;
+		int to = size+inserts-1;
+		for (int k = inserts-1; k >= 0; k--) {
+			for (; from >= insertAt[k]; from--, to--) {
+				copyLine(from, to);
+			}
+			int like = insertLike[k]+k+1;
+			className[to] = className[like];
+			pos[to] = pos[like];
+			indent[to] = indent[like];
+			isCode[to] = true;
+			text[to] = "";
+			toMove(to, insertDest[k], insertSrc[k]);
+			to--;
+		}
+		size += inserts;
+		inserts = 0;
+		insertedUpTo = -1;
+	}
+
+	private void copyLine(int from, int to) {
+		text[to] = text[from];
+		className[to] = className[from];
+		pos[to] = pos[from];
+		indent[to] = indent[from];
+		isCode[to] = isCode[from];
+		kind[to] = kind[from];
+		op[to] = op[from];
+		reg[to] = reg[from];
+		use1[to] = use1[from];
+		use2[to] = use2[from];
+		amount[to] = amount[from];
+	}
+
+	// replaces the first operand of the instruction in line i
+	private void setFirstOperand(int i, String operand) {
+		String str = text[i];
+		int a = str.indexOf(op[i])+op[i].length();
+		while (Character.isWhitespace(str.charAt(a))) a++;
+		int b = a;
+		while (b < str.length() && str.charAt(b) != ',' && str.charAt(b) != '#'
+				&& !Character.isWhitespace(str.charAt(b))) {
+			b++;
+		}
+		text[i] = str.substring(0, a)+operand+str.substring(b);
+		changed = true;
+	}
+
+	// replaces the instruction in line i, keeping its indentation and any
+	// comment that follows it
+	private void rewrite(int i, String instr) {
+		String str = text[i];
+		int start = 0;
+		while (start < str.length() && Character.isWhitespace(str.charAt(start))) {
+			start++;
+		}
+		int end = str.indexOf('#', start);
+		if (end < 0) {
+			end = str.length();
+		}
+		else {
+			while (end > start && Character.isWhitespace(str.charAt(end-1))) {
+				end--;
+			}
+		}
+		text[i] = str.substring(0, start)+instr+str.substring(end);
+		changed = true;
+	}
+
+	/************** parsing lines ***************/
+
+	// sets the kind of line i, and the registers and amount that go with it
+	private void parse(int i) {
+		String str = text[i];
+		kind[i] = NONE;
+		op[i] = null;
+		reg[i] = NO_REG;
+		use1[i] = NO_REG;
+		use2[i] = NO_REG;
+		amount[i] = 0;
+		int len = str.length();
+		int start = 0;
+		while (start < len && Character.isWhitespace(str.charAt(start))) {
+			start++;
+		}
+		int end = str.indexOf('#', start);
+		if (end < 0) end = len;
+		while (end > start && Character.isWhitespace(str.charAt(end-1))) {
+			end--;
+		}
+		if (start == end) return;
+		kind[i] = BARRIER;
+		int opEnd = start;
+		while (opEnd < end && !Character.isWhitespace(str.charAt(opEnd))) {
+			opEnd++;
+		}
+		String opcode = opcode(str, start, opEnd);
+		if (opcode == null) return;
+		op[i] = opcode;
+		// the bounds of the (at most three) operands
+		int n = 0;
+		int from = opEnd;
+		while (true) {
+			int comma = str.indexOf(',', from);
+			if (comma < 0 || comma > end) comma = end;
+			int a = from;
+			int b = comma;
+			while (a < b && Character.isWhitespace(str.charAt(a))) a++;
+			while (b > a && Character.isWhitespace(str.charAt(b-1))) b--;
+			if (a == b) {
+				if (n == 0 && comma == end) break;
+				return;
+			}
+			if (n == 3) return;
+			operandStart[n] = a;
+			operandEnd[n] = b;
+			n++;
+			if (comma == end) break;
+			from = comma+1;
+		}
+		if (n == 0) return;
+		switch (opcode) {
+		case "addu":
+		case "subu":
+			if (register(str, 0) == SP) {
+				int amt = -1;
+				if (n == 3 && register(str, 1) == SP) amt = parseInt(str, operandStart[2], operandEnd[2]);
+				else if (n == 2) amt = parseInt(str, operandStart[1], operandEnd[1]);
+				if (amt < 0 || (amt & 3) != 0) return;
+				kind[i] = opcode == "subu" ? PUSH : POP;
+				amount[i] = amt;
+				return;
+			}
+			parsePlain(i, str, n, true);
+			return;
+		case "lw":
+		case "sw":
+			byte r = register(str, 0);
+			if (n != 2 || r < 0 || r == SP) return;
+			int a = operandStart[1];
+			int b = operandEnd[1];
+			int paren = str.indexOf('(', a);
+			if (paren < 0 || paren >= b || str.charAt(b-1) != ')') return;
+			operandStart[2] = paren+1;
+			operandEnd[2] = b-1;
+			byte base = register(str, 2);
+			if (base < 0) return;
+			if (base == SP) {
+				int off = paren == a ? 0 : parseInt(str, a, paren);
+				if (off < 0 || (off & 3) != 0) return;
+				reg[i] = r;
+				amount[i] = off;
+				if (opcode == "sw") {
+					kind[i] = STORE;
+					use1[i] = r;
+				}
+				else {
+					kind[i] = r == ZERO ? PROBE_LINE : LOAD;
+				}
+				return;
+			}
+			kind[i] = PLAIN;
+			if (opcode == "lw") {
+				reg[i] = r;
+				use1[i] = base;
+			}
+			else {
+				use1[i] = r;
+				use2[i] = base;
+			}
+			return;
+		case "li": case "la": case "move": case "mflo": case "mfhi":
+		case "xor": case "and": case "or": case "nor": case "sll": case "srl": case "sra":
+		case "seq": case "sne": case "slt": case "sgt": case "sle": case "sge":
+		case "sltu": case "mul": case "neg": case "not":
+			parsePlain(i, str, n, true);
+			return;
+		case "mult":
+			parsePlain(i, str, n, false);
+			return;
+		case "beq": case "bne": case "bgeu": case "bltu": case "blt": case "bgt":
+			// a check that branches to an error exit
+			for (String exit : errorExits) {
+				if (exit.length() == operandEnd[n-1]-operandStart[n-1]
+						&& str.startsWith(exit, operandStart[n-1])) {
+					parsePlain(i, str, n-1, false);
+					return;
+				}
+			}
+			return;
+		}
+	}
+
+	// a PLAIN line, if no operand is $sp and at most two registers are
+	// read; the first operand is the register set, if 'sets'
+	private void parsePlain(int i, String str, int n, boolean sets) {
+		byte set = NO_REG;
+		byte read1 = NO_REG;
+		byte read2 = NO_REG;
+		for (int k = 0; k < n; k++) {
+			byte r = register(str, k);
+			if (r == SP || r == BAD_REG) return;
+			if (k == 0 && sets) {
+				if (r == NO_REG) return;
+				set = r;
+			}
+			else if (r == NO_REG) {
+				continue;
+			}
+			else if (read1 == NO_REG) {
+				read1 = r;
+			}
+			else if (read2 == NO_REG) {
+				read2 = r;
+			}
+			else {
+				return;
+			}
+		}
+		kind[i] = PLAIN;
+		reg[i] = set;
+		use1[i] = read1;
+		use2[i] = read2;
+	}
+
+	// the number of the register that is operand k of the line being
+	// parsed, NO_REG if it is not a register, or BAD_REG if it is one
+	// that is not known by name
+	private byte register(String str, int k) {
+		int a = operandStart[k];
+		int b = operandEnd[k];
+		if (b-a < 2 || str.charAt(a) != '$') return NO_REG;
+		if (b-a == 3) {
+			char c = str.charAt(a+1);
+			int d = str.charAt(a+2)-'0';
+			if (d >= 0 && d <= 9) {
+				switch (c) {
+				case 't': return (byte)(d < 8 ? 8+d : 16+d);
+				case 's': if (d < 8) return (byte)(16+d); break;
+				case 'a': if (d < 4) return (byte)(4+d); break;
+				case 'v': if (d < 2) return (byte)(2+d); break;
+				case 'k': if (d < 2) return (byte)(26+d); break;
+				}
+				return BAD_REG;
+			}
+			if (c == 's' && d == 'p'-'0') return SP;
+			if (c == 'r' && d == 'a'-'0') return RA;
+		}
+		for (int r = 0; r < registers.length; r++) {
+			if (registers[r].length() == b-a && str.startsWith(registers[r], a)) return (byte)r;
+		}
+		return BAD_REG;
+	}
+
+	// the opcode str[a..b), if it is one of those that the rules know
+	// about, and otherwise null
+	private static String opcode(String str, int a, int b) {
+		int len = b-a;
+		char first = str.charAt(a);
+		for (String t : opcodes) {
+			if (t.length() == len && t.charAt(0) == first && str.regionMatches(a, t, 0, len)) {
+				return t;
+			}
+		}
+		return null;
+	}
+
+	// a non-negative decimal integer, or -1
+	private static int parseInt(String s, int a, int b) {
+		if (a == b || b-a > 9) return -1;
+		int n = 0;
+		for (int k = a; k < b; k++) {
+			char ch = s.charAt(k);
+			if (ch < '0' || ch > '9') return -1;
+			n = n*10+(ch-'0');
+		}
+		return n;
+	}
+
+	private void grow() {
+		int cap = 2*text.length;
+		text = Arrays.copyOf(text, cap);
+		className = Arrays.copyOf(className, cap);
+		pos = Arrays.copyOf(pos, cap);
+		indent = Arrays.copyOf(indent, cap);
+		isCode = Arrays.copyOf(isCode, cap);
+		kind = Arrays.copyOf(kind, cap);
+		op = Arrays.copyOf(op, cap);
+		reg = Arrays.copyOf(reg, cap);
+		use1 = Arrays.copyOf(use1, cap);
+		use2 = Arrays.copyOf(use2, cap);
+		amount = Arrays.copyOf(amount, cap);
+		record = Arrays.copyOf(record, cap);
+	}
+
+	// makes room for the state of slot s
+	private void growSlots(int s) {
+		int cap = slotBlock.length;
+		while (cap <= s) cap *= 2;
+		slotBlock = Arrays.copyOf(slotBlock, cap);
+		slotLast = Arrays.copyOf(slotLast, cap);
+		slotReg = Arrays.copyOf(slotReg, cap);
+		slotVersion = Arrays.copyOf(slotVersion, cap);
+		slotStore = Arrays.copyOf(slotStore, cap);
+		slotProbe = Arrays.copyOf(slotProbe, cap);
+		slotAccessed = Arrays.copyOf(slotAccessed, cap);
+		slotRecord = Arrays.copyOf(slotRecord, cap);
+	}
+
+	private void growRecords() {
+		int cap = 2*recLine.length;
+		recLine = Arrays.copyOf(recLine, cap);
+		recBase = Arrays.copyOf(recBase, cap);
+		recSize = Arrays.copyOf(recSize, cap);
+		recRead = Arrays.copyOf(recRead, cap);
+		recRemoved = Arrays.copyOf(recRemoved, cap+1);
+	}
+}
@@ -0,0 +1,188 @@
+package visitor;
+
+import java.util.Arrays;
+
+import syntaxtree.*;
+
+// Walks an AST with an explicit stack instead of recursion, so that the
+// depth of the tree is limited by the heap rather than by the thread's
+// stack.  Nodes are reached in the same order as ASTvisitor reaches
+// them; 'pre' is called for a node before its subtree is walked, and
+// 'post' after ('list' is called for each of a node's child lists
+// right after the node's 'pre').  A pass opts in by extending TreeWalker and overriding
+// the hooks:
+//
+//   new TreeWalker() {
+//       protected boolean pre(AstNode n) { ...; return true; }
+//       protected void post(AstNode n) { ... }
+//   }.walk(ast);
+//
+// Null children, and null list elements, are skipped.
+public class TreeWalker {
+
+	private static final int INITIAL_DEPTH = 64;
+
+	// the pending nodes; 'expanded' is set once a node's 'pre' has been
+	// called and its children pushed above it, so that popping it again
+	// calls 'post'
+	private AstNode[] nodes = new AstNode[INITIAL_DEPTH];
+	private boolean[] expanded = new boolean[INITIAL_DEPTH];
+	private int top;
+
+	// called before the node's children are walked; returning false skips
+	// them (and the node's 'post')
+	protected boolean pre(AstNode n) {
+		return true;
+	}
+
+	// called after the node's children have been walked
+	protected void post(AstNode n) {
+	}
+
+	// called for each of a node's lists of children, after the node's 'pre'
+	protected void list(AstList<? extends AstNode> lst) {
+	}
+
+	public void walk(AstNode root) {
+		int base = top;
+		push(root);
+		while (top > base) {
+			int i = --top;
+			AstNode n = nodes[i];
+			if (expanded[i]) {
+				nodes[i] = null;
+				post(n);
+			}
+			else if (pre(n)) {
+				expanded[top++] = true;
+				pushChildren(n);
+				if (top == i+1) {
+					// a leaf: no need to pop it again for its 'post'
+					top = i;
+					nodes[i] = null;
+					post(n);
+				}
+			}
+			else {
+				nodes[i] = null;
+			}
+		}
+	}
+
+	// pushes the node's children, last one first, so that they are popped
+	// in the order ASTvisitor visits them
+	private void pushChildren(AstNode n) {
+		switch (n.kind) {
+		case NodeKind.AND: case NodeKind.DIVIDE: case NodeKind.EQUALS:
+		case NodeKind.GREATER_THAN: case NodeKind.LESS_THAN: case NodeKind.MINUS:
+		case NodeKind.OR: case NodeKind.PLUS: case NodeKind.REMAINDER:
+		case NodeKind.TIMES:
+			push(((BinExp)n).right);
+			push(((BinExp)n).left);
+			break;
+		case NodeKind.ARRAY_LENGTH: case NodeKind.NOT:
+			push(((UnExp)n).exp);
+			break;
+		case NodeKind.ARRAY_LOOKUP:
+			push(((ArrayLookup)n).idxExp);
+			push(((ArrayLookup)n).arrExp);
+			break;
+		case NodeKind.ARRAY_TYPE:
+			push(((ArrayType)n).baseType);
+			break;
+		case NodeKind.ASSIGN:
+			push(((Assign)n).rhs);
+			push(((Assign)n).lhs);
+			break;
+		case NodeKind.BLOCK:
+			pushList(((Block)n).stmts);
+			break;
+		case NodeKind.CALL:
+			pushList(((Call)n).parms);
+			push(((Call)n).obj);
+			break;
+		case NodeKind.CALL_STATEMENT:
+			push(((CallStatement)n).callExp);
+			break;
+		case NodeKind.CASE:
+			push(((Case)n).exp);
+			break;
+		case NodeKind.CAST:
+			push(((Cast)n).exp);
+			push(((Cast)n).castType);
+			break;
+		case NodeKind.CLASS_DECL:
+			pushList(((ClassDecl)n).decls);
+			break;
+		case NodeKind.FORMAL_DECL: case NodeKind.INST_VAR_DECL:
+			push(((VarDecl)n).type);
+			break;
+		case NodeKind.IF:
+			push(((If)n).falseStmt);
+			push(((If)n).trueStmt);
+			push(((If)n).exp);
+			break;
+		case NodeKind.INSTANCE_OF:
+			push(((InstanceOf)n).checkType);
+			push(((InstanceOf)n).exp);
+			break;
+		case NodeKind.INST_VAR_ACCESS:
+			push(((InstVarAccess)n).exp);
+			break;
+		case NodeKind.LOCAL_DECL_STATEMENT:
+			push(((LocalDeclStatement)n).localVarDecl);
+			break;
+		case NodeKind.LOCAL_VAR_DECL:
+			push(((LocalVarDecl)n).initExp);
+			push(((LocalVarDecl)n).type);
+			break;
+		case NodeKind.METHOD_DECL_NON_VOID:
+			push(((MethodDeclNonVoid)n).rtnExp);
+			push(((MethodDeclNonVoid)n).rtnType);
+			pushList(((MethodDecl)n).stmts);
+			pushList(((MethodDecl)n).formals);
+			break;
+		case NodeKind.METHOD_DECL_VOID:
+			pushList(((MethodDecl)n).stmts);
+			pushList(((MethodDecl)n).formals);
+			break;
+		case NodeKind.NEW_ARRAY:
+			push(((NewArray)n).sizeExp);
+			push(((NewArray)n).objType);
+			break;
+		case NodeKind.NEW_OBJECT:
+			push(((NewObject)n).objType);
+			break;
+		case NodeKind.PROGRAM:
+			pushList(((Program)n).classDecls);
+			push(((Program)n).mainStatement);
+			break;
+		case NodeKind.SWITCH:
+			pushList(((Switch)n).stmts);
+			push(((Switch)n).exp);
+			break;
+		case NodeKind.WHILE:
+			push(((While)n).body);
+			push(((While)n).exp);
+			break;
+		}
+	}
+
+	private void pushList(AstList<? extends AstNode> lst) {
+		if (lst == null) return;
+		list(lst);
+		for (int i = lst.size()-1; i >= 0; i--) {
+			push(lst.elementAt(i));
+		}
+	}
+
+	private void push(AstNode n) {
+		if (n == null) return;
+		if (top == nodes.length) {
+			nodes = Arrays.copyOf(nodes, top*2);
+			expanded = Arrays.copyOf(expanded, top*2);
+		}
+		nodes[top] = n;
+		expanded[top++] = false;
+	}
+}
@@ -0,0 +1,19 @@
+package visitor;
+
+import syntaxtree.*;
+
+// trims the backing array of every list in an AST to its size, once
+// parsing is done and the lists have stopped growing:
+//   new TrimListsVisitor().trim(ast);
+// (walks with an explicit stack, so any depth of tree can be trimmed)
+public class TrimListsVisitor extends TreeWalker {
+	
+	public void trim(AstNode n) {
+		if (n != null) walk(n);
+	}
+	
+	@Override
+	protected void list(AstList<? extends AstNode> lst) {
+		lst.trimToSize();
+	}
+}
@@ -0,0 +1,52 @@
+package main;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+// Checks that -heap: applies to each file of a -batch compilation: the
+// semispace size that the runtime library is assembled with must be the
+// one given, as it is when the file is compiled on its own.  Exits with
+// status 1 on a failure.
+//
+// usage: java -cp <compiler classes and libraries> main.BatchHeapSizeTest
+public class BatchHeapSizeTest {
+
+	private static final String PROGRAM =
+		"class Main {\n"+
+		"    public void main() {\n"+
+		"        Lib lib = new Lib();\n"+
+		"        lib.printInt(42);\n"+
+		"    }\n"+
+		"}\n";
+
+	public static void main(String[] args) throws IOException {
+		Path dir = Files.createTempDirectory("heaptest");
+		Path src = dir.resolve("Heap.java");
+		Path asm = dir.resolve("Heap.asm");
+		Files.write(src, PROGRAM.getBytes("US-ASCII"));
+		Main5 batch = new Main5();
+		batch.parseCommandLine(new String[] {
+			"-batch", "-heap:64K", "-a", "mjLib.asm", "-o", dir.toString(), src.toString(),
+		});
+		boolean ok = batch.execBatch();
+		String size = ok ? semiSize(Files.readAllLines(asm)) : null;
+		if (!".word 0x10000".equals(size)) {
+			System.out.println("-batch -heap:64K: gcSemiSize is "+size+", not .word 0x10000");
+			ok = false;
+		}
+		Files.deleteIfExists(asm);
+		Files.delete(src);
+		Files.delete(dir);
+		System.out.println(ok ? "ok" : "FAILED");
+		System.exit(ok ? 0 : 1);
+	}
+
+	// the line after the gcSemiSize label, or null if there is none
+	private static String semiSize(List<String> lines) {
+		for (int i = 0; i+1 < lines.size(); i++) {
+			if (lines.get(i).startsWith("gcSemiSize:")) return lines.get(i+1).trim();
+		}
+		return null;
+	}
+}
@@ -0,0 +1,77 @@
+package visitor;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+// Checks CG3's stack code for a read of an int array's element.  The
+// element is an int, so it is pushed with a GC tag (unless there are
+// stack maps), just as an array's length is, and a method that returns
+// a[0] must pop its frame, from the same offsets, as one that returns
+// a.length does.  Checked for the tree and the flat code generators, with
+// and without GC tags; exits with status 1 on a failure.
+//
+// usage: java -cp <compiler classes and libraries> visitor.ArrayLookupStackHeightTest
+public class ArrayLookupStackHeightTest {
+
+	private static final String PROGRAM =
+		"class Main {\n"+
+		"    public void main() {\n"+
+		"        Lib lib = new Lib();\n"+
+		"        int[] a = new int[1];\n"+
+		"        lib.printInt(elem(a)+len(a));\n"+
+		"    }\n"+
+		"    public int elem(int[] a) { return a[0]; }\n"+
+		"    public int len(int[] a) { return a.length; }\n"+
+		"}\n";
+
+	private static final String[][] RUNS = {
+		{"-r", "-nopeep"},
+		{"-r", "-nopeep", "-flat"},
+		{"-r", "-nopeep", "-maps"},
+		{"-r", "-nopeep", "-flat", "-maps"},
+	};
+
+	public static void main(String[] args) throws IOException {
+		Path dir = Files.createTempDirectory("arrtest");
+		Path src = dir.resolve("Arr.java");
+		Path asm = dir.resolve("Arr.asm");
+		Files.write(src, PROGRAM.getBytes("US-ASCII"));
+		boolean ok = true;
+		for (String[] flags : RUNS) {
+			ArrayList<String> cmd = new ArrayList<String>(Arrays.asList(flags));
+			cmd.add(src.toString());
+			cmd.add("-o");
+			cmd.add(asm.toString());
+			main.Main5.main(cmd.toArray(new String[0]));
+			List<String> lines = Files.readAllLines(asm);
+			List<String> len = epilogue(lines, "len");
+			List<String> elem = epilogue(lines, "elem");
+			if (len == null || !len.equals(elem)) {
+				System.out.println(String.join(" ", flags)+": elem returns with "+elem
+						+", len with "+len);
+				ok = false;
+			}
+			Files.delete(asm);
+		}
+		Files.delete(src);
+		Files.delete(dir);
+		System.out.println(ok ? "ok" : "FAILED");
+		System.exit(ok ? 0 : 1);
+	}
+
+	// the lines of a method's code from the load of its return address
+	// through its return, or null if the method is not found
+	private static List<String> epilogue(List<String> lines, String method) {
+		int i = 0;
+		while (i < lines.size() && !lines.get(i).trim().matches("fcn_\\d+_"+method+":")) i++;
+		while (i < lines.size() && !lines.get(i).trim().startsWith("lw $ra,")) i++;
+		if (i == lines.size()) return null;
+		ArrayList<String> result = new ArrayList<String>();
+		for (; i < lines.size(); i++) {
+			result.add(lines.get(i).trim());
+			if (lines.get(i).trim().equals("jr $ra")) break;
+		}
+		return result;
+	}
+}
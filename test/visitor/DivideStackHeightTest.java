@@ -0,0 +1,76 @@
+package visitor;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+// Checks CG3's stack height after a divide and after a remainder.  The
+// runtime's divide and remainder routines replace their two operands by
+// the result, so a method that returns a/b or a%b must pop its frame,
+// from the same offsets, as one that returns a*b does.  Checked for the
+// tree and the flat code generators; exits with status 1 on a failure.
+//
+// usage: java -cp <compiler classes and libraries> visitor.DivideStackHeightTest
+public class DivideStackHeightTest {
+
+	private static final String PROGRAM =
+		"class Main {\n"+
+		"    public void main() {\n"+
+		"        Lib lib = new Lib();\n"+
+		"        lib.printInt(quo(7, 2)+rem(7, 2)+prod(7, 2));\n"+
+		"    }\n"+
+		"    public int quo(int a, int b) { return a / b; }\n"+
+		"    public int rem(int a, int b) { return a % b; }\n"+
+		"    public int prod(int a, int b) { return a * b; }\n"+
+		"}\n";
+
+	private static final String[][] RUNS = {
+		{"-r", "-nopeep"},
+		{"-r", "-nopeep", "-flat"},
+	};
+
+	public static void main(String[] args) throws IOException {
+		Path dir = Files.createTempDirectory("divtest");
+		Path src = dir.resolve("Div.java");
+		Path asm = dir.resolve("Div.asm");
+		Files.write(src, PROGRAM.getBytes("US-ASCII"));
+		boolean ok = true;
+		for (String[] flags : RUNS) {
+			ArrayList<String> cmd = new ArrayList<String>(Arrays.asList(flags));
+			cmd.add(src.toString());
+			cmd.add("-o");
+			cmd.add(asm.toString());
+			main.Main5.main(cmd.toArray(new String[0]));
+			List<String> lines = Files.readAllLines(asm);
+			List<String> prod = epilogue(lines, "prod");
+			for (String m : new String[] {"quo", "rem"}) {
+				List<String> e = epilogue(lines, m);
+				if (prod == null || !prod.equals(e)) {
+					System.out.println(String.join(" ", flags)+": "+m+" returns with "+e
+							+", prod with "+prod);
+					ok = false;
+				}
+			}
+			Files.delete(asm);
+		}
+		Files.delete(src);
+		Files.delete(dir);
+		System.out.println(ok ? "ok" : "FAILED");
+		System.exit(ok ? 0 : 1);
+	}
+
+	// the lines of a method's code from the load of its return address
+	// through its return, or null if the method is not found
+	private static List<String> epilogue(List<String> lines, String method) {
+		int i = 0;
+		while (i < lines.size() && !lines.get(i).trim().matches("fcn_\\d+_"+method+":")) i++;
+		while (i < lines.size() && !lines.get(i).trim().startsWith("lw $ra,")) i++;
+		if (i == lines.size()) return null;
+		ArrayList<String> result = new ArrayList<String>();
+		for (; i < lines.size(); i++) {
+			result.add(lines.get(i).trim());
+			if (lines.get(i).trim().equals("jr $ra")) break;
+		}
+		return result;
+	}
+}
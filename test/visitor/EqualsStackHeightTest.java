@@ -0,0 +1,77 @@
+package visitor;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+// Checks CG3's stack code for == on ints.  Its operands are tagged ints,
+// so it must pop them as < does, and a method that returns a==b must pop
+// its frame, from the same offsets, as one that returns a<b does.  (A
+// constant a==b is folded, so the operands here are parameters.)  Checked
+// for the tree and the flat code generators, with and without GC tags;
+// exits with status 1 on a failure.
+//
+// usage: java -cp <compiler classes and libraries> visitor.EqualsStackHeightTest
+public class EqualsStackHeightTest {
+
+	private static final String PROGRAM =
+		"class Main {\n"+
+		"    public void main() {\n"+
+		"        Lib lib = new Lib();\n"+
+		"        lib.printBool(eq(3, 3));\n"+
+		"        lib.printBool(lt(3, 3));\n"+
+		"    }\n"+
+		"    public boolean eq(int a, int b) { return a == b; }\n"+
+		"    public boolean lt(int a, int b) { return a < b; }\n"+
+		"}\n";
+
+	private static final String[][] RUNS = {
+		{"-r", "-nopeep"},
+		{"-r", "-nopeep", "-flat"},
+		{"-r", "-nopeep", "-maps"},
+		{"-r", "-nopeep", "-flat", "-maps"},
+	};
+
+	public static void main(String[] args) throws IOException {
+		Path dir = Files.createTempDirectory("eqtest");
+		Path src = dir.resolve("Eq.java");
+		Path asm = dir.resolve("Eq.asm");
+		Files.write(src, PROGRAM.getBytes("US-ASCII"));
+		boolean ok = true;
+		for (String[] flags : RUNS) {
+			ArrayList<String> cmd = new ArrayList<String>(Arrays.asList(flags));
+			cmd.add(src.toString());
+			cmd.add("-o");
+			cmd.add(asm.toString());
+			main.Main5.main(cmd.toArray(new String[0]));
+			List<String> lines = Files.readAllLines(asm);
+			List<String> lt = epilogue(lines, "lt");
+			List<String> eq = epilogue(lines, "eq");
+			if (lt == null || !lt.equals(eq)) {
+				System.out.println(String.join(" ", flags)+": eq returns with "+eq
+						+", lt with "+lt);
+				ok = false;
+			}
+			Files.delete(asm);
+		}
+		Files.delete(src);
+		Files.delete(dir);
+		System.out.println(ok ? "ok" : "FAILED");
+		System.exit(ok ? 0 : 1);
+	}
+
+	// the lines of a method's code from the load of its return address
+	// through its return, or null if the method is not found
+	private static List<String> epilogue(List<String> lines, String method) {
+		int i = 0;
+		while (i < lines.size() && !lines.get(i).trim().matches("fcn_\\d+_"+method+":")) i++;
+		while (i < lines.size() && !lines.get(i).trim().startsWith("lw $ra,")) i++;
+		if (i == lines.size()) return null;
+		ArrayList<String> result = new ArrayList<String>();
+		for (; i < lines.size(); i++) {
+			result.add(lines.get(i).trim());
+			if (lines.get(i).trim().equals("jr $ra")) break;
+		}
+		return result;
+	}
+}
@@ -0,0 +1,210 @@
+package visitor;
+
+import java.util.*;
+
+// Checks each of the Peephole's rules on a few lines of stack code: the
+// lines left must be exactly the ones expected, and the rule must be
+// counted as applied.  Also checks that code the rules must not touch --
+// across a label, a call or a branch -- comes out unchanged, and that a
+// branch to an error exit does not stop a rule.  Exits with status 1 on
+// a failure.
+//
+// usage: java -cp <compiler classes> visitor.PeepholeTest
+public class PeepholeTest {
+
+	private static boolean ok = true;
+
+	public static void main(String[] args) {
+		check("forward", Peephole.FORWARD, new String[] {
+			"sw $t0,4($sp)",
+			"lw $t1,4($sp)",
+			"jal f",
+		}, new String[] {
+			"sw $t0,4($sp)",
+			"move $t1,$t0",
+			"jal f",
+		});
+		check("forward to the same register", Peephole.FORWARD, new String[] {
+			"sw $t0,4($sp)",
+			"lw $t0,4($sp)",
+			"jal f",
+		}, new String[] {
+			"sw $t0,4($sp)",
+			"jal f",
+		});
+		check("forward before an overwrite", Peephole.FORWARD, new String[] {
+			"sw $t0,4($sp)",
+			"li $t0,7",
+			"lw $t1,4($sp)",
+			"jal f",
+		}, new String[] {
+			"sw $t0,4($sp)",
+			"move $t1,$t0",
+			"li $t0,7",
+			"jal f",
+		});
+		check("rename", Peephole.RENAME, new String[] {
+			"li $t0,5",
+			"move $t1,$t0",
+			"li $t0,6",
+			"jal f",
+		}, new String[] {
+			"li $t1,5",
+			"li $t0,6",
+			"jal f",
+		});
+		check("rename a load", Peephole.RENAME, new String[] {
+			"lw $t0,4($sp)",
+			"move $t1,$t0",
+			"li $t0,6",
+			"jal f",
+		}, new String[] {
+			"lw $t1,4($sp)",
+			"li $t0,6",
+			"jal f",
+		});
+		check("probe", Peephole.PROBE, new String[] {
+			"sw $t0,4($sp)",
+			"lw $zero,4($sp)",
+			"jal f",
+		}, new String[] {
+			"sw $t0,4($sp)",
+			"jal f",
+		});
+		check("push/pop", Peephole.PUSH_POP, new String[] {
+			"subu $sp,$sp,4",
+			"sw $t0,0($sp)",
+			"lw $t1,8($sp)",
+			"addu $sp,$sp,4",
+			"jal f",
+		}, new String[] {
+			"lw $t1,4($sp)",
+			"jal f",
+		});
+		check("push/pop inside a push", Peephole.PUSH_POP, new String[] {
+			"subu $sp,$sp,4",
+			"sw $t0,0($sp)",
+			"li $t0,9",
+			"subu $sp,$sp,8",
+			"sw $t1,4($sp)",
+			"lw $t2,12($sp)",
+			"addu $sp,$sp,8",
+			"lw $t0,0($sp)",
+			"addu $sp,$sp,4",
+			"jal f",
+		}, new String[] {
+			"subu $sp,$sp,4",
+			"sw $t0,0($sp)",
+			"li $t0,9",
+			"lw $t2,4($sp)",
+			"lw $t0,0($sp)",
+			"addu $sp,$sp,4",
+			"jal f",
+		});
+		check("dead store", Peephole.DEAD_STORE, new String[] {
+			"sw $t0,4($sp)",
+			"sw $t1,4($sp)",
+			"jal f",
+		}, new String[] {
+			"sw $t1,4($sp)",
+			"jal f",
+		});
+		check("store of the value held", Peephole.DEAD_STORE, new String[] {
+			"lw $t0,4($sp)",
+			"sw $t0,4($sp)",
+			"jal f",
+		}, new String[] {
+			"lw $t0,4($sp)",
+			"jal f",
+		});
+		check("merge", Peephole.MERGE, new String[] {
+			"subu $sp,$sp,4",
+			"li $t0,1",
+			"subu $sp,$sp,8",
+			"jal f",
+		}, new String[] {
+			"li $t0,1",
+			"subu $sp,$sp,12",
+			"jal f",
+		});
+		check("forward past an error exit", Peephole.FORWARD, new String[] {
+			"sw $t0,4($sp)",
+			"beq $t0,$zero,nullPtrException",
+			"lw $t1,4($sp)",
+			"jal f",
+		}, new String[] {
+			"sw $t0,4($sp)",
+			"beq $t0,$zero,nullPtrException",
+			"move $t1,$t0",
+			"jal f",
+		});
+		unchanged("label", new String[] {
+			"sw $t0,4($sp)",
+			"L1:",
+			"lw $t1,4($sp)",
+			"jal f",
+		});
+		unchanged("call", new String[] {
+			"sw $t0,4($sp)",
+			"jal f",
+			"lw $t1,4($sp)",
+			"jr $ra",
+		});
+		unchanged("branch", new String[] {
+			"sw $t0,4($sp)",
+			"beq $t0,$zero,L2",
+			"lw $t1,4($sp)",
+			"jal f",
+		});
+		unchanged("push across a call", new String[] {
+			"subu $sp,$sp,4",
+			"sw $t0,0($sp)",
+			"jal f",
+			"addu $sp,$sp,4",
+			"jr $ra",
+		});
+		unchanged("register read after a move", new String[] {
+			"li $t0,5",
+			"move $t1,$t0",
+			"addu $t2,$t0,1",
+			"jal f",
+		});
+		System.out.println(ok ? "ok" : "FAILED");
+		System.exit(ok ? 0 : 1);
+	}
+
+	// checks that the lines come out as expected, and that the rule was
+	// applied
+	private static void check(String name, int rule, String[] in, String[] expected) {
+		long before = Peephole.hits(rule);
+		List<String> out = optimize(in);
+		if (!out.equals(Arrays.asList(expected))) {
+			System.out.println(name+": expected "+Arrays.asList(expected)+", got "+out);
+			ok = false;
+		}
+		else if (Peephole.hits(rule) == before) {
+			System.out.println(name+": rule not counted");
+			ok = false;
+		}
+	}
+
+	private static void unchanged(String name, String[] in) {
+		List<String> out = optimize(in);
+		if (!out.equals(Arrays.asList(in))) {
+			System.out.println(name+": expected no change, got "+out);
+			ok = false;
+		}
+	}
+
+	// the lines that a Peephole leaves of the given ones
+	private static List<String> optimize(String[] in) {
+		Peephole p = new Peephole();
+		for (String line : in) p.add(line, "Test", 0, 0);
+		p.optimize();
+		ArrayList<String> out = new ArrayList<String>();
+		for (int i = 0; i < p.size(); i++) {
+			if (p.isLive(i)) out.add(p.text(i));
+		}
+		return out;
+	}
+}